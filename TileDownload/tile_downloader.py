@@ -20,6 +20,7 @@ Features:
 - Progress tracking and statistics
 - Web server ready directory structure for ZIP distribution
 - Dramatically reduced download size vs. worldwide tiles
+- Map pack builder (--pack) writing a .tar plus a manifest for delta updates in the app
 """
 
 import os
@@ -33,6 +34,12 @@ from pathlib import Path
 from urllib.parse import urlparse
 from typing import Generator, Tuple, Optional, Dict
 import logging
+import hashlib
+import gzip
+import io
+import json
+import tarfile
+from datetime import datetime, timezone
 
 # Providers
 # Note: Only Web Mercator (EPSG:3857) providers are included here.
@@ -397,6 +404,78 @@ class OSMTileDownloader:
 
         return stats
 
+    def build_pack(self, pack_path: str, min_zoom: int, max_zoom: int) -> Path:
+        """
+        Build an uncompressed map pack .tar from the downloaded tiles, plus a
+        <name>.manifest.json.gz beside it that lets the app update an installed
+        pack by fetching only the tiles that changed (via HTTP range requests).
+
+        Tiles are grouped into one chunk per z/x column. Each tile records its
+        content hash and the byte offset/length of its data inside the .tar; each
+        chunk has a hash over its tiles so unchanged columns are skipped whole.
+        """
+        pack = Path(pack_path)
+        if pack.suffix != '.tar':
+            raise ValueError("Pack must be an uncompressed .tar (offsets point into it)")
+        base = self.tiles_dir / self.provider_slug
+        chunks = []
+
+        with tarfile.open(pack, 'w', format=tarfile.GNU_FORMAT) as tar:
+            for z in range(min_zoom, max_zoom + 1):
+                zoom_dir = base / str(z)
+                if not zoom_dir.is_dir():
+                    continue
+                x_dirs = sorted((d for d in zoom_dir.iterdir() if d.is_dir() and d.name.isdigit()),
+                                key=lambda d: int(d.name))
+                for x_dir in x_dirs:
+                    tiles = sorted((f for f in x_dir.iterdir() if f.suffix == '.png' and f.stat().st_size > 0),
+                                   key=lambda f: int(f.stem) if f.stem.isdigit() else f.stem)
+                    if not tiles:
+                        continue
+                    chunk_dir = f"{TILES_DIR}/{self.provider_slug}/{z}/{x_dir.name}"
+                    names, hashes, offsets, lengths = [], [], [], []
+                    for tile in tiles:
+                        data = tile.read_bytes()
+                        info = tarfile.TarInfo(f"{chunk_dir}/{tile.name}")
+                        info.size = len(data)
+                        info.mtime = int(tile.stat().st_mtime)
+                        tar.addfile(info, io.BytesIO(data))
+                        # addfile leaves tar.offset just past the block-padded data
+                        padded = -(-len(data) // tarfile.BLOCKSIZE) * tarfile.BLOCKSIZE
+                        names.append(tile.name)
+                        hashes.append(hashlib.sha1(data).hexdigest()[:16])
+                        offsets.append(tar.offset - padded)
+                        lengths.append(len(data))
+                    chunk_hash = hashlib.sha1(
+                        "".join(f"{n}:{h}\n" for n, h in zip(names, hashes)).encode()).hexdigest()[:16]
+                    chunks.append({
+                        "dir": chunk_dir,
+                        "zoom": z,
+                        "hash": chunk_hash,
+                        "names": names,
+                        "hashes": hashes,
+                        "offsets": offsets,
+                        "lengths": lengths,
+                    })
+
+        manifest = {
+            "version": 1,
+            "provider": self.provider_slug,
+            "timestamp": datetime.now(timezone.utc).strftime("%Y-%m-%dT%H:%M:%SZ"),
+            "min_zoom": min_zoom,
+            "max_zoom": max_zoom,
+            "archive": pack.name,
+            "chunks": chunks,
+        }
+        manifest_path = pack.with_name(pack.stem + ".manifest.json.gz")
+        with gzip.open(manifest_path, 'wt', encoding='utf-8') as f:
+            json.dump(manifest, f, separators=(',', ':'))
+
+        tile_total = sum(len(c["names"]) for c in chunks)
+        self.logger.info(f"Packed {tile_total:,} tiles in {len(chunks):,} columns into {pack}")
+        self.logger.info(f"Manifest written to {manifest_path}")
+        return manifest_path
+
 def main():
     parser = argparse.ArgumentParser(
         description="Download OSM tiles for offline use",
@@ -417,6 +496,9 @@ Examples:
   
   # Show statistics only
   python tile_downloader.py --stats
+
+  # Build a map pack and delta manifest from downloaded zoom 0-13 OSM tiles
+  python tile_downloader.py --provider osm --min-zoom 0 --max-zoom 13 --pack mapnik-0-13.tar
         """
     )
     
@@ -444,6 +526,8 @@ Examples:
                        help=f'Directory to store tiles (default: {TILES_DIR})')
     parser.add_argument('--stats', action='store_true',
                        help='Show download statistics and exit')
+    parser.add_argument('--pack', default=None, metavar='OUTPUT.tar',
+                       help='Build a map pack .tar and delta manifest from downloaded tiles and exit')
     
     args = parser.parse_args()
     
@@ -497,6 +581,14 @@ Examples:
         print("Error: limit must be positive")
         sys.exit(1)
     
+    if args.pack:
+        try:
+            downloader.build_pack(args.pack, args.min_zoom, args.max_zoom)
+        except ValueError as e:
+            print(f"Error: {e}")
+            sys.exit(1)
+        return
+
     # Start download
     downloader.download_tiles(
         min_zoom=args.min_zoom,
@@ -0,0 +1,126 @@
+package uk.trigpointing.android;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.location.Location;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import uk.trigpointing.android.types.Condition;
+import uk.trigpointing.android.types.Trig;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times trig searches on the device's own SQLite, over TRIGS synthetic trigs the test inserts in
+ * place of the database's own. Each search runs RUNS times, with and without a location, and the
+ * median is reported through logcat and the instrumentation status. Searches run on every
+ * keystroke, so any median over SEARCH_BUDGET_MS is flagged in the report, but the budget isn't
+ * enforced here or anywhere else, as emulators on shared CI are no guide to a phone; the test only
+ * fails if a search finds nothing.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DbHelperSearchTimingTest {
+
+    private static final String TAG = "DbHelperSearchTiming";
+    private static final int TRIGS = 25_000;
+    private static final int RUNS = 5;
+    private static final double SEARCH_BUDGET_MS = 10;
+    private static final int SEARCH_RESULTS = 20;
+    private static final String[] NAME_WORDS = {"Kinder", "Low", "Scout", "Hill", "Moor", "Fell", "Pike", "Crag",
+            "Top", "Beacon", "Edge", "Moel", "Famau", "Ben", "Cairn", "Howe", "Law", "Knott", "Rigg", "Tor",
+            "Down", "Common", "Farm", "Wood", "Barrow", "Castle", "Mount", "Bank", "Head", "Brow", "Side", "Green",
+            "Heath", "Cross", "Lane", "House", "North", "South", "East", "West"};
+
+    private DbHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        dbHelper = new DbHelper(context);
+        dbHelper.open();
+        dbHelper.deleteAll();
+        dbHelper.clearUserLogs();
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.deleteAll();
+        dbHelper.close();
+    }
+
+    @Test
+    public void searchTimings() {
+        insertTrigs(new Random(20_250_101L));
+        String gridref;
+        try (Cursor cursor = dbHelper.fetchTrigInfo(1234)) {
+            assertTrue(cursor.moveToFirst());
+            gridref = cursor.getString(cursor.getColumnIndexOrThrow(DbHelper.TRIG_GRIDREF));
+        }
+        Location keswick = new Location("test");
+        keswick.setLatitude(54.6013);
+        keswick.setLongitude(-3.1347);
+
+        String[] searches = {"k", "kinder", "Kinder Low", "Knider Lwo", "Beacno", "TP01234", "1234",
+                gridref.substring(0, 6) + " " + gridref.substring(9, 12), gridref};
+        StringBuilder report = new StringBuilder();
+        int overBudget = 0;
+        for (Location loc : new Location[] {keswick, null}) {
+            for (String search : searches) {
+                String name = "searchTrigs \"" + search + "\"" + (loc == null ? " without location" : "");
+                long[] nanos = new long[RUNS];
+                int rows = 0;
+                for (int run = 0; run < RUNS; run++) {
+                    long start = System.nanoTime();
+                    rows = dbHelper.searchTrigs(search, loc, SEARCH_RESULTS).size();
+                    nanos[run] = System.nanoTime() - start;
+                }
+                Arrays.sort(nanos);
+                double ms = nanos[RUNS / 2] / 1e6;
+                boolean over = ms > SEARCH_BUDGET_MS;
+                overBudget += over ? 1 : 0;
+                String line = String.format(Locale.ROOT, "%-45s %8.2f ms %4d%s", name, ms, rows,
+                        over ? "  over " + SEARCH_BUDGET_MS + " ms" : "");
+                Log.i(TAG, line);
+                report.append(line).append('\n');
+                assertTrue(name, rows > 0);
+            }
+        }
+        report.append(String.format(Locale.ROOT, "%d of %d searches over %s ms%n",
+                overBudget, searches.length * 2, SEARCH_BUDGET_MS));
+
+        Bundle status = new Bundle();
+        status.putString("db-search-timings", report.toString());
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+    }
+
+    private void insertTrigs(Random random) {
+        dbHelper.mDb.beginTransaction();
+        try {
+            for (int id = 1; id <= TRIGS; id++) {
+                String name = NAME_WORDS[id % NAME_WORDS.length] + " "
+                        + NAME_WORDS[(id / NAME_WORDS.length) % NAME_WORDS.length];
+                dbHelper.createTrig(id, name, String.format(Locale.ROOT, "TP%05d", id),
+                        49.9 + random.nextDouble() * 8.8, -6.4 + random.nextDouble() * 8.2,
+                        Trig.Physical.PILLAR, Condition.GOOD, Condition.TRIGNOTLOGGED, Trig.Current.NONE,
+                        Trig.Historic.UNKNOWN, "Pillar", "Pillar", null);
+            }
+            dbHelper.mDb.setTransactionSuccessful();
+        } finally {
+            dbHelper.mDb.endTransaction();
+        }
+    }
+}
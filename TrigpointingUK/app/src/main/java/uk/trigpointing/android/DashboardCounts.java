@@ -0,0 +1,70 @@
+package uk.trigpointing.android;
+
+/**
+ * The counts shown on the main screen, as read together by {@link DbHelper#fetchDashboardCounts()}.
+ */
+public final class DashboardCounts {
+
+    private final int loggedPillars;
+    private final int loggedFbms;
+    private final int loggedIntersecteds;
+    private final int loggedPassives;
+    private final int unsynced;
+    private final int photos;
+    private final boolean trigsPopulated;
+
+    public DashboardCounts(int loggedPillars, int loggedFbms, int loggedIntersecteds, int loggedPassives,
+                           int unsynced, int photos, boolean trigsPopulated) {
+        this.loggedPillars = loggedPillars;
+        this.loggedFbms = loggedFbms;
+        this.loggedIntersecteds = loggedIntersecteds;
+        this.loggedPassives = loggedPassives;
+        this.unsynced = unsynced;
+        this.photos = photos;
+        this.trigsPopulated = trigsPopulated;
+    }
+
+    public int getLoggedPillars() {
+        return loggedPillars;
+    }
+
+    public int getLoggedFbms() {
+        return loggedFbms;
+    }
+
+    public int getLoggedIntersecteds() {
+        return loggedIntersecteds;
+    }
+
+    public int getLoggedPassives() {
+        return loggedPassives;
+    }
+
+    /** Logs not yet uploaded */
+    public int getUnsynced() {
+        return unsynced;
+    }
+
+    /** Photos not yet uploaded */
+    public int getPhotos() {
+        return photos;
+    }
+
+    /** Whether the trig table has been downloaded */
+    public boolean isTrigsPopulated() {
+        return trigsPopulated;
+    }
+
+    @Override
+    public String toString() {
+        return "DashboardCounts{" +
+                "pillars=" + loggedPillars +
+                ", fbms=" + loggedFbms +
+                ", intersecteds=" + loggedIntersecteds +
+                ", passives=" + loggedPassives +
+                ", unsynced=" + unsynced +
+                ", photos=" + photos +
+                ", populated=" + trigsPopulated +
+                '}';
+    }
+}
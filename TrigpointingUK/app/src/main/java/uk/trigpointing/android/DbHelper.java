@@ -6,6 +6,8 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
@@ -14,17 +16,31 @@ import androidx.preference.PreferenceManager;
 import android.util.Log;
 import android.widget.Toast;
 
-import java.util.Locale;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import uk.trigpointing.android.filter.Filter;
+import uk.trigpointing.android.index.TrigIndex;
+import uk.trigpointing.android.search.TrigSearch;
+import uk.trigpointing.android.search.TrigSearchResult;
 import uk.trigpointing.android.types.Condition;
+import uk.trigpointing.android.types.Geodesy;
 import uk.trigpointing.android.types.PhotoSubject;
 import uk.trigpointing.android.types.Trig;
 
 public class DbHelper {
     private static final String TAG                    = "DbHelper";
 
-    private static final int     DATABASE_VERSION     = 13;
+    private static final int     DATABASE_VERSION     = 14;
     private static final String DATABASE_NAME        = "trigpointinguk";
     public  static final String TRIG_TABLE            = "trig";
     public     static final String TRIG_ID                = "_id";
@@ -40,6 +56,9 @@ public class DbHelper {
     public     static final String TRIG_FB                = "fb";
     public     static final String TRIG_CATEGORY_NAME    = "category_name";
     public     static final String TRIG_TYPE_NAME        = "type_name";
+    public     static final String TRIG_EASTINGS        = "eastings";
+    public     static final String TRIG_NORTHINGS        = "northings";
+    public     static final String TRIG_GRIDREF        = "gridref";
     public  static final String LOG_TABLE            = "log";
     public     static final String LOG_ID                = "_id";
     public     static final String LOG_YEAR            = "year";
@@ -67,6 +86,7 @@ public class DbHelper {
     public  static final String PHOTO_TUKLOGID      = "tuklogid";
     public  static final String MARK_TABLE          = "mark";
     public  static final String MARK_ID                = "_id";    
+    public  static final String TRIG_SEARCH_TABLE   = "trig_search";
     public  static final String JOIN_UNSYNCED       = "unsynced";
     public  static final String JOIN_MARKED         = "marked";
 
@@ -87,9 +107,84 @@ public class DbHelper {
         + TRIG_HISTORIC  + " char(1) not null, " 
         + TRIG_FB         + " text, "
         + TRIG_CATEGORY_NAME + " text, "
-        + TRIG_TYPE_NAME + " text"
+        + TRIG_TYPE_NAME + " text, "
+        + TRIG_EASTINGS  + " integer, "
+        + TRIG_NORTHINGS + " integer, "
+        + TRIG_GRIDREF   + " text"
         + ");";
 
+    // Lets radius and bounding box queries range-scan latitude and check longitude from the index
+    private static final String TRIG_LOCATION_INDEX = "create index if not exists trig_location on "
+        + TRIG_TABLE + "(" + TRIG_LAT + ", " + TRIG_LON + ");";
+
+    // Lets the list without a location read trigs in name order and stop at its limit
+    private static final String TRIG_NAME_INDEX = "create index if not exists trig_name on "
+        + TRIG_TABLE + "(" + TRIG_NAME + ");";
+
+    // Only the user's few logged trigs, so the logged counts never read the whole table. Queries
+    // must repeat TRIG_LOGGED_WHERE exactly for SQLite to see they can use it.
+    private static final String TRIG_LOGGED_WHERE = TRIG_LOGGED + " != '" + Condition.TRIGNOTLOGGED.code() + "'";
+    private static final String TRIG_LOGGED_INDEX = "create index if not exists trig_logged on "
+        + TRIG_TABLE + "(" + TRIG_TYPE + ") where " + TRIG_LOGGED_WHERE + ";";
+
+    // Full-text index of the trigs for TrigSearch, kept in step with the trig table by triggers.
+    // Android's SQLite has FTS4 but not FTS5.
+    private static final String TRIG_SEARCH_CREATE = "create virtual table " + TRIG_SEARCH_TABLE
+        + " using fts4(" + TRIG_NAME + ", " + TRIG_WAYPOINT + ", " + TRIG_GRIDREF + ", "
+        + "tokenize=unicode61 \"remove_diacritics=1\", prefix=\"2,3\");";
+    private static final String TRIG_SEARCH_INSERT = "insert into " + TRIG_SEARCH_TABLE
+        + "(docid, " + TRIG_NAME + ", " + TRIG_WAYPOINT + ", " + TRIG_GRIDREF + ") ";
+    private static final String TRIG_SEARCH_REBUILD = TRIG_SEARCH_INSERT
+        + "select " + trigSearchValues(TRIG_TABLE) + " from " + TRIG_TABLE + ";";
+    private static final String TRIG_SEARCH_INSERT_TRIGGER = "create trigger if not exists trig_search_insert "
+        + "after insert on " + TRIG_TABLE + " begin "
+        + TRIG_SEARCH_INSERT + "values (" + trigSearchValues("new") + "); end;";
+    private static final String TRIG_SEARCH_DELETE_TRIGGER = "create trigger if not exists trig_search_delete "
+        + "after delete on " + TRIG_TABLE + " begin "
+        + "delete from " + TRIG_SEARCH_TABLE + " where docid = old." + TRIG_ID + "; end;";
+    private static final String TRIG_SEARCH_UPDATE_TRIGGER = "create trigger if not exists trig_search_update "
+        + "after update of " + TRIG_ID + ", " + TRIG_NAME + ", " + TRIG_WAYPOINT + ", " + TRIG_GRIDREF
+        + " on " + TRIG_TABLE + " begin "
+        + "delete from " + TRIG_SEARCH_TABLE + " where docid = old." + TRIG_ID + "; "
+        + TRIG_SEARCH_INSERT + "values (" + trigSearchValues("new") + "); end;";
+    // Trigs read into Java to be ranked; the nearest that match, as there may be thousands
+    static final int SEARCH_CANDIDATES = 200;
+
+    static final String COUNT_LOGGED_PILLARS_QUERY = "SELECT COUNT(*) FROM " + TRIG_TABLE
+        + " WHERE " + TRIG_TYPE + " = '" + Trig.Physical.PILLAR.code() + "' AND " + TRIG_LOGGED_WHERE;
+    static final String COUNT_LOGGED_FBMS_QUERY = "SELECT COUNT(*) FROM " + TRIG_TABLE
+        + " WHERE " + TRIG_TYPE + " = '" + Trig.Physical.FBM.code() + "' AND " + TRIG_LOGGED_WHERE;
+    static final String COUNT_LOGGED_INTERSECTEDS_QUERY = "SELECT COUNT(*) FROM " + TRIG_TABLE
+        + " WHERE " + TRIG_TYPE + " = '" + Trig.Physical.INTERSECTED.code() + "' AND " + TRIG_LOGGED_WHERE;
+    static final String COUNT_LOGGED_PASSIVES_QUERY = "SELECT COUNT(*) FROM " + TRIG_TABLE
+        + " WHERE " + TRIG_TYPE + " NOT IN ('" + Trig.Physical.PILLAR.code() + "','"
+        + Trig.Physical.INTERSECTED.code() + "','" + Trig.Physical.FBM.code() + "') AND " + TRIG_LOGGED_WHERE;
+    static final String COUNT_UNSYNCED_QUERY = "SELECT COUNT(*) FROM " + LOG_TABLE;
+    static final String COUNT_PHOTOS_QUERY = "SELECT COUNT(*) FROM " + PHOTO_TABLE;
+    // Everything the main screen shows, in one round trip
+    static final String DASHBOARD_QUERY = "SELECT "
+        + "(" + COUNT_LOGGED_PILLARS_QUERY + "), "
+        + "(" + COUNT_LOGGED_FBMS_QUERY + "), "
+        + "(" + COUNT_LOGGED_INTERSECTEDS_QUERY + "), "
+        + "(" + COUNT_LOGGED_PASSIVES_QUERY + "), "
+        + "(" + COUNT_UNSYNCED_QUERY + "), "
+        + "(" + COUNT_PHOTOS_QUERY + "), "
+        + "EXISTS (SELECT 1 FROM " + TRIG_TABLE + ")";
+
+    // The nearest trigs are looked for in a box this many degrees of latitude either side of the
+    // location, growing by NEAREST_BOX_GROWTH until it holds them, before falling back to
+    // sorting the whole table
+    static final double         NEAREST_FIRST_BOX_DEGREES = 0.1;
+    private static final int    NEAREST_BOX_GROWTH        = 4;
+    private static final int    NEAREST_BOX_ATTEMPTS      = 4;
+
+    // The columns of fetchTrigList's cursor
+    private static final String[] TRIG_LIST_COLUMNS = {TRIG_ID, TRIG_NAME, TRIG_LAT, TRIG_LON, TRIG_TYPE,
+            TRIG_CONDITION, TRIG_LOGGED, JOIN_UNSYNCED, JOIN_MARKED};
+    // Everything the trig index holds of each trig
+    private static final String TRIG_INDEX_QUERY = "SELECT " + TRIG_ID + ", " + TRIG_NAME + ", " + TRIG_LAT
+            + ", " + TRIG_LON + ", " + TRIG_TYPE + ", " + TRIG_CONDITION + ", " + TRIG_LOGGED + " FROM " + TRIG_TABLE;
+
     private static final String LOG_CREATE = "create table " + LOG_TABLE + "("
         + LOG_ID         + " integer primary key, "
         + LOG_YEAR         + " integer not null, "
@@ -131,6 +226,27 @@ public class DbHelper {
     private static final Object DB_OPEN_LOCK = new Object();
     // Track the number of active open() callers sharing the same underlying DB
     private static int sOpenCount = 0;
+    // The last dashboard counts read, for showing straight away while they are refreshed
+    private static volatile DashboardCounts sDashboardCounts;
+    // Words in the trig names, read when first searched; dropped whenever trigs change
+    private static volatile TrigSearch sTrigSearch;
+    // The trig table in memory, and the versions of the trigs and of the logs and marks over
+    // them it was read at. Bumped by every change to them, or once a write session commits, so
+    // the index is read again.
+    private static volatile LoadedTrigIndex sTrigIndex;
+    private static final AtomicInteger sTrigsVersion = new AtomicInteger();
+    private static final AtomicInteger sOverlaysVersion = new AtomicInteger();
+    private static final Object TRIG_INDEX_LOCK = new Object();
+    // Write sessions run one at a time, in the order they were asked for, on this thread
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "DbHelper writer");
+        sWriterThread = thread;
+        return thread;
+    });
+    private static volatile Thread sWriterThread;
+    // Read sessions hold this shared, so write sessions can't commit under them. Fair, so a
+    // stream of readers can't hold a commit off.
+    private static final ReentrantReadWriteLock COMMIT_LOCK = new ReentrantReadWriteLock(true);
         
     private final Context mCtx;
 
@@ -140,11 +256,15 @@ public class DbHelper {
         DatabaseHelper(Context context) {
             super(context, DATABASE_NAME, null, DATABASE_VERSION);
             this.mCtx = context;
+            // Readers get their own connections from a pool and see the last commit, rather than
+            // queueing for the one connection behind an import or sync
+            setWriteAheadLoggingEnabled(true);
         }
         @Override
         public void onCreate(SQLiteDatabase db) {
             Log.i(TAG, "Creating database");
             db.execSQL(TRIG_CREATE);
+            createTrigIndexes(db);
             db.execSQL(LOG_CREATE);
             db.execSQL(PHOTO_CREATE);
             db.execSQL(MARK_CREATE);
@@ -158,11 +278,36 @@ public class DbHelper {
             Log.w(TAG, "Dropping trig table to force fresh data download");
             
             db.execSQL("DROP TABLE IF EXISTS " + TRIG_TABLE);
+            db.execSQL("DROP TABLE IF EXISTS " + TRIG_SEARCH_TABLE);
             db.execSQL(TRIG_CREATE);
+            createTrigIndexes(db);
             
             // Note: LOG_TABLE, PHOTO_TABLE, MARK_TABLE are preserved
             // The app will detect empty trig table and trigger download + sync automatically
         }
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            // Databases created before the indexes existed get them without a schema bump,
+            // which would drop the trig table
+            if (!db.isReadOnly()) {
+                createTrigIndexes(db);
+            }
+        }
+        private static void createTrigIndexes(SQLiteDatabase db) {
+            // The same columns as trig_location, once created by each import
+            db.execSQL("drop index if exists latlon");
+            db.execSQL(TRIG_LOCATION_INDEX);
+            db.execSQL(TRIG_NAME_INDEX);
+            db.execSQL(TRIG_LOGGED_INDEX);
+            if (DatabaseUtils.queryNumEntries(db, "sqlite_master", "name = ?", new String[] {TRIG_SEARCH_TABLE}) == 0) {
+                db.execSQL(TRIG_SEARCH_CREATE);
+                // Trigs downloaded before there was a search index
+                db.execSQL(TRIG_SEARCH_REBUILD);
+            }
+            db.execSQL(TRIG_SEARCH_INSERT_TRIGGER);
+            db.execSQL(TRIG_SEARCH_DELETE_TRIGGER);
+            db.execSQL(TRIG_SEARCH_UPDATE_TRIGGER);
+        }
     }
     
     /**
@@ -234,6 +379,116 @@ public class DbHelper {
         Log.i(TAG, "close: Reference released");
     }
 
+    /**
+     * Work done against the database in a {@link #read} or {@link #write} session.
+     */
+    public interface Session<T> {
+        /**
+         * @param db open for the session; don't keep it, or close it
+         */
+        T run(DbHelper db) throws Exception;
+    }
+
+    /**
+     * Runs work on this thread that only reads, and sees one consistent state of the database:
+     * no write session commits until it has finished. It doesn't wait for writes in progress,
+     * only for a commit already under way. Writes made directly, outside a write session, aren't
+     * held off. The work can't start a write session, see {@link #write}.
+     *
+     * @throws SQLException if the work throws
+     */
+    public <T> T read(Session<T> work) throws SQLException {
+        DbHelper db = new DbHelper(mCtx).openReadable();
+        COMMIT_LOCK.readLock().lock();
+        try {
+            return work.run(db);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException("Read session failed", e);
+        } finally {
+            COMMIT_LOCK.readLock().unlock();
+            db.close();
+        }
+    }
+
+    /**
+     * Queues work to run in one transaction on the writer thread, after every write session
+     * queued before it. The transaction commits if the work returns and rolls back if it throws.
+     * Readers carry on meanwhile, seeing the database as it was before.
+     *
+     * Called from a write session, runs the work straight away inside that session's transaction.
+     *
+     * @return completes with what the work returned, or exceptionally with what it threw
+     * @throws IllegalStateException if called from a read session, which would hold off the
+     *         commit for as long as it lasted, and forever if it waited for the write
+     */
+    public <T> CompletableFuture<T> write(Session<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (Thread.currentThread() == sWriterThread) {
+            DbHelper db = new DbHelper(mCtx).open();
+            try {
+                result.complete(work.run(db));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                db.close();
+            }
+            return result;
+        }
+        if (COMMIT_LOCK.getReadHoldCount() > 0) {
+            throw new IllegalStateException("Write session started from a read session");
+        }
+        Context context = mCtx;
+        WRITER.execute(() -> {
+            DbHelper db = new DbHelper(context);
+            try {
+                db.open();
+                db.mDb.beginTransactionNonExclusive();
+                T value = work.run(db);
+                db.mDb.setTransactionSuccessful();
+                COMMIT_LOCK.writeLock().lock();
+                try {
+                    db.mDb.endTransaction();
+                } finally {
+                    COMMIT_LOCK.writeLock().unlock();
+                }
+                // Searches and the trig index may have been read while the session was open
+                sTrigSearch = null;
+                sTrigsVersion.incrementAndGet();
+                sOverlaysVersion.incrementAndGet();
+                result.complete(value);
+            } catch (Throwable e) {
+                if (db.mDb != null && db.mDb.inTransaction()) {
+                    db.mDb.endTransaction();
+                }
+                Log.w(TAG, "write: Session rolled back", e);
+                result.completeExceptionally(e);
+            } finally {
+                if (db.mDb != null) {
+                    db.close();
+                }
+            }
+        });
+        return result;
+    }
+
+
+    // Marks the trigs changed, for the index to be read again. Not in a write session, which
+    // does so once it commits: read before that, the index would only be read again meanwhile
+    // and each time find the database as it was before the session.
+    private static void trigsChanged() {
+        if (Thread.currentThread() != sWriterThread) {
+            sTrigsVersion.incrementAndGet();
+        }
+    }
+
+    // As trigsChanged, for the logs and marks
+    private static void overlaysChanged() {
+        if (Thread.currentThread() != sWriterThread) {
+            sOverlaysVersion.incrementAndGet();
+        }
+    }
 
     /**
      * Create a new trig using the data provided. If the trig is
@@ -247,6 +502,23 @@ public class DbHelper {
                           Trig.Physical type, Condition condition, Condition logged, 
                           Trig.Current current, Trig.Historic historic, 
                           String categoryName, String typeName, String fbNumber) {
+        double[] en = new double[2];
+        Geodesy.wgs84ToOsgb(lat, lon, en);
+        return createTrig(id, name, waypoint, lat, lon, type, condition, logged, current, historic,
+                categoryName, typeName, fbNumber, (long) en[0], (long) en[1], Geodesy.gridRef10(en[0], en[1]));
+    }
+
+    /**
+     * Create a new trig whose OSGB position has already been worked out, e.g. by
+     * {@link uk.trigpointing.android.types.OsgbBatch} during an import.
+     *
+     * @return rowId or -1 if failed
+     */
+    public long createTrig(long id, String name, String waypoint, Double lat, Double lon, 
+                          Trig.Physical type, Condition condition, Condition logged, 
+                          Trig.Current current, Trig.Historic historic, 
+                          String categoryName, String typeName, String fbNumber,
+                          long eastings, long northings, String gridref) {
         ContentValues initialValues = new ContentValues();
         initialValues.put(TRIG_ID            , id);
         initialValues.put(TRIG_NAME            , name);
@@ -261,7 +533,14 @@ public class DbHelper {
         initialValues.put(TRIG_FB            , fbNumber != null ? fbNumber : "");
         initialValues.put(TRIG_CATEGORY_NAME, categoryName);
         initialValues.put(TRIG_TYPE_NAME    , typeName);
-        return mDb.insert(TRIG_TABLE, null, initialValues);
+        initialValues.put(TRIG_EASTINGS        , eastings);
+        initialValues.put(TRIG_NORTHINGS    , northings);
+        initialValues.put(TRIG_GRIDREF        , gridref);
+        sTrigSearch = null;
+        long rowId = mDb.insert(TRIG_TABLE, null, initialValues);
+        // After the change, so the index can't be read before it and taken as up to date
+        trigsChanged();
+        return rowId;
     }
 
     /**
@@ -284,13 +563,17 @@ public class DbHelper {
     public boolean updateTrigLog(long id, Condition logged) {
         ContentValues args = new ContentValues();
         args.put(TRIG_LOGGED, logged.code());
-        return mDb.update(TRIG_TABLE, args, TRIG_ID + "=" + id, null) > 0;
+        boolean updated = mDb.update(TRIG_TABLE, args, TRIG_ID + "=" + id, null) > 0;
+        trigsChanged();
+        return updated;
     }
 
     public boolean deleteAllTrigLogs() {
         ContentValues args = new ContentValues();
         args.put(TRIG_LOGGED, Condition.TRIGNOTLOGGED.code());
-        return mDb.update(TRIG_TABLE, args, null, null) > 0;
+        boolean updated = mDb.update(TRIG_TABLE, args, null, null) > 0;
+        trigsChanged();
+        return updated;
     }
     
 
@@ -300,7 +583,12 @@ public class DbHelper {
      * @return true if deleted, false otherwise
      */
     public boolean deleteAll() {
-        return mDb.delete(TRIG_TABLE, null, null) > 0;
+        sTrigSearch = null;
+        // At once, rather than a trig at a time by the delete trigger
+        mDb.delete(TRIG_SEARCH_TABLE, null, null);
+        boolean deleted = mDb.delete(TRIG_TABLE, null, null) > 0;
+        trigsChanged();
+        return deleted;
     }
 
     public void clearUserLogs() {
@@ -320,43 +608,115 @@ public class DbHelper {
         } catch (SQLException e) {
             Log.e(TAG, "clearUserLogs: Error clearing user data", e);
         }
+        trigsChanged();
+        overlaysChanged();
     }
     
     /**
-     * Return a Cursor suitable for the triglist screen
+     * A query's SQL and the values bound to its parameters. Every value is bound, so the SQL
+     * only changes with the filter and SQLite can reuse the statement it prepared last time.
+     */
+    static final class BoundQuery {
+        final String sql;
+        final String[] args;
+
+        BoundQuery(String sql, List<String> args) {
+            this.sql = sql;
+            this.args = args.toArray(new String[0]);
+        }
+    }
+
+    private Cursor rawQuery(BoundQuery query) {
+        return mDb.rawQuery(query.sql, query.args);
+    }
+
+    /**
+     * Return a Cursor suitable for the triglist screen, nearest first if there is a location or
+     * else by name. The nearest are found in the {@link #trigIndex()}, and by name by SQLite.
      * 
      * @return Cursor 
      */
     public Cursor fetchTrigList(Location loc) {
-        String strOrder;    
-   
+        Filter filter = Filter.fromPreferences(mPrefs);
+        if (null == loc) {
+            return rawQuery(trigListQuery(null, 0, filter));
+        }
+        TrigIndex index = trigIndex();
+        int[] rows = index.nearest(loc.getLatitude(), loc.getLongitude(),
+                Integer.parseInt(mPrefs.getString("listentries", "100")), filter);
+        MatrixCursor cursor = new MatrixCursor(TRIG_LIST_COLUMNS, rows.length);
+        for (int row : rows) {
+            cursor.newRow()
+                    .add(index.getId(row))
+                    .add(index.getName(row))
+                    .add(index.getLat(row))
+                    .add(index.getLon(row))
+                    .add(index.getType(row))
+                    .add(index.getCondition(row))
+                    .add(index.getLogged(row))
+                    .add(index.getUnsyncedCondition(row))
+                    .add(index.isMarked(row) ? index.getId(row) : null);
+        }
+        return cursor;
+    }
+
+    /**
+     * {@link #fetchTrigList} with a location answered by SQLite rather than the trig index, to
+     * check and time one against the other
+     */
+    Cursor fetchTrigListFromDatabase(Location loc) {
+        Filter filter = Filter.fromPreferences(mPrefs);
+        // Sorting the whole table by distance reads every trig, so first try boxes around the
+        // location, which the location index can find. A box holds the nearest trigs once the
+        // furthest of a full page of them is no further away than its edges.
+        int limit = Integer.parseInt(mPrefs.getString("listentries", "100"));
+        double cos2 = Math.pow(Math.cos(Math.toRadians(loc.getLatitude())), 2);
+        double boxDegrees = NEAREST_FIRST_BOX_DEGREES;
+        for (int attempt = 0; attempt < NEAREST_BOX_ATTEMPTS; attempt++, boxDegrees *= NEAREST_BOX_GROWTH) {
+            Cursor cursor = rawQuery(trigListQuery(loc, boxDegrees, filter));
+            if (cursor.getCount() >= limit && cursor.moveToLast()) {
+                double dLat = loc.getLatitude() - cursor.getDouble(cursor.getColumnIndexOrThrow(TRIG_LAT));
+                double dLon = loc.getLongitude() - cursor.getDouble(cursor.getColumnIndexOrThrow(TRIG_LON));
+                if (dLat * dLat + cos2 * dLon * dLon <= boxDegrees * boxDegrees) {
+                    cursor.moveToPosition(-1);
+                    return cursor;
+                }
+            }
+            cursor.close();
+        }
+        return rawQuery(trigListQuery(loc, 0, filter));
+    }
+
+    /**
+     * The query behind {@link #fetchTrigList}, limited to trigs within boxDegrees of latitude and
+     * the same distance of longitude of the location if boxDegrees is positive
+     */
+    BoundQuery trigListQuery(Location loc, double boxDegrees, Filter filter) {
+        List<String> args = new ArrayList<>();
+        String strWhere;
+        if (null != loc && boxDegrees > 0) {
+            double lonDegrees = boxDegrees / Math.cos(Math.toRadians(loc.getLatitude()));
+            strWhere = boxWhere(new BoundingBox(
+                    loc.getLatitude() + boxDegrees, loc.getLongitude() + lonDegrees,
+                    loc.getLatitude() - boxDegrees, loc.getLongitude() - lonDegrees), args)
+                    + filter.where("AND");
+        } else {
+            strWhere = filter.where("WHERE");
+        }
+        filter.addArgs(args);
+
+        String strOrder;
         if (null != loc) {
-            strOrder = String.format("(%s-%s)*(%s-%s) + %s * (%s-%s)*(%s-%s) LIMIT %s", 
-                    loc.getLatitude(), 
-                    TRIG_LAT, 
-                    loc.getLatitude(), 
-                    TRIG_LAT, 
-                    Math.pow(Math.cos(Math.toRadians(loc.getLatitude())),2), 
-                    loc.getLongitude(), 
-                    TRIG_LON, 
-                    loc.getLongitude(), 
-                    TRIG_LON, 
-                    mPrefs.getString("listentries", "100"));
+            strOrder = "(?-" + TRIG_LAT + ")*(?-" + TRIG_LAT + ") + ? * (?-" + TRIG_LON + ")*(?-" + TRIG_LON + ")";
+            String lat = String.valueOf(loc.getLatitude());
+            String lon = String.valueOf(loc.getLongitude());
+            Collections.addAll(args, lat, lat,
+                    String.valueOf(Math.pow(Math.cos(Math.toRadians(loc.getLatitude())), 2)), lon, lon);
         } else {
-            strOrder = TRIG_NAME + " LIMIT " +  mPrefs.getString("listentries", "100");
+            strOrder = TRIG_NAME;
         }
-        Log.i(TAG, strOrder);
-        
-        String strWhere = new Filter(mCtx).filterWhere("WHERE");
-        Log.i(TAG, "fetchTrigList: Filter where clause: " + strWhere);
-        
-        // Debug: Log the current filter settings
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mCtx);
-        int filterType = prefs.getInt(Filter.FILTERTYPE, 0);
-        int filterRadio = prefs.getInt(Filter.FILTERRADIO, 0);
-        String filterRadioText = prefs.getString(Filter.FILTERRADIOTEXT, "");
-        Log.i(TAG, "fetchTrigList: Filter settings - Type: " + filterType + ", Radio: " + filterRadio + ", RadioText: '" + filterRadioText + "'");
-        
+        args.add(mPrefs.getString("listentries", "100"));
+
         final String qry = "SELECT "+
                 TRIG_TABLE +"."+ TRIG_ID +", "+
                 TRIG_TABLE +"."+ TRIG_NAME +", "+
@@ -373,42 +733,116 @@ public class DbHelper {
                 "LEFT OUTER JOIN " + MARK_TABLE + " "+
                 "ON " + TRIG_TABLE + "." + TRIG_ID + "=" + MARK_TABLE + "." + MARK_ID + " " +
                 strWhere + " " +
-                "ORDER BY " + strOrder;
-        Log.i(TAG, qry);
-        return mDb.rawQuery(qry, null);
+                "ORDER BY " + strOrder + " LIMIT ?";
+        return new BoundQuery(qry, args);
+    }
+
+    /**
+     * The trigs in memory as they are in the database now, for the map, nearest list and AR to
+     * query instead of SQLite. Read the first time it's asked for after the trigs change; when
+     * only the logs or marks have changed, only they are read again. Each index is immutable and
+     * replaced whole, so callers can keep using one for a query or two while a new one is read.
+     */
+    public TrigIndex trigIndex() {
+        LoadedTrigIndex loaded = sTrigIndex;
+        if (loaded != null && loaded.isCurrent()) {
+            return loaded.index;
+        }
+        synchronized (TRIG_INDEX_LOCK) {
+            loaded = sTrigIndex;
+            if (loaded != null && loaded.isCurrent()) {
+                return loaded.index;
+            }
+            // Versions first, so a change while reading is read again next time
+            int trigsVersion = sTrigsVersion.get();
+            int overlaysVersion = sOverlaysVersion.get();
+            TrigIndex trigs = loaded != null && loaded.trigsVersion == trigsVersion ? loaded.index : null;
+            long start = System.nanoTime();
+            TrigIndex index = read(db -> db.readTrigOverlays(trigs != null ? trigs : db.readTrigIndex()));
+            Log.i(TAG, "trigIndex: Read " + (trigs != null ? "logs and marks over " : "") + index + " in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            sTrigIndex = new LoadedTrigIndex(index, trigsVersion, overlaysVersion);
+            return index;
+        }
+    }
+
+    private TrigIndex readTrigIndex() {
+        TrigIndex.Builder builder = new TrigIndex.Builder((int) DatabaseUtils.queryNumEntries(mDb, TRIG_TABLE));
+        try (Cursor c = mDb.rawQuery(TRIG_INDEX_QUERY, null)) {
+            while (c.moveToNext()) {
+                builder.add(c.getLong(0), c.getString(1), c.getDouble(2), c.getDouble(3),
+                        c.getString(4), c.getString(5), c.getString(6));
+            }
+        }
+        return builder.build();
+    }
+
+    private TrigIndex readTrigOverlays(TrigIndex trigs) {
+        Map<Long, String> logs = new HashMap<>();
+        try (Cursor c = mDb.rawQuery("SELECT " + LOG_ID + ", " + LOG_CONDITION + " FROM " + LOG_TABLE, null)) {
+            while (c.moveToNext()) {
+                logs.put(c.getLong(0), c.getString(1));
+            }
+        }
+        List<Long> marks = new ArrayList<>();
+        try (Cursor c = mDb.rawQuery("SELECT " + MARK_ID + " FROM " + MARK_TABLE, null)) {
+            while (c.moveToNext()) {
+                marks.add(c.getLong(0));
+            }
+        }
+        return trigs.withOverlays(logs, marks);
+    }
+
+    /** A trig index, and the versions of the data it was read at */
+    private static final class LoadedTrigIndex {
+        final TrigIndex index;
+        final int trigsVersion;
+        final int overlaysVersion;
+
+        LoadedTrigIndex(TrigIndex index, int trigsVersion, int overlaysVersion) {
+            this.index = index;
+            this.trigsVersion = trigsVersion;
+            this.overlaysVersion = overlaysVersion;
+        }
 
+        boolean isCurrent() {
+            return trigsVersion == sTrigsVersion.get() && overlaysVersion == sOverlaysVersion.get();
+        }
     }
     
     
     
     /**
-     * Return a Cursor suitable for the map screen
+     * Return a Cursor suitable for the map screen, with the user's filters
      * 
      * @return Cursor 
      */
     public Cursor fetchTrigMapList (BoundingBox box) {
-        // Calculate the center of the bounding box for distance-based sorting
-        double centerLat = (box.getLatNorth() + box.getLatSouth()) / 2.0;
-        double centerLon = (box.getLonEast() + box.getLonWest()) / 2.0;
-        
-        // Create distance-based ordering using approximate distance formula
-        // (lat-centerLat)^2 + (lon-centerLon)^2 gives relative distance squared
-        String strOrder = String.format(Locale.getDefault(), "((%s - %f) * (%s - %f) + (%s - %f) * (%s - %f)) limit %s", 
-                TRIG_LAT, centerLat, TRIG_LAT, centerLat,
-                TRIG_LON, centerLon, TRIG_LON, centerLon,
-                mPrefs.getString("mapcount", DEFAULT_MAP_COUNT));    
-   
-        String strWhere = String.format("WHERE %s between %s and %s  and  %s between %s and %s",
-                TRIG_LON, 
-                box.getLonWest(), 
-                box.getLonEast(), 
-                TRIG_LAT, 
-                box.getLatSouth(), 
-                box.getLatNorth()); 
+        return fetchTrigMapList(box, Filter.fromPreferences(mPrefs));
+    }
+
+    /**
+     * Return a Cursor suitable for the map screen
+     * 
+     * @return Cursor 
+     */
+    public Cursor fetchTrigMapList (BoundingBox box, Filter filter) {
+        return rawQuery(trigMapListQuery(box, filter));
+    }
 
-        strWhere += new Filter(mCtx).filterWhere("AND");
-        Log.i(TAG, strWhere);
-        Log.i(TAG, "lat limit " + mPrefs.getString("mapcount", DEFAULT_MAP_COUNT));
+    /** The query behind {@link #fetchTrigMapList} */
+    BoundQuery trigMapListQuery(BoundingBox box, Filter filter) {
+        List<String> args = new ArrayList<>();
+        String strWhere = boxWhere(box, args) + filter.where("AND");
+        filter.addArgs(args);
+
+        // Nearest the centre of the box first, by the approximate distance
+        // (lat-centerLat)^2 + (lon-centerLon)^2, which gives relative distance squared
+        String centerLat = String.valueOf((box.getLatNorth() + box.getLatSouth()) / 2.0);
+        String centerLon = String.valueOf((box.getLonEast() + box.getLonWest()) / 2.0);
+        String strOrder = "((" + TRIG_LAT + " - ?) * (" + TRIG_LAT + " - ?) + (" + TRIG_LON + " - ?) * (" + TRIG_LON + " - ?)) limit ?";
+        Collections.addAll(args, centerLat, centerLat, centerLon, centerLon,
+                mPrefs.getString("mapcount", DEFAULT_MAP_COUNT));
         
         final String qry = "SELECT "+
                 TRIG_TABLE +"."+ TRIG_ID +", "+
@@ -427,21 +861,19 @@ public class DbHelper {
                 "ON " + TRIG_TABLE + "." + TRIG_ID + "=" + MARK_TABLE + "." + MARK_ID + " " +
                 strWhere + " " +
                 "ORDER BY " + strOrder;
-        Log.i(TAG, qry);
-        return mDb.rawQuery(qry, null);
-        
-        
-/*        return mDb.query(TRIG_TABLE, new String[] {
-                TRIG_ID, 
-                TRIG_NAME, 
-                TRIG_LAT, 
-                TRIG_LON, 
-                TRIG_TYPE, 
-                TRIG_CONDITION, 
-                TRIG_LOGGED}, 
-                strWhere, null, null, null, strOrder);
-*/    }
+        return new BoundQuery(qry, args);
+    }
     
+    /**
+     * Count trigpoints within a bounding box (without LIMIT), with the user's filters
+     * 
+     * @param box Bounding box to count trigpoints in
+     * @return Total count of filtered trigpoints in the bounding box
+     */
+    public int countTrigpointsInBoundingBox(BoundingBox box) {
+        return countTrigpointsInBoundingBox(box, Filter.fromPreferences(mPrefs));
+    }
+
     /**
      * Count trigpoints within a bounding box (without LIMIT)
      * Used to determine if heatmap mode should be activated
@@ -449,16 +881,16 @@ public class DbHelper {
      * @param box Bounding box to count trigpoints in
      * @return Total count of filtered trigpoints in the bounding box
      */
-    public int countTrigpointsInBoundingBox(BoundingBox box) {
-        String strWhere = String.format("WHERE %s between %s and %s  and  %s between %s and %s",
-                TRIG_LON, 
-                box.getLonWest(), 
-                box.getLonEast(), 
-                TRIG_LAT, 
-                box.getLatSouth(), 
-                box.getLatNorth()); 
+    public int countTrigpointsInBoundingBox(BoundingBox box, Filter filter) {
+        BoundQuery qry = countTrigpointsInBoundingBoxQuery(box, filter);
+        return (int) DatabaseUtils.longForQuery(mDb, qry.sql, qry.args);
+    }
 
-        strWhere += new Filter(mCtx).filterWhere("AND");
+    /** The query behind {@link #countTrigpointsInBoundingBox} */
+    BoundQuery countTrigpointsInBoundingBoxQuery(BoundingBox box, Filter filter) {
+        List<String> args = new ArrayList<>();
+        String strWhere = boxWhere(box, args) + filter.where("AND");
+        filter.addArgs(args);
         
         final String qry = "SELECT COUNT(*) FROM " + TRIG_TABLE + " " +
                 "LEFT OUTER JOIN " + LOG_TABLE + " " +
@@ -466,35 +898,38 @@ public class DbHelper {
                 "LEFT OUTER JOIN " + MARK_TABLE + " " +
                 "ON " + TRIG_TABLE + "." + TRIG_ID + "=" + MARK_TABLE + "." + MARK_ID + " " +
                 strWhere;
-        
-        Log.i(TAG, "countTrigpointsInBoundingBox: " + qry);
-        
-        Cursor cursor = mDb.rawQuery(qry, null);
-        int count = 0;
-        if (cursor != null && cursor.moveToFirst()) {
-            count = cursor.getInt(0);
-            cursor.close();
-        }
-        return count;
+        return new BoundQuery(qry, args);
+    }
+
+    private static String boxWhere(BoundingBox box, List<String> args) {
+        Collections.addAll(args,
+                String.valueOf(box.getLonWest()), String.valueOf(box.getLonEast()),
+                String.valueOf(box.getLatSouth()), String.valueOf(box.getLatNorth()));
+        return "WHERE " + TRIG_TABLE + "." + TRIG_LON + " between ? and ?  and  "
+                + TRIG_TABLE + "." + TRIG_LAT + " between ? and ?";
     }
     
     /**
-     * Fetch all trigpoint coordinates in a bounding box (for heatmap display)
-     * Returns only lat/lon for efficiency when displaying heatmap
-     * 
+     * Fetch all trigpoint coordinates in a bounding box (for heatmap display), with the user's filters
+     *
      * @param box Bounding box to query
      * @return Cursor with lat/lon columns only
      */
     public Cursor fetchTrigpointCoordinates(BoundingBox box) {
-        String strWhere = String.format("WHERE %s between %s and %s  and  %s between %s and %s",
-                TRIG_LON, 
-                box.getLonWest(), 
-                box.getLonEast(), 
-                TRIG_LAT, 
-                box.getLatSouth(), 
-                box.getLatNorth()); 
+        return fetchTrigpointCoordinates(box, Filter.fromPreferences(mPrefs));
+    }
 
-        strWhere += new Filter(mCtx).filterWhere("AND");
+    /**
+     * Fetch all trigpoint coordinates in a bounding box (for heatmap display)
+     * Returns only lat/lon for efficiency when displaying heatmap
+     *
+     * @param box Bounding box to query
+     * @return Cursor with lat/lon columns only
+     */
+    public Cursor fetchTrigpointCoordinates(BoundingBox box, Filter filter) {
+        List<String> args = new ArrayList<>();
+        String strWhere = boxWhere(box, args) + filter.where("AND");
+        filter.addArgs(args);
         
         final String qry = "SELECT " +
                 TRIG_TABLE + "." + TRIG_LAT + ", " +
@@ -507,9 +942,172 @@ public class DbHelper {
                 strWhere;
         
         Log.i(TAG, "fetchTrigpointCoordinates: " + qry);
-        return mDb.rawQuery(qry, null);
+        return rawQuery(new BoundQuery(qry, args));
     }
     
+    /**
+     * Fetch the id and coordinates of all marked trigpoints
+     * Used to keep map tiles around them in the cache, and to pre-render their detail map images
+     * 
+     * @return Cursor with _id/lat/lon columns only
+     */
+    public Cursor fetchMarkedTrigCoordinates() {
+        final String qry = "SELECT " +
+                TRIG_TABLE + "." + TRIG_ID + ", " +
+                TRIG_TABLE + "." + TRIG_LAT + ", " +
+                TRIG_TABLE + "." + TRIG_LON + " " +
+                "FROM " + MARK_TABLE + " " +
+                "JOIN " + TRIG_TABLE + " " +
+                "ON " + TRIG_TABLE + "." + TRIG_ID + "=" + MARK_TABLE + "." + MARK_ID;
+        return mDb.rawQuery(qry, null);
+    }
+
+    /**
+     * Return the trigpoints passing a filter that may lie within a distance of a point,
+     * in no particular order. The query uses the location index on a bounding box, so callers
+     * should still check the exact distance; nothing within the radius is left out.
+     *
+     * @return Cursor with _id/name/lat/lon/type/condition columns
+     */
+    public Cursor fetchTrigsWithinRadius(double lat, double lon, double radiusMetres, Filter filter) {
+        BoundingBox box = BoundingBox.around(lat, lon, radiusMetres);
+        List<String> args = new ArrayList<>();
+        String strWhere = boxWhere(box, args) + filter.where("AND");
+        filter.addArgs(args);
+        final String qry = "SELECT " +
+                TRIG_TABLE + "." + TRIG_ID + ", " +
+                TRIG_TABLE + "." + TRIG_NAME + ", " +
+                TRIG_TABLE + "." + TRIG_LAT + ", " +
+                TRIG_TABLE + "." + TRIG_LON + ", " +
+                TRIG_TABLE + "." + TRIG_TYPE + ", " +
+                TRIG_TABLE + "." + TRIG_CONDITION + " " +
+                "FROM " + TRIG_TABLE + " " +
+                "LEFT OUTER JOIN " + LOG_TABLE + " " +
+                "ON " + TRIG_TABLE + "." + TRIG_ID + "=" + LOG_TABLE + "." + LOG_ID + " " +
+                "LEFT OUTER JOIN " + MARK_TABLE + " " +
+                "ON " + TRIG_TABLE + "." + TRIG_ID + "=" + MARK_TABLE + "." + MARK_ID + " " +
+                strWhere;
+        return rawQuery(new BoundQuery(qry, args));
+    }
+
+    /**
+     * Search the trigs by name, waypoint ("TP1234" or "1234") or grid reference at any precision,
+     * as the user types: words match as prefixes, and misspelt words as the name words closest to
+     * them. See {@link TrigSearch}.
+     *
+     * @param loc to rank equally relevant trigs nearest first, or null to rank shorter names first
+     * @return at most limit trigs, most relevant first
+     */
+    public List<TrigSearchResult> searchTrigs(String text, Location loc, int limit) {
+        TrigSearch.Query query = trigSearch().query(text);
+        Map<Long, TrigSearchResult> found = new LinkedHashMap<>();
+        for (String match : query.matchExpressions()) {
+            try (Cursor c = rawQuery(trigSearchQuery(match, loc, SEARCH_CANDIDATES))) {
+                while (c.moveToNext()) {
+                    long id = c.getLong(0);
+                    if (found.containsKey(id)) {
+                        continue;
+                    }
+                    String name = c.getString(1);
+                    String waypoint = c.getString(2);
+                    String gridref = c.getString(3);
+                    double lat = c.getDouble(4);
+                    double lon = c.getDouble(5);
+                    double distance = loc == null ? Double.NaN : Geodesy.equirectangularDistance(
+                            loc.getLatitude(), loc.getLongitude(), lat, lon, Geodesy.EARTH_RADIUS_M);
+                    found.put(id, new TrigSearchResult(id, name, waypoint, gridref, lat, lon, c.getString(6),
+                            query.relevance(name, waypoint, gridref), distance));
+                }
+            }
+        }
+        List<TrigSearchResult> results = new ArrayList<>(found.values());
+        results.sort(TrigSearchResult.RANKING);
+        return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+    }
+
+    private TrigSearch trigSearch() {
+        TrigSearch search = sTrigSearch;
+        if (search == null) {
+            List<String> names = new ArrayList<>();
+            try (Cursor c = mDb.rawQuery("SELECT " + TRIG_NAME + " FROM " + TRIG_TABLE, null)) {
+                while (c.moveToNext()) {
+                    names.add(c.getString(0));
+                }
+            }
+            search = TrigSearch.fromNames(names);
+            sTrigSearch = search;
+        }
+        return search;
+    }
+
+    BoundQuery trigSearchQuery(String match, Location loc, int limit) {
+        List<String> args = new ArrayList<>();
+        args.add(match);
+        String strOrder;
+        if (null != loc) {
+            strOrder = "(?-" + TRIG_TABLE + "." + TRIG_LAT + ")*(?-" + TRIG_TABLE + "." + TRIG_LAT + ") + ? * "
+                    + "(?-" + TRIG_TABLE + "." + TRIG_LON + ")*(?-" + TRIG_TABLE + "." + TRIG_LON + ")";
+            String lat = String.valueOf(loc.getLatitude());
+            String lon = String.valueOf(loc.getLongitude());
+            Collections.addAll(args, lat, lat,
+                    String.valueOf(Math.pow(Math.cos(Math.toRadians(loc.getLatitude())), 2)), lon, lon);
+        } else {
+            strOrder = "length(" + TRIG_TABLE + "." + TRIG_NAME + ")";
+        }
+        args.add(String.valueOf(limit));
+        final String qry = "SELECT " +
+                TRIG_TABLE + "." + TRIG_ID + ", " +
+                TRIG_TABLE + "." + TRIG_NAME + ", " +
+                TRIG_TABLE + "." + TRIG_WAYPOINT + ", " +
+                TRIG_TABLE + "." + TRIG_GRIDREF + ", " +
+                TRIG_TABLE + "." + TRIG_LAT + ", " +
+                TRIG_TABLE + "." + TRIG_LON + ", " +
+                TRIG_TABLE + "." + TRIG_TYPE + " " +
+                "FROM " + TRIG_SEARCH_TABLE + " " +
+                "JOIN " + TRIG_TABLE + " ON " + TRIG_TABLE + "." + TRIG_ID + "=" + TRIG_SEARCH_TABLE + ".docid " +
+                "WHERE " + TRIG_SEARCH_TABLE + " MATCH ? " +
+                "ORDER BY " + strOrder + " LIMIT ?";
+        return new BoundQuery(qry, args);
+    }
+
+    // A trig row's values for the search index, as TrigSearch expects them: the waypoint with and
+    // without its TP, and the grid reference "NY 34123 15123" as NY31, NY3415... NY3412315123
+    private static String trigSearchValues(String row) {
+        String waypoint = row + "." + TRIG_WAYPOINT;
+        String gridref = row + "." + TRIG_GRIDREF;
+        StringBuilder gridrefs = new StringBuilder();
+        for (int digits = 1; digits <= 5; digits++) {
+            if (digits > 1) {
+                gridrefs.append(" || ' ' || ");
+            }
+            gridrefs.append("substr(").append(gridref).append(", 1, 2) || substr(").append(gridref)
+                    .append(", 4, ").append(digits).append(") || substr(").append(gridref)
+                    .append(", 10, ").append(digits).append(")");
+        }
+        return row + "." + TRIG_ID + ", "
+                + row + "." + TRIG_NAME + ", "
+                + "CASE WHEN " + waypoint + " LIKE 'TP%' THEN " + waypoint + " || ' ' || substr(" + waypoint + ", 3) "
+                + "ELSE " + waypoint + " END, "
+                + "CASE WHEN length(" + gridref + ") = 14 THEN " + gridrefs + " ELSE " + gridref + " END";
+    }
+
+    /**
+     * Return the id and location of the nearest trigpoints the user hasn't logged, nearest first
+     *
+     * @return Cursor with _id/lat/lon columns only
+     */
+    public Cursor fetchNearestUnloggedTrigLocations(double lat, double lon, int limit) {
+        final String qry = "SELECT " +
+                TRIG_ID + ", " + TRIG_LAT + ", " + TRIG_LON + " " +
+                "FROM " + TRIG_TABLE + " " +
+                "WHERE " + TRIG_LOGGED + " = '" + Condition.TRIGNOTLOGGED.code() + "' " +
+                "ORDER BY (? - " + TRIG_LAT + ") * (? - " + TRIG_LAT + ") + ? * (? - " + TRIG_LON + ") * (? - " + TRIG_LON + ") " +
+                "LIMIT " + limit;
+        double cos2 = Math.pow(Math.cos(Math.toRadians(lat)), 2);
+        return mDb.rawQuery(qry, new String[] {
+                String.valueOf(lat), String.valueOf(lat), String.valueOf(cos2), String.valueOf(lon), String.valueOf(lon)});
+    }
+
     /**
      * Return a Cursor suitable for the triglist screen
      * 
@@ -528,7 +1126,8 @@ public class DbHelper {
                 TRIG_HISTORIC, 
                 TRIG_FB,
                 TRIG_CATEGORY_NAME,
-                TRIG_TYPE_NAME}, 
+                TRIG_TYPE_NAME,
+                TRIG_GRIDREF}, 
                 TRIG_ID + "="+id, 
                 null, null, null, null);
     }
@@ -565,10 +1164,8 @@ public class DbHelper {
      */
     public int countLoggedPillars () {
         Log.i(TAG, "countLoggedPillars: Starting count");
-        try (Cursor c = mDb.query(TRIG_TABLE, new String[]{TRIG_ID},
-                TRIG_TYPE + "='" + Trig.Physical.PILLAR.code() + "' and " + TRIG_LOGGED + "!= '" + Condition.TRIGNOTLOGGED.code() + "'",
-                null, null, null, null)) {
-            int count = c.getCount();
+        try {
+            int count = (int) DatabaseUtils.longForQuery(mDb, COUNT_LOGGED_PILLARS_QUERY, null);
             Log.i(TAG, "countLoggedPillars: Count = " + count);
             return count;
         } catch (Exception e) {
@@ -584,11 +1181,7 @@ public class DbHelper {
      */
     public int countLoggedFbms () {
         Log.i(TAG, "countLoggedFbms");
-        try (Cursor c = mDb.query(TRIG_TABLE, new String[]{TRIG_ID},
-                TRIG_TYPE + "='" + Trig.Physical.FBM.code() + "' and " + TRIG_LOGGED + "!= '" + Condition.TRIGNOTLOGGED.code() + "'",
-                null, null, null, null)) {
-            return c.getCount();
-        }
+        return (int) DatabaseUtils.longForQuery(mDb, COUNT_LOGGED_FBMS_QUERY, null);
     }
     /**
      * Returns number of logged Intersecteds
@@ -597,11 +1190,7 @@ public class DbHelper {
      */
     public int countLoggedIntersecteds () {
         Log.i(TAG, "countLoggedIntersecteds");
-        try (Cursor c = mDb.query(TRIG_TABLE, new String[]{TRIG_ID},
-                TRIG_TYPE + "='" + Trig.Physical.INTERSECTED.code() + "' and " + TRIG_LOGGED + "!= '" + Condition.TRIGNOTLOGGED.code() + "'",
-                null, null, null, null)) {
-            return c.getCount();
-        }
+        return (int) DatabaseUtils.longForQuery(mDb, COUNT_LOGGED_INTERSECTEDS_QUERY, null);
     }
     /**
      * Returns number of logged Passives
@@ -610,13 +1199,7 @@ public class DbHelper {
      */
     public int countLoggedPassives () {
         Log.i(TAG, "countLoggedPassives");
-        try (Cursor c = mDb.query(TRIG_TABLE, new String[]{TRIG_ID},
-                TRIG_TYPE + " NOT IN ('" + Trig.Physical.PILLAR.code() + "','" +
-                        Trig.Physical.INTERSECTED.code() + "','" + Trig.Physical.FBM.code() + "') " +
-                        "and " + TRIG_LOGGED + "!= '" + Condition.TRIGNOTLOGGED.code() + "'",
-                null, null, null, null)) {
-            return c.getCount();
-        }
+        return (int) DatabaseUtils.longForQuery(mDb, COUNT_LOGGED_PASSIVES_QUERY, null);
     }
     /**
      * Returns number of unsynced logs
@@ -625,11 +1208,7 @@ public class DbHelper {
      */
     public int countUnsynced () {
         Log.i(TAG, "countUnsynced");
-        try (Cursor c = mDb.query(LOG_TABLE, new String[]{LOG_ID},
-                null,
-                null, null, null, null)) {
-            return c.getCount();
-        }
+        return (int) DatabaseUtils.longForQuery(mDb, COUNT_UNSYNCED_QUERY, null);
     }
     /**
      * Returns number of unsynced photos
@@ -638,12 +1217,32 @@ public class DbHelper {
      */
     public int countPhotos () {
         Log.i(TAG, "countPhotos");
-        try (Cursor c = mDb.query(PHOTO_TABLE, new String[]{PHOTO_ID},
-                null,
-                null, null, null, null)) {
-            return c.getCount();
+        return (int) DatabaseUtils.longForQuery(mDb, COUNT_PHOTOS_QUERY, null);
+    }
+
+    /**
+     * Returns all the counts the main screen shows, read in one query, and remembers them for
+     * {@link #getCachedDashboardCounts()}
+     * 
+     * @return DashboardCounts
+     */
+    public DashboardCounts fetchDashboardCounts () {
+        Log.i(TAG, "fetchDashboardCounts");
+        try (Cursor c = mDb.rawQuery(DASHBOARD_QUERY, null)) {
+            c.moveToFirst();
+            DashboardCounts counts = new DashboardCounts(c.getInt(0), c.getInt(1), c.getInt(2), c.getInt(3),
+                    c.getInt(4), c.getInt(5), c.getInt(6) != 0);
+            sDashboardCounts = counts;
+            return counts;
         }
     }
+
+    /**
+     * Returns the counts last read by {@link #fetchDashboardCounts()} in this process, or null
+     */
+    public static DashboardCounts getCachedDashboardCounts () {
+        return sDashboardCounts;
+    }
     
     
     /**
@@ -673,7 +1272,9 @@ public class DbHelper {
         initialValues.put(LOG_COMMENT        , comment);
         initialValues.put(LOG_FLAGADMINS    , flagadmins);
         initialValues.put(LOG_FLAGUSERS        , flagusers);
-        return mDb.insert(LOG_TABLE, null, initialValues);
+        long rowId = mDb.insert(LOG_TABLE, null, initialValues);
+        overlaysChanged();
+        return rowId;
     }
 
     
@@ -685,7 +1286,9 @@ public class DbHelper {
      * @return true if deleted, false otherwise
      */
     public boolean deleteLog(long id) {
-        return mDb.delete(LOG_TABLE, LOG_ID + "=" + id, null) > 0;
+        boolean deleted = mDb.delete(LOG_TABLE, LOG_ID + "=" + id, null) > 0;
+        overlaysChanged();
+        return deleted;
     }
 
 
@@ -957,11 +1560,11 @@ public class DbHelper {
             ContentValues initialValues = new ContentValues();
             initialValues.put(MARK_ID            , trig_id);
             mDb.insert(MARK_TABLE, null, initialValues);
-            return true;
         } else {
             mDb.delete(MARK_TABLE, MARK_ID + "=" + trig_id, null);
-            return false;
         }
+        overlaysChanged();
+        return mark;
     }
     public Boolean isMarkedTrig(long trig_id) {
         Log.i(TAG, "isMarkedTrig - " + trig_id);
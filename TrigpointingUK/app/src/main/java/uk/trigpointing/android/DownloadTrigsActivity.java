@@ -15,6 +15,8 @@ import android.view.MenuItem;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -26,9 +28,12 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 
+import uk.trigpointing.android.api.TrigApiClient.TrigExportItem;
+import uk.trigpointing.android.api.TrigApiClient.TrigExportResponse;
 import uk.trigpointing.android.logging.SyncTask;
 import uk.trigpointing.android.logging.SyncListener;
 import uk.trigpointing.android.types.Condition;
+import uk.trigpointing.android.types.OsgbBatch;
 import uk.trigpointing.android.types.Trig;
 import android.content.Intent;
 
@@ -138,86 +143,102 @@ public class DownloadTrigsActivity extends BaseActivity implements SyncListener
             final int progressMax = expectedTotal;
             mainHandler.post(() -> mProgress.setMax(progressMax));
 
-            int insertedCount = 0;
-
-            try {
-                Log.i(TAG, "PopulateTrigsTask: Opening database");
-                db.open();
-                db.mDb.beginTransaction();
-
-                Log.i(TAG, "PopulateTrigsTask: Deleting all existing data");
-                db.deleteAll();
+            // Work out every trig's OSGB position up front, across all cores, so the inserts
+            // below only have to store them
+            List<TrigExportItem> items = new ArrayList<>(exportResponse.items.size());
+            for (TrigExportItem item : exportResponse.items) {
+                if (item == null) {
+                    continue;
+                }
+                if (item.wgs_lat == 0.0 && item.wgs_long == 0.0) {
+                    Log.w(TAG, "Skipping item with zero lat/lon: trigId=" + item.id);
+                    continue;
+                }
+                items.add(item);
+            }
+            mainHandler.post(() -> mStatus.setText("Converting grid references..."));
+            double[] lats = new double[items.size()];
+            double[] lons = new double[items.size()];
+            for (int i = 0; i < items.size(); i++) {
+                lats[i] = items.get(i).wgs_lat;
+                lons[i] = items.get(i).wgs_long;
+            }
+            long convertStart = System.nanoTime();
+            OsgbBatch osgb = OsgbBatch.convert(lats, lons);
+            Log.i(TAG, "PopulateTrigsTask: Converted " + osgb.size() + " grid references in "
+                    + (System.nanoTime() - convertStart) / 1_000_000 + " ms");
 
-                for (TrigExportItem item : exportResponse.items) {
-                    if (item == null) {
-                        continue;
-                    }
+            int insertedCount;
 
-                    try {
-                        if (item.wgs_lat == 0.0 && item.wgs_long == 0.0) {
-                            Log.w(TAG, "Skipping item with zero lat/lon: trigId=" + item.id);
-                            continue;
-                        }
-
-                        double lat = item.wgs_lat;
-                        double lon = item.wgs_long;
-
-                        // Map category_code to Physical enum for filtering/icons
-                        // Fall back to legacy physical_type mapping if category_code not present
-                        Trig.Physical category = mapCategoryCode(item.category_code, item.physical_type);
-                        Condition condition = Condition.fromCode(item.condition);
-                        Trig.Current currentUse = mapCurrentUse(item.current_use);
-                        Trig.Historic historicUse = mapHistoricUse(item.historic_use);
-
-                        db.createTrig(
-                                item.id,
-                                item.name != null ? item.name : "",
-                                item.waypoint != null ? item.waypoint : "",
-                                lat,
-                                lon,
-                                category,
-                                condition,
-                                Condition.TRIGNOTLOGGED,
-                                currentUse,
-                                historicUse,
-                                item.category_name != null ? item.category_name : "",
-                                item.type_name != null ? item.type_name : "",
-                                item.fb_number
-                        );
-
-                        insertedCount++;
-                        if (insertedCount % 25 == 0 || insertedCount == progressMax) {
-                            final int progress = insertedCount;
-                            mainHandler.post(() -> {
-                                mProgress.setProgress(progress);
-                                mStatus.setText("Inserted " + progress + " trigs");
-                            });
+            try {
+                // One write session, so the map and lists keep reading the old trigs until the
+                // new ones are all in
+                Log.i(TAG, "PopulateTrigsTask: Queueing import");
+                insertedCount = db.write(session -> {
+                    Log.i(TAG, "PopulateTrigsTask: Deleting all existing data");
+                    session.deleteAll();
+
+                    int inserted = 0;
+                    for (int i = 0; i < items.size(); i++) {
+                        TrigExportItem item = items.get(i);
+                        try {
+                            double lat = item.wgs_lat;
+                            double lon = item.wgs_long;
+
+                            // Map category_code to Physical enum for filtering/icons
+                            // Fall back to legacy physical_type mapping if category_code not present
+                            Trig.Physical category = mapCategoryCode(item.category_code, item.physical_type);
+                            Condition condition = Condition.fromCode(item.condition);
+                            Trig.Current currentUse = mapCurrentUse(item.current_use);
+                            Trig.Historic historicUse = mapHistoricUse(item.historic_use);
+
+                            session.createTrig(
+                                    item.id,
+                                    item.name != null ? item.name : "",
+                                    item.waypoint != null ? item.waypoint : "",
+                                    lat,
+                                    lon,
+                                    category,
+                                    condition,
+                                    Condition.TRIGNOTLOGGED,
+                                    currentUse,
+                                    historicUse,
+                                    item.category_name != null ? item.category_name : "",
+                                    item.type_name != null ? item.type_name : "",
+                                    item.fb_number,
+                                    osgb.getEastings(i),
+                                    osgb.getNorthings(i),
+                                    osgb.getGridRef(i)
+                            );
+
+                            inserted++;
+                            if (inserted % 25 == 0 || inserted == progressMax) {
+                                final int progress = inserted;
+                                mainHandler.post(() -> {
+                                    mProgress.setProgress(progress);
+                                    mStatus.setText("Inserted " + progress + " trigs");
+                                });
+                            }
+                        } catch (NumberFormatException nfe) {
+                            Log.w(TAG, "Skipping item with invalid number format: trigId=" + item.id, nfe);
+                        } catch (Exception ex) {
+                            Log.w(TAG, "Skipping item due to exception: trigId=" + item.id, ex);
                         }
-                    } catch (NumberFormatException nfe) {
-                        Log.w(TAG, "Skipping item with invalid number format: trigId=" + item.id, nfe);
-                    } catch (Exception ex) {
-                        Log.w(TAG, "Skipping item due to exception: trigId=" + item.id, ex);
                     }
-                }
 
-                final int finalInsertedCount = insertedCount;
-                mainHandler.post(() -> {
-                    mProgress.setProgress(Math.min(finalInsertedCount, progressMax));
-                    mStatus.setText("Inserted " + finalInsertedCount + " trigs");
-                });
+                    final int finalInsertedCount = inserted;
+                    mainHandler.post(() -> {
+                        mProgress.setProgress(Math.min(finalInsertedCount, progressMax));
+                        mStatus.setText("Inserted " + finalInsertedCount + " trigs");
+                    });
 
-                db.mDb.execSQL("create index if not exists latlon on trig (lat, lon)");
-                db.mDb.setTransactionSuccessful();
+                    return inserted;
+                }).join();
             } catch (Exception e) {
                 Log.e(TAG, "PopulateTrigsTask: Unexpected error", e);
                 return DownloadStatus.ERROR;
-            } finally {
-                if (db.mDb != null && db.mDb.inTransaction()) {
-                    db.mDb.endTransaction();
-                }
-                db.close();
-                mDownloadCount = insertedCount;
             }
+            mDownloadCount = insertedCount;
 
             if (insertedCount == 0) {
                 Log.e(TAG, "PopulateTrigsTask: No trig records inserted");
@@ -370,32 +391,6 @@ public class DownloadTrigsActivity extends BaseActivity implements SyncListener
         return Trig.Historic.UNKNOWN;
     }
 
-    private static class TrigExportResponse {
-        java.util.List<TrigExportItem> items;
-        Integer total;
-        String generated_at;
-        String cache_info;
-    }
-
-    private static class TrigExportItem {
-        int id;
-        String waypoint;
-        String name;
-        String condition;
-        String type_code;
-        String type_name;
-        String category_code;
-        String category_name;
-        String current_use;
-        String historic_use;
-        String fb_number;
-        double wgs_lat;
-        double wgs_long;
-        String osgb_gridref;
-        // Legacy field for backward compatibility - can be removed once all users upgrade
-        String physical_type;
-    }
-
     private void scheduleRetryWithCountdown() {
         // Initialize countdown
         countdownRemainingSeconds = retryDelaySeconds;
@@ -6,7 +6,6 @@ import android.app.AlertDialog;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.Resources.NotFoundException;
-import android.database.SQLException;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -40,6 +39,9 @@ import uk.trigpointing.android.logging.SyncListener;
 import uk.trigpointing.android.logging.SyncTask;
 import uk.trigpointing.android.mapping.DownloadMapsActivity;
 import uk.trigpointing.android.nearest.NearestActivity;
+import uk.trigpointing.android.trigdetails.MapImagePrerenderWorker;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -75,6 +77,7 @@ public class MainActivity extends BaseActivity implements SyncListener {
     private Button                mARViewBtn;
     private TextView            mUserName;
     private ImageView            mUserMapImage;
+    private TextView            mMapPrerenderStatus;
     
     // Auth0 authentication components
     private AuthPreferences authPreferences;
@@ -104,6 +107,7 @@ public class MainActivity extends BaseActivity implements SyncListener {
         mARViewBtn = findViewById(R.id.btnARView);
         mUserName = findViewById(R.id.txtUserName);
         mUserMapImage = findViewById(R.id.userMapImage);
+        mMapPrerenderStatus = findViewById(R.id.txtMapPrerenderStatus);
         
         Log.i(TAG, "onCreate: Setting up preferences");
         mPrefs = getSharedPreferences("TrigpointingUK", MODE_PRIVATE);
@@ -137,12 +141,11 @@ public class MainActivity extends BaseActivity implements SyncListener {
             fetchAndStoreApiUser();
         }
         
-        Log.i(TAG, "onCreate: Populating counts");
-        populateCounts();
-        
         Log.i(TAG, "onCreate: Checking for OS API key");
         checkAndFetchOsApiKey();
         
+        observeMapPrerender();
+        
         Log.i(TAG, "onCreate: MainActivity setup complete");
     }
 
@@ -457,8 +460,7 @@ public class MainActivity extends BaseActivity implements SyncListener {
         
         invalidateOptionsMenu();
         updateUserDisplay();
-        populateCounts();
-        checkAndPopulateDatabase();
+        populateCounts(true);
         checkAndPerformAutoSync();
     }
     
@@ -922,126 +924,116 @@ public class MainActivity extends BaseActivity implements SyncListener {
     }
 
     private void populateCounts() {
+        populateCounts(false);
+    }
+
+    /**
+     * Refreshes the counts in the background, showing the last ones read meanwhile rather than
+     * blanking them
+     *
+     * @param checkPopulated also start the trig download if the trig table is empty
+     */
+    private void populateCounts(boolean checkPopulated) {
         Log.i(TAG, "populateCounts: Starting count population");
-        // Show loading state
-        runOnUiThread(() -> {
-            try {
-                Log.i(TAG, "populateCounts: Setting loading state");
-                mPillarCount.setText("");
-                mFbmCount.setText("");
-                mPassiveCount.setText("");
-                mIntersectedCount.setText("");
-                mUnsyncedCount.setText("");
-                mPhotosCount.setText("");
-                                mSyncBtn.setTextColor(ContextCompat.getColor(this, android.R.color.primary_text_light));
-            } catch (NotFoundException e) {
-                Log.e(TAG, "populateCounts: Error setting loading state", e);
-                e.printStackTrace();
-            }
-        });
+        DashboardCounts cached = DbHelper.getCachedDashboardCounts();
+        if (cached != null) {
+            runOnUiThread(() -> showCounts(cached));
+        }
         
         // Run database operations in background
         CompletableFuture.supplyAsync(() -> {
-            Log.i(TAG, "populateCounts: Starting database operations");
             DbHelper mDb = new DbHelper(MainActivity.this);
             try {
-                Log.i(TAG, "populateCounts: Opening database");
-                mDb.open();
-                Log.i(TAG, "populateCounts: Counting pillars");
-                int nPillar = mDb.countLoggedPillars();
-                Log.i(TAG, "populateCounts: Counting FBMs");
-                int nFbm = mDb.countLoggedFbms();
-                Log.i(TAG, "populateCounts: Counting passives");
-                int nPassive = mDb.countLoggedPassives();
-                Log.i(TAG, "populateCounts: Counting intersected");
-                int nIntersected = mDb.countLoggedIntersecteds();
-                Log.i(TAG, "populateCounts: Counting unsynced");
-                int nUnsynced = mDb.countUnsynced();
-                Log.i(TAG, "populateCounts: Counting photos");
-                int nPhotos = mDb.countPhotos();
-                Log.i(TAG, "populateCounts: Closing database");
+                // Open read-only to avoid SQLITE_BUSY when another writer exists
+                mDb.openReadable();
+                DashboardCounts counts = mDb.fetchDashboardCounts();
                 mDb.close();
-                
-                Log.i(TAG, "populateCounts: Database counts - Pillars: " + nPillar + ", FBMs: " + nFbm + ", Passives: " + nPassive + ", Intersected: " + nIntersected + ", Unsynced: " + nUnsynced + ", Photos: " + nPhotos);
-                return new int[]{nPillar, nFbm, nPassive, nIntersected, nUnsynced, nPhotos};
-            } catch (SQLException e) {
-                Log.e(TAG, "populateCounts: SQLException during database operations", e);
-                e.printStackTrace();
-                return new int[]{0, 0, 0, 0, 0, 0};
+                Log.i(TAG, "populateCounts: " + counts);
+                return counts;
+            } catch (android.database.sqlite.SQLiteDatabaseLockedException locked) {
+                // Keep showing the last counts, and don't kick off population while locked
+                Log.w(TAG, "populateCounts: Database locked, counts not refreshed");
+                return null;
             } catch (Exception e) {
                 Log.e(TAG, "populateCounts: Unexpected exception during database operations", e);
                 e.printStackTrace();
-                return new int[]{0, 0, 0, 0, 0, 0};
+                return null;
             }
         }, executor).thenAcceptAsync(counts -> {
+            if (counts == null) {
+                return;
+            }
             // Update UI on main thread
-            runOnUiThread(() -> {
-                try {
-                    Log.i(TAG, "populateCounts: Updating UI with counts");
-                    int nPillar = counts[0];
-                    int nFbm = counts[1];
-                    int nPassive = counts[2];
-                    int nIntersected = counts[3];
-                    int nUnsynced = counts[4];
-                    int nPhotos = counts[5];
-                    
-                    mPillarCount.setText(String.valueOf(nPillar));
-                    mFbmCount.setText(String.valueOf(nFbm));
-                    mPassiveCount.setText(String.valueOf(nPassive));
-                    mIntersectedCount.setText(String.valueOf(nIntersected));
-                    
-                    if (nUnsynced > 0) {
-                        mUnsyncedCount.setText(String.valueOf(nUnsynced));
-                                        mSyncBtn.setTextColor(ContextCompat.getColor(this, R.color.syncNow));
-                    }
-                    
-                    if (nPhotos > 0) {
-                        mPhotosCount.setText(String.valueOf(nPhotos));
-                    }
-                    
-                    Log.i(TAG, "populateCounts: UI update complete");
-                } catch (Exception e) {
-                    Log.e(TAG, "populateCounts: Error updating UI", e);
-                    e.printStackTrace();
-                }
-            });
+            runOnUiThread(() -> showCounts(counts));
+            if (checkPopulated && !counts.isTrigsPopulated()) {
+                Log.i(TAG, "populateCounts: Database is empty, starting automatic population");
+                runOnUiThread(() -> {
+                    Toast.makeText(MainActivity.this, "Database is empty. Starting automatic download...", Toast.LENGTH_LONG).show();
+                    Intent intent = new Intent(MainActivity.this, DownloadTrigsActivity.class);
+                    startActivity(intent);
+                });
+            }
         }).exceptionally(throwable -> {
             Log.e(TAG, "populateCounts: Exception in async operation", throwable);
             throwable.printStackTrace();
             return null;
         });
     }
-    
-    private void checkAndPopulateDatabase() {
-        Log.i(TAG, "checkAndPopulateDatabase: Checking if database needs population");
-        
-        CompletableFuture.supplyAsync(() -> {
-            DbHelper mDb = new DbHelper(MainActivity.this);
-            try {
-                // Open read-only to avoid SQLITE_BUSY when another writer exists
-                mDb.openReadable();
-                boolean isPopulated = mDb.isTrigTablePopulated();
-                mDb.close();
-                return isPopulated;
-            } catch (android.database.sqlite.SQLiteDatabaseLockedException locked) {
-                Log.w(TAG, "checkAndPopulateDatabase: Database locked, will treat as populated for now to avoid contention");
-                return true; // avoid kicking off population while locked
-            } catch (Exception e) {
-                Log.e(TAG, "checkAndPopulateDatabase: Error checking database", e);
-                return false;
-            }
-        }, executor).thenAcceptAsync(isPopulated -> {
-            if (!isPopulated) {
-                Log.i(TAG, "checkAndPopulateDatabase: Database is empty, starting automatic population");
-                runOnUiThread(() -> {
-                    Toast.makeText(MainActivity.this, "Database is empty. Starting automatic download...", Toast.LENGTH_LONG).show();
-                    Intent intent = new Intent(MainActivity.this, DownloadTrigsActivity.class);
-                    startActivity(intent);
-                });
+
+    private void showCounts(DashboardCounts counts) {
+        try {
+            mPillarCount.setText(String.valueOf(counts.getLoggedPillars()));
+            mFbmCount.setText(String.valueOf(counts.getLoggedFbms()));
+            mPassiveCount.setText(String.valueOf(counts.getLoggedPassives()));
+            mIntersectedCount.setText(String.valueOf(counts.getLoggedIntersecteds()));
+            
+            if (counts.getUnsynced() > 0) {
+                mUnsyncedCount.setText(String.valueOf(counts.getUnsynced()));
+                mSyncBtn.setTextColor(ContextCompat.getColor(this, R.color.syncNow));
             } else {
-                Log.i(TAG, "checkAndPopulateDatabase: Database is already populated");
+                mUnsyncedCount.setText("");
+                mSyncBtn.setTextColor(ContextCompat.getColor(this, android.R.color.primary_text_light));
             }
-        });
+            
+            mPhotosCount.setText(counts.getPhotos() > 0 ? String.valueOf(counts.getPhotos()) : "");
+        } catch (NotFoundException e) {
+            Log.e(TAG, "populateCounts: Error updating UI", e);
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Shows progress while detail maps are being pre-rendered, and how many trigs are covered otherwise
+     */
+    private void observeMapPrerender() {
+        WorkManager.getInstance(this)
+                .getWorkInfosForUniqueWorkLiveData(MapImagePrerenderWorker.WORK_NAME)
+                .observe(this, infos -> {
+                    WorkInfo running = null;
+                    if (infos != null) {
+                        for (WorkInfo info : infos) {
+                            if (info.getState() == WorkInfo.State.RUNNING) {
+                                running = info;
+                            }
+                        }
+                    }
+                    int total = running != null ? running.getProgress().getInt(MapImagePrerenderWorker.KEY_TOTAL, 0) : 0;
+                    if (total > 0) {
+                        int done = running.getProgress().getInt(MapImagePrerenderWorker.KEY_DONE, 0);
+                        mMapPrerenderStatus.setText(getString(R.string.map_prerender_running, done, total));
+                        mMapPrerenderStatus.setVisibility(View.VISIBLE);
+                        return;
+                    }
+                    SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+                    int covered = prefs.getInt(MapImagePrerenderWorker.PREF_COVERED, 0);
+                    total = prefs.getInt(MapImagePrerenderWorker.PREF_TOTAL, 0);
+                    if (total > 0) {
+                        mMapPrerenderStatus.setText(getString(R.string.map_prerender_coverage, covered, total));
+                        mMapPrerenderStatus.setVisibility(View.VISIBLE);
+                    } else {
+                        mMapPrerenderStatus.setVisibility(View.GONE);
+                    }
+                });
     }
     
     private void checkAndPerformAutoSync() {
@@ -11,6 +11,9 @@ import android.content.SharedPreferences.Editor;
 import androidx.preference.PreferenceManager;
 import android.util.Log;
 
+import uk.trigpointing.android.mapping.TileCacheReconcileWorker;
+import uk.trigpointing.android.trigdetails.MapImagePrerenderWorker;
+
 
 
 public class MainApplication extends Application {
@@ -36,6 +39,12 @@ public class MainApplication extends Application {
         editor.apply();
         
         Log.i(TAG, "Marked app as fresh start for filter reset and map preference loading");  
+
+        // Keep the persisted tile cache totals honest
+        TileCacheReconcileWorker.schedule(this);
+
+        // Render detail maps for marked and nearby trigs while charging on Wi-Fi
+        MapImagePrerenderWorker.schedule(this);
         
         // Crashlytics removed during package migration; re-add if needed later
 
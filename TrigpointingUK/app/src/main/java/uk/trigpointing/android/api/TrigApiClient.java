@@ -51,13 +51,20 @@ public class TrigApiClient {
                 .readTimeout(60, TimeUnit.SECONDS)
                 .writeTimeout(60, TimeUnit.SECONDS)
                 .build();
-        this.gson = new GsonBuilder()
-                .setDateFormat("yyyy-MM-dd")
-                .create();
+        this.gson = createGson();
         this.authPreferences = new AuthPreferences(context);
         this.auth0Config = new Auth0Config(context);
     }
 
+    /**
+     * Gson configured for the API's responses
+     */
+    public static Gson createGson() {
+        return new GsonBuilder()
+                .setDateFormat("yyyy-MM-dd")
+                .create();
+    }
+
     /**
      * Generic callback interface for API operations
      */
@@ -645,7 +652,7 @@ public class TrigApiClient {
                 try (Response response = httpClient.newCall(httpRequest).execute()) {
                     String responseBody = response.body() != null ? response.body().string() : "";
                     if (response.isSuccessful()) {
-                        UserLogPage page = parseUserLogPage(responseBody);
+                        UserLogPage page = parseUserLogPage(gson, responseBody);
                         return new ApiResult<>(true, page, null);
                     } else {
                         String errorMsg = parseErrorMessage(responseBody, response.code());
@@ -668,7 +675,10 @@ public class TrigApiClient {
         });
     }
 
-    private UserLogPage parseUserLogPage(String json) {
+    /**
+     * Parse a page of a user's logs, skipping any parts the response lacks
+     */
+    public static UserLogPage parseUserLogPage(Gson gson, String json) {
         JsonElement element = gson.fromJson(json, JsonElement.class);
         UserLogPage page = new UserLogPage();
         page.items = new java.util.ArrayList<>();
@@ -989,6 +999,33 @@ public class TrigApiClient {
         public String log_date;
     }
 
+    /** The whole trig table, as downloaded by DownloadTrigsActivity from /v1/trigs/export */
+    public static class TrigExportResponse {
+        public java.util.List<TrigExportItem> items;
+        public Integer total;
+        public String generated_at;
+        public String cache_info;
+    }
+
+    public static class TrigExportItem {
+        public int id;
+        public String waypoint;
+        public String name;
+        public String condition;
+        public String type_code;
+        public String type_name;
+        public String category_code;
+        public String category_name;
+        public String current_use;
+        public String historic_use;
+        public String fb_number;
+        public double wgs_lat;
+        public double wgs_long;
+        public String osgb_gridref;
+        // Legacy field for backward compatibility - can be removed once all users upgrade
+        public String physical_type;
+    }
+
     public static class UserLogPage {
         public java.util.List<UserLog> items;
         public Pagination pagination;
@@ -0,0 +1,116 @@
+package uk.trigpointing.android.ar;
+
+/**
+ * Per-frame layout state for {@link AROverlayView}: where each trig of the current
+ * {@link ARTrigGeometry} lands on screen for the device's heading and pitch, and the touch
+ * targets of the last frame. Arrays are sized when the geometry changes, so that drawing a frame
+ * allocates nothing.
+ *
+ * Plain Java so the steady state can be checked for allocations on the JVM.
+ */
+final class AROverlayFrame {
+
+    private ARTrigGeometry geometry = ARTrigGeometry.EMPTY;
+
+    // Results of the last layout(), in draw order
+    private float[] screenX = new float[0];
+    private float[] screenY = new float[0];
+    private boolean[] visible = new boolean[0];
+
+    // Touch targets in screen coordinates, in draw order
+    private int hitCount;
+    private int[] hitLeft = new int[0];
+    private int[] hitTop = new int[0];
+    private int[] hitRight = new int[0];
+    private int[] hitBottom = new int[0];
+    private long[] hitIds = new long[0];
+
+    /** Replaces the geometry; the only place arrays are (re)allocated. */
+    void setGeometry(ARTrigGeometry geometry) {
+        this.geometry = geometry;
+        int count = geometry.size();
+        if (screenX.length < count) {
+            screenX = new float[count];
+            screenY = new float[count];
+            visible = new boolean[count];
+            hitLeft = new int[count];
+            hitTop = new int[count];
+            hitRight = new int[count];
+            hitBottom = new int[count];
+            hitIds = new long[count];
+        }
+        hitCount = 0;
+    }
+
+    ARTrigGeometry getGeometry() {
+        return geometry;
+    }
+
+    /** Number of trigs, in draw order: farthest first. */
+    int size() {
+        return geometry.size();
+    }
+
+    /**
+     * Projects the trigs for the device's heading and camera elevation.
+     *
+     * @param maxFov trigs within half this of the view direction are drawn, so they stay visible
+     *               however the screen is rotated
+     */
+    void layout(float azimuth, float pitch, float fovX, float fovY, float maxFov, int width, int height) {
+        float minY = height * 0.15f;
+        float maxY = height * 0.85f;
+        for (int n = 0; n < geometry.size(); n++) {
+            // Relative bearing normalised to -180 to 180
+            float relativeBearing = geometry.getBearing(n) - azimuth;
+            while (relativeBearing > 180) relativeBearing -= 360;
+            while (relativeBearing < -180) relativeBearing += 360;
+
+            visible[n] = Math.abs(relativeBearing) <= maxFov / 2f;
+            screenX[n] = width / 2f + (relativeBearing / (fovX / 2f)) * (width / 2f);
+
+            // Pitch carries camera elevation (+ up). When tilting up, the horizon and the trigs on it
+            // appear lower -> move down. Clamped to 15% from edges if out of range.
+            float y = height / 2f + ((pitch - geometry.getElevation(n)) / (fovY / 2f)) * (height / 2f);
+            screenY[n] = Math.max(minY, Math.min(maxY, y));
+        }
+    }
+
+    boolean isVisible(int n) {
+        return visible[n];
+    }
+
+    float getScreenX(int n) {
+        return screenX[n];
+    }
+
+    float getScreenY(int n) {
+        return screenY[n];
+    }
+
+    void clearHitTargets() {
+        hitCount = 0;
+    }
+
+    void addHitTarget(int left, int top, int right, int bottom, long trigId) {
+        if (hitCount == hitIds.length) {
+            return;
+        }
+        hitLeft[hitCount] = left;
+        hitTop[hitCount] = top;
+        hitRight[hitCount] = right;
+        hitBottom[hitCount] = bottom;
+        hitIds[hitCount] = trigId;
+        hitCount++;
+    }
+
+    /** The trig under a screen point, topmost first, or -1. */
+    long hitTest(int x, int y) {
+        for (int i = hitCount - 1; i >= 0; i--) {
+            if (x >= hitLeft[i] && x < hitRight[i] && y >= hitTop[i] && y < hitBottom[i]) {
+                return hitIds[i];
+            }
+        }
+        return -1;
+    }
+}
@@ -1,28 +1,21 @@
 package uk.trigpointing.android.ar;
 
 import android.content.Context;
-import android.content.SharedPreferences;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.drawable.Drawable;
+import android.graphics.RectF;
 import android.location.Location;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.View;
 import android.view.MotionEvent;
 
-import androidx.core.content.ContextCompat;
-import androidx.preference.PreferenceManager;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Locale;
 import java.util.ArrayList;
 import java.util.List;
 
-import uk.trigpointing.android.types.Trig;
+import uk.trigpointing.android.common.TrigIconCache;
 
 /**
  * Custom view that draws trigpoint overlays on top of camera for sensor-based AR
@@ -38,20 +31,35 @@ public class AROverlayView extends View {
     private float deviceRoll = 0;
     private float compassSnapAngleDeg = 0f; // remembers last snapped angle for hysteresis
     private Location currentLocation;
-    private final List<HitTarget> hitTargets = new ArrayList<>();
     private OnTrigpointClickListener clickListener;
     
-    // Pre-allocated objects to avoid DrawAllocation warnings
-    private final List<TrigpointData> sortedTrigpoints = new ArrayList<>();
-    private final Location tempLocation1 = new Location("temp");
-    private final Location tempLocation2 = new Location("temp");
-    private final Location trigLocation = new Location("trigpoint");
+    // Pre-allocated objects so that onDraw allocates nothing once the trigpoints are set
+    private final AROverlayFrame frame = new AROverlayFrame();
+    private Paint compassPaint;
+    private Paint labelBackgroundPaint;
+    private final Rect textBounds = new Rect();
+    private final RectF iconBounds = new RectF();
+    private final float[] screenPoint = new float[2];
+    private final int[] compassWidths = new int[COMPASS_DIRECTIONS.length];
+    private final int[] compassHeights = new int[COMPASS_DIRECTIONS.length];
+    // Per trigpoint, set in updateTrigpoints
+    private Bitmap[] icons = new Bitmap[0];
+    private int[] nameWidths = new int[0];
+    private int[] nameHeights = new int[0];
+    // Per draw position of the current geometry
+    private int[] distanceWidths = new int[0];
+    private int[] distanceHeights = new int[0];
+    private final TrigIconCache iconCache;
+    private int iconGeneration;
     
     // Field of view (degrees) used for mapping
     // X uses horizontal FOV across screen width; Y uses vertical FOV across screen height
     private float fieldOfViewDegX = 60.0f;
     private float fieldOfViewDegY = 45.0f;
     private static final float COMPASS_HYSTERESIS_DEG = 7.0f;
+    // Trigs hidden behind the terrain are drawn faded
+    private static final int OCCLUDED_ALPHA = 0x60;
+    private static final int LABEL_BACKGROUND_ALPHA = 0x80;
     
     // Simple data holder for trigpoint information
     public static class TrigpointData {
@@ -81,6 +89,7 @@ public class AROverlayView extends View {
     
     public AROverlayView(Context context, AttributeSet attrs) {
         super(context, attrs);
+        iconCache = TrigIconCache.get(context);
         initPaints();
     }
     
@@ -93,6 +102,25 @@ public class AROverlayView extends View {
         
         iconPaint = new Paint();
         iconPaint.setAntiAlias(true);
+        iconPaint.setFilterBitmap(true);
+
+        compassPaint = new Paint();
+        compassPaint.setColor(Color.WHITE);
+        compassPaint.setTextSize(36); // Slightly smaller than trigpoint text
+        compassPaint.setAntiAlias(true);
+        compassPaint.setShadowLayer(2, 1, 1, Color.BLACK);
+        compassPaint.setTypeface(android.graphics.Typeface.MONOSPACE);
+
+        labelBackgroundPaint = new Paint();
+        labelBackgroundPaint.setColor(Color.BLACK);
+        labelBackgroundPaint.setAlpha(LABEL_BACKGROUND_ALPHA); // Semi-transparent
+
+        for (int i = 0; i < COMPASS_DIRECTIONS.length; i++) {
+            String direction = COMPASS_DIRECTIONS[i];
+            compassPaint.getTextBounds(direction, 0, direction.length(), textBounds);
+            compassWidths[i] = textBounds.width();
+            compassHeights[i] = textBounds.height();
+        }
     }
     
     // Compass directions with their bearings
@@ -105,11 +133,48 @@ public class AROverlayView extends View {
         180f, 202.5f, 225f, 247.5f, 270f, 292.5f, 315f, 337.5f
     };
     
-    public void updateTrigpoints(List<TrigpointData> trigpoints) {
+    /**
+     * @param geometry computed from the trigpoints for the current location, off the UI thread
+     */
+    void updateTrigpoints(List<TrigpointData> trigpoints, ARTrigGeometry geometry) {
         this.trigpoints = new ArrayList<>(trigpoints);
+        frame.setGeometry(geometry);
+
+        // Icons and name sizes don't change between frames, so resolve them here rather than in onDraw
+        int count = this.trigpoints.size();
+        if (icons.length < count) {
+            icons = new Bitmap[count];
+            nameWidths = new int[count];
+            nameHeights = new int[count];
+            distanceWidths = new int[count];
+            distanceHeights = new int[count];
+        }
+        resolveIcons();
+        for (int i = 0; i < count; i++) {
+            TrigpointData trig = this.trigpoints.get(i);
+            String name = trig.getName();
+            textPaint.getTextBounds(name, 0, name.length(), textBounds);
+            nameWidths[i] = textBounds.width();
+            nameHeights[i] = textBounds.height();
+        }
+        for (int n = 0; n < geometry.size(); n++) {
+            String distanceText = geometry.getDistanceLabel(n);
+            textPaint.getTextBounds(distanceText, 0, distanceText.length(), textBounds);
+            distanceWidths[n] = textBounds.width();
+            distanceHeights[n] = textBounds.height();
+        }
         invalidate(); // Trigger redraw
     }
 
+    // Same icons as the Leaflet map, from the shared cache
+    private void resolveIcons() {
+        iconGeneration = iconCache.getGeneration();
+        for (int i = 0; i < trigpoints.size(); i++) {
+            TrigpointData trig = trigpoints.get(i);
+            icons[i] = iconCache.getIcon(trig.getType(), trig.getCondition(), false);
+        }
+    }
+
     public interface OnTrigpointClickListener {
         void onTrigpointClick(long trigId);
     }
@@ -178,7 +243,7 @@ public class AROverlayView extends View {
         float maxPossibleFOV = calculateDiagonalFOV(fieldOfViewDegX, fieldOfViewDegY);
         
         // Reset per-frame hit targets
-        hitTargets.clear();
+        frame.clearHitTargets();
 
         // Draw compass directions snapped to the edge closest to zenith, with hysteresis
         float snapAngle = updateCompassSnapAngle(deviceRoll);
@@ -221,61 +286,28 @@ public class AROverlayView extends View {
             return;
         }
         
-        // Sort trigpoints by distance (farthest first) so nearest appear on top
-        sortedTrigpoints.clear();
-        sortedTrigpoints.addAll(trigpoints);
-        sortedTrigpoints.sort((t1, t2) -> {
-            tempLocation1.setLatitude(t1.getLat());
-            tempLocation1.setLongitude(t1.getLon());
-            float dist1 = currentLocation.distanceTo(tempLocation1);
-            
-            tempLocation2.setLatitude(t2.getLat());
-            tempLocation2.setLongitude(t2.getLon());
-            float dist2 = currentLocation.distanceTo(tempLocation2);
-            
-            return Float.compare(dist2, dist1); // Farthest first (reverse order)
-        });
+        // Only after the icon style has changed
+        if (iconGeneration != iconCache.getGeneration()) {
+            resolveIcons();
+        }
+
+        // Distances and bearings were worked out when the location changed; only project them here
+        frame.layout(deviceAzimuth, devicePitch, fieldOfView, verticalFieldOfView, maxPossibleFOV,
+                screenWidth, screenHeight);
         
         // Rotate canvas to follow device roll so trig overlay stays aligned with horizon
         canvas.save();
         canvas.rotate(deviceRoll, screenWidth / 2f, screenHeight / 2f);
 
-        for (TrigpointData trig : sortedTrigpoints) {
-            // Calculate bearing to trigpoint
-            trigLocation.setLatitude(trig.getLat());
-            trigLocation.setLongitude(trig.getLon());
-            
-            float bearing = currentLocation.bearingTo(trigLocation);
-            if (bearing < 0) bearing += 360; // Normalize to 0-360
-            
-            float distance = currentLocation.distanceTo(trigLocation);
-            
-            // Calculate relative bearing (difference between trigpoint bearing and device bearing)
-            float relativeBearing = bearing - deviceAzimuth;
-            
-            // Normalize relative bearing to -180 to 180
-            while (relativeBearing > 180) relativeBearing -= 360;
-            while (relativeBearing < -180) relativeBearing += 360;
-            
+        // Farthest first so nearest appear on top
+        for (int n = 0; n < frame.size(); n++) {
             // Draw trigpoints within the maximum possible FOV (so they're visible in any rotation)
-            if (Math.abs(relativeBearing) <= maxPossibleFOV / 2f) {
-                float screenX = screenWidth / 2f + (relativeBearing / (fieldOfView / 2f)) * (screenWidth / 2f);
-                
-                // Place at horizon line based on camera elevation, clamped to 15% from edges if out of range
-                float centerY = screenHeight / 2f;
-                float halfHeight = screenHeight / 2f;
-                float halfVFov = verticalFieldOfView / 2f;
-                // devicePitch carries camera elevation (+ up). When tilting up, horizon appears lower -> move line down (increase Y)
-                float screenY = centerY + (devicePitch / halfVFov) * halfHeight;
-                float minY = screenHeight * 0.15f;
-                float maxY = screenHeight * 0.85f;
-                if (screenY < minY) screenY = minY;
-                if (screenY > maxY) screenY = maxY;
-                
-                // Draw trigpoint icon
-                drawTrigpointIcon(canvas, trig, screenX, screenY, distance);
+            if (frame.isVisible(n)) {
+                drawTrigpointIcon(canvas, n, frame.getScreenX(n), frame.getScreenY(n));
             }
         }
+        // The compass shares the label background
+        labelBackgroundPaint.setAlpha(LABEL_BACKGROUND_ALPHA);
 
         canvas.restore();
     }
@@ -289,13 +321,6 @@ public class AROverlayView extends View {
     }
     
     private void drawCompassDirections(Canvas canvas, int spanPixels, float fieldOfView, boolean anchorTop, int screenHeight) {
-        Paint compassPaint = new Paint();
-        compassPaint.setColor(Color.WHITE);
-        compassPaint.setTextSize(36); // Slightly smaller than trigpoint text
-        compassPaint.setAntiAlias(true);
-        compassPaint.setShadowLayer(2, 1, 1, Color.BLACK);
-        compassPaint.setTypeface(android.graphics.Typeface.MONOSPACE);
-        
         float margin = 60f;
         float compassYTop = margin; // Position near top of screen
         float compassYBottom = screenHeight - margin; // Near bottom
@@ -317,17 +342,15 @@ public class AROverlayView extends View {
                 float screenX = spanPixels / 2f + (relativeBearing / (fieldOfView / 2f)) * (spanPixels / 2f);
                 
                 String direction = COMPASS_DIRECTIONS[i];
-                Rect textBounds = new Rect();
-                compassPaint.getTextBounds(direction, 0, direction.length(), textBounds);
                 
                 // Center the text horizontally
-                float textX = screenX - textBounds.width() / 2;
+                float textX = screenX - compassWidths[i] / 2;
                 
                 // Draw text background
                 canvas.drawRect(
-                    textX - 8, compassY - textBounds.height() - 8,
-                    textX + textBounds.width() + 8, compassY + 8,
-                    new Paint() {{ setColor(0x80000000); }} // Semi-transparent black
+                    textX - 8, compassY - compassHeights[i] - 8,
+                    textX + compassWidths[i] + 8, compassY + 8,
+                    labelBackgroundPaint
                 );
                 
                 canvas.drawText(direction, textX, compassY, compassPaint);
@@ -425,10 +448,9 @@ public class AROverlayView extends View {
      * 
      * @param canvasX X coordinate in rotated canvas space
      * @param canvasY Y coordinate in rotated canvas space  
-     * @param iconSize Size of the icon (for debugging)
-     * @return Array containing [screenX, screenY] where the point actually appears on screen
+     * @param out Receives [screenX, screenY] where the point actually appears on screen
      */
-    private float[] transformToScreenCoordinates(float canvasX, float canvasY, int iconSize) {
+    private void transformToScreenCoordinates(float canvasX, float canvasY, float[] out) {
         int screenWidth = getWidth();
         int screenHeight = getHeight();
         float centerX = screenWidth / 2f;
@@ -448,182 +470,91 @@ public class AROverlayView extends View {
         float rotatedY = x * sin + y * cos;
         
         // Translate back to screen coordinates
-        float finalX = rotatedX + centerX;
-        float finalY = rotatedY + centerY;
-        
-        // Transform completed
-        
-        return new float[]{finalX, finalY};
+        out[0] = rotatedX + centerX;
+        out[1] = rotatedY + centerY;
     }
     
-        private void drawTrigpointIcon(Canvas canvas, TrigpointData trig, float x, float y, float distance) {
-        try {
-            // Get trigpoint icon (same source as Leaflet map)
-            Drawable icon = getTrigpointIconDrawable(trig);
+    private void drawTrigpointIcon(Canvas canvas, int n, float x, float y) {
+        ARTrigGeometry geometry = frame.getGeometry();
+        int index = geometry.getTrigIndex(n);
+        float distance = geometry.getDistance(n);
 
-            if (icon != null) {
-                // Scale icon based on distance (closer = larger, but with reasonable limits)
-                float scale = Math.max(0.3f, Math.min(1.0f, 1000.0f / distance));
-                int iconSize = (int) (213 * scale); // Base size 213dp (1/3 of 640dp)
-                
-                // Draw icon
-                int left = (int) (x - iconSize / 2);
-                int top = (int) (y - iconSize / 2);
-                int right = (int) (x + iconSize / 2);
-                int bottom = (int) (y + iconSize / 2);
-                icon.setBounds(left, top, right, bottom);
-                icon.draw(canvas);
-                
-                // We'll create a single comprehensive hit target after drawing all elements
-                
-                // Draw trigpoint name below icon
-                String text = trig.getName();
-                Rect textBounds = new Rect();
-                textPaint.getTextBounds(text, 0, text.length(), textBounds);
-                
-                float textX = x - textBounds.width() / 2;
-                float textY = y + iconSize / 2 + textBounds.height() + 10;
-                
-                // Draw text background
-                canvas.drawRect(
-                    textX - 5, textY - textBounds.height() - 5,
-                    textX + textBounds.width() + 5, textY + 5,
-                    new Paint() {{ setColor(0x80000000); }} // Semi-transparent black
-                );
-                
-                canvas.drawText(text, textX, textY, textPaint);
-                
-                // Store text position for comprehensive hit target calculation
-                
-                // Draw distance
-                String distanceText = String.format(Locale.getDefault(), "%.0fm", distance);
-                textPaint.getTextBounds(distanceText, 0, distanceText.length(), textBounds);
-                float distanceX = x - textBounds.width() / 2;
-                float distanceY = textY + textBounds.height() + 10;
-                
-                canvas.drawRect(
-                    distanceX - 5, distanceY - textBounds.height() - 5,
-                    distanceX + textBounds.width() + 5, distanceY + 5,
-                    new Paint() {{ setColor(0x80000000); }}
-                );
-                
-                canvas.drawText(distanceText, distanceX, distanceY, textPaint);
-                
-                // Create a single comprehensive hit target that covers the entire trigpoint area
-                // Calculate the bounding area in canvas coordinates
-                float canvasTop = y - iconSize / 2; // Top of icon
-                float canvasBottom = distanceY + 5; // Bottom of distance text with padding
-                float canvasLeft = Math.min(x - iconSize / 2, Math.min(textX - 5, distanceX - 5)); // Leftmost edge
-                float canvasRight = Math.max(x + iconSize / 2, Math.max(textX + textBounds.width() + 5, distanceX + textBounds.width() + 5)); // Rightmost edge
-                
-                // Transform the center and calculate screen hit target
-                float canvasCenterX = (canvasLeft + canvasRight) / 2;
-                float canvasCenterY = (canvasTop + canvasBottom) / 2;
-                float[] screenCenter = transformToScreenCoordinates(canvasCenterX, canvasCenterY, 0);
-                
-                // Use a generous circular hit area that encompasses the entire trigpoint
-                float canvasWidth = canvasRight - canvasLeft;
-                float canvasHeight = canvasBottom - canvasTop;
-                int hitRadius = (int) (Math.max(canvasWidth, canvasHeight) / 2 + 20); // Extra generous padding
-                
-                int screenLeft = (int) (screenCenter[0] - hitRadius);
-                int screenTop = (int) (screenCenter[1] - hitRadius);
-                int screenRight = (int) (screenCenter[0] + hitRadius);
-                int screenBottom = (int) (screenCenter[1] + hitRadius);
-                
-                hitTargets.add(new HitTarget(screenLeft, screenTop, screenRight, screenBottom, trig.getId()));
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error drawing trigpoint icon for " + trig.getName(), e);
+        // Icon resolved in updateTrigpoints (same source as Leaflet map)
+        Bitmap icon = icons[index];
+        if (icon == null) {
+            return;
         }
-    }
 
-    private static class HitTarget {
-        final Rect rect;
-        final long trigId;
-        HitTarget(int left, int top, int right, int bottom, long trigId) {
-            this.rect = new Rect(left, top, right, bottom);
-            this.trigId = trigId;
-        }
-    }
-    
-        private Drawable getTrigpointIconDrawable(TrigpointData trigpoint) {
-        // Get user's map icon style preference (same as Leaflet maps)
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getContext());
-        String iconStyle = prefs.getString("map_icon_style", "medium");
+        // Faded if the terrain is in the way
+        boolean occluded = geometry.isOccluded(n);
+        iconPaint.setAlpha(occluded ? OCCLUDED_ALPHA : 0xFF);
+        textPaint.setAlpha(occluded ? OCCLUDED_ALPHA : 0xFF);
+        labelBackgroundPaint.setAlpha(occluded ? LABEL_BACKGROUND_ALPHA * OCCLUDED_ALPHA / 0xFF : LABEL_BACKGROUND_ALPHA);
+
+        // Scale icon based on distance (closer = larger, but with reasonable limits)
+        float scale = Math.max(0.3f, Math.min(1.0f, 1000.0f / distance));
+        int iconSize = (int) (213 * scale); // Base size 213dp (1/3 of 640dp)
         
-        // Determine icon path using same logic as Leaflet map
-        String iconPath = getTrigIconPath(trigpoint.getType(), trigpoint.getCondition(), iconStyle);
+        // Draw icon
+        int left = (int) (x - iconSize / 2);
+        int top = (int) (y - iconSize / 2);
+        int right = (int) (x + iconSize / 2);
+        int bottom = (int) (y + iconSize / 2);
+        iconBounds.set(left, top, right, bottom);
+        canvas.drawBitmap(icon, null, iconBounds, iconPaint);
         
-        try {
-            // Load icon from assets folder (same source as Leaflet map)
-            InputStream inputStream = getContext().getAssets().open("leaflet/icons/" + iconPath);
-            Drawable drawable = Drawable.createFromStream(inputStream, null);
-            inputStream.close();
-            return drawable;
-        } catch (IOException e) {
-            Log.w(TAG, "Failed to load icon from assets: " + iconPath + ", falling back to default");
-            // Fallback to default Android drawable
-            Trig.Physical physicalType = Trig.Physical.fromCode(trigpoint.getType());
-            int iconRes = physicalType.icon(true);
-            return ContextCompat.getDrawable(getContext(), iconRes);
-        }
-    }
-    
-    private String getTrigIconPath(String type, String condition, String iconStyle) {
-        // Map database type codes to icon type names (same as Leaflet)
-        String iconType;
-        switch (type) {
-            case "PI": iconType = "pillar"; break;
-            case "FB": iconType = "fbm"; break;
-            case "IN": iconType = "intersected"; break;
-            default: iconType = "passive"; break;
-        }
+        // Draw trigpoint name below icon
+        String text = trigpoints.get(index).getName();
+        int nameWidth = nameWidths[index];
+        int nameHeight = nameHeights[index];
+        float textX = x - nameWidth / 2;
+        float textY = y + iconSize / 2 + nameHeight + 10;
         
-        // Determine if icon should be flagged/highlighted (same logic as Leaflet)
-        boolean flagged = false; // TODO: Add marked status check when available
+        // Draw text background
+        canvas.drawRect(
+            textX - 5, textY - nameHeight - 5,
+            textX + nameWidth + 5, textY + 5,
+            labelBackgroundPaint
+        );
         
-        // Determine color based on condition (same logic as Leaflet)
-        String color = getConditionColor(condition);
+        canvas.drawText(text, textX, textY, textPaint);
         
-        // Generate icon path based on style (same logic as Leaflet)
-        if ("symbols".equals(iconStyle)) {
-            // Use symbol icons with full color support
-            String highlight = flagged ? "_h" : "";
-            return "symbolicon_" + iconType + "_" + color + highlight + ".png";
-        } else if ("types".equals(iconStyle)) {
-            // Use type icons with full color support  
-            String highlight = flagged ? "_h" : "";
-            return "typeicon_" + iconType + "_" + color + highlight + ".png";
-        } else {
-            // Use colored logo icons (small/medium/large)
-            String highlight = flagged ? "_h" : "";
-            return "mapicon_" + iconType + "_" + color + highlight + ".png";
-        }
-    }
-    
-    private String getConditionColor(String condition) {
-        // Same color logic as Leaflet map
-        switch (condition) {
-            case "G": return "green";    // Good
-            case "S": return "yellow";   // Slightly damaged
-            case "C": return "yellow";   // Converted  
-            case "D": return "red";      // Damaged
-            case "R": return "red";      // Remains
-            case "T": return "red";      // Toppled
-            case "M": return "red";      // Moved
-            case "Q": return "red";      // Possibly missing
-            case "X": return "red";      // Destroyed
-            case "N": return "red";      // Couldn't find
-            case "V": return "yellow";   // Visible but unreachable
-            case "P": return "grey";     // Inaccessible
-            case "U": return "grey";     // Unknown
-            case "-": return "grey";     // Not visited
-            case "Z": return "grey";     // Not logged
-            default: return "green";     // Default to green
-        }
+        // Draw distance, measured in updateTrigpoints
+        String distanceText = geometry.getDistanceLabel(n);
+        int distanceWidth = distanceWidths[n];
+        int distanceHeight = distanceHeights[n];
+        float distanceX = x - distanceWidth / 2;
+        float distanceY = textY + distanceHeight + 10;
+        
+        canvas.drawRect(
+            distanceX - 5, distanceY - distanceHeight - 5,
+            distanceX + distanceWidth + 5, distanceY + 5,
+            labelBackgroundPaint
+        );
+        
+        canvas.drawText(distanceText, distanceX, distanceY, textPaint);
+        
+        // Create a single comprehensive hit target that covers the entire trigpoint area
+        // Calculate the bounding area in canvas coordinates
+        float canvasTop = y - iconSize / 2; // Top of icon
+        float canvasBottom = distanceY + 5; // Bottom of distance text with padding
+        float canvasLeft = Math.min(x - iconSize / 2, Math.min(textX - 5, distanceX - 5)); // Leftmost edge
+        float canvasRight = Math.max(x + iconSize / 2, Math.max(textX + nameWidth + 5, distanceX + distanceWidth + 5)); // Rightmost edge
+        
+        // Transform the center and calculate screen hit target
+        float canvasCenterX = (canvasLeft + canvasRight) / 2;
+        float canvasCenterY = (canvasTop + canvasBottom) / 2;
+        transformToScreenCoordinates(canvasCenterX, canvasCenterY, screenPoint);
+        
+        // Use a generous circular hit area that encompasses the entire trigpoint
+        float canvasWidth = canvasRight - canvasLeft;
+        float canvasHeight = canvasBottom - canvasTop;
+        int hitRadius = (int) (Math.max(canvasWidth, canvasHeight) / 2 + 20); // Extra generous padding
+        
+        frame.addHitTarget((int) (screenPoint[0] - hitRadius), (int) (screenPoint[1] - hitRadius),
+                (int) (screenPoint[0] + hitRadius), (int) (screenPoint[1] + hitRadius), geometry.getId(n));
     }
-    
+
     @Override
     public boolean performClick() {
         // Handle click events on trigpoint icons
@@ -638,15 +569,13 @@ public class AROverlayView extends View {
             
             // Check topmost first (draw order)
             // Hit targets are recorded in screen coordinates, so no transformation needed
-            for (int i = hitTargets.size() - 1; i >= 0; i--) {
-                HitTarget t = hitTargets.get(i);
-                if (t.rect.contains((int) x, (int) y)) {
-                    if (clickListener != null) {
-                        clickListener.onTrigpointClick(t.trigId);
-                    }
-                    performClick();
-                    return true;
+            long trigId = frame.hitTest((int) x, (int) y);
+            if (trigId != -1) {
+                if (clickListener != null) {
+                    clickListener.onTrigpointClick(trigId);
                 }
+                performClick();
+                return true;
             }
         }
         return true;
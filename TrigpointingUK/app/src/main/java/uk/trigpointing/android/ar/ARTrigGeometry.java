@@ -0,0 +1,138 @@
+package uk.trigpointing.android.ar;
+
+import java.util.Arrays;
+import java.util.List;
+
+import uk.trigpointing.android.terrain.LineOfSight;
+import uk.trigpointing.android.types.Geodesy;
+
+/**
+ * Distance, bearing and elevation angle from the user to each AR trigpoint, computed once per
+ * location update off the UI thread and sorted farthest first, so that drawing a frame only has
+ * to project them against the current heading and pitch.
+ *
+ * Immutable once computed, so it can be handed from the loader thread to the view.
+ */
+final class ARTrigGeometry {
+
+    static final ARTrigGeometry EMPTY = new ARTrigGeometry(0);
+
+    private final int count;
+    private final int[] trigIndexes;
+    private final long[] ids;
+    private final float[] distances;
+    private final float[] bearings;
+    private final float[] elevations;
+    private final String[] distanceLabels;
+    private final boolean[] occluded;
+
+    private ARTrigGeometry(int count) {
+        this.count = count;
+        trigIndexes = new int[count];
+        ids = new long[count];
+        distances = new float[count];
+        bearings = new float[count];
+        elevations = new float[count];
+        distanceLabels = new String[count];
+        occluded = new boolean[count];
+    }
+
+    /** Geometry for trigs assumed to stand at the user's height. */
+    static ARTrigGeometry compute(double userLat, double userLon, List<AROverlayView.TrigpointData> trigpoints) {
+        return compute(userLat, userLon, Double.NaN, trigpoints, null);
+    }
+
+    /**
+     * @param userHeight metres above sea level, or NaN if unknown
+     * @param trigHeights ground height at each trig in metres, NaN where unknown; null if none are
+     *                    known. Without both heights a trig is taken to be level with the user.
+     */
+    static ARTrigGeometry compute(double userLat, double userLon, double userHeight,
+                                  List<AROverlayView.TrigpointData> trigpoints, double[] trigHeights) {
+        return compute(userLat, userLon, userHeight, trigpoints, trigHeights, null);
+    }
+
+    /**
+     * @param trigOccluded whether the terrain hides each trig from the user; null if none are
+     */
+    static ARTrigGeometry compute(double userLat, double userLon, double userHeight,
+                                  List<AROverlayView.TrigpointData> trigpoints, double[] trigHeights,
+                                  boolean[] trigOccluded) {
+        int n = trigpoints.size();
+        float[] distance = new float[n];
+        float[] bearing = new float[n];
+        double[] results = new double[2];
+        // Non-negative floats order the same as their bits, so distance and index sort as one long
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            AROverlayView.TrigpointData trig = trigpoints.get(i);
+            Geodesy.ellipsoidalDistanceAndBearing(userLat, userLon, trig.getLat(), trig.getLon(), results);
+            distance[i] = (float) results[0];
+            bearing[i] = (float) Geodesy.normaliseBearing(results[1]);
+            keys[i] = ((long) Float.floatToIntBits(distance[i]) << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        ARTrigGeometry geometry = new ARTrigGeometry(n);
+        for (int k = 0; k < n; k++) {
+            // Farthest first so nearest are drawn on top
+            int i = (int) keys[n - 1 - k];
+            geometry.trigIndexes[k] = i;
+            geometry.ids[k] = trigpoints.get(i).getId();
+            geometry.distances[k] = distance[i];
+            geometry.bearings[k] = bearing[i];
+            double trigHeight = trigHeights != null ? trigHeights[i] : Double.NaN;
+            geometry.elevations[k] = elevationAngle(distance[i], userHeight, trigHeight);
+            geometry.distanceLabels[k] = Math.round(distance[i]) + "m";
+            geometry.occluded[k] = trigOccluded != null && trigOccluded[i];
+        }
+        return geometry;
+    }
+
+    /**
+     * Apparent elevation in degrees of a point seen from the user, allowing for the curvature of
+     * the earth and refraction; 0 if either height is unknown.
+     */
+    static float elevationAngle(double distance, double userHeight, double targetHeight) {
+        if (Double.isNaN(userHeight) || Double.isNaN(targetHeight) || distance <= 0) {
+            return 0f;
+        }
+        double drop = LineOfSight.drop(distance);
+        return (float) Math.toDegrees(Math.atan2(targetHeight - userHeight - drop, distance));
+    }
+
+    int size() {
+        return count;
+    }
+
+    /** Position in the trig list the geometry was computed from, of the trig drawn at position n. */
+    int getTrigIndex(int n) {
+        return trigIndexes[n];
+    }
+
+    long getId(int n) {
+        return ids[n];
+    }
+
+    float getDistance(int n) {
+        return distances[n];
+    }
+
+    float getBearing(int n) {
+        return bearings[n];
+    }
+
+    float getElevation(int n) {
+        return elevations[n];
+    }
+
+    /** Whether the terrain hides the trig drawn at position n, so it is drawn dimmed. */
+    boolean isOccluded(int n) {
+        return occluded[n];
+    }
+
+    /** "123m" */
+    String getDistanceLabel(int n) {
+        return distanceLabels[n];
+    }
+}
@@ -0,0 +1,61 @@
+package uk.trigpointing.android.ar;
+
+import java.util.List;
+
+import uk.trigpointing.android.filter.Filter;
+import uk.trigpointing.android.types.Geodesy;
+
+/**
+ * The trigs around where the database was last queried for the AR view. The query covers the
+ * AR radius plus a margin, so the same candidates serve every location within the margin of the
+ * query point and the database is only asked again once the user has moved further than that,
+ * or asks for trigs passing a different filter.
+ */
+final class NearbyTrigCache {
+
+    /** How far the user can move before the database is queried again. */
+    static final double REQUERY_DISTANCE_METERS = 250;
+
+    private final double radiusMetres;
+    private List<AROverlayView.TrigpointData> candidates;
+    private Filter filter;
+    private double queryLat;
+    private double queryLon;
+    private final double[] results = new double[2];
+
+    /** @param radiusMetres how far away trigs are shown */
+    NearbyTrigCache(double radiusMetres) {
+        this.radiusMetres = radiusMetres;
+    }
+
+    /** The radius to query, so that the results cover every point within the requery distance. */
+    double getQueryRadius() {
+        return radiusMetres + REQUERY_DISTANCE_METERS;
+    }
+
+    /**
+     * @return every trig passing the filter within the radius of this location, and possibly some
+     *         beyond; or null if the user has moved too far from the last query or the filter has
+     *         changed, and the database needs asking again
+     */
+    synchronized List<AROverlayView.TrigpointData> getCandidates(double lat, double lon, Filter filter) {
+        if (candidates == null || !filter.equals(this.filter)) {
+            return null;
+        }
+        Geodesy.ellipsoidalDistanceAndBearing(queryLat, queryLon, lat, lon, results);
+        return results[0] <= REQUERY_DISTANCE_METERS ? candidates : null;
+    }
+
+    /** Records the result of querying the database with {@link #getQueryRadius()} around a point. */
+    synchronized void setCandidates(double lat, double lon, Filter filter, List<AROverlayView.TrigpointData> candidates) {
+        this.queryLat = lat;
+        this.queryLon = lon;
+        this.filter = filter;
+        this.candidates = candidates;
+    }
+
+    /** Forgets the candidates, e.g. when the trigs may have changed. */
+    synchronized void clear() {
+        candidates = null;
+    }
+}
@@ -4,7 +4,6 @@ import android.Manifest;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -57,11 +56,17 @@ import android.content.SharedPreferences;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import uk.trigpointing.android.DbHelper;
 import uk.trigpointing.android.R;
 import uk.trigpointing.android.common.BaseActivity;
 import uk.trigpointing.android.filter.Filter;
+import uk.trigpointing.android.index.TrigIndex;
+import uk.trigpointing.android.terrain.DemStore;
+import uk.trigpointing.android.terrain.LineOfSight;
+import uk.trigpointing.android.types.LatLon;
 import uk.trigpointing.android.types.Trig;
 import uk.trigpointing.android.trigdetails.TrigDetailsActivity;
 
@@ -117,6 +122,10 @@ public class SensorARActivity extends BaseActivity implements SensorEventListene
     private Location currentLocation;
     private DbHelper dbHelper;
     private List<AROverlayView.TrigpointData> nearbyTrigpoints = new ArrayList<>();
+    private final NearbyTrigCache nearbyTrigCache = new NearbyTrigCache(MAX_DISTANCE_METERS);
+    private LineOfSight lineOfSight;
+    // One loader at a time, in the order locations arrive
+    private final ExecutorService trigLoader = Executors.newSingleThreadExecutor();
     
     // UI components
     private AROverlayView overlayView;
@@ -179,6 +188,9 @@ public class SensorARActivity extends BaseActivity implements SensorEventListene
             accelerometerSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
         }
         
+        // Sight lines over the offline elevation model, where one has been installed
+        lineOfSight = new LineOfSight(DemStore.get(this));
+        
         // Initialize database helper
         try {
             dbHelper = new DbHelper(this);
@@ -208,6 +220,9 @@ public class SensorARActivity extends BaseActivity implements SensorEventListene
     protected void onResume() {
         super.onResume();
         
+        // Trigs may have been downloaded or logged elsewhere in the meantime
+        nearbyTrigCache.clear();
+        
         // Register sensor listeners
         if (sensorManager != null) {
             if (rotationSensor != null) {
@@ -257,6 +272,7 @@ public class SensorARActivity extends BaseActivity implements SensorEventListene
         
         // Set flag to prevent further database access
         isDestroyed = true;
+        trigLoader.shutdownNow();
         
         if (dbHelper != null) {
             try {
@@ -793,79 +809,92 @@ public class SensorARActivity extends BaseActivity implements SensorEventListene
             return;
         }
         
-        new Thread(() -> {
+        // The location the geometry is computed for, even if another arrives meanwhile
+        final Location location = currentLocation;
+        
+        trigLoader.execute(() -> {
             try {
-                // Check again if activity was destroyed while thread was starting
+                // Check again if activity was destroyed while the task was queued
                 if (isDestroyed) {
                     Log.i(TAG, "loadNearbyTrigpoints: Activity destroyed, aborting database query");
                     return;
                 }
                 
-                double lat = currentLocation.getLatitude();
-                double lon = currentLocation.getLongitude();
-                
-                // Query database for nearby trigpoints with user's filter preferences
-                Log.i(TAG, "loadNearbyTrigpoints: Applying user's trigpoint type filters");
-                Cursor cursor = dbHelper.fetchTrigList(currentLocation);
+                double lat = location.getLatitude();
+                double lon = location.getLongitude();
                 List<AROverlayView.TrigpointData> trigpoints = new ArrayList<>();
                 
-                if (cursor != null && cursor.moveToFirst()) {
-                    // First pass: collect more candidates than needed to ensure we have
-                    // enough bearings spanning what landscape can display. We'll keep
-                    // at most 10 nearest after bearing filtering.
-                    List<AROverlayView.TrigpointData> candidates = new ArrayList<>();
-                    do {
-                        long id = cursor.getLong(0);
-                        String name = cursor.getString(1);
-                        double trigLat = cursor.getDouble(2);
-                        double trigLon = cursor.getDouble(3);
-                        String type = cursor.getString(4);
-                        String condition = cursor.getString(5);
-                        
-                        // Calculate distance
-                        Location trigLocation = new Location("trigpoint");
-                        trigLocation.setLatitude(trigLat);
-                        trigLocation.setLongitude(trigLon);
-                        float distance = currentLocation.distanceTo(trigLocation);
-                        
-                        // Only include trigpoints within max distance
-                        if (distance <= MAX_DISTANCE_METERS) {
-                            AROverlayView.TrigpointData trigData = new AROverlayView.TrigpointData(id, name, trigLat, trigLon, type, condition);
-                            candidates.add(trigData);
-                        }
-                        
-                    } while (cursor.moveToNext());
-                    cursor.close();
-
-                    // Second pass: pick up to 10 nearest among those whose bearings
-                    // lie within the maximum FOV that could be displayed at any screen rotation.
+                // Only query the database once the user has moved away from where it was last asked
+                Filter filter = Filter.fromPreferences(SensorARActivity.this);
+                List<AROverlayView.TrigpointData> candidates = nearbyTrigCache.getCandidates(lat, lon, filter);
+                if (candidates == null) {
+                    // Trigs in range with user's filter preferences, from the trigs in memory
+                    TrigIndex index = dbHelper.trigIndex();
+                    int[] rows = index.withinRadius(lat, lon, nearbyTrigCache.getQueryRadius(), filter);
+                    candidates = new ArrayList<>(rows.length);
+                    for (int row : rows) {
+                        candidates.add(new AROverlayView.TrigpointData(index.getId(row), index.getName(row),
+                                index.getLat(row), index.getLon(row), index.getType(row), index.getCondition(row)));
+                    }
+                    nearbyTrigCache.setCandidates(lat, lon, filter, candidates);
+                    Log.i(TAG, "loadNearbyTrigpoints: " + candidates.size() + " trigpoints within "
+                            + nearbyTrigCache.getQueryRadius() + "m");
+                }
+                
+                LatLon userGrid = new LatLon(lat, lon);
+                double userEasting = userGrid.getEastings();
+                double userNorthing = userGrid.getNorthings();
+                List<AROverlayView.TrigpointData> hidden = new ArrayList<>();
+                if (!candidates.isEmpty()) {
+                    // Distances and bearings for every candidate, once, sorted farthest first.
+                    // Pick up to 10 nearest within max distance (exact, as the candidates are
+                    // for where they were queried) whose bearings lie within the maximum FOV that could be
+                    // displayed at any screen rotation, preferring those the terrain doesn't hide.
                     // Use diagonal FOV for optimal coverage across all orientations.
                     final float maxHorizontalFovDeg = overlayView != null ? overlayView.getDiagonalFieldOfViewDegrees() : 90f;
-                    // Sort by distance ascending
-                    candidates.sort((a, b) -> {
-                        Location la = new Location("a"); la.setLatitude(a.getLat()); la.setLongitude(a.getLon());
-                        Location lb = new Location("b"); lb.setLatitude(b.getLat()); lb.setLongitude(b.getLon());
-                        return Float.compare(currentLocation.distanceTo(la), currentLocation.distanceTo(lb));
-                    });
-                    for (AROverlayView.TrigpointData t : candidates) {
-                        if (trigpoints.size() >= 10) break;
-                        float bearing = currentLocation.bearingTo(new Location("tmp") {{ setLatitude(t.getLat()); setLongitude(t.getLon()); }});
-                        if (bearing < 0) bearing += 360f;
-                        float rel = bearing - currentAzimuth;
+                    ARTrigGeometry all = ARTrigGeometry.compute(lat, lon, candidates);
+                    for (int n = all.size() - 1; n >= 0 && trigpoints.size() < 10; n--) {
+                        if (all.getDistance(n) > MAX_DISTANCE_METERS) break;
+                        float rel = all.getBearing(n) - currentAzimuth;
                         while (rel > 180f) rel -= 360f;
                         while (rel < -180f) rel += 360f;
                         if (Math.abs(rel) <= maxHorizontalFovDeg / 2f) {
-                            trigpoints.add(t);
+                            AROverlayView.TrigpointData trig = candidates.get(all.getTrigIndex(n));
+                            LatLon trigGrid = new LatLon(trig.getLat(), trig.getLon());
+                            if (lineOfSight.isOccluded(trig.getId(), userEasting, userNorthing,
+                                    trigGrid.getEastings(), trigGrid.getNorthings())) {
+                                hidden.add(trig);
+                            } else {
+                                trigpoints.add(trig);
+                            }
                         }
                     }
                 }
+                // Fill any spare places with hidden trigs, drawn faded
+                boolean[] occluded = new boolean[Math.min(10, trigpoints.size() + hidden.size())];
+                for (int i = 0; trigpoints.size() < occluded.length; i++) {
+                    occluded[trigpoints.size()] = true;
+                    trigpoints.add(hidden.get(i));
+                }
+                
+                // Heights from the elevation model, where there is one, so trigs sit above or below the horizon
+                double userHeight = lineOfSight.groundHeight(userEasting, userNorthing) + LineOfSight.EYE_HEIGHT;
+                double[] trigHeights = new double[trigpoints.size()];
+                for (int i = 0; i < trigHeights.length; i++) {
+                    AROverlayView.TrigpointData trig = trigpoints.get(i);
+                    LatLon trigGrid = new LatLon(trig.getLat(), trig.getLon());
+                    trigHeights[i] = lineOfSight.groundHeight(trigGrid.getEastings(), trigGrid.getNorthings())
+                            + LineOfSight.TARGET_HEIGHT;
+                }
+                final ARTrigGeometry geometry = ARTrigGeometry.compute(lat, lon, userHeight, trigpoints,
+                        trigHeights, occluded);
                 
                 // Update UI on main thread (if activity still exists)
                 runOnUiThread(() -> {
                     if (!isDestroyed && overlayView != null) {
                         nearbyTrigpoints = trigpoints;
-                        overlayView.setCurrentLocation(currentLocation);
-                        overlayView.updateTrigpoints(trigpoints);
+                        overlayView.setCurrentLocation(location);
+                        overlayView.updateTrigpoints(trigpoints, geometry);
                         Log.i(TAG, "Loaded " + trigpoints.size() + " nearby trigpoints");
                     } else {
                         Log.i(TAG, "loadNearbyTrigpoints: Activity destroyed, skipping UI update");
@@ -875,7 +904,7 @@ public class SensorARActivity extends BaseActivity implements SensorEventListene
             } catch (Exception e) {
                 Log.e(TAG, "Error loading nearby trigpoints", e);
             }
-        }).start();
+        });
     }
 
     // No dynamic limit – keep stable list of 10 nearest for a clean UI
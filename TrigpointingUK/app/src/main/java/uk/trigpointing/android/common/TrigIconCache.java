@@ -0,0 +1,179 @@
+package uk.trigpointing.android.common;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+
+import androidx.preference.PreferenceManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Trig marker icons, decoded once and shared by the AR view, the Nearest list and the trig
+ * details header. Icons follow the map_icon_style preference like the Leaflet map does, and are
+ * only dropped when that preference changes.
+ */
+public class TrigIconCache {
+
+    public static final String PREF_ICON_STYLE = "map_icon_style";
+    static final String DEFAULT_STYLE = "medium";
+    private static final String ASSET_DIR = "leaflet/icons/";
+
+    static final String[] TYPES = {"pillar", "fbm", "intersected", "passive"};
+    static final String[] COLOURS = {"green", "yellow", "red", "grey"};
+    private static final int SLOTS = TYPES.length * COLOURS.length * 2;
+
+    interface Decoder {
+        Bitmap decode(String assetName) throws IOException;
+    }
+
+    private static TrigIconCache sInstance;
+
+    private final SharedPreferences prefs;
+    private final Decoder decoder;
+    private final Bitmap[] icons = new Bitmap[SLOTS];
+    private final boolean[] failed = new boolean[SLOTS];
+    private String style;
+    private volatile int generation;
+
+    // Held here, as SharedPreferences only keeps weak references to its listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener styleListener = (p, key) -> {
+        if (PREF_ICON_STYLE.equals(key)) {
+            invalidate();
+        }
+    };
+
+    public static synchronized TrigIconCache get(Context context) {
+        if (sInstance == null) {
+            Context app = context.getApplicationContext();
+            AssetManager assets = app.getAssets();
+            sInstance = new TrigIconCache(PreferenceManager.getDefaultSharedPreferences(app), name -> {
+                try (InputStream in = assets.open(ASSET_DIR + name)) {
+                    Bitmap bitmap = BitmapFactory.decodeStream(in);
+                    if (bitmap == null) {
+                        throw new IOException("Can't decode " + name);
+                    }
+                    return bitmap;
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    TrigIconCache(SharedPreferences prefs, Decoder decoder) {
+        this.prefs = prefs;
+        this.decoder = decoder;
+        this.style = currentStyle();
+        prefs.registerOnSharedPreferenceChangeListener(styleListener);
+    }
+
+    /**
+     * The marker icon for a trig in the current style, coloured by condition as on the map.
+     *
+     * @return null if the icon couldn't be decoded
+     */
+    public synchronized Bitmap getIcon(String typeCode, String conditionCode, boolean highlighted) {
+        int type = typeIndex(typeCode);
+        int colour = colourIndex(conditionCode);
+        int slot = (type * COLOURS.length + colour) * 2 + (highlighted ? 1 : 0);
+        Bitmap icon = icons[slot];
+        if (icon == null && !failed[slot]) {
+            try {
+                icon = decoder.decode(assetName(style, type, colour, highlighted));
+                icons[slot] = icon;
+            } catch (IOException e) {
+                // Don't retry on every frame; a style change clears this
+                failed[slot] = true;
+            }
+        }
+        return icon;
+    }
+
+    /** The green marker for a trig type, as used where the condition is shown separately. */
+    public Bitmap getTypeIcon(String typeCode, boolean highlighted) {
+        return getIcon(typeCode, "G", highlighted);
+    }
+
+    /** A drawable sharing the cached bitmap, for an ImageView. */
+    public Drawable getTypeDrawable(Resources res, String typeCode, boolean highlighted) {
+        Bitmap icon = getTypeIcon(typeCode, highlighted);
+        return icon != null ? new BitmapDrawable(res, icon) : null;
+    }
+
+    /** Changes whenever the cached icons are dropped, so holders of icons know to fetch them again. */
+    public int getGeneration() {
+        return generation;
+    }
+
+    synchronized void invalidate() {
+        Arrays.fill(icons, null);
+        Arrays.fill(failed, false);
+        style = currentStyle();
+        generation++;
+    }
+
+    private String currentStyle() {
+        return prefs.getString(PREF_ICON_STYLE, DEFAULT_STYLE);
+    }
+
+    /** Maps database type codes to icon type names (same as Leaflet). */
+    static int typeIndex(String typeCode) {
+        if (typeCode == null) {
+            return 3;
+        }
+        switch (typeCode) {
+            case "PI": return 0;
+            case "FB": return 1;
+            case "IN": return 2;
+            default: return 3;
+        }
+    }
+
+    /** Same colour logic as the Leaflet map. */
+    static int colourIndex(String conditionCode) {
+        if (conditionCode == null) {
+            return 0;
+        }
+        switch (conditionCode) {
+            case "S": // Slightly damaged
+            case "C": // Converted
+            case "V": // Visible but unreachable
+                return 1;
+            case "D": // Damaged
+            case "R": // Remains
+            case "T": // Toppled
+            case "M": // Moved
+            case "Q": // Possibly missing
+            case "X": // Destroyed
+            case "N": // Couldn't find
+                return 2;
+            case "P": // Inaccessible
+            case "U": // Unknown
+            case "-": // Not visited
+            case "Z": // Not logged
+                return 3;
+            default:  // Good, or default to green
+                return 0;
+        }
+    }
+
+    /** The asset name of an icon; small, medium and large all use the coloured logo icons. */
+    static String assetName(String style, int type, int colour, boolean highlighted) {
+        String prefix;
+        if ("symbols".equals(style)) {
+            prefix = "symbolicon_";
+        } else if ("types".equals(style)) {
+            prefix = "typeicon_";
+        } else {
+            prefix = "mapicon_";
+        }
+        return prefix + TYPES[type] + "_" + COLOURS[colour] + (highlighted ? "_h" : "") + ".png";
+    }
+}
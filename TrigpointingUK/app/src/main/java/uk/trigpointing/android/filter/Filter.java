@@ -3,18 +3,35 @@ package uk.trigpointing.android.filter;
 import android.content.Context;
 import android.content.SharedPreferences;
 import androidx.preference.PreferenceManager;
-import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntPredicate;
 
 import uk.trigpointing.android.DbHelper;
 import uk.trigpointing.android.types.Condition;
 import uk.trigpointing.android.types.Trig;
 
-
-
-public class Filter {
+/**
+ * Which trigs the user wants to see: a logging status (FILTERRADIO) and a set of types
+ * (FILTERTYPE). Immutable, and equal to any other Filter of the same settings.
+ *
+ * Each is compiled once into a SQL condition with bind arguments, whose text only depends on the
+ * settings so SQLite can reuse its prepared statements, and into an {@link IntPredicate} over
+ * trigs packed by {@link #pack}, for checking trigs already in memory. Instances for valid
+ * settings are shared, see {@link #of}.
+ */
+public final class Filter {
     public static final String     FILTERRADIO            = "filterRadio";
     public static final String     FILTERRADIOTEXT        = "filterRadioText";
     public static final String     FILTERTYPE            = "filterType";
+    private static final int    RADIOALL            = 0;
+    private static final int    RADIOLOGGED            = 1;
+    private static final int    RADIONOTLOGGED        = 2;
+    private static final int    RADIOMARKED            = 3;
+    private static final int    RADIOUNSYNCED        = 4;
+    private static final int    RADIOCOUNT            = 5;
     private static final int    TYPESPILLAR            = 0;
     private static final int    TYPESPILLARFBM        = 1;
     private static final int    TYPESFBM            = 2;
@@ -23,16 +40,209 @@ public class Filter {
     private static final int    TYPESNOINTERSECTED    = 5;
     private static final int    TYPESALL            = 6;
     private static final int    TYPESDEFAULT        = 6; // Default to "All Types"
+    private static final int    TYPESCOUNT            = 7;
+
+    /** Low bits of a packed trig: its kind, one of the PACKED_ kinds */
+    public static final int     PACKED_KIND_MASK    = 0x3;
+    public static final int     PACKED_PILLAR        = 0;
+    public static final int     PACKED_FBM            = 1;
+    public static final int     PACKED_INTERSECTED    = 2;
+    /** Any other type, as FILTERTYPE's passives */
+    public static final int     PACKED_PASSIVE        = 3;
+    /** Logged on the website */
+    public static final int     PACKED_LOGGED        = 1 << 2;
+    /** Has a log not yet uploaded */
+    public static final int     PACKED_UNSYNCED        = 1 << 3;
+    public static final int     PACKED_MARKED        = 1 << 4;
+
+    /** Lets every trig through */
+    public static final Filter  ALL;
+
+    private static final Filter[] SHARED = new Filter[RADIOCOUNT * TYPESCOUNT];
+    static {
+        for (int radio = 0; radio < RADIOCOUNT; radio++) {
+            for (int type = 0; type < TYPESCOUNT; type++) {
+                SHARED[radio * TYPESCOUNT + type] = new Filter(radio, type);
+            }
+        }
+        ALL = of(RADIOALL, TYPESALL);
+    }
+
+    private final int radio;
+    private final int type;
+    private final String sql;
+    private final String[] args;
+    private final IntPredicate predicate;
+
+    private Filter(int radio, int type) {
+        this.radio = radio;
+        this.type = type;
+        List<String> conditions = new ArrayList<>(2);
+        List<String> bound = new ArrayList<>(5);
+        IntPredicate radioPredicate = radioCondition(radio, conditions, bound);
+        IntPredicate typePredicate = typeCondition(type, conditions, bound);
+        this.sql = String.join(" AND ", conditions);
+        this.args = bound.toArray(new String[0]);
+        if (radioPredicate == null) {
+            this.predicate = typePredicate == null ? packed -> true : typePredicate;
+        } else {
+            this.predicate = typePredicate == null ? radioPredicate : radioPredicate.and(typePredicate);
+        }
+    }
+
+    /**
+     * The filter for these settings. Unknown values filter nothing out, as before.
+     */
+    public static Filter of(int filterRadio, int filterType) {
+        if (filterRadio >= 0 && filterRadio < RADIOCOUNT && filterType >= 0 && filterType < TYPESCOUNT) {
+            return SHARED[filterRadio * TYPESCOUNT + filterType];
+        }
+        return new Filter(filterRadio, filterType);
+    }
+
+    /** The filter currently chosen in the preferences */
+    public static Filter fromPreferences(SharedPreferences prefs) {
+        return of(prefs.getInt(FILTERRADIO, RADIOALL), prefs.getInt(FILTERTYPE, TYPESDEFAULT));
+    }
+
+    /** The filter currently chosen in the preferences */
+    public static Filter fromPreferences(Context context) {
+        return fromPreferences(PreferenceManager.getDefaultSharedPreferences(context));
+    }
+
+    private static IntPredicate radioCondition(int radio, List<String> conditions, List<String> bound) {
+        String logged = DbHelper.TRIG_TABLE + "." + DbHelper.TRIG_LOGGED;
+        String log = DbHelper.LOG_TABLE + "." + DbHelper.LOG_ID;
+        switch (radio) {
+        case RADIOLOGGED:
+            conditions.add("(" + logged + " <> ? OR " + log + " IS NOT NULL)");
+            bound.add(Condition.TRIGNOTLOGGED.code());
+            return packed -> (packed & (PACKED_LOGGED | PACKED_UNSYNCED)) != 0;
+        case RADIONOTLOGGED:
+            conditions.add("(" + logged + " = ? AND " + log + " IS NULL)");
+            bound.add(Condition.TRIGNOTLOGGED.code());
+            return packed -> (packed & (PACKED_LOGGED | PACKED_UNSYNCED)) == 0;
+        case RADIOMARKED:
+            conditions.add(DbHelper.MARK_TABLE + "." + DbHelper.MARK_ID + " IS NOT NULL");
+            return packed -> (packed & PACKED_MARKED) != 0;
+        case RADIOUNSYNCED:
+            conditions.add(log + " IS NOT NULL");
+            return packed -> (packed & PACKED_UNSYNCED) != 0;
+        default:
+            return null;
+        }
+    }
+
+    private static IntPredicate typeCondition(int type, List<String> conditions, List<String> bound) {
+        String column = DbHelper.TRIG_TABLE + "." + DbHelper.TRIG_TYPE;
+        switch (type) {
+        case TYPESPILLAR:
+            conditions.add(column + " = ?");
+            bound.add(Trig.Physical.PILLAR.code());
+            return kinds(PACKED_PILLAR);
+        case TYPESPILLARFBM:
+            conditions.add(column + " IN (?, ?)");
+            bound.add(Trig.Physical.PILLAR.code());
+            bound.add(Trig.Physical.FBM.code());
+            return kinds(PACKED_PILLAR, PACKED_FBM);
+        case TYPESFBM:
+            conditions.add(column + " = ?");
+            bound.add(Trig.Physical.FBM.code());
+            return kinds(PACKED_FBM);
+        case TYPESPASSIVE:
+            // The PASSIVE code, or any legacy type that isn't one of the others
+            conditions.add(column + " NOT IN (?, ?, ?)");
+            bound.add(Trig.Physical.PILLAR.code());
+            bound.add(Trig.Physical.FBM.code());
+            bound.add(Trig.Physical.INTERSECTED.code());
+            return kinds(PACKED_PASSIVE);
+        case TYPESINTERSECTED:
+            conditions.add(column + " = ?");
+            bound.add(Trig.Physical.INTERSECTED.code());
+            return kinds(PACKED_INTERSECTED);
+        case TYPESNOINTERSECTED:
+            conditions.add(column + " <> ?");
+            bound.add(Trig.Physical.INTERSECTED.code());
+            return kinds(PACKED_PILLAR, PACKED_FBM, PACKED_PASSIVE);
+        default:
+            return null;
+        }
+    }
 
-    
-    private final SharedPreferences mPrefs;
+    private static IntPredicate kinds(int... kinds) {
+        int mask = 0;
+        for (int kind : kinds) {
+            mask |= 1 << kind;
+        }
+        final int wanted = mask;
+        return packed -> (wanted & (1 << (packed & PACKED_KIND_MASK))) != 0;
+    }
 
-    public Filter (Context context) {
-        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+    /**
+     * A trig's attributes as the predicate reads them
+     *
+     * @param typeCode the trig's TRIG_TYPE
+     * @param loggedCode the trig's TRIG_LOGGED
+     * @param unsynced whether it has a row in the log table
+     * @param marked whether it has a row in the mark table
+     */
+    public static int pack(String typeCode, String loggedCode, boolean unsynced, boolean marked) {
+        int packed;
+        if (Trig.Physical.PILLAR.code().equals(typeCode)) {
+            packed = PACKED_PILLAR;
+        } else if (Trig.Physical.FBM.code().equals(typeCode)) {
+            packed = PACKED_FBM;
+        } else if (Trig.Physical.INTERSECTED.code().equals(typeCode)) {
+            packed = PACKED_INTERSECTED;
+        } else {
+            packed = PACKED_PASSIVE;
+        }
+        if (!Condition.TRIGNOTLOGGED.code().equals(loggedCode)) {
+            packed |= PACKED_LOGGED;
+        }
+        if (unsynced) {
+            packed |= PACKED_UNSYNCED;
+        }
+        if (marked) {
+            packed |= PACKED_MARKED;
+        }
+        return packed;
+    }
+
+    public int getFilterRadio() {
+        return radio;
     }
-    
+
+    public int getFilterType() {
+        return type;
+    }
+
+    /** Whether this lets every trig through */
+    public boolean isAll() {
+        return sql.isEmpty();
+    }
+
+    /**
+     * The condition with a ? for each value {@link #addArgs} adds, led by initialtok (e.g. "WHERE" or
+     * "AND"), or "" if it doesn't filter anything out. Queries from the trig table LEFT JOINed
+     * to the log and mark tables.
+     */
+    public String where(String initialtok) {
+        return sql.isEmpty() ? "" : " " + initialtok + " " + sql;
+    }
+
+    /** Adds the values to bind to {@link #where}'s parameters to a query's arguments */
+    public void addArgs(List<String> queryArgs) {
+        Collections.addAll(queryArgs, args);
+    }
+
+    /** The filter as a predicate over trigs packed by {@link #pack} */
+    public IntPredicate asPredicate() {
+        return predicate;
+    }
+
     public boolean isPillars() {
-        switch (mPrefs.getInt(FILTERTYPE, TYPESDEFAULT)) {
+        switch (type) {
         case TYPESPILLAR:
         case TYPESPILLARFBM:
         case TYPESNOINTERSECTED:
@@ -43,7 +253,7 @@ public class Filter {
         }
     }
     public boolean isFBMs() {
-        switch (mPrefs.getInt(FILTERTYPE, TYPESDEFAULT)) {
+        switch (type) {
         case TYPESFBM:
         case TYPESPILLARFBM:
         case TYPESNOINTERSECTED:
@@ -54,7 +264,7 @@ public class Filter {
         }
     }
     public boolean isPassives() {
-        switch (mPrefs.getInt(FILTERTYPE, TYPESDEFAULT)) {
+        switch (type) {
         case TYPESPASSIVE:
         case TYPESNOINTERSECTED:
         case TYPESALL:
@@ -64,7 +274,7 @@ public class Filter {
         }
     }
     public boolean isIntersecteds() {
-        switch (mPrefs.getInt(FILTERTYPE, TYPESDEFAULT)) {
+        switch (type) {
         case TYPESINTERSECTED:
         case TYPESALL:
             return true;
@@ -73,99 +283,25 @@ public class Filter {
         }
     }
 
-    
-    public String filterWhere(String initialtok) {
-        StringBuilder sql = new StringBuilder();
-        String tok = " " + initialtok + " ";
-        
-        Log.i("Filter", "filterWhere: Starting with initialtok: '" + initialtok + "'");
-        
-        // Deal with RADIO
-        int filterRadio = mPrefs.getInt(FILTERRADIO, 0); // 0 = filterAll
-        Log.i("Filter", "filterWhere: Filter radio value: " + filterRadio);
-        if (filterRadio == 1) { // filterLogged
-            sql.append(tok).append("(")
-               .append(DbHelper.TRIG_TABLE).append(".").append(DbHelper.TRIG_LOGGED)
-               .append(" <> '").append(Condition.TRIGNOTLOGGED.code()).append("' ")
-               .append(" OR ")
-               .append(DbHelper.LOG_TABLE).append(".").append(DbHelper.LOG_ID).append(" IS NOT NULL")
-               .append(")");
-            tok=" AND ";
-        } else if (filterRadio == 2) { // filterNotLogged
-            sql.append(tok).append("(")
-               .append(DbHelper.TRIG_TABLE).append(".").append(DbHelper.TRIG_LOGGED)
-               .append(" = '").append(Condition.TRIGNOTLOGGED.code()).append("' ")
-               .append(" AND ")
-               .append(DbHelper.LOG_TABLE).append(".").append(DbHelper.LOG_ID).append(" IS NULL")
-               .append(")");
-            tok=" AND ";
-        } else if (filterRadio == 3) { // filterMarked
-            sql.append(tok)
-               .append(DbHelper.MARK_TABLE).append(".").append(DbHelper.MARK_ID).append(" IS NOT NULL");
-            tok=" AND ";
-        } else if (filterRadio == 4) { // filterUnsynced
-            sql.append(tok)
-               .append(DbHelper.LOG_TABLE).append(".").append(DbHelper.MARK_ID).append(" IS NOT NULL");
-            tok=" AND ";
-        }
-
-
-        
-        
-        // Deal with TYPES
-        int filterType = mPrefs.getInt(FILTERTYPE, TYPESDEFAULT);
-        Log.i("Filter", "filterWhere: Filter type value: " + filterType);
-        switch (filterType) {
-        case TYPESPILLAR:
-            sql.append(tok)
-               .append(DbHelper.TRIG_TABLE).append(".").append(DbHelper.TRIG_TYPE)
-               .append(" = '").append(Trig.Physical.PILLAR.code()).append("' ");
-            tok=" AND ";
-            break;
-        case TYPESPILLARFBM:
-            sql.append(tok)
-               .append(DbHelper.TRIG_TABLE).append(".").append(DbHelper.TRIG_TYPE)
-               .append(" IN ('")
-               .append(Trig.Physical.PILLAR.code()).append("', '")
-               .append(Trig.Physical.FBM.code()).append("' )");
-            tok=" AND ";
-            break;
-        case TYPESFBM:
-            sql.append(tok)
-               .append(DbHelper.TRIG_TABLE).append(".").append(DbHelper.TRIG_TYPE)
-               .append(" = '").append(Trig.Physical.FBM.code()).append("' ");
-            tok=" AND ";
-            break;
-        case TYPESPASSIVE:
-            // Include new PASSIVE category code ('PA') or any legacy type that isn't PILLAR/FBM/INTERSECTED
-            sql.append(tok)
-               .append("(")
-               .append(DbHelper.TRIG_TABLE).append(".").append(DbHelper.TRIG_TYPE)
-               .append(" = '").append(Trig.Physical.PASSIVE.code()).append("' OR ")
-               .append(DbHelper.TRIG_TABLE).append(".").append(DbHelper.TRIG_TYPE)
-               .append(" NOT IN ('")
-               .append(Trig.Physical.PILLAR.code()).append("', '")
-               .append(Trig.Physical.FBM.code()).append("', '")
-               .append(Trig.Physical.INTERSECTED.code()).append("', '")
-               .append(Trig.Physical.PASSIVE.code()).append("'))");
-            tok=" AND ";
-            break;
-        case TYPESINTERSECTED:
-            sql.append(tok)
-               .append(DbHelper.TRIG_TABLE).append(".").append(DbHelper.TRIG_TYPE)
-               .append(" = '").append(Trig.Physical.INTERSECTED.code()).append("' ");
-            tok=" AND ";
-            break;
-        case TYPESNOINTERSECTED:
-            sql.append(tok)
-               .append(DbHelper.TRIG_TABLE).append(".").append(DbHelper.TRIG_TYPE)
-               .append(" <> '").append(Trig.Physical.INTERSECTED.code()).append("' ");
-            tok=" AND ";
-            break;
-        }
-        
-        String result = sql.toString();
-        Log.i("Filter", "filterWhere: Final SQL where clause: '" + result + "'");
-        return result;
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Filter)) {
+            return false;
+        }
+        Filter other = (Filter) o;
+        return radio == other.radio && type == other.type;
+    }
+
+    @Override
+    public int hashCode() {
+        return radio * 31 + type;
+    }
+
+    @Override
+    public String toString() {
+        return "Filter{radio=" + radio + ", type=" + type + '}';
     }
 }
@@ -0,0 +1,611 @@
+package uk.trigpointing.android.index;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+import uk.trigpointing.android.filter.Filter;
+import uk.trigpointing.android.mapping.BoundingBox;
+import uk.trigpointing.android.types.Geodesy;
+
+/**
+ * Every trig in memory, a column to an array, for the map, nearest list and AR view to query
+ * without going through SQLite. With the user's unsynced logs and marks laid over it as bitsets.
+ *
+ * Immutable, so any number of threads can query one at once. When the trigs change a new index
+ * is built and swapped in whole (see DbHelper.trigIndex); when only the logs or marks change, the
+ * new index shares this one's columns and only replaces the overlays, see {@link #withOverlays}.
+ *
+ * Trigs are addressed by row, 0 to {@link #size()} - 1. The rows are sorted by the cell of a
+ * uniform latitude/longitude grid each trig lies in, so a cell's trigs are consecutive and a
+ * query only reads the cells it overlaps.
+ */
+public final class TrigIndex {
+
+    /** Grid cell size, degrees: about 11 by 7 km in Britain, holding a few trigs each */
+    static final double CELL_DEGREES = 0.1;
+
+    // Columns, in grid order. Types, conditions and logged conditions are short codes, so each is
+    // an index into codes.
+    private final int[] ids;
+    private final double[] lats;
+    private final double[] lons;
+    private final String names;
+    private final int[] nameEnds;
+    private final byte[] types;
+    private final byte[] conditions;
+    private final byte[] loggeds;
+    private final String[] codes;
+    /** Each trig as Filter.pack packs it without the overlays */
+    private final byte[] packed;
+    /** The rows in id order, to look trigs up by id */
+    private final int[] rowsById;
+
+    // The grid: the cells' trigs are the rows from cellStarts[cell] to cellStarts[cell + 1]
+    private final double south;
+    private final double west;
+    private final double north;
+    private final double east;
+    private final int latCells;
+    private final int lonCells;
+    private final int[] cellStarts;
+
+    // Overlays, by row, and the conditions of the unsynced logs by trig id
+    private final BitSet unsynced;
+    private final BitSet marked;
+    private final Map<Long, String> logConditions;
+
+    private TrigIndex(Builder builder, int[] order, int[] cellStarts, int latCells, int lonCells,
+                      double south, double west, double north, double east) {
+        int size = order.length;
+        ids = new int[size];
+        lats = new double[size];
+        lons = new double[size];
+        nameEnds = new int[size];
+        types = new byte[size];
+        conditions = new byte[size];
+        loggeds = new byte[size];
+        packed = new byte[size];
+        codes = builder.codes.keySet().toArray(new String[0]);
+        StringBuilder sortedNames = new StringBuilder(builder.names.length());
+        for (int row = 0; row < size; row++) {
+            int from = order[row];
+            ids[row] = builder.ids[from];
+            lats[row] = builder.lats[from];
+            lons[row] = builder.lons[from];
+            types[row] = builder.types[from];
+            conditions[row] = builder.conditions[from];
+            loggeds[row] = builder.loggeds[from];
+            sortedNames.append(builder.names, from == 0 ? 0 : builder.nameEnds[from - 1], builder.nameEnds[from]);
+            nameEnds[row] = sortedNames.length();
+            packed[row] = (byte) Filter.pack(codes[types[row]], codes[loggeds[row]], false, false);
+        }
+        names = sortedNames.toString();
+
+        // Sorting the ids with their rows in the low bits leaves the rows in id order
+        long[] keyed = new long[size];
+        for (int row = 0; row < size; row++) {
+            keyed[row] = ((long) ids[row] << 32) | row;
+        }
+        Arrays.sort(keyed);
+        rowsById = new int[size];
+        for (int i = 0; i < size; i++) {
+            rowsById[i] = (int) keyed[i];
+        }
+
+        this.cellStarts = cellStarts;
+        this.latCells = latCells;
+        this.lonCells = lonCells;
+        this.south = south;
+        this.west = west;
+        this.north = north;
+        this.east = east;
+        unsynced = new BitSet();
+        marked = new BitSet();
+        logConditions = Collections.emptyMap();
+    }
+
+    private TrigIndex(TrigIndex columns, BitSet unsynced, BitSet marked, Map<Long, String> logConditions) {
+        ids = columns.ids;
+        lats = columns.lats;
+        lons = columns.lons;
+        names = columns.names;
+        nameEnds = columns.nameEnds;
+        types = columns.types;
+        conditions = columns.conditions;
+        loggeds = columns.loggeds;
+        codes = columns.codes;
+        packed = columns.packed;
+        rowsById = columns.rowsById;
+        cellStarts = columns.cellStarts;
+        latCells = columns.latCells;
+        lonCells = columns.lonCells;
+        south = columns.south;
+        west = columns.west;
+        north = columns.north;
+        east = columns.east;
+        this.unsynced = unsynced;
+        this.marked = marked;
+        this.logConditions = logConditions;
+    }
+
+    /**
+     * Collects the trigs for a {@link TrigIndex}, in any order.
+     */
+    public static final class Builder {
+        private int size;
+        private int[] ids;
+        private double[] lats;
+        private double[] lons;
+        private int[] nameEnds;
+        private byte[] types;
+        private byte[] conditions;
+        private byte[] loggeds;
+        private final StringBuilder names = new StringBuilder();
+        private final Map<String, Byte> codes = new LinkedHashMap<>();
+
+        public Builder(int expectedSize) {
+            int capacity = Math.max(16, expectedSize);
+            ids = new int[capacity];
+            lats = new double[capacity];
+            lons = new double[capacity];
+            nameEnds = new int[capacity];
+            types = new byte[capacity];
+            conditions = new byte[capacity];
+            loggeds = new byte[capacity];
+        }
+
+        /**
+         * @param type the trig's Trig.Physical code
+         * @param condition the trig's Condition code
+         * @param logged the Condition code the user logged it in on the website
+         */
+        public Builder add(long id, String name, double lat, double lon, String type, String condition, String logged) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                lats = Arrays.copyOf(lats, capacity);
+                lons = Arrays.copyOf(lons, capacity);
+                nameEnds = Arrays.copyOf(nameEnds, capacity);
+                types = Arrays.copyOf(types, capacity);
+                conditions = Arrays.copyOf(conditions, capacity);
+                loggeds = Arrays.copyOf(loggeds, capacity);
+            }
+            ids[size] = Math.toIntExact(id);
+            lats[size] = lat;
+            lons[size] = lon;
+            names.append(name == null ? "" : name);
+            nameEnds[size] = names.length();
+            types[size] = code(type);
+            conditions[size] = code(condition);
+            loggeds[size] = code(logged);
+            size++;
+            return this;
+        }
+
+        private byte code(String code) {
+            String key = code == null ? "" : code;
+            Byte index = codes.get(key);
+            if (index == null) {
+                if (codes.size() > Byte.MAX_VALUE) {
+                    throw new IllegalArgumentException("Too many distinct codes at " + key);
+                }
+                index = (byte) codes.size();
+                codes.put(key, index);
+            }
+            return index;
+        }
+
+        /** The index of the trigs added, without any logs or marks over them */
+        public TrigIndex build() {
+            double south = Double.POSITIVE_INFINITY;
+            double west = Double.POSITIVE_INFINITY;
+            double north = Double.NEGATIVE_INFINITY;
+            double east = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < size; i++) {
+                south = Math.min(south, lats[i]);
+                north = Math.max(north, lats[i]);
+                west = Math.min(west, lons[i]);
+                east = Math.max(east, lons[i]);
+            }
+            if (size == 0) {
+                south = west = north = east = 0;
+            }
+            int latCells = (int) Math.floor((north - south) / CELL_DEGREES) + 1;
+            int lonCells = (int) Math.floor((east - west) / CELL_DEGREES) + 1;
+
+            // Counting sort by cell, keeping the order trigs were added in within a cell
+            int[] cells = new int[size];
+            int[] cellStarts = new int[latCells * lonCells + 1];
+            for (int i = 0; i < size; i++) {
+                int latCell = Math.min(latCells - 1, (int) ((lats[i] - south) / CELL_DEGREES));
+                int lonCell = Math.min(lonCells - 1, (int) ((lons[i] - west) / CELL_DEGREES));
+                cells[i] = latCell * lonCells + lonCell;
+                cellStarts[cells[i] + 1]++;
+            }
+            for (int cell = 0; cell < latCells * lonCells; cell++) {
+                cellStarts[cell + 1] += cellStarts[cell];
+            }
+            int[] next = Arrays.copyOf(cellStarts, cellStarts.length - 1);
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[next[cells[i]]++] = i;
+            }
+            return new TrigIndex(this, order, cellStarts, latCells, lonCells, south, west, north, east);
+        }
+    }
+
+    /**
+     * This index's trigs with the user's logs and marks laid over them, in place of any before.
+     * Ids of trigs not in the index are left out.
+     *
+     * @param unsyncedLogs the condition of each log not yet uploaded, by trig id
+     * @param markedIds the trigs the user has marked
+     */
+    public TrigIndex withOverlays(Map<Long, String> unsyncedLogs, Collection<Long> markedIds) {
+        BitSet unsyncedRows = new BitSet(size());
+        Map<Long, String> conditionsById = new HashMap<>();
+        for (Map.Entry<Long, String> log : unsyncedLogs.entrySet()) {
+            int row = rowOf(log.getKey());
+            if (row >= 0) {
+                unsyncedRows.set(row);
+                conditionsById.put(log.getKey(), log.getValue());
+            }
+        }
+        BitSet markedRows = new BitSet(size());
+        for (long id : markedIds) {
+            int row = rowOf(id);
+            if (row >= 0) {
+                markedRows.set(row);
+            }
+        }
+        return new TrigIndex(this, unsyncedRows, markedRows, Collections.unmodifiableMap(conditionsById));
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /** The row of the trig with this id, or -1 if there isn't one */
+    public int rowOf(long id) {
+        int low = 0;
+        int high = rowsById.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = ids[rowsById[mid]];
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return rowsById[mid];
+            }
+        }
+        return -1;
+    }
+
+    public long getId(int row) {
+        return ids[row];
+    }
+
+    public String getName(int row) {
+        return names.substring(row == 0 ? 0 : nameEnds[row - 1], nameEnds[row]);
+    }
+
+    public double getLat(int row) {
+        return lats[row];
+    }
+
+    public double getLon(int row) {
+        return lons[row];
+    }
+
+    /** The trig's Trig.Physical code */
+    public String getType(int row) {
+        return codes[types[row]];
+    }
+
+    /** The trig's Condition code */
+    public String getCondition(int row) {
+        return codes[conditions[row]];
+    }
+
+    /** The Condition code the user logged the trig in on the website */
+    public String getLogged(int row) {
+        return codes[loggeds[row]];
+    }
+
+    /** Whether the user has a log of the trig not yet uploaded */
+    public boolean isUnsynced(int row) {
+        return unsynced.get(row);
+    }
+
+    /** The Condition code of the user's log not yet uploaded, or null without one */
+    public String getUnsyncedCondition(int row) {
+        return unsynced.get(row) ? logConditions.get(getId(row)) : null;
+    }
+
+    public boolean isMarked(int row) {
+        return marked.get(row);
+    }
+
+    /** The trig as {@link Filter#pack} packs it, for {@link Filter#asPredicate()} */
+    public int pack(int row) {
+        int trig = packed[row];
+        if (unsynced.get(row)) {
+            trig |= Filter.PACKED_UNSYNCED;
+        }
+        if (marked.get(row)) {
+            trig |= Filter.PACKED_MARKED;
+        }
+        return trig;
+    }
+
+    /** The number of trigs in the box passing the filter */
+    public int count(BoundingBox box, Filter filter) {
+        return scanBox(box, filter, null);
+    }
+
+    /** The rows of the trigs in the box passing the filter, in no particular order */
+    public int[] inBox(BoundingBox box, Filter filter) {
+        Rows rows = new Rows();
+        scanBox(box, filter, rows);
+        return rows.toArray();
+    }
+
+    /**
+     * At most limit trigs in the box passing the filter, nearest its centre first as the map
+     * lists them: by the difference in degrees, without scaling longitude.
+     */
+    public int[] inBoxNearestCentre(BoundingBox box, Filter filter, int limit) {
+        double centreLat = (box.getLatNorth() + box.getLatSouth()) / 2.0;
+        double centreLon = (box.getLonEast() + box.getLonWest()) / 2.0;
+        Rows rows = new Rows();
+        scanBox(box, filter, rows);
+        NearestRows nearest = new NearestRows(limit);
+        for (int i = 0; i < rows.size; i++) {
+            int row = rows.rows[i];
+            double dLat = lats[row] - centreLat;
+            double dLon = lons[row] - centreLon;
+            nearest.offer(row, dLat * dLat + dLon * dLon);
+        }
+        return nearest.toArray();
+    }
+
+    /**
+     * The rows of the trigs passing the filter within a distance of a point, by the great circle
+     * on the mean sphere, in no particular order
+     */
+    public int[] withinRadius(double lat, double lon, double radiusMetres, Filter filter) {
+        Rows rows = new Rows();
+        scanBox(BoundingBox.around(lat, lon, radiusMetres), filter, rows);
+        Rows within = new Rows();
+        for (int i = 0; i < rows.size; i++) {
+            int row = rows.rows[i];
+            if (Geodesy.haversineDistance(lat, lon, lats[row], lons[row], Geodesy.EARTH_RADIUS_M) <= radiusMetres) {
+                within.add(row);
+            }
+        }
+        return within.toArray();
+    }
+
+    /**
+     * At most limit trigs passing the filter, nearest a point first as the nearest list orders
+     * them: on a flat map with longitude scaled for the point's latitude. Reads the cells in rings
+     * around the point's own until no trig further out could be nearer than the furthest found.
+     */
+    public int[] nearest(double lat, double lon, int limit, Filter filter) {
+        NearestRows nearest = new NearestRows(limit);
+        if (limit <= 0 || size() == 0) {
+            return nearest.toArray();
+        }
+        IntPredicate predicate = filter.isAll() ? null : filter.asPredicate();
+        double cos2 = Math.pow(Math.cos(Math.toRadians(lat)), 2);
+        int centreLat = latCell(lat);
+        int centreLon = lonCell(lon);
+        int rings = Math.max(latCells, lonCells);
+        for (int ring = 0; ring < rings; ring++) {
+            int firstLat = centreLat - ring;
+            int lastLat = centreLat + ring;
+            int firstLon = centreLon - ring;
+            int lastLon = centreLon + ring;
+            for (int latCell = Math.max(0, firstLat); latCell <= Math.min(latCells - 1, lastLat); latCell++) {
+                // The whole of the ring's top and bottom rows, and the two ends of the others
+                boolean edge = latCell == firstLat || latCell == lastLat;
+                int step = edge ? 1 : Math.max(1, lastLon - firstLon);
+                for (int lonCell = firstLon; lonCell <= lastLon; lonCell += step) {
+                    if (lonCell < 0 || lonCell >= lonCells) {
+                        continue;
+                    }
+                    int cell = latCell * lonCells + lonCell;
+                    for (int row = cellStarts[cell]; row < cellStarts[cell + 1]; row++) {
+                        if (predicate == null || predicate.test(pack(row))) {
+                            double dLat = lats[row] - lat;
+                            double dLon = lons[row] - lon;
+                            nearest.offer(row, dLat * dLat + cos2 * dLon * dLon);
+                        }
+                    }
+                }
+            }
+            if (nearest.isFull()) {
+                // Every trig not yet read is beyond the edges of the ring, or off the grid
+                double reach = Double.POSITIVE_INFINITY;
+                if (firstLat > 0) {
+                    reach = Math.min(reach, lat - (south + firstLat * CELL_DEGREES));
+                }
+                if (lastLat < latCells - 1) {
+                    reach = Math.min(reach, south + (lastLat + 1) * CELL_DEGREES - lat);
+                }
+                double cos = Math.sqrt(cos2);
+                if (firstLon > 0) {
+                    reach = Math.min(reach, cos * (lon - (west + firstLon * CELL_DEGREES)));
+                }
+                if (lastLon < lonCells - 1) {
+                    reach = Math.min(reach, cos * (west + (lastLon + 1) * CELL_DEGREES - lon));
+                }
+                reach = Math.max(0, reach);
+                if (nearest.furthest() <= reach * reach) {
+                    break;
+                }
+            }
+        }
+        return nearest.toArray();
+    }
+
+    private int latCell(double lat) {
+        return Math.max(0, Math.min(latCells - 1, (int) Math.floor((lat - south) / CELL_DEGREES)));
+    }
+
+    private int lonCell(double lon) {
+        return Math.max(0, Math.min(lonCells - 1, (int) Math.floor((lon - west) / CELL_DEGREES)));
+    }
+
+    /**
+     * Reads the trigs in the box passing the filter into rows, or only counts them if rows is null
+     *
+     * @return the number of trigs
+     */
+    private int scanBox(BoundingBox box, Filter filter, Rows rows) {
+        double boxSouth = box.getLatSouth();
+        double boxNorth = box.getLatNorth();
+        double boxWest = box.getLonWest();
+        double boxEast = box.getLonEast();
+        if (size() == 0 || boxNorth < south || boxSouth > north || boxEast < west || boxWest > east) {
+            return 0;
+        }
+        IntPredicate predicate = filter.isAll() ? null : filter.asPredicate();
+        int count = 0;
+        int lastLat = latCell(boxNorth);
+        int firstLon = lonCell(boxWest);
+        int lastLon = lonCell(boxEast);
+        for (int latCell = latCell(boxSouth); latCell <= lastLat; latCell++) {
+            // A row of cells is one run of rows
+            int first = cellStarts[latCell * lonCells + firstLon];
+            int last = cellStarts[latCell * lonCells + lastLon + 1];
+            for (int row = first; row < last; row++) {
+                double lat = lats[row];
+                double lon = lons[row];
+                if (lat >= boxSouth && lat <= boxNorth && lon >= boxWest && lon <= boxEast
+                        && (predicate == null || predicate.test(pack(row)))) {
+                    if (rows != null) {
+                        rows.add(row);
+                    }
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "TrigIndex{size=" + size() + ", cells=" + latCells + "x" + lonCells
+                + ", unsynced=" + unsynced.cardinality() + ", marked=" + marked.cardinality() + '}';
+    }
+
+    /** A growing list of rows */
+    private static final class Rows {
+        int[] rows = new int[64];
+        int size;
+
+        void add(int row) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(rows, size);
+        }
+    }
+
+    /** The nearest rows offered so far, up to a limit, kept as a heap with the furthest on top */
+    private static final class NearestRows {
+        private final int limit;
+        private int[] rows;
+        private double[] distances;
+        private int size;
+
+        NearestRows(int limit) {
+            this.limit = Math.max(0, limit);
+            rows = new int[Math.min(this.limit, 64)];
+            distances = new double[rows.length];
+        }
+
+        boolean isFull() {
+            return size == limit;
+        }
+
+        /** The distance of the furthest row kept */
+        double furthest() {
+            return distances[0];
+        }
+
+        void offer(int row, double distance) {
+            if (size < limit) {
+                if (size == rows.length) {
+                    grow();
+                }
+                int at = size++;
+                while (at > 0) {
+                    int parent = (at - 1) / 2;
+                    if (distances[parent] >= distance) {
+                        break;
+                    }
+                    rows[at] = rows[parent];
+                    distances[at] = distances[parent];
+                    at = parent;
+                }
+                rows[at] = row;
+                distances[at] = distance;
+            } else if (limit > 0 && distance < distances[0]) {
+                siftDown(row, distance, size);
+            }
+        }
+
+        private void grow() {
+            int capacity = (int) Math.min(limit, 2L * rows.length);
+            rows = Arrays.copyOf(rows, capacity);
+            distances = Arrays.copyOf(distances, capacity);
+        }
+
+        /** Puts the row at the top of the first n of the heap, and moves it down to its place */
+        private void siftDown(int row, double distance, int n) {
+            int at = 0;
+            while (true) {
+                int child = 2 * at + 1;
+                if (child >= n) {
+                    break;
+                }
+                if (child + 1 < n && distances[child + 1] > distances[child]) {
+                    child++;
+                }
+                if (distances[child] <= distance) {
+                    break;
+                }
+                rows[at] = rows[child];
+                distances[at] = distances[child];
+                at = child;
+            }
+            rows[at] = row;
+            distances[at] = distance;
+        }
+
+        /** The rows kept, nearest first */
+        int[] toArray() {
+            int[] sorted = new int[size];
+            for (int n = size; n > 0; n--) {
+                sorted[n - 1] = rows[0];
+                siftDown(rows[n - 1], distances[n - 1], n - 1);
+            }
+            size = 0;
+            return sorted;
+        }
+    }
+}
@@ -200,8 +200,6 @@ public class SyncTask implements ProgressListener {
                 if (ERROR == sendPhotosToTUK(trigId)) {
                     return ERROR;
                 }
-                mDb.close();
-                mDb.open();
                 if (trigId.length == 0) {
                     if (ERROR == readLogsFromTUK()) {
                         return ERROR;
@@ -638,29 +636,29 @@ public class SyncTask implements ProgressListener {
         mMax = totalLogs;
         updateProgress(MAX, Math.max(1, mMax));
 
-        int processed = 0;
+        int processed;
         try {
-            mDb.mDb.beginTransaction();
-            mDb.deleteAllTrigLogs();
-
-            for (TrigApiClient.UserLog log : userLogs) {
-                Condition logged = Condition.fromCode(log.condition);
-                if (logged == null) {
-                    logged = Condition.TRIGNOTLOGGED;
+            // One write session, so the map never shows the logs half replaced
+            processed = mDb.write(session -> {
+                session.deleteAllTrigLogs();
+
+                int updated = 0;
+                for (TrigApiClient.UserLog log : userLogs) {
+                    Condition logged = Condition.fromCode(log.condition);
+                    if (logged == null) {
+                        logged = Condition.TRIGNOTLOGGED;
+                    }
+                    session.updateTrigLog(log.trig_id, logged);
+                    updated++;
+                    updateProgress(PROGRESS, updated);
                 }
-                mDb.updateTrigLog(log.trig_id, logged);
-                processed++;
-                updateProgress(PROGRESS, processed);
-            }
-            mDb.mDb.setTransactionSuccessful();
+                return updated;
+            }).join();
         } catch (Exception e) {
             Log.d(TAG, "Error updating logs from API", e);
-            mErrorMessage = e.getMessage();
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            mErrorMessage = cause.getMessage();
             return ERROR;
-        } finally {
-            if (mDb != null && mDb.mDb.inTransaction()) {
-                mDb.mDb.endTransaction();
-            }
         }
 
         mPrefs.edit().putInt(PREFS_LOGCOUNT, processed).apply();
@@ -10,6 +10,10 @@ public class BoundingBox {
     private final double lonEast;
     private final double lonWest;
 
+    // WGS84 semi-major axis, and the fewest metres in a degree of latitude anywhere on the ellipsoid
+    private static final double EQUATORIAL_RADIUS_M = 6378137.0;
+    private static final double MIN_METRES_PER_DEGREE_LAT = 110574.0;
+
     public BoundingBox(double north, double east, double south, double west) {
         this.latNorth = north;
         this.latSouth = south;
@@ -17,6 +21,25 @@ public class BoundingBox {
         this.lonWest = west;
     }
 
+    /**
+     * The smallest box, erring slightly large, holding every point within a distance of a centre,
+     * for a cheap indexed range query ahead of an exact distance check.
+     */
+    public static BoundingBox around(double lat, double lon, double radiusMetres) {
+        double dLat = radiusMetres / MIN_METRES_PER_DEGREE_LAT;
+        double north = Math.min(90.0, lat + dLat);
+        double south = Math.max(-90.0, lat - dLat);
+        // A degree of longitude is shortest at the edge furthest from the equator, and never
+        // shorter than on a sphere of the equatorial radius
+        double cosEdge = Math.cos(Math.toRadians(Math.max(Math.abs(north), Math.abs(south))));
+        double metresPerDegreeLon = Math.toRadians(1) * EQUATORIAL_RADIUS_M * cosEdge;
+        if (metresPerDegreeLon <= radiusMetres / 180.0) {
+            return new BoundingBox(north, 180.0, south, -180.0);
+        }
+        double dLon = radiusMetres / metresPerDegreeLon;
+        return new BoundingBox(north, lon + dLon, south, lon - dLon);
+    }
+
     public double getLatNorth() {
         return latNorth;
     }
@@ -1,7 +1,10 @@
 package uk.trigpointing.android.mapping
 
+import android.Manifest
 import android.content.Intent
+import android.content.pm.PackageManager
 import android.net.Uri
+import android.os.Build
 import android.os.Bundle
 import android.provider.Settings
 import android.util.Log
@@ -12,10 +15,13 @@ import android.widget.Button
 import android.widget.ProgressBar
 import android.widget.TextView
 import android.widget.Toast
-import androidx.appcompat.app.AppCompatActivity
+import androidx.core.app.ActivityCompat
+import androidx.core.content.ContextCompat
 import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
+import androidx.work.WorkInfo
+import androidx.work.WorkManager
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory
 import kotlinx.coroutines.Dispatchers
@@ -23,15 +29,10 @@ import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import okhttp3.OkHttpClient
 import okhttp3.Request
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
 import uk.trigpointing.android.R
 import uk.trigpointing.android.common.BaseActivity
-import java.io.BufferedInputStream
 import java.io.File
-import java.io.FileOutputStream
-import java.io.InputStream
 import java.text.DecimalFormat
-import java.util.zip.GZIPInputStream
 
 class DownloadMapsActivity : BaseActivity() {
 
@@ -42,6 +43,7 @@ class DownloadMapsActivity : BaseActivity() {
     private lateinit var cacheTileCountText: TextView
     private lateinit var clearCacheLink: TextView
     private lateinit var tileCacheDir: File
+    private val activeDownloads = mutableSetOf<String>()
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -94,6 +96,7 @@ class DownloadMapsActivity : BaseActivity() {
                             downloadAndExtract(mapDownload)
                         }
                         recyclerView.adapter = adapter
+                        observeDownloads(list.maps)
                     }
                 } else {
                     showError("Failed to load map list")
@@ -106,116 +109,59 @@ class DownloadMapsActivity : BaseActivity() {
     }
 
     private fun downloadAndExtract(mapDownload: MapDownload) {
-        lifecycleScope.launch(Dispatchers.IO) {
-            try {
-                val client = OkHttpClient()
-                val request = Request.Builder().url(mapDownload.fileUrl).build()
-                val response = client.newCall(request).execute()
-                val body = response.body
-
-                if (response.isSuccessful) {
-                    val totalSize = body.contentLength()
-                    var downloadedBytes = 0L
-                    var extractedFileCount = 0
-                    
-                    Log.d(TAG, "Starting download of ${mapDownload.name}, total size: $totalSize bytes")
+        requestNotificationPermission()
+        Log.d(TAG, "Queueing download of ${mapDownload.name}, total size: ${mapDownload.fileSize} bytes")
+        MapDownloadWorker.enqueue(this, mapDownload)
+        adapter.updateProgress(mapDownload, 0)
+    }
 
-                    body.byteStream().use { inputStream ->
-                        // Create a counting input stream to track actual bytes read
-                        val countingInputStream = object : InputStream() {
-                            override fun read(): Int {
-                                val byte = inputStream.read()
-                                if (byte != -1) {
-                                    downloadedBytes++
-                                    // Update progress every 64KB to avoid too many UI updates
-                                    if (downloadedBytes % 65536 == 0L || downloadedBytes == totalSize) {
-                                        val progress = if (totalSize > 0) {
-                                            ((downloadedBytes * 100) / totalSize).toInt().coerceIn(0, 100)
-                                        } else 0
-                                        
-                                        lifecycleScope.launch(Dispatchers.Main) {
-                                            adapter.updateProgress(mapDownload, progress)
-                                        }
-                                    }
-                                }
-                                return byte
-                            }
-                            
-                            override fun read(b: ByteArray, off: Int, len: Int): Int {
-                                val bytesRead = inputStream.read(b, off, len)
-                                if (bytesRead > 0) {
-                                    downloadedBytes += bytesRead
-                                    // Update progress every 64KB to avoid too many UI updates
-                                    if (downloadedBytes % 65536 < bytesRead || downloadedBytes == totalSize) {
-                                        val progress = if (totalSize > 0) {
-                                            ((downloadedBytes * 100) / totalSize).toInt().coerceIn(0, 100)
-                                        } else 0
-                                        
-                                        lifecycleScope.launch(Dispatchers.Main) {
-                                            adapter.updateProgress(mapDownload, progress)
-                                        }
-                                    }
-                                }
-                                return bytesRead
-                            }
+    /**
+     * Mirrors the state of each pack's background download job into the list. Jobs outlive the
+     * activity, so reopening the screen picks up a download that is still running.
+     */
+    private fun observeDownloads(maps: List<MapDownload>) {
+        val workManager = WorkManager.getInstance(this)
+        for (mapDownload in maps) {
+            workManager.getWorkInfosForUniqueWorkLiveData(MapDownloadWorker.workName(mapDownload))
+                .observe(this) { infos ->
+                    val info = infos?.lastOrNull() ?: return@observe
+                    when (info.state) {
+                        WorkInfo.State.ENQUEUED, WorkInfo.State.BLOCKED -> {
+                            activeDownloads.add(mapDownload.name)
+                            adapter.updateProgress(mapDownload, 0)
                         }
-                        
-                        BufferedInputStream(countingInputStream).use { bufferedInputStream ->
-                            // Determine if we need to decompress the stream based on the type field
-                            val archiveInputStream = when (mapDownload.type) {
-                                "tgz" -> {
-                                    Log.d(TAG, "Processing tgz file, applying gzip decompression")
-                                    GZIPInputStream(bufferedInputStream)
-                                }
-                                "tar" -> {
-                                    Log.d(TAG, "Processing tar file, no decompression needed")
-                                    bufferedInputStream
-                                }
-                                else -> {
-                                    Log.w(TAG, "Unknown file type: ${mapDownload.type}, treating as tar")
-                                    bufferedInputStream
-                                }
+                        WorkInfo.State.RUNNING -> {
+                            activeDownloads.add(mapDownload.name)
+                            val progress = info.progress.getInt(MapDownloadWorker.KEY_PROGRESS, 0)
+                            val phase = info.progress.getString(MapDownloadWorker.KEY_PHASE)
+                            adapter.updateProgress(mapDownload, progress.coerceAtMost(99), phase)
+                        }
+                        WorkInfo.State.SUCCEEDED -> {
+                            adapter.updateProgress(mapDownload, 100)
+                            // Only announce completions that happened while this screen was watching
+                            if (activeDownloads.remove(mapDownload.name)) {
+                                val extractedFileCount = info.outputData.getInt(MapDownloadWorker.KEY_EXTRACTED, 0)
+                                setupCacheUsage()
+                                Toast.makeText(this, "${mapDownload.name} download complete! Extracted $extractedFileCount files.", Toast.LENGTH_LONG).show()
                             }
-                            
-                            TarArchiveInputStream(archiveInputStream).use { tarInput ->
-                                var entry = tarInput.nextTarEntry
-                                while (entry != null) {
-                                    if (!entry.isDirectory) {
-                                        val outputFile = File(cacheDir, entry.name)
-                                        outputFile.parentFile?.mkdirs()
-                                        FileOutputStream(outputFile).use { fos ->
-                                            val buffer = ByteArray(4096)
-                                            var len: Int
-                                            while (tarInput.read(buffer).also { len = it } != -1) {
-                                                fos.write(buffer, 0, len)
-                                            }
-                                        }
-                                        extractedFileCount++
-                                        Log.v(TAG, "Extracted file ${extractedFileCount}: ${entry.name}")
-                                    }
-                                    entry = tarInput.nextTarEntry
-                                }
+                        }
+                        WorkInfo.State.FAILED, WorkInfo.State.CANCELLED -> {
+                            adapter.updateProgress(mapDownload, -1)
+                            if (activeDownloads.remove(mapDownload.name) && info.state == WorkInfo.State.FAILED) {
+                                val error = info.outputData.getString(MapDownloadWorker.KEY_ERROR)
+                                Toast.makeText(this, "Download failed: $error", Toast.LENGTH_SHORT).show()
                             }
                         }
                     }
-                    
-                    Log.d(TAG, "Download complete: ${mapDownload.name}, extracted $extractedFileCount files")
-                    
-                    withContext(Dispatchers.Main) {
-                        // Update cache usage display
-                        setupCacheUsage()
-                        
-                        Toast.makeText(this@DownloadMapsActivity, "${mapDownload.name} download complete! Extracted $extractedFileCount files.", Toast.LENGTH_LONG).show()
-                        adapter.updateProgress(mapDownload, 100) // Mark as complete
-                        // Don't automatically close activity - let user see completion and navigate back manually
-                    }
-                } else {
-                    showError("Download failed - HTTP ${response.code}")
                 }
-            } catch (e: Exception) {
-                Log.e(TAG, "Download/Extraction failed for ${mapDownload.name}", e)
-                showError("Download failed: ${e.message}")
-            }
+        }
+    }
+
+    private fun requestNotificationPermission() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU &&
+            ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
+            // The download runs either way; without the permission its progress notification is just hidden
+            ActivityCompat.requestPermissions(this, arrayOf(Manifest.permission.POST_NOTIFICATIONS), REQ_NOTIFICATIONS)
         }
     }
 
@@ -232,9 +178,11 @@ class DownloadMapsActivity : BaseActivity() {
     ) : RecyclerView.Adapter<MapDownloadAdapter.ViewHolder>() {
 
         private val progressMap = mutableMapOf<String, Int>()
+        private val phaseMap = mutableMapOf<String, String?>()
 
-        fun updateProgress(mapDownload: MapDownload, progress: Int) {
+        fun updateProgress(mapDownload: MapDownload, progress: Int, phase: String? = null) {
             progressMap[mapDownload.name] = progress
+            phaseMap[mapDownload.name] = phase
             val index = mapDownloads.indexOf(mapDownload)
             if (index != -1) {
                 notifyItemChanged(index)
@@ -248,7 +196,7 @@ class DownloadMapsActivity : BaseActivity() {
 
         override fun onBindViewHolder(holder: ViewHolder, position: Int) {
             val mapDownload = mapDownloads[position]
-            holder.bind(mapDownload, progressMap.getOrDefault(mapDownload.name, -1))
+            holder.bind(mapDownload, progressMap.getOrDefault(mapDownload.name, -1), phaseMap[mapDownload.name])
         }
 
         override fun getItemCount() = mapDownloads.size
@@ -260,7 +208,7 @@ class DownloadMapsActivity : BaseActivity() {
             private val downloadButton: Button = itemView.findViewById(R.id.downloadButton)
             private val downloadProgressBar: ProgressBar = itemView.findViewById(R.id.downloadProgressBar)
 
-            fun bind(mapDownload: MapDownload, progress: Int) {
+            fun bind(mapDownload: MapDownload, progress: Int, phase: String?) {
                 mapName.text = mapDownload.name
                 mapDescription.text = mapDownload.description
                 val df = DecimalFormat("#.##")
@@ -272,7 +220,9 @@ class DownloadMapsActivity : BaseActivity() {
                         downloadProgressBar.visibility = View.VISIBLE
                         downloadProgressBar.progress = progress
                         downloadButton.isEnabled = false
-                        downloadButton.text = itemView.context.getString(R.string.downloading_status)
+                        downloadButton.text = itemView.context.getString(
+                            if (phase == MapDownloadWorker.PHASE_EXTRACT) R.string.map_download_extracting else R.string.downloading_status
+                        )
                     }
                     progress >= 100 -> {
                         downloadProgressBar.visibility = View.GONE
@@ -298,7 +248,12 @@ class DownloadMapsActivity : BaseActivity() {
     private fun setupCacheUsage() {
         // Calculate and display cache usage in background
         lifecycleScope.launch(Dispatchers.IO) {
-            val stats = getDirectoryStats(tileCacheDir)
+            val cacheStats = TileCacheStats.get(applicationContext)
+            if (!cacheStats.isReconciled) {
+                // Tiles cached before the running totals existed need counting once
+                cacheStats.reconcile()
+            }
+            val stats = cacheStats.totals
             val totalSize = stats[0]
             val fileCount = stats[1]
 
@@ -335,26 +290,6 @@ class DownloadMapsActivity : BaseActivity() {
         }
     }
 
-    private fun getDirectoryStats(directory: File): LongArray {
-        var size = 0L
-        var count = 0L
-        
-        if (directory.isDirectory && directory.listFiles() != null) {
-            directory.listFiles()?.forEach { file ->
-                if (file.isFile) {
-                    size += file.length()
-                    count++
-                } else if (file.isDirectory) {
-                    val subDirStats = getDirectoryStats(file)
-                    size += subDirStats[0]
-                    count += subDirStats[1]
-                }
-            }
-        }
-        
-        return longArrayOf(size, count)
-    }
-
     private fun openAppSettings() {
         try {
             val intent = Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS)
@@ -372,6 +307,7 @@ class DownloadMapsActivity : BaseActivity() {
 
     companion object {
         private const val TAG = "DownloadMapsActivity"
+        private const val REQ_NOTIFICATIONS = 3001
         private const val YAML_URL = "https://trigpointinguk-maps.s3.eu-west-1.amazonaws.com/map_downloads.yaml"
     }
 }
@@ -30,11 +30,8 @@ import org.json.JSONObject;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 import java.util.Objects;
@@ -51,6 +48,7 @@ import uk.trigpointing.android.R;
 import uk.trigpointing.android.common.FileCache;
 import uk.trigpointing.android.DownloadTrigsActivity;
 import uk.trigpointing.android.filter.Filter;
+import uk.trigpointing.android.index.TrigIndex;
 import uk.trigpointing.android.mapping.DownloadMapsActivity;
 
 public class LeafletMapActivity extends BaseActivity {
@@ -59,6 +57,9 @@ public class LeafletMapActivity extends BaseActivity {
     private static final int REQ_LOCATION = 2001;
     private DbHelper dbHelper;
     private File mTileCacheDir;
+    private TileCacheStats mTileCacheStats;
+    private TileCacheLru mTileCacheLru;
+    private TileStore mTileStore;
     private boolean isWebViewLoaded = false;
 
     @SuppressLint("SetJavaScriptEnabled")
@@ -74,10 +75,15 @@ public class LeafletMapActivity extends BaseActivity {
         if (!mTileCacheDir.exists()) {
             mTileCacheDir.mkdirs();
         }
+        mTileCacheStats = TileCacheStats.get(this);
+        mTileCacheLru = TileCacheLru.get(this);
+        mTileCacheLru.setBudget(getTileCacheBudget());
+        mTileStore = TileStore.get(this);
 
         try {
             dbHelper = new DbHelper(this);
             dbHelper.open();
+            protectMarkedTrigTiles();
         } catch (Exception e) {
             Log.e(TAG, "Error opening database", e);
             Toast.makeText(this, "Error opening database", Toast.LENGTH_SHORT).show();
@@ -112,15 +118,18 @@ public class LeafletMapActivity extends BaseActivity {
                         String path = request.getUrl().getPath();
                         File tileFile = new File(mTileCacheDir, domain + path);
 
-                        if (tileFile.exists()) {
-                            Log.d(TAG, "Serving tile from local cache: " + tileFile.getPath());
-                            InputStream inputStream = new FileInputStream(tileFile);
-                            String mimeType = getMimeType(url);
-                            return new WebResourceResponse(mimeType, "UTF-8", inputStream);
-                        } else {
-                             Log.d(TAG, "Tile not in cache, fetching from network: " + url);
-                             return fetchAndCacheTile(url, tileFile);
+                        // Open rather than check exists(): the tile may be evicted in between
+                        InputStream inputStream;
+                        try {
+                            inputStream = new FileInputStream(tileFile);
+                        } catch (FileNotFoundException e) {
+                            Log.d(TAG, "Tile not in cache, fetching from network: " + url);
+                            return fetchAndCacheTile(url);
                         }
+                        Log.d(TAG, "Serving tile from local cache: " + tileFile.getPath());
+                        mTileCacheLru.recordAccess(tileFile);
+                        String mimeType = getMimeType(url);
+                        return new WebResourceResponse(mimeType, "UTF-8", inputStream);
                     } catch (Exception e) {
                         Log.e(TAG, "Error serving tile from cache", e);
                     }
@@ -212,9 +221,40 @@ public class LeafletMapActivity extends BaseActivity {
         }
     }
 
+    /** Budget for tiles fetched while browsing the map, from settings; 0 means unlimited. */
+    private long getTileCacheBudget() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        try {
+            return Long.parseLong(prefs.getString("tile_cache_budget", "500")) * 1024 * 1024;
+        } catch (NumberFormatException e) {
+            return TileCacheLru.DEFAULT_BUDGET_BYTES;
+        }
+    }
+
+    /** Keeps the tiles around marked trigs out of cache eviction. */
+    private void protectMarkedTrigTiles() {
+        new Thread(() -> {
+            try (Cursor cursor = dbHelper.fetchMarkedTrigCoordinates()) {
+                double[] latLons = new double[cursor.getCount() * 2];
+                int i = 0;
+                while (cursor.moveToNext()) {
+                    latLons[i++] = cursor.getDouble(1);
+                    latLons[i++] = cursor.getDouble(2);
+                }
+                mTileCacheLru.setProtectedLocations(latLons);
+            } catch (Exception e) {
+                Log.w(TAG, "Unable to load marked trigs for tile cache protection", e);
+            }
+        }).start();
+    }
+
     private void showCacheStatus() {
         new Thread(() -> {
-            long[] stats = getDirectoryStats(mTileCacheDir);
+            if (!mTileCacheStats.isReconciled()) {
+                // Tiles cached before the running totals existed need counting once
+                mTileCacheStats.reconcile();
+            }
+            long[] stats = mTileCacheStats.getTotals();
             long totalSize = stats[0];
             long fileCount = stats[1];
 
@@ -232,59 +272,17 @@ public class LeafletMapActivity extends BaseActivity {
         }).start();
     }
 
-    private long[] getDirectoryStats(File directory) {
-        long size = 0;
-        long count = 0;
-        if (directory != null && directory.isDirectory() && directory.listFiles() != null) {
-            for (File file : Objects.requireNonNull(directory.listFiles())) {
-                if (file.isFile()) {
-                    size += file.length();
-                    count++;
-                } else if (file.isDirectory()) {
-                    long[] subDirStats = getDirectoryStats(file);
-                    size += subDirStats[0];
-                    count += subDirStats[1];
-                }
-            }
-        }
-        return new long[]{size, count};
-    }
-
-    private WebResourceResponse fetchAndCacheTile(String urlString, File tileFile) {
+    private WebResourceResponse fetchAndCacheTile(String urlString) {
         try {
-            URL url = new URL(urlString);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-
-            // Set a custom User-Agent to comply with tile server policies
-            connection.setRequestProperty("User-Agent", "TrigpointingUK-Android-App/1.0");
-
-            connection.connect();
-
-            if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                InputStream inputStream = connection.getInputStream();
-                
-                // Ensure parent directories exist
-                File parentDir = tileFile.getParentFile();
-                if (parentDir != null && !parentDir.exists()) {
-                    parentDir.mkdirs();
-                }
-
-                // Write the tile to the cache file
-                FileOutputStream fileOutputStream = new FileOutputStream(tileFile);
-                byte[] buffer = new byte[1024];
-                int bufferLength;
-                while ((bufferLength = inputStream.read(buffer)) > 0) {
-                    fileOutputStream.write(buffer, 0, bufferLength);
-                }
-                fileOutputStream.close();
-                
-                // Now that it's cached, serve it from the file
-                InputStream cachedInputStream = new FileInputStream(tileFile);
-                String mimeType = getMimeType(urlString);
-                return new WebResourceResponse(mimeType, connection.getContentEncoding(), cachedInputStream);
-            }
+            File fetched = mTileStore.fetch(urlString);
+            // Now that it's cached, serve it from the file
+            InputStream cachedInputStream = new FileInputStream(fetched);
+            String mimeType = getMimeType(urlString);
+            return new WebResourceResponse(mimeType, null, cachedInputStream);
         } catch (IOException e) {
             Log.e(TAG, "Error fetching and caching tile", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
         return null; // Let WebView handle the failed request
     }
@@ -415,117 +413,94 @@ public class LeafletMapActivity extends BaseActivity {
     }
 
     /**
-     * Internal method to query trigpoints with the bounding box already created
-     * and filter preferences already set up.
+     * Internal method to query trigpoints with the bounding box and filter already created:
+     * at most limit of them, nearest the centre of the box first.
      */
-    private String queryTrigpointsInternal(BoundingBox bounds, String colorScheme) {
-        if (dbHelper == null) {
-            Log.e(TAG, "Database helper not initialised");
-            return "[]";
-        }
-
+    private JSONArray queryTrigpointsInternal(TrigIndex index, BoundingBox bounds, Filter filter, int limit) {
+        JSONArray trigpoints = new JSONArray();
         try {
-            // Query database using bounding box
-            Cursor cursor = dbHelper.fetchTrigMapList(bounds);
-            
-            if (cursor == null) {
-                return "[]";
-            }
-
-            JSONArray trigpoints = new JSONArray();
-            
-            while (cursor.moveToNext()) {
+            for (int row : index.inBoxNearestCentre(bounds, filter, limit)) {
                 JSONObject trig = new JSONObject();
-                
-                int idIndex = cursor.getColumnIndex(DbHelper.TRIG_ID);
-                int nameIndex = cursor.getColumnIndex(DbHelper.TRIG_NAME);
-                int latIndex = cursor.getColumnIndex(DbHelper.TRIG_LAT);
-                int lonIndex = cursor.getColumnIndex(DbHelper.TRIG_LON);
-                int typeIndex = cursor.getColumnIndex(DbHelper.TRIG_TYPE);
-                int conditionIndex = cursor.getColumnIndex(DbHelper.TRIG_CONDITION);
-                int loggedIndex = cursor.getColumnIndex(DbHelper.TRIG_LOGGED);
-                int markedIndex = cursor.getColumnIndex(DbHelper.JOIN_MARKED);
-                
-                if (idIndex >= 0) trig.put("id", cursor.getLong(idIndex));
-                if (nameIndex >= 0) trig.put("name", cursor.getString(nameIndex));
-                if (latIndex >= 0) trig.put("lat", cursor.getDouble(latIndex));
-                if (lonIndex >= 0) trig.put("lon", cursor.getDouble(lonIndex));
-                if (typeIndex >= 0) trig.put("type", cursor.getString(typeIndex));
-                if (conditionIndex >= 0) trig.put("condition", cursor.getString(conditionIndex));
-                if (loggedIndex >= 0) trig.put("logged", cursor.getString(loggedIndex));
-                
-                // Check if flagged/marked
-                String marked = (markedIndex >= 0) ? cursor.getString(markedIndex) : null;
-                trig.put("flagged", marked != null);
-                
+                trig.put("id", index.getId(row));
+                trig.put("name", index.getName(row));
+                trig.put("lat", index.getLat(row));
+                trig.put("lon", index.getLon(row));
+                trig.put("type", index.getType(row));
+                trig.put("condition", index.getCondition(row));
+                trig.put("logged", index.getLogged(row));
+                trig.put("flagged", index.isMarked(row));
                 trigpoints.put(trig);
             }
-            
-            cursor.close();
-            
             Log.d(TAG, "Returning " + trigpoints.length() + " trigpoints");
-            return trigpoints.toString();
-            
         } catch (Exception e) {
             Log.e(TAG, "Error querying trigpoints", e);
-            return "[]";
         }
+        return trigpoints;
     }
 
-    private void setupFilterPreferences(String trigpointType, String filterFound) {
+    /**
+     * Saves the filters the map page asked for as the user's filters, and returns them for its
+     * queries
+     */
+    private Filter setupFilterPreferences(String trigpointType, String filterFound) {
         // Convert JavaScript filter names to Filter preference values
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
-        SharedPreferences.Editor editor = prefs.edit();
+        int filterType;
+        int filterRadio;
         
         // Set trigpoint type filter based on trigpointType parameter
         switch (trigpointType) {
             case "all":
-                editor.putInt(Filter.FILTERTYPE, 6); // TYPESALL
+                filterType = 6; // TYPESALL
                 break;
             case "pillars":
-                editor.putInt(Filter.FILTERTYPE, 0); // TYPESPILLAR
+                filterType = 0; // TYPESPILLAR
                 break;
             case "pillarsfbm":
-                editor.putInt(Filter.FILTERTYPE, 1); // TYPESPILLARFBM
+                filterType = 1; // TYPESPILLARFBM
                 break;
             case "fbm":
-                editor.putInt(Filter.FILTERTYPE, 2); // TYPESFBM
+                filterType = 2; // TYPESFBM
                 break;
             case "passive":
-                editor.putInt(Filter.FILTERTYPE, 3); // TYPESPASSIVE
+                filterType = 3; // TYPESPASSIVE
                 break;
             case "intersected":
-                editor.putInt(Filter.FILTERTYPE, 4); // TYPESINTERSECTED
+                filterType = 4; // TYPESINTERSECTED
                 break;
             case "nointersected":
-                editor.putInt(Filter.FILTERTYPE, 5); // TYPESNOINTERSECTED
+                filterType = 5; // TYPESNOINTERSECTED
                 break;
             default:
-                editor.putInt(Filter.FILTERTYPE, 6); // TYPESALL
+                filterType = 6; // TYPESALL
         }
         
         // Set filter found status based on filterFound parameter
         switch (filterFound) {
             case "all":
-                editor.putInt(Filter.FILTERRADIO, 0); // Logged or not
+                filterRadio = 0; // Logged or not
                 break;
             case "logged":
-                editor.putInt(Filter.FILTERRADIO, 1); // Logged
+                filterRadio = 1; // Logged
                 break;
             case "notlogged":
-                editor.putInt(Filter.FILTERRADIO, 2); // Not Logged
+                filterRadio = 2; // Not Logged
                 break;
             case "marked":
-                editor.putInt(Filter.FILTERRADIO, 3); // Marked
+                filterRadio = 3; // Marked
                 break;
             case "unsynced":
-                editor.putInt(Filter.FILTERRADIO, 4); // Unsynced
+                filterRadio = 4; // Unsynced
                 break;
             default:
-                editor.putInt(Filter.FILTERRADIO, 0); // Logged or not
+                filterRadio = 0; // Logged or not
         }
         
-        editor.apply();
+        prefs.edit()
+                .putInt(Filter.FILTERTYPE, filterType)
+                .putInt(Filter.FILTERRADIO, filterRadio)
+                .apply();
+        return Filter.of(filterRadio, filterType);
     }
 
     @Override
@@ -649,26 +624,29 @@ public class LeafletMapActivity extends BaseActivity {
             new Thread(() -> {
                 try {
                     // Setup filter preferences first
-                    setupFilterPreferences(trigpointType, filterFound);
+                    Filter filter = setupFilterPreferences(trigpointType, filterFound);
                     
                     // Create bounding box
                     BoundingBox bounds = new BoundingBox(north, east, south, west);
                     
+                    // The trigs in memory, so both queries see the same ones
+                    TrigIndex index = dbHelper.trigIndex();
+                    
                     // Get total count first (for heatmap decision)
-                    int totalCount = dbHelper.countTrigpointsInBoundingBox(bounds);
+                    int totalCount = index.count(bounds, filter);
                     
                     // Get marker limit from preferences
                     SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(LeafletMapActivity.this);
                     int markerLimit = Integer.parseInt(prefs.getString("mapcount", DbHelper.DEFAULT_MAP_COUNT));
                     
                     // Query the limited marker data
-                    String trigpointsJson = queryTrigpointsInternal(bounds, colorScheme);
+                    JSONArray trigpoints = queryTrigpointsInternal(index, bounds, filter, markerLimit);
                     
                     // Build response with metadata
                     JSONObject response = new JSONObject();
-                    response.put("trigpoints", new JSONArray(trigpointsJson));
+                    response.put("trigpoints", trigpoints);
                     response.put("totalCount", totalCount);
-                    response.put("returnedCount", new JSONArray(trigpointsJson).length());
+                    response.put("returnedCount", trigpoints.length());
                     response.put("markerLimit", markerLimit);
                     response.put("limitReached", totalCount > markerLimit);
                     
@@ -694,30 +672,24 @@ public class LeafletMapActivity extends BaseActivity {
             new Thread(() -> {
                 try {
                     // Setup filter preferences first
-                    setupFilterPreferences(trigpointType, filterFound);
+                    Filter filter = setupFilterPreferences(trigpointType, filterFound);
                     
                     // Create bounding box
                     BoundingBox bounds = new BoundingBox(north, east, south, west);
                     
                     // Get all coordinates for heatmap (no limit)
-                    Cursor cursor = dbHelper.fetchTrigpointCoordinates(bounds);
+                    TrigIndex index = dbHelper.trigIndex();
+                    int[] rows = index.inBox(bounds, filter);
                     
                     JSONArray coordinates = new JSONArray();
-                    int totalCount = 0;
+                    int totalCount = rows.length;
                     
-                    if (cursor != null) {
-                        int latIndex = cursor.getColumnIndex(DbHelper.TRIG_LAT);
-                        int lonIndex = cursor.getColumnIndex(DbHelper.TRIG_LON);
-                        
-                        while (cursor.moveToNext()) {
-                            JSONArray coord = new JSONArray();
-                            coord.put(cursor.getDouble(latIndex));
-                            coord.put(cursor.getDouble(lonIndex));
-                            coord.put(1.0); // Intensity
-                            coordinates.put(coord);
-                            totalCount++;
-                        }
-                        cursor.close();
+                    for (int row : rows) {
+                        JSONArray coord = new JSONArray();
+                        coord.put(index.getLat(row));
+                        coord.put(index.getLon(row));
+                        coord.put(1.0); // Intensity
+                        coordinates.put(coord);
                     }
                     
                     // Build response
@@ -794,6 +766,8 @@ public class LeafletMapActivity extends BaseActivity {
         // Clear our custom tile cache
         new Thread(() -> {
             int deletedCount = deleteRecursive(mTileCacheDir);
+            mTileCacheLru.reset();
+            mTileCacheStats.reset();
             Log.d(TAG, "Cleared " + deletedCount + " tile files");
 
             runOnUiThread(() -> {
@@ -0,0 +1,238 @@
+package uk.trigpointing.android.mapping
+
+import android.app.NotificationChannel
+import android.app.NotificationManager
+import android.content.Context
+import android.content.pm.ServiceInfo
+import android.os.Build
+import android.util.Log
+import androidx.core.app.NotificationCompat
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.Data
+import androidx.work.ExistingWorkPolicy
+import androidx.work.ForegroundInfo
+import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import androidx.work.workDataOf
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.runInterruptible
+import okhttp3.OkHttpClient
+import uk.trigpointing.android.R
+import uk.trigpointing.android.terrain.DemStore
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Foreground WorkManager job that downloads a map pack with [MapPackDownloader] and, once the
+ * archive is complete and verified, extracts it with [MapPackExtractor].
+ * Failed downloads are retried by WorkManager and resume from the persisted chunk state.
+ * When the pack publishes a manifest and an earlier pack for the same provider is installed,
+ * only the changed tiles are fetched, via [MapPackUpdater], along with any since cleared from the
+ * cache; if most of the pack has been cleared it is downloaded whole again.
+ */
+class MapDownloadWorker(context: Context, params: WorkerParameters) : CoroutineWorker(context, params) {
+
+    override suspend fun doWork(): Result {
+        val map = MapDownload().apply {
+            name = inputData.getString(KEY_NAME)
+            fileUrl = inputData.getString(KEY_FILE_URL)
+            fileSize = inputData.getLong(KEY_FILE_SIZE, 0L)
+            fileTimestamp = inputData.getString(KEY_FILE_TIMESTAMP)
+            type = inputData.getString(KEY_TYPE)
+        }
+        if (map.fileUrl.isNullOrEmpty()) {
+            return Result.failure(workDataOf(KEY_ERROR to "Missing file_url"))
+        }
+
+        setForeground(createForegroundInfo(map.name, 0, PHASE_DOWNLOAD))
+
+        val downloader = MapPackDownloader(httpClient, downloadDir(applicationContext))
+        val stats = TileCacheStats.get(applicationContext)
+        val updater = MapPackUpdater(httpClient, manifestDir(applicationContext), stats)
+        return try {
+            // The downloader reports from several threads; only the first to reach a new percentage publishes it
+            val lastPercent = AtomicInteger(-1)
+            val onBytes = { done: Long, total: Long ->
+                val percent = percentOf(done, total)
+                val previous = lastPercent.get()
+                if (percent > previous && lastPercent.compareAndSet(previous, percent)) {
+                    publish(map.name, percent, PHASE_DOWNLOAD)
+                }
+            }
+
+            // Packs that publish a manifest can be refreshed tile-by-tile over an earlier install
+            val manifestUrl = MapPackManifest.manifestUrlFor(map)
+            val remoteManifest = fetchManifestOrNull(updater, manifestUrl)
+            if (remoteManifest != null && updater.loadInstalled(remoteManifest.provider) != null) {
+                val delta: MapPackDelta? = runInterruptible(Dispatchers.IO) {
+                    updater.update(manifestUrl, remoteManifest, applicationContext.cacheDir) { done, total -> onBytes(done, total) }
+                }
+                if (delta != null) {
+                    stats.flush()
+                    DemStore.get(applicationContext).clear()
+                    Log.d(TAG, "Map pack ${map.name} refreshed: ${delta.fetches.size} tiles fetched, " +
+                            "${delta.deletions.size} removed, ${delta.unchangedTiles} unchanged")
+                    return Result.success(workDataOf(KEY_EXTRACTED to delta.fetches.size))
+                }
+                Log.d(TAG, "Most of map pack ${map.name} is no longer cached, downloading it whole")
+            }
+
+            val archive = runInterruptible(Dispatchers.IO) {
+                downloader.download(map) { done, total -> onBytes(done, total) }
+            }
+
+            lastPercent.set(-1)
+            val extracted = runInterruptible(Dispatchers.IO) {
+                MapPackExtractor.extract(archive, map.type, applicationContext.cacheDir,
+                        MapPackExtractor.defaultWriterThreads(), stats) { read, size, _ ->
+                    val percent = percentOf(read, size)
+                    if (percent != lastPercent.getAndSet(percent)) {
+                        publish(map.name, percent, PHASE_EXTRACT)
+                    }
+                }
+            }
+            downloader.discard(map)
+            stats.flush()
+            // Packs can carry elevation tiles, which the AR view may already have looked for
+            DemStore.get(applicationContext).clear()
+            if (remoteManifest != null) {
+                updater.recordInstalled(remoteManifest)
+            }
+            Log.d(TAG, "Map pack ${map.name} complete, extracted $extracted files")
+            Result.success(workDataOf(KEY_EXTRACTED to extracted))
+        } catch (e: IOException) {
+            Log.w(TAG, "Map pack ${map.name} failed on attempt $runAttemptCount", e)
+            if (runAttemptCount + 1 < MAX_ATTEMPTS) {
+                Result.retry()
+            } else {
+                Result.failure(workDataOf(KEY_ERROR to (e.message ?: "Download failed")))
+            }
+        }
+    }
+
+    private suspend fun fetchManifestOrNull(updater: MapPackUpdater, manifestUrl: String): MapPackManifest? =
+        try {
+            runInterruptible(Dispatchers.IO) { updater.fetchManifest(manifestUrl) }
+        } catch (e: IOException) {
+            Log.w(TAG, "No usable manifest at $manifestUrl, falling back to a full download", e)
+            null
+        }
+
+    private fun publish(name: String?, percent: Int, phase: String) {
+        runBlocking {
+            setProgress(workDataOf(KEY_PROGRESS to percent, KEY_PHASE to phase))
+        }
+        val manager = applicationContext.getSystemService(Context.NOTIFICATION_SERVICE) as NotificationManager
+        manager.notify(notificationId(name), buildNotification(name, percent, phase))
+    }
+
+    private fun createForegroundInfo(name: String?, percent: Int, phase: String): ForegroundInfo {
+        val notification = buildNotification(name, percent, phase)
+        return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            ForegroundInfo(notificationId(name), notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC)
+        } else {
+            ForegroundInfo(notificationId(name), notification)
+        }
+    }
+
+    private fun buildNotification(name: String?, percent: Int, phase: String): android.app.Notification {
+        ensureChannel(applicationContext)
+        val text = if (phase == PHASE_EXTRACT) {
+            applicationContext.getString(R.string.map_download_extracting)
+        } else {
+            applicationContext.getString(R.string.downloading_status)
+        }
+        return NotificationCompat.Builder(applicationContext, CHANNEL_ID)
+            .setSmallIcon(android.R.drawable.stat_sys_download)
+            .setContentTitle(name)
+            .setContentText(text)
+            .setProgress(100, percent, false)
+            .setOnlyAlertOnce(true)
+            .setOngoing(true)
+            .addAction(
+                android.R.drawable.ic_menu_close_clear_cancel,
+                applicationContext.getString(android.R.string.cancel),
+                WorkManager.getInstance(applicationContext).createCancelPendingIntent(id)
+            )
+            .build()
+    }
+
+    companion object {
+        private const val TAG = "MapDownloadWorker"
+        private const val CHANNEL_ID = "map_downloads"
+        private const val MAX_ATTEMPTS = 5
+
+        const val KEY_NAME = "name"
+        const val KEY_FILE_URL = "file_url"
+        const val KEY_FILE_SIZE = "file_size"
+        const val KEY_FILE_TIMESTAMP = "file_timestamp"
+        const val KEY_TYPE = "type"
+        const val KEY_PROGRESS = "progress"
+        const val KEY_PHASE = "phase"
+        const val KEY_EXTRACTED = "extracted"
+        const val KEY_ERROR = "error"
+
+        const val PHASE_DOWNLOAD = "download"
+        const val PHASE_EXTRACT = "extract"
+
+        private val httpClient: OkHttpClient by lazy {
+            OkHttpClient.Builder()
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(60, TimeUnit.SECONDS)
+                .build()
+        }
+
+        fun downloadDir(context: Context): File = File(context.filesDir, "map_downloads")
+
+        fun manifestDir(context: Context): File = File(context.filesDir, "map_manifests")
+
+        fun workName(map: MapDownload): String = "map_download_${map.name}"
+
+        /** Queues the pack for download; a pack already queued or running is left alone. */
+        fun enqueue(context: Context, map: MapDownload) {
+            val input = Data.Builder()
+                .putString(KEY_NAME, map.name)
+                .putString(KEY_FILE_URL, map.fileUrl)
+                .putLong(KEY_FILE_SIZE, map.fileSize)
+                .putString(KEY_FILE_TIMESTAMP, map.fileTimestamp)
+                .putString(KEY_TYPE, map.type)
+                .build()
+            val request = OneTimeWorkRequestBuilder<MapDownloadWorker>()
+                .setInputData(input)
+                .setConstraints(
+                    Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .setRequiresStorageNotLow(true)
+                        .build()
+                )
+                .addTag(TAG)
+                .build()
+            WorkManager.getInstance(context)
+                .enqueueUniqueWork(workName(map), ExistingWorkPolicy.KEEP, request)
+        }
+
+        private fun notificationId(name: String?): Int = CHANNEL_ID.hashCode() + (name?.hashCode() ?: 0)
+
+        private fun percentOf(done: Long, total: Long): Int =
+            if (total > 0) ((done * 100) / total).toInt().coerceIn(0, 100) else 0
+
+        private fun ensureChannel(context: Context) {
+            val manager = context.getSystemService(Context.NOTIFICATION_SERVICE) as NotificationManager
+            if (manager.getNotificationChannel(CHANNEL_ID) == null) {
+                manager.createNotificationChannel(
+                    NotificationChannel(
+                        CHANNEL_ID,
+                        context.getString(R.string.map_download_channel),
+                        NotificationManager.IMPORTANCE_LOW
+                    )
+                )
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package uk.trigpointing.android.mapping;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Difference between an installed map pack manifest and a newer remote one: the tiles to fetch
+ * from the remote archive and the tiles to delete.
+ */
+public class MapPackDelta {
+
+    /** A tile to fetch: its file path relative to the cache dir and where its bytes live in the archive. */
+    public static class TileFetch {
+        public final String path;
+        public final String hash;
+        public final long offset;
+        public final int length;
+
+        TileFetch(String path, String hash, long offset, int length) {
+            this.path = path;
+            this.hash = hash;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /** One HTTP range request covering one or more neighbouring tiles. */
+    public static class Range {
+        public final long start;
+        long end;
+        public final List<TileFetch> tiles = new ArrayList<>();
+
+        Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public long length() {
+            return end - start;
+        }
+    }
+
+    public final List<TileFetch> fetches = new ArrayList<>();
+    public final List<String> deletions = new ArrayList<>();
+    public int unchangedTiles;
+
+    public boolean isEmpty() {
+        return fetches.isEmpty() && deletions.isEmpty();
+    }
+
+    public long bytesToFetch() {
+        long total = 0;
+        for (TileFetch fetch : fetches) {
+            total += fetch.length;
+        }
+        return total;
+    }
+
+    public static MapPackDelta compute(MapPackManifest installed, MapPackManifest remote) {
+        MapPackDelta delta = new MapPackDelta();
+        Map<String, MapPackManifest.Chunk> installedChunks = new HashMap<>();
+        if (installed != null) {
+            for (MapPackManifest.Chunk chunk : installed.chunks) {
+                installedChunks.put(chunk.dir, chunk);
+            }
+        }
+
+        for (MapPackManifest.Chunk chunk : remote.chunks) {
+            MapPackManifest.Chunk old = installedChunks.remove(chunk.dir);
+            if (old != null && old.hash != null && old.hash.equals(chunk.hash)) {
+                delta.unchangedTiles += chunk.size();
+                continue;
+            }
+
+            Map<String, String> oldHashes = new HashMap<>();
+            for (int i = 0; old != null && i < old.size(); i++) {
+                oldHashes.put(old.names[i], old.hashes[i]);
+            }
+            for (int i = 0; i < chunk.size(); i++) {
+                String previous = oldHashes.remove(chunk.names[i]);
+                if (chunk.hashes[i].equals(previous)) {
+                    delta.unchangedTiles++;
+                } else {
+                    delta.fetches.add(new TileFetch(chunk.dir + "/" + chunk.names[i], chunk.hashes[i],
+                            chunk.offsets[i], chunk.lengths[i]));
+                }
+            }
+            for (String removed : oldHashes.keySet()) {
+                delta.deletions.add(chunk.dir + "/" + removed);
+            }
+        }
+
+        // Columns that vanished from the remote pack, but only within the zoom levels it covers:
+        // refreshing a z0-11 pack must not delete the z12-13 tiles of a bigger pack.
+        for (MapPackManifest.Chunk gone : installedChunks.values()) {
+            if (remote.coversZoom(gone.zoom)) {
+                for (int i = 0; i < gone.size(); i++) {
+                    delta.deletions.add(gone.dir + "/" + gone.names[i]);
+                }
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Fetches again any tile counted as unchanged that is no longer in cacheDir: the installed
+     * manifest outlives the tiles when the cache is cleared or evicted. Lists each column once
+     * rather than checking every tile. Returns how many were missing.
+     */
+    public int fetchMissing(MapPackManifest remote, File cacheDir) {
+        Set<String> fetching = new HashSet<>();
+        for (TileFetch fetch : fetches) {
+            fetching.add(fetch.path);
+        }
+        int missing = 0;
+        for (MapPackManifest.Chunk chunk : remote.chunks) {
+            String[] listed = new File(cacheDir, chunk.dir).list();
+            Set<String> present = listed == null ? Collections.emptySet() : new HashSet<>(Arrays.asList(listed));
+            for (int i = 0; i < chunk.size(); i++) {
+                String path = chunk.dir + "/" + chunk.names[i];
+                if (!present.contains(chunk.names[i]) && !fetching.contains(path)) {
+                    fetches.add(new TileFetch(path, chunk.hashes[i], chunk.offsets[i], chunk.lengths[i]));
+                    missing++;
+                }
+            }
+        }
+        unchangedTiles -= missing;
+        return missing;
+    }
+
+    /**
+     * Groups the fetches into range requests, merging tiles whose gap in the archive is at most
+     * maxGap bytes, so runs of changed tiles cost one request while unchanged ones are skipped.
+     */
+    public List<Range> coalesce(long maxGap, long maxRangeLength) {
+        List<TileFetch> sorted = new ArrayList<>(fetches);
+        Collections.sort(sorted, (a, b) -> Long.compare(a.offset, b.offset));
+        List<Range> ranges = new ArrayList<>();
+        Range current = null;
+        for (TileFetch fetch : sorted) {
+            long end = fetch.offset + fetch.length;
+            if (current != null
+                    && fetch.offset - current.end <= maxGap
+                    && end - current.start <= maxRangeLength) {
+                current.end = Math.max(current.end, end);
+                current.tiles.add(fetch);
+            } else {
+                current = new Range(fetch.offset, end);
+                current.tiles.add(fetch);
+                ranges.add(current);
+            }
+        }
+        return ranges;
+    }
+}
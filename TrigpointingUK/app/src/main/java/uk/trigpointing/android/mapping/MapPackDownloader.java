@@ -0,0 +1,490 @@
+package uk.trigpointing.android.mapping;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Resumable, parallel downloader for offline map packs.
+ *
+ * The archive is fetched in fixed-size byte ranges by a small pool of threads, each writing
+ * straight into its slot of a pre-sized (sparse) temp file. Each chunk is synced to disk and then
+ * recorded in a side-car state file, so a dropped connection or a killed process resumes
+ * from the last finished chunk rather than from zero.
+ *
+ * The state is tied to the pack's file_url, file_size and file_timestamp from map_downloads.yaml,
+ * plus the server ETag when one is offered; if any of those change the partial file is discarded.
+ * Servers that ignore Range requests fall back to a single sequential download.
+ */
+public class MapPackDownloader {
+
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_THREADS = 4;
+
+    private static final int STATE_VERSION = 1;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Workers notice an interrupt between reads, so this only covers a read already waiting
+    private static final long STOP_TIMEOUT_SECONDS = 30;
+    private static final String USER_AGENT = "TrigpointingUK-Android-App/1.0";
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+
+    public interface ProgressListener {
+        void onProgress(long downloadedBytes, long totalBytes);
+    }
+
+    private final OkHttpClient client;
+    private final File workDir;
+    private final int chunkSize;
+    private final int threads;
+
+    public MapPackDownloader(OkHttpClient client, File workDir) {
+        this(client, workDir, DEFAULT_CHUNK_SIZE, DEFAULT_THREADS);
+    }
+
+    public MapPackDownloader(OkHttpClient client, File workDir, int chunkSize, int threads) {
+        if (chunkSize <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("chunkSize and threads must be positive");
+        }
+        this.client = client;
+        this.workDir = workDir;
+        this.chunkSize = chunkSize;
+        this.threads = threads;
+    }
+
+    /** The file a completed download of this pack is (or will be) stored in. */
+    public File getCompletedFile(MapDownload map) {
+        return new File(workDir, fileKey(map) + ".pack");
+    }
+
+    File getPartFile(MapDownload map) {
+        return new File(workDir, fileKey(map) + ".part");
+    }
+
+    File getStateFile(MapDownload map) {
+        return new File(workDir, fileKey(map) + ".state");
+    }
+
+    /** Bytes already held on disk for this pack, for showing resume progress before starting. */
+    public long getDownloadedBytes(MapDownload map) {
+        File complete = getCompletedFile(map);
+        if (complete.exists()) {
+            return complete.length();
+        }
+        State state = State.read(getStateFile(map));
+        if (state == null || !state.matches(map, chunkSize)) {
+            return 0;
+        }
+        return state.completedBytes();
+    }
+
+    /** Removes the completed archive and any partial download state for this pack. */
+    public void discard(MapDownload map) {
+        deleteQuietly(getCompletedFile(map));
+        deleteQuietly(getPartFile(map));
+        deleteQuietly(getStateFile(map));
+    }
+
+    /**
+     * Downloads the pack, resuming any earlier partial download, and returns the completed
+     * archive once its length has been verified. Blocks; call from a background thread.
+     */
+    public File download(MapDownload map, ProgressListener listener) throws IOException, InterruptedException {
+        if (map.fileUrl == null || map.fileUrl.isEmpty()) {
+            throw new IOException("Map pack has no file_url");
+        }
+        if (!workDir.exists() && !workDir.mkdirs()) {
+            throw new IOException("Unable to create " + workDir);
+        }
+
+        File complete = getCompletedFile(map);
+        if (complete.exists()) {
+            if (map.fileSize <= 0 || complete.length() == map.fileSize) {
+                notify(listener, complete.length(), complete.length());
+                return complete;
+            }
+            deleteQuietly(complete);
+        }
+
+        Probe probe = probe(map.fileUrl);
+        if (map.fileSize > 0 && probe.totalSize >= 0 && probe.totalSize != map.fileSize) {
+            throw new IOException("Server size " + probe.totalSize + " does not match expected " + map.fileSize);
+        }
+        long totalSize = probe.totalSize >= 0 ? probe.totalSize : map.fileSize;
+
+        File part = getPartFile(map);
+        if (!probe.acceptsRanges || totalSize <= 0) {
+            downloadSequential(map, part, listener);
+        } else {
+            try {
+                downloadRanges(map, part, totalSize, probe.etag, listener);
+            } catch (StaleDownloadException e) {
+                deleteQuietly(part);
+                deleteQuietly(getStateFile(map));
+                throw e;
+            }
+        }
+
+        if (map.fileSize > 0 && part.length() != map.fileSize) {
+            deleteQuietly(part);
+            deleteQuietly(getStateFile(map));
+            throw new IOException("Downloaded " + part.length() + " bytes, expected " + map.fileSize);
+        }
+        if (!part.renameTo(complete)) {
+            throw new IOException("Unable to rename " + part + " to " + complete);
+        }
+        deleteQuietly(getStateFile(map));
+        return complete;
+    }
+
+    private void downloadRanges(MapDownload map, File part, long totalSize, String etag,
+                                ProgressListener listener) throws IOException, InterruptedException {
+        File stateFile = getStateFile(map);
+        State state = State.read(stateFile);
+        boolean resumable = state != null
+                && state.matches(map, chunkSize)
+                && state.totalSize == totalSize
+                && (state.etag.isEmpty() || etag.isEmpty() || state.etag.equals(etag))
+                && part.exists() && part.length() == totalSize;
+        if (!resumable) {
+            deleteQuietly(part);
+            state = new State(map.fileUrl, totalSize, nullToEmpty(map.fileTimestamp), etag, chunkSize);
+            try (RandomAccessFile raf = new RandomAccessFile(part, "rw")) {
+                // setLength leaves the file sparse on Android's filesystems until chunks are written
+                raf.setLength(totalSize);
+            }
+            state.write(stateFile);
+        }
+
+        final State shared = state;
+        final AtomicLong downloaded = new AtomicLong(shared.completedBytes());
+        notify(listener, downloaded.get(), totalSize);
+
+        List<Integer> pending = shared.pendingChunks();
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, pending.size()));
+        try (RandomAccessFile raf = new RandomAccessFile(part, "rw")) {
+            FileChannel channel = raf.getChannel();
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int chunk : pending) {
+                    futures.add(pool.submit(() -> {
+                        fetchChunk(map.fileUrl, shared, chunk, channel, etag, downloaded, listener);
+                        // On disk before it's recorded, or a power cut could leave a recorded chunk unwritten
+                        channel.force(false);
+                        shared.markComplete(chunk, stateFile);
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                // Before the channel closes, or workers still writing fail on it and their
+                // ClosedChannelExceptions bury whatever stopped the download
+                stop(pool);
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new IOException("Chunk download failed", cause);
+        }
+    }
+
+    /**
+     * Interrupts the chunk workers and waits a while for them to finish, even when this thread has
+     * itself been interrupted by a cancel, which stays set for the caller.
+     */
+    private static void stop(ExecutorService pool) {
+        pool.shutdownNow();
+        boolean interrupted = Thread.interrupted();
+        try {
+            pool.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void fetchChunk(String url, State state, int chunk, FileChannel channel, String etag,
+                            AtomicLong downloaded, ProgressListener listener) throws IOException, InterruptedException {
+        long start = (long) chunk * state.chunkSize;
+        long end = Math.min(start + state.chunkSize, state.totalSize) - 1;
+        IOException lastError = null;
+
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            long written = 0;
+            Request.Builder builder = new Request.Builder()
+                    .url(url)
+                    .header("User-Agent", USER_AGENT)
+                    .header("Range", "bytes=" + start + "-" + end);
+            if (!etag.isEmpty()) {
+                // If the object has changed the server sends a 200 with the whole new file instead
+                builder.header("If-Range", etag);
+            }
+            try (Response response = client.newCall(builder.build()).execute()) {
+                if (response.code() == 200) {
+                    throw new StaleDownloadException("Map pack changed on the server while resuming chunk " + chunk);
+                }
+                if (response.code() != 206) {
+                    throw new IOException("Chunk " + chunk + " failed - HTTP " + response.code());
+                }
+                Matcher m = CONTENT_RANGE.matcher(nullToEmpty(response.header("Content-Range")));
+                if (!m.matches() || Long.parseLong(m.group(1)) != start || Long.parseLong(m.group(2)) != end) {
+                    throw new IOException("Unexpected Content-Range for chunk " + chunk + ": " + response.header("Content-Range"));
+                }
+                ResponseBody body = response.body();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+                try (InputStream in = body.byteStream()) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            throw new InterruptedException();
+                        }
+                        wrapped.clear().limit(read);
+                        long position = start + written;
+                        while (wrapped.hasRemaining()) {
+                            position += channel.write(wrapped, position);
+                        }
+                        written += read;
+                        notify(listener, downloaded.addAndGet(read), state.totalSize);
+                    }
+                }
+                if (written != end - start + 1) {
+                    throw new IOException("Chunk " + chunk + " truncated at " + written + " bytes");
+                }
+                return;
+            } catch (StaleDownloadException e) {
+                throw e;
+            } catch (InterruptedIOException e) {
+                throw new InterruptedException(e.getMessage());
+            } catch (IOException e) {
+                // Partial bytes from a failed attempt will be overwritten by the retry
+                downloaded.addAndGet(-written);
+                lastError = e;
+                Thread.sleep(500L * attempt);
+            }
+        }
+        throw lastError;
+    }
+
+    private void downloadSequential(MapDownload map, File part, ProgressListener listener) throws IOException, InterruptedException {
+        deleteQuietly(getStateFile(map));
+        Request request = new Request.Builder().url(map.fileUrl).header("User-Agent", USER_AGENT).build();
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Download failed - HTTP " + response.code());
+            }
+            ResponseBody body = response.body();
+            long total = body.contentLength() > 0 ? body.contentLength() : map.fileSize;
+            long downloaded = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = body.byteStream(); FileOutputStream out = new FileOutputStream(part)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedException();
+                    }
+                    out.write(buffer, 0, read);
+                    downloaded += read;
+                    notify(listener, downloaded, total);
+                }
+                out.getFD().sync();
+            }
+        } catch (InterruptedIOException e) {
+            throw new InterruptedException(e.getMessage());
+        }
+    }
+
+    private Probe probe(String url) throws IOException, InterruptedException {
+        Request request = new Request.Builder()
+                .url(url)
+                .header("User-Agent", USER_AGENT)
+                .header("Range", "bytes=0-0")
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            Probe probe = new Probe();
+            probe.etag = nullToEmpty(response.header("ETag"));
+            if (response.code() == 206) {
+                Matcher m = CONTENT_RANGE.matcher(nullToEmpty(response.header("Content-Range")));
+                if (m.matches() && !"*".equals(m.group(3))) {
+                    probe.totalSize = Long.parseLong(m.group(3));
+                    probe.acceptsRanges = true;
+                }
+            } else if (response.isSuccessful()) {
+                probe.totalSize = response.body().contentLength();
+            } else {
+                throw new IOException("Download failed - HTTP " + response.code());
+            }
+            return probe;
+        } catch (InterruptedIOException e) {
+            throw new InterruptedException(e.getMessage());
+        }
+    }
+
+    private static void notify(ProgressListener listener, long downloaded, long total) {
+        if (listener != null) {
+            listener.onProgress(downloaded, total);
+        }
+    }
+
+    private static String fileKey(MapDownload map) {
+        String name = map.name == null ? "map" : map.name.replaceAll("[^A-Za-z0-9_-]", "_");
+        return name + "-" + Integer.toHexString(map.fileUrl.hashCode());
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static void deleteQuietly(File f) {
+        if (f.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            f.delete();
+        }
+    }
+
+    private static class Probe {
+        long totalSize = -1;
+        boolean acceptsRanges;
+        String etag = "";
+    }
+
+    /** The remote object changed underneath a resumed download; the partial file is useless. */
+    static class StaleDownloadException extends IOException {
+        StaleDownloadException(String message) {
+            super(message);
+        }
+    }
+
+    /** Chunk-completion record persisted next to the partial file. */
+    static class State {
+        final String fileUrl;
+        final long totalSize;
+        final String fileTimestamp;
+        final String etag;
+        final int chunkSize;
+        final int chunkCount;
+        private final BitSet completed;
+
+        State(String fileUrl, long totalSize, String fileTimestamp, String etag, int chunkSize) {
+            this(fileUrl, totalSize, fileTimestamp, etag, chunkSize, new BitSet());
+        }
+
+        private State(String fileUrl, long totalSize, String fileTimestamp, String etag, int chunkSize, BitSet completed) {
+            this.fileUrl = fileUrl;
+            this.totalSize = totalSize;
+            this.fileTimestamp = fileTimestamp;
+            this.etag = etag;
+            this.chunkSize = chunkSize;
+            this.chunkCount = (int) ((totalSize + chunkSize - 1) / chunkSize);
+            this.completed = completed;
+        }
+
+        boolean matches(MapDownload map, int expectedChunkSize) {
+            return fileUrl.equals(map.fileUrl)
+                    && (map.fileSize <= 0 || totalSize == map.fileSize)
+                    && fileTimestamp.equals(nullToEmpty(map.fileTimestamp))
+                    && chunkSize == expectedChunkSize;
+        }
+
+        synchronized List<Integer> pendingChunks() {
+            List<Integer> pending = new ArrayList<>();
+            for (int i = completed.nextClearBit(0); i < chunkCount; i = completed.nextClearBit(i + 1)) {
+                pending.add(i);
+            }
+            return pending;
+        }
+
+        synchronized long completedBytes() {
+            long bytes = 0;
+            for (int i = completed.nextSetBit(0); i >= 0 && i < chunkCount; i = completed.nextSetBit(i + 1)) {
+                bytes += Math.min((long) chunkSize, totalSize - (long) i * chunkSize);
+            }
+            return bytes;
+        }
+
+        synchronized void markComplete(int chunk, File stateFile) throws IOException {
+            completed.set(chunk);
+            write(stateFile);
+        }
+
+        synchronized void write(File stateFile) throws IOException {
+            File tmp = new File(stateFile.getPath() + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(tmp);
+                 DataOutputStream out = new DataOutputStream(fos)) {
+                out.writeInt(STATE_VERSION);
+                out.writeUTF(fileUrl);
+                out.writeLong(totalSize);
+                out.writeUTF(fileTimestamp);
+                out.writeUTF(etag);
+                out.writeInt(chunkSize);
+                byte[] bits = completed.toByteArray();
+                out.writeInt(bits.length);
+                out.write(bits);
+                out.flush();
+                fos.getFD().sync();
+            }
+            if (!tmp.renameTo(stateFile)) {
+                throw new IOException("Unable to write " + stateFile);
+            }
+        }
+
+        static State read(File stateFile) {
+            if (!stateFile.exists()) {
+                return null;
+            }
+            try (DataInputStream in = new DataInputStream(new FileInputStream(stateFile))) {
+                if (in.readInt() != STATE_VERSION) {
+                    return null;
+                }
+                String fileUrl = in.readUTF();
+                long totalSize = in.readLong();
+                String fileTimestamp = in.readUTF();
+                String etag = in.readUTF();
+                int chunkSize = in.readInt();
+                byte[] bits = new byte[in.readInt()];
+                in.readFully(bits);
+                return new State(fileUrl, totalSize, fileTimestamp, etag, chunkSize, BitSet.valueOf(bits));
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+        }
+    }
+}
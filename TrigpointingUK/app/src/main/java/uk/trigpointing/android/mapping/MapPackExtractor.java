@@ -0,0 +1,307 @@
+package uk.trigpointing.android.mapping;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Unpacks a downloaded map pack (.tar or .tgz) into the app cache directory.
+ * Entry names in the archive already carry the map_tiles/ prefix.
+ *
+ * The calling thread decodes the archive and reads each tile into a pooled buffer; tiles are
+ * handed to a small set of writer threads in batches. The bounded buffer pool gives
+ * back-pressure, so memory stays fixed however fast the writers are.
+ */
+public class MapPackExtractor {
+
+    /** Progress is reported at most this often, whatever the tile rate. */
+    static final long PROGRESS_INTERVAL_MS = 100;
+
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    private static final int TILE_BUFFER_SIZE = 64 * 1024;
+    private static final int POOLED_BUFFERS = 128;
+    private static final int BATCH_SIZE = 32;
+
+    public interface ProgressListener {
+        void onProgress(long archiveBytesRead, long archiveSize, int filesExtracted);
+    }
+
+    private MapPackExtractor() {
+    }
+
+    /** Number of writer threads used when the caller doesn't choose. */
+    public static int defaultWriterThreads() {
+        return Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public static int extract(File archive, String type, File destDir, ProgressListener listener) throws IOException {
+        return extract(archive, type, destDir, defaultWriterThreads(), null, listener);
+    }
+
+    public static int extract(File archive, String type, File destDir, int writerThreads,
+                              ProgressListener listener) throws IOException {
+        return extract(archive, type, destDir, writerThreads, null, listener);
+    }
+
+    /**
+     * Extracts every regular file in the archive below destDir and returns the number written.
+     * Each tile written is reported to stats, if given.
+     */
+    public static int extract(File archive, String type, File destDir, int writerThreads,
+                              TileCacheStats stats, ProgressListener listener) throws IOException {
+        long archiveSize = archive.length();
+        String root = destDir.getCanonicalPath() + File.separator;
+        BlockingQueue<byte[]> pool = new ArrayBlockingQueue<>(POOLED_BUFFERS);
+        for (int i = 0; i < POOLED_BUFFERS; i++) {
+            pool.add(new byte[TILE_BUFFER_SIZE]);
+        }
+        BlockingQueue<List<Tile>> batches = new ArrayBlockingQueue<>(writerThreads * 2);
+        AtomicInteger written = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        ExecutorService writers = Executors.newFixedThreadPool(writerThreads);
+        for (int i = 0; i < writerThreads; i++) {
+            writers.execute(new Writer(batches, pool, written, failure, stats));
+        }
+
+        boolean finished = false;
+        try (CountingInputStream counting = new CountingInputStream(new FileInputStream(archive));
+             InputStream buffered = new BufferedInputStream(counting, IO_BUFFER_SIZE);
+             InputStream decoded = "tgz".equals(type) ? new GZIPInputStream(buffered, IO_BUFFER_SIZE) : buffered;
+             TarArchiveInputStream tarInput = new TarArchiveInputStream(decoded)) {
+
+            long lastReport = 0;
+            List<Tile> batch = new ArrayList<>(BATCH_SIZE);
+            TarArchiveEntry entry;
+            while ((entry = tarInput.getNextEntry()) != null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Extraction cancelled");
+                }
+                checkFailure(failure);
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                String name = entry.getName();
+                if (!MapPackUpdater.isInside(root, destDir, name)) {
+                    throw new IOException("Archive entry outside destination: " + name);
+                }
+
+                long size = entry.getSize();
+                byte[] data;
+                if (size <= TILE_BUFFER_SIZE) {
+                    data = pool.poll();
+                    if (data == null) {
+                        // Pool exhausted: hand over what we hold so writers can return buffers
+                        submit(batches, batch, failure);
+                        batch = new ArrayList<>(BATCH_SIZE);
+                        data = take(pool, failure);
+                    }
+                } else {
+                    data = new byte[(int) size];
+                }
+                int length = readFully(tarInput, data, (int) size);
+                batch.add(new Tile(new File(destDir, name), data, length));
+
+                if (batch.size() >= BATCH_SIZE) {
+                    submit(batches, batch, failure);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+
+                long now = System.currentTimeMillis();
+                if (listener != null && now - lastReport >= PROGRESS_INTERVAL_MS) {
+                    lastReport = now;
+                    listener.onProgress(counting.count, archiveSize, written.get());
+                }
+            }
+            if (!batch.isEmpty()) {
+                submit(batches, batch, failure);
+            }
+            for (int i = 0; i < writerThreads; i++) {
+                submit(batches, Writer.END, failure);
+            }
+            writers.shutdown();
+            while (!writers.awaitTermination(1, TimeUnit.SECONDS)) {
+                checkFailure(failure);
+            }
+            checkFailure(failure);
+            finished = true;
+            if (listener != null) {
+                listener.onProgress(counting.count, archiveSize, written.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Extraction cancelled");
+        } finally {
+            if (!finished) {
+                writers.shutdownNow();
+            }
+        }
+        return written.get();
+    }
+
+    private static void submit(BlockingQueue<List<Tile>> batches, List<Tile> batch,
+                               AtomicReference<Throwable> failure) throws IOException, InterruptedException {
+        // Poll rather than block forever so a writer failure can't leave the reader stuck
+        while (!batches.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            checkFailure(failure);
+        }
+    }
+
+    private static byte[] take(BlockingQueue<byte[]> pool, AtomicReference<Throwable> failure)
+            throws IOException, InterruptedException {
+        byte[] data;
+        while ((data = pool.poll(100, TimeUnit.MILLISECONDS)) == null) {
+            checkFailure(failure);
+        }
+        return data;
+    }
+
+    private static void checkFailure(AtomicReference<Throwable> failure) throws IOException {
+        Throwable e = failure.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] data, int size) throws IOException {
+        int total = 0;
+        while (total < size) {
+            int n = in.read(data, total, size - total);
+            if (n == -1) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private static class Tile {
+        final File file;
+        final byte[] data;
+        final int length;
+
+        Tile(File file, byte[] data, int length) {
+            this.file = file;
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private static class Writer implements Runnable {
+        static final List<Tile> END = new ArrayList<>();
+
+        private final BlockingQueue<List<Tile>> batches;
+        private final BlockingQueue<byte[]> pool;
+        private final AtomicInteger written;
+        private final AtomicReference<Throwable> failure;
+        private final TileCacheStats stats;
+
+        Writer(BlockingQueue<List<Tile>> batches, BlockingQueue<byte[]> pool, AtomicInteger written,
+               AtomicReference<Throwable> failure, TileCacheStats stats) {
+            this.batches = batches;
+            this.pool = pool;
+            this.written = written;
+            this.failure = failure;
+            this.stats = stats;
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<Tile> batch;
+                while ((batch = batches.take()) != END) {
+                    for (Tile tile : batch) {
+                        try {
+                            write(tile);
+                        } finally {
+                            if (tile.data.length == TILE_BUFFER_SIZE) {
+                                pool.offer(tile.data);
+                            }
+                        }
+                    }
+                    written.addAndGet(batch.size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                // Anything, so the reader stops rather than waiting on a writer that has gone
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        private void write(Tile tile) throws IOException {
+            // length() is 0 for a missing file; tiles are never empty, so that means "new"
+            long previous = stats != null ? tile.file.length() : 0;
+            FileOutputStream fos;
+            try {
+                fos = new FileOutputStream(tile.file);
+            } catch (FileNotFoundException e) {
+                // Only the first tile in each z/x column pays for creating its directory
+                File parent = tile.file.getParentFile();
+                if (parent == null || (!parent.mkdirs() && !parent.isDirectory())) {
+                    throw e;
+                }
+                fos = new FileOutputStream(tile.file);
+            }
+            try {
+                fos.write(tile.data, 0, tile.length);
+            } finally {
+                fos.close();
+            }
+            if (stats != null) {
+                stats.recordWrite(tile.file, previous > 0 ? previous : -1, tile.length);
+            }
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
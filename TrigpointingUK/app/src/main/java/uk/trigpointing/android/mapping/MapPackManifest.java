@@ -0,0 +1,140 @@
+package uk.trigpointing.android.mapping;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content manifest for a map pack, written by TileDownload/tile_downloader.py --pack.
+ *
+ * Tiles are grouped into chunks, one per z/x tile column. Each chunk carries a hash over its
+ * tiles so unchanged columns can be skipped without looking at individual tiles, plus per-tile
+ * content hashes and the byte range of each tile's data inside the uncompressed .tar archive.
+ * Per-tile fields are stored as parallel arrays to keep the manifest small.
+ */
+public class MapPackManifest {
+
+    public static final int FORMAT_VERSION = 1;
+
+    public int version;
+    public String provider;
+    public String timestamp;
+    @SerializedName("min_zoom")
+    public int minZoom;
+    @SerializedName("max_zoom")
+    public int maxZoom;
+    /** Uncompressed tar holding the tiles, relative to the manifest URL. */
+    public String archive;
+    public List<Chunk> chunks = new ArrayList<>();
+
+    public static class Chunk {
+        /** Directory of the column relative to the cache dir, e.g. map_tiles/tile.openstreetmap.org/13/4021 */
+        public String dir;
+        public int zoom;
+        public String hash;
+        public String[] names;
+        public String[] hashes;
+        public long[] offsets;
+        public int[] lengths;
+
+        public int size() {
+            return names == null ? 0 : names.length;
+        }
+    }
+
+    /**
+     * Manifests are published next to the archive: mapnik-0-13.tar.gz has mapnik-0-13.manifest.json.gz.
+     */
+    public static String manifestUrlFor(MapDownload map) {
+        String url = map.fileUrl;
+        for (String suffix : new String[]{".tar.gz", ".tgz", ".tar"}) {
+            if (url.endsWith(suffix)) {
+                return url.substring(0, url.length() - suffix.length()) + ".manifest.json.gz";
+            }
+        }
+        return url + ".manifest.json.gz";
+    }
+
+    /** Reads a manifest, gzipped or not. */
+    public static MapPackManifest read(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(2);
+        int b1 = buffered.read();
+        int b2 = buffered.read();
+        buffered.reset();
+        InputStream source = (b1 == 0x1f && b2 == 0x8b) ? new GZIPInputStream(buffered) : buffered;
+        try (Reader reader = new InputStreamReader(source, StandardCharsets.UTF_8)) {
+            MapPackManifest manifest = new Gson().fromJson(reader, MapPackManifest.class);
+            if (manifest == null || manifest.version != FORMAT_VERSION || manifest.provider == null) {
+                throw new IOException("Unsupported map pack manifest");
+            }
+            if (manifest.chunks == null) {
+                manifest.chunks = new ArrayList<>();
+            }
+            return manifest;
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed map pack manifest", e);
+        }
+    }
+
+    public static MapPackManifest read(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    /** Writes the manifest gzipped, replacing the target atomically. */
+    public void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tmp)), StandardCharsets.UTF_8)) {
+            new Gson().toJson(this, writer);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Unable to write " + file);
+        }
+    }
+
+    public boolean coversZoom(int zoom) {
+        return zoom >= minZoom && zoom <= maxZoom;
+    }
+
+    /**
+     * The installed state after applying {@code remote} over {@code installed}: the remote chunks
+     * plus any installed chunks at zoom levels the remote pack doesn't cover.
+     */
+    public static MapPackManifest merge(MapPackManifest installed, MapPackManifest remote) {
+        MapPackManifest merged = new MapPackManifest();
+        merged.version = FORMAT_VERSION;
+        merged.provider = remote.provider;
+        merged.timestamp = remote.timestamp;
+        merged.archive = remote.archive;
+        merged.minZoom = remote.minZoom;
+        merged.maxZoom = remote.maxZoom;
+        merged.chunks = new ArrayList<>(remote.chunks);
+        if (installed != null) {
+            for (Chunk chunk : installed.chunks) {
+                if (!remote.coversZoom(chunk.zoom)) {
+                    merged.chunks.add(chunk);
+                    merged.minZoom = Math.min(merged.minZoom, chunk.zoom);
+                    merged.maxZoom = Math.max(merged.maxZoom, chunk.zoom);
+                }
+            }
+        }
+        return merged;
+    }
+}
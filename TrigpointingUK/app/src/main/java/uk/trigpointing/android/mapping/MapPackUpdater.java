@@ -0,0 +1,281 @@
+package uk.trigpointing.android.mapping;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Brings an installed map pack up to date from a newer manifest by fetching only the changed
+ * tiles out of the remote .tar with HTTP range requests, and deleting tiles that were removed.
+ * The installed manifest for each provider is kept in manifestDir.
+ */
+public class MapPackUpdater {
+
+    /** Neighbouring changed tiles closer than this are fetched in one request. */
+    static final long MAX_GAP = 32 * 1024;
+    static final long MAX_RANGE = 4 * 1024 * 1024;
+
+    private static final int THREADS = 4;
+    private static final String USER_AGENT = "TrigpointingUK-Android-App/1.0";
+
+    public interface ProgressListener {
+        void onProgress(long bytesFetched, long bytesTotal);
+    }
+
+    private final OkHttpClient client;
+    private final File manifestDir;
+    private final TileCacheStats stats;
+
+    public MapPackUpdater(OkHttpClient client, File manifestDir) {
+        this(client, manifestDir, null);
+    }
+
+    /** Tiles written and deleted are reported to stats, if given. */
+    public MapPackUpdater(OkHttpClient client, File manifestDir, TileCacheStats stats) {
+        this.client = client;
+        this.manifestDir = manifestDir;
+        this.stats = stats;
+    }
+
+    File installedManifestFile(String provider) {
+        return new File(manifestDir, provider.replaceAll("[^A-Za-z0-9_.-]", "_") + ".manifest.json.gz");
+    }
+
+    /** The manifest recorded for this provider's installed tiles, or null if none. */
+    public MapPackManifest loadInstalled(String provider) {
+        File file = installedManifestFile(provider);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return MapPackManifest.read(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Records that the tiles described by {@code remote} are now installed. */
+    public void recordInstalled(MapPackManifest remote) throws IOException {
+        if (!manifestDir.exists() && !manifestDir.mkdirs()) {
+            throw new IOException("Unable to create " + manifestDir);
+        }
+        MapPackManifest merged = MapPackManifest.merge(loadInstalled(remote.provider), remote);
+        merged.write(installedManifestFile(remote.provider));
+    }
+
+    /** Fetches and parses the remote manifest, or returns null if the pack doesn't publish one. */
+    public MapPackManifest fetchManifest(String manifestUrl) throws IOException {
+        Request request = new Request.Builder().url(manifestUrl).header("User-Agent", USER_AGENT).build();
+        try (Response response = client.newCall(request).execute()) {
+            if (response.code() == 404 || response.code() == 403) {
+                return null;
+            }
+            if (!response.isSuccessful()) {
+                throw new IOException("Manifest fetch failed - HTTP " + response.code());
+            }
+            return MapPackManifest.read(response.body().byteStream());
+        }
+    }
+
+    /**
+     * Applies the remote manifest over whatever is installed for its provider and returns the delta
+     * that was applied. The installed manifest is only replaced once every tile has been written.
+     * Tiles the installed manifest lists but the cache no longer holds are fetched again; if most of
+     * the pack has gone, nothing is fetched and null is returned, as the whole archive is the cheaper
+     * download.
+     */
+    public MapPackDelta update(String manifestUrl, MapPackManifest remote, File cacheDir,
+                               ProgressListener listener) throws IOException, InterruptedException {
+        MapPackDelta delta = MapPackDelta.compute(loadInstalled(remote.provider), remote);
+        int missing = delta.fetchMissing(remote, cacheDir);
+        if (missing > 0 && missing * 2 > tileCount(remote)) {
+            return null;
+        }
+        checkInside(cacheDir, delta);
+        HttpUrl base = HttpUrl.parse(manifestUrl);
+        HttpUrl archive = base == null ? null : base.resolve(remote.archive);
+        if (archive == null) {
+            throw new IOException("Bad archive location " + remote.archive);
+        }
+
+        List<MapPackDelta.Range> ranges = delta.coalesce(MAX_GAP, MAX_RANGE);
+        long total = delta.bytesToFetch();
+        AtomicLong fetched = new AtomicLong();
+        if (listener != null) {
+            listener.onProgress(0, total);
+        }
+
+        if (!ranges.isEmpty()) {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(THREADS, ranges.size()));
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (MapPackDelta.Range range : ranges) {
+                    futures.add(pool.submit(() -> {
+                        fetchRange(archive, range, cacheDir);
+                        long done = fetched.addAndGet(rangePayload(range));
+                        if (listener != null) {
+                            listener.onProgress(done, total);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Tile range fetch failed", cause);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        for (String path : delta.deletions) {
+            File tile = new File(cacheDir, path);
+            long length = tile.length();
+            if (tile.delete() && stats != null) {
+                stats.recordDelete(tile, length);
+            }
+        }
+        recordInstalled(remote);
+        return delta;
+    }
+
+    /**
+     * Tile paths come from the remote manifest, so one like "../../shared_prefs/x.xml" would otherwise
+     * overwrite or delete files outside the cache. Checked before anything is fetched or deleted.
+     */
+    static void checkInside(File cacheDir, MapPackDelta delta) throws IOException {
+        String root = cacheDir.getCanonicalPath() + File.separator;
+        for (MapPackDelta.TileFetch tile : delta.fetches) {
+            checkInside(root, cacheDir, tile.path);
+        }
+        for (String path : delta.deletions) {
+            checkInside(root, cacheDir, path);
+        }
+    }
+
+    private static void checkInside(String root, File cacheDir, String path) throws IOException {
+        if (!isInside(root, cacheDir, path)) {
+            throw new IOException("Manifest tile outside the cache: " + path);
+        }
+    }
+
+    /**
+     * Whether path, resolved against dir as the filesystem will, stays below it. root is dir's
+     * canonical path and a separator, worked out once by the caller.
+     */
+    static boolean isInside(String root, File dir, String path) throws IOException {
+        return new File(dir, path).getCanonicalPath().startsWith(root);
+    }
+
+    private static int tileCount(MapPackManifest manifest) {
+        int tiles = 0;
+        for (MapPackManifest.Chunk chunk : manifest.chunks) {
+            tiles += chunk.size();
+        }
+        return tiles;
+    }
+
+    private static long rangePayload(MapPackDelta.Range range) {
+        long bytes = 0;
+        for (MapPackDelta.TileFetch tile : range.tiles) {
+            bytes += tile.length;
+        }
+        return bytes;
+    }
+
+    private void fetchRange(HttpUrl archive, MapPackDelta.Range range, File cacheDir) throws IOException {
+        Request request = new Request.Builder()
+                .url(archive)
+                .header("User-Agent", USER_AGENT)
+                .header("Range", "bytes=" + range.start + "-" + (range.getEnd() - 1))
+                .build();
+        byte[] data;
+        try (Response response = client.newCall(request).execute()) {
+            if (response.code() != 206) {
+                throw new IOException("Range request failed - HTTP " + response.code());
+            }
+            data = new byte[(int) range.length()];
+            try (InputStream in = response.body().byteStream()) {
+                int total = 0;
+                while (total < data.length) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Map pack update cancelled");
+                    }
+                    int n = in.read(data, total, data.length - total);
+                    if (n == -1) {
+                        throw new IOException("Range truncated at " + total + " of " + data.length + " bytes");
+                    }
+                    total += n;
+                }
+            }
+        }
+
+        for (MapPackDelta.TileFetch tile : range.tiles) {
+            int offset = (int) (tile.offset - range.start);
+            if (!tile.hash.equals(hash(data, offset, tile.length))) {
+                throw new IOException("Archive does not match manifest for " + tile.path);
+            }
+            writeTile(new File(cacheDir, tile.path), data, offset, tile.length);
+        }
+    }
+
+    private void writeTile(File file, byte[] data, int offset, int length) throws IOException {
+        long previous = stats != null ? file.length() : 0;
+        FileOutputStream fos;
+        try {
+            fos = new FileOutputStream(file);
+        } catch (FileNotFoundException e) {
+            File parent = file.getParentFile();
+            if (parent == null || (!parent.mkdirs() && !parent.isDirectory())) {
+                throw e;
+            }
+            fos = new FileOutputStream(file);
+        }
+        try {
+            fos.write(data, offset, length);
+        } finally {
+            fos.close();
+        }
+        if (stats != null) {
+            stats.recordWrite(file, previous > 0 ? previous : -1, length);
+        }
+    }
+
+    /** Tile content hash used in manifests: the first 64 bits of SHA-1, as hex. */
+    public static String hash(byte[] data, int offset, int length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(data, offset, length);
+            byte[] sha = digest.digest();
+            StringBuilder hex = new StringBuilder(16);
+            for (int i = 0; i < 8; i++) {
+                hex.append(Character.forDigit((sha[i] >> 4) & 0xf, 16)).append(Character.forDigit(sha[i] & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 unavailable", e);
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package uk.trigpointing.android.mapping;
+
+import android.content.Context;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import uk.trigpointing.android.trigdetails.MapTileMath;
+
+/**
+ * Least-recently-used index of the map tiles fetched on demand by the map screen, used to keep
+ * them within a byte budget.
+ *
+ * Only tiles recorded through {@link #recordFetch} are indexed, so tiles from downloaded map packs
+ * are never evicted. If a pack later overwrites an online tile, the file no longer matches the
+ * size and modification time recorded at fetch, and it is dropped from the index rather than
+ * deleted. Tiles near marked trigs and tiles used in the last minute are skipped too.
+ *
+ * The index is kept as an append-only journal inside the tile cache, compacted when it grows.
+ * Eviction runs on a background thread. A tile deleted while the map is reading it is harmless:
+ * open streams keep working and the next request fetches it again.
+ */
+public class TileCacheLru {
+
+    static final String JOURNAL_FILE = ".lru_journal";
+    public static final long DEFAULT_BUDGET_BYTES = 500L * 1024 * 1024;
+    /** Eviction trims to this fraction of the budget so it doesn't run on every fetch. */
+    static final double TRIM_TARGET = 0.9;
+    static final long RECENT_MS = 60_000;
+    public static final double PROTECT_RADIUS_KM = 2.0;
+
+    private static final long FLUSH_DELAY_MS = 2000;
+    private static final int MIN_COMPACT_LINES = 2000;
+    private static final double EARTH_CIRCUMFERENCE_KM = 40075.016686;
+
+    private static TileCacheLru instance;
+
+    static class Entry {
+        final long size;
+        final long mtime;
+        long lastAccess;
+
+        Entry(long size, long mtime, long lastAccess) {
+            this.size = size;
+            this.mtime = mtime;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private final File root;
+    private final File journalFile;
+    private final TileCacheStats stats;
+    private final ScheduledExecutorService worker;
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(1024, 0.75f, true);
+    private long indexedBytes;
+    private long budget = DEFAULT_BUDGET_BYTES;
+    /** Tiles used this recently are left alone, so the map never loses what it is showing. */
+    long recentWindowMs = RECENT_MS;
+    private double[] protectedLatLons = new double[0];
+    // The tiles within reach of each protected location, as {minX, maxX, minY, maxY} per location,
+    // by provider and zoom. Worked out when first needed after the locations change.
+    private final Map<String, int[]> protectedRanges = new HashMap<>();
+    private Writer journal;
+    private int journalLines;
+    private boolean flushScheduled;
+    private boolean trimScheduled;
+
+    public static synchronized TileCacheLru get(Context context) {
+        if (instance == null) {
+            TileCacheStats stats = TileCacheStats.get(context);
+            instance = new TileCacheLru(stats.getRoot(), stats);
+        }
+        return instance;
+    }
+
+    TileCacheLru(File root, TileCacheStats stats) {
+        this.root = root;
+        this.journalFile = new File(root, JOURNAL_FILE);
+        this.stats = stats;
+        this.worker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "TileCacheLru");
+            t.setDaemon(true);
+            return t;
+        });
+        load();
+    }
+
+    /** Byte budget for fetched tiles; 0 or less means unlimited. */
+    public void setBudget(long bytes) {
+        synchronized (this) {
+            budget = bytes;
+        }
+        scheduleTrimIfNeeded();
+    }
+
+    /** Tiles within {@link #PROTECT_RADIUS_KM} of these points are never evicted. Pairs of lat, lon. */
+    public synchronized void setProtectedLocations(double[] latLons) {
+        protectedLatLons = latLons != null ? latLons.clone() : new double[0];
+        protectedRanges.clear();
+    }
+
+    public synchronized long getIndexedBytes() {
+        return indexedBytes;
+    }
+
+    public synchronized int getIndexedTiles() {
+        return index.size();
+    }
+
+    synchronized boolean isIndexed(File tile) {
+        String key = keyFor(tile);
+        return key != null && index.containsKey(key);
+    }
+
+    /** Records a tile just fetched from the network and written to the cache. */
+    public void recordFetch(File tile, long bytes) {
+        String key = keyFor(tile);
+        if (key == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(bytes, tile.lastModified(), now);
+        Entry old;
+        synchronized (this) {
+            old = index.put(key, entry);
+            indexedBytes += bytes - (old != null ? old.size : 0);
+            append("F\t" + entry.size + "\t" + entry.mtime + "\t" + now + "\t" + key);
+        }
+        // Two map requests for the same missing tile can both fetch it
+        stats.recordWrite(tile, old != null ? old.size : -1, bytes);
+        scheduleTrimIfNeeded();
+    }
+
+    /** Records that a cached tile was served, making it the most recently used. */
+    public void recordAccess(File tile) {
+        String key = keyFor(tile);
+        if (key == null) {
+            return;
+        }
+        synchronized (this) {
+            Entry entry = index.get(key);
+            if (entry != null) {
+                entry.lastAccess = System.currentTimeMillis();
+                append("A\t" + entry.lastAccess + "\t" + key);
+            }
+        }
+    }
+
+    /** Forgets every tile, after the whole cache has been deleted. */
+    public synchronized void reset() {
+        index.clear();
+        indexedBytes = 0;
+        closeJournal();
+        //noinspection ResultOfMethodCallIgnored
+        journalFile.delete();
+        journalLines = 0;
+    }
+
+    /**
+     * Evicts least recently used tiles until the fetched tiles fit within the budget (with some
+     * headroom) and returns the number deleted. Runs on the calling thread.
+     */
+    public int trimToBudget() {
+        List<String> keys = new ArrayList<>();
+        List<Entry> entries = new ArrayList<>();
+        synchronized (this) {
+            trimScheduled = false;
+            if (budget <= 0 || indexedBytes <= budget) {
+                return 0;
+            }
+            long target = (long) (budget * TRIM_TARGET);
+            long remaining = indexedBytes;
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Entry> e : index.entrySet()) {
+                if (remaining <= target) {
+                    break;
+                }
+                Entry entry = e.getValue();
+                if (now - entry.lastAccess < recentWindowMs || isProtected(e.getKey())) {
+                    continue;
+                }
+                keys.add(e.getKey());
+                entries.add(entry);
+                remaining -= entry.size;
+            }
+        }
+
+        int deleted = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            Entry entry = entries.get(i);
+            File tile = new File(root, key);
+            boolean unchanged = tile.length() == entry.size && tile.lastModified() == entry.mtime;
+            synchronized (this) {
+                if (index.get(key) != entry) {
+                    continue; // Fetched again or touched since we chose it
+                }
+                if (unchanged && System.currentTimeMillis() - entry.lastAccess < recentWindowMs) {
+                    continue;
+                }
+                index.remove(key);
+                indexedBytes -= entry.size;
+                append("D\t" + key);
+            }
+            // A file that changed was overwritten by a map pack (now pinned) or is already gone
+            if (unchanged && tile.delete()) {
+                stats.recordDelete(tile, entry.size);
+                deleted++;
+            }
+        }
+        synchronized (this) {
+            if (journalLines > MIN_COMPACT_LINES && journalLines > index.size() * 2) {
+                compact();
+            }
+        }
+        flush();
+        return deleted;
+    }
+
+    /** Writes any buffered journal lines now. */
+    public synchronized void flush() {
+        flushScheduled = false;
+        if (journal != null) {
+            try {
+                journal.flush();
+            } catch (IOException e) {
+                closeJournal();
+            }
+        }
+    }
+
+    /** Waits for any background eviction already queued to finish. */
+    void awaitBackgroundTrim() throws Exception {
+        worker.submit(() -> { }).get();
+    }
+
+    private void scheduleTrimIfNeeded() {
+        synchronized (this) {
+            if (trimScheduled || budget <= 0 || indexedBytes <= budget) {
+                return;
+            }
+            trimScheduled = true;
+        }
+        worker.execute(this::trimToBudget);
+    }
+
+    private boolean isProtected(String key) {
+        if (protectedLatLons.length == 0) {
+            return false;
+        }
+        String[] provider = TileCacheStats.split(key);
+        int[] zxy = tileOf(key, provider);
+        if (zxy == null) {
+            return false;
+        }
+        String rangesKey = provider[0] + '/' + zxy[0];
+        int[] ranges = protectedRanges.get(rangesKey);
+        if (ranges == null) {
+            ranges = tileRanges(provider[0], zxy[0], protectedLatLons);
+            protectedRanges.put(rangesKey, ranges);
+        }
+        for (int i = 0; i + 3 < ranges.length; i += 4) {
+            if (zxy[1] >= ranges[i] && zxy[1] <= ranges[i + 1]
+                    && zxy[2] >= ranges[i + 2] && zxy[2] <= ranges[i + 3]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The tiles of this provider and zoom within {@link #PROTECT_RADIUS_KM} of each location, as
+     * {minX, maxX, minY, maxY} per location. The OS's EPSG:27700 layers are tiled on the national
+     * grid; every other provider is web mercator.
+     */
+    static int[] tileRanges(String provider, int z, double[] latLons) {
+        boolean nationalGrid = provider.contains("_27700");
+        int[] ranges = new int[latLons.length / 2 * 4];
+        for (int i = 0, r = 0; i + 1 < latLons.length; i += 2, r += 4) {
+            double lat = latLons[i];
+            double lon = latLons[i + 1];
+            double px;
+            double py;
+            double reach;
+            if (nationalGrid) {
+                px = MapTileMath.lonToPixelX27700(lat, lon, z) / MapTileMath.TILE_SIZE;
+                py = MapTileMath.latToPixelY27700(lat, lon, z) / MapTileMath.TILE_SIZE;
+                reach = PROTECT_RADIUS_KM * 1000 / MapTileMath.tileMetres27700(z);
+            } else {
+                double n = 1 << z;
+                double latRad = Math.toRadians(lat);
+                px = (lon + 180.0) / 360.0 * n;
+                py = (1.0 - Math.log(Math.tan(latRad) + 1.0 / Math.cos(latRad)) / Math.PI) / 2.0 * n;
+                reach = PROTECT_RADIUS_KM / (EARTH_CIRCUMFERENCE_KM * Math.cos(latRad) / n);
+            }
+            ranges[r] = (int) Math.floor(px - reach);
+            ranges[r + 1] = (int) Math.floor(px + reach);
+            ranges[r + 2] = (int) Math.floor(py - reach);
+            ranges[r + 3] = (int) Math.floor(py + reach);
+        }
+        return ranges;
+    }
+
+    /** {z, x, y} for a root-relative tile path, or null if it doesn't look like a tile. */
+    static int[] tileOf(String key) {
+        return tileOf(key, TileCacheStats.split(key));
+    }
+
+    private static int[] tileOf(String key, String[] provider) {
+        if (provider == null) {
+            return null;
+        }
+        String[] parts = key.split("/");
+        String a = parts[parts.length - 2];
+        String b = parts[parts.length - 1];
+        int dot = b.indexOf('.');
+        if (dot >= 0) {
+            b = b.substring(0, dot);
+        }
+        try {
+            int first = Integer.parseInt(a);
+            int second = Integer.parseInt(b);
+            // ArcGIS tile services order the path z/y/x
+            boolean yFirst = provider[0].contains("arcgisonline");
+            return new int[]{Integer.parseInt(provider[1]), yFirst ? second : first, yFirst ? first : second};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String keyFor(File tile) {
+        String path = tile.getPath();
+        String rootPath = root.getPath();
+        if (!path.startsWith(rootPath) || path.length() <= rootPath.length() + 1
+                || path.charAt(rootPath.length()) != File.separatorChar) {
+            return null;
+        }
+        return path.substring(rootPath.length() + 1).replace(File.separatorChar, '/');
+    }
+
+    private void append(String line) {
+        try {
+            if (journal == null) {
+                if (!root.exists() && !root.mkdirs()) {
+                    return;
+                }
+                journal = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(journalFile, true), StandardCharsets.UTF_8));
+            }
+            journal.write(line);
+            journal.write('\n');
+            journalLines++;
+        } catch (IOException e) {
+            closeJournal();
+            return;
+        }
+        if (!flushScheduled) {
+            flushScheduled = true;
+            worker.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                // Nothing more to lose
+            }
+            journal = null;
+        }
+    }
+
+    /** Rewrites the journal as one line per indexed tile, in LRU order. */
+    private void compact() {
+        closeJournal();
+        File tmp = new File(root, JOURNAL_FILE + ".tmp");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, Entry> e : index.entrySet()) {
+                Entry entry = e.getValue();
+                out.write("F\t" + entry.size + "\t" + entry.mtime + "\t" + entry.lastAccess + "\t" + e.getKey() + "\n");
+            }
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            return;
+        }
+        if (tmp.renameTo(journalFile)) {
+            journalLines = index.size();
+        }
+    }
+
+    private void load() {
+        if (!journalFile.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                journalLines++;
+                String[] f = line.split("\t", 5);
+                try {
+                    if (f[0].equals("F") && f.length == 5) {
+                        Entry old = index.put(f[4], new Entry(Long.parseLong(f[1]), Long.parseLong(f[2]), Long.parseLong(f[3])));
+                        indexedBytes += Long.parseLong(f[1]) - (old != null ? old.size : 0);
+                    } else if (f[0].equals("A") && f.length == 3) {
+                        // get() on the access-ordered map moves the tile to most recently used
+                        Entry entry = index.get(f[2]);
+                        if (entry != null) {
+                            entry.lastAccess = Long.parseLong(f[1]);
+                        }
+                    } else if (f[0].equals("D") && f.length == 2) {
+                        Entry old = index.remove(f[1]);
+                        if (old != null) {
+                            indexedBytes -= old.size;
+                        }
+                    }
+                } catch (NumberFormatException e) {
+                    // Skip a line torn by a crash mid-write
+                }
+            }
+        } catch (IOException e) {
+            // Whatever was read is still a usable index
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package uk.trigpointing.android.mapping
+
+import android.content.Context
+import android.util.Log
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingPeriodicWorkPolicy
+import androidx.work.PeriodicWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runInterruptible
+import java.util.concurrent.TimeUnit
+
+/**
+ * Periodically recounts the tile cache so the running totals in [TileCacheStats] can't drift far,
+ * e.g. after a crash between writing a tile and saving the totals. Runs while the device is idle.
+ */
+class TileCacheReconcileWorker(context: Context, params: WorkerParameters) : CoroutineWorker(context, params) {
+
+    override suspend fun doWork(): Result {
+        val stats = TileCacheStats.get(applicationContext)
+        val before = stats.totals
+        runInterruptible(Dispatchers.IO) { stats.reconcile() }
+        val after = stats.totals
+        if (before[0] != after[0] || before[1] != after[1]) {
+            Log.i(TAG, "Tile cache totals corrected from ${before[1]} tiles/${before[0]} bytes " +
+                    "to ${after[1]} tiles/${after[0]} bytes")
+        }
+        return Result.success()
+    }
+
+    companion object {
+        private const val TAG = "TileCacheReconcile"
+        private const val WORK_NAME = "tile_cache_reconcile"
+
+        /** Schedules the daily recount; an existing schedule is kept. */
+        @JvmStatic
+        fun schedule(context: Context) {
+            val request = PeriodicWorkRequestBuilder<TileCacheReconcileWorker>(1, TimeUnit.DAYS)
+                .setConstraints(
+                    Constraints.Builder()
+                        .setRequiresDeviceIdle(true)
+                        .setRequiresBatteryNotLow(true)
+                        .build()
+                )
+                .build()
+            WorkManager.getInstance(context)
+                .enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request)
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package uk.trigpointing.android.mapping;
+
+import android.content.Context;
+
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running size and tile counts for the map tile cache, per provider and zoom level.
+ *
+ * Everything that writes or deletes tiles reports it here, so the totals are available without
+ * walking the cache. Totals are saved to a small file inside the tile cache itself: if the system
+ * or the user clears the app cache the totals go with it, which is exactly right. Anything that
+ * slips past the accounting is corrected by {@link #reconcile()}, run by TileCacheReconcileWorker.
+ *
+ * Tile paths look like map_tiles/{provider path}/{z}/{x}/{y}[.png]; the provider is everything
+ * between the cache root and the zoom level.
+ */
+public class TileCacheStats {
+
+    static final String STATS_FILE = ".cache_stats.json";
+    static final int MAX_ZOOM = 22;
+    private static final long SAVE_DELAY_MS = 2000;
+
+    private static TileCacheStats instance;
+
+    /** Totals for one provider, indexed by zoom level. */
+    static class Bucket {
+        long[] bytes = new long[MAX_ZOOM + 1];
+        long[] tiles = new long[MAX_ZOOM + 1];
+    }
+
+    private final File root;
+    private final File statsFile;
+    private final ScheduledExecutorService saver;
+    private Map<String, Bucket> providers = new TreeMap<>();
+    private boolean reconciled;
+    private boolean saveScheduled;
+
+    public static synchronized TileCacheStats get(Context context) {
+        if (instance == null) {
+            instance = new TileCacheStats(new File(context.getApplicationContext().getCacheDir(), "map_tiles"));
+        }
+        return instance;
+    }
+
+    TileCacheStats(File root) {
+        this.root = root;
+        this.statsFile = new File(root, STATS_FILE);
+        this.saver = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "TileCacheStats");
+            t.setDaemon(true);
+            return t;
+        });
+        load();
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /** Records a tile write. previousBytes is the size of the file it replaced, or -1 if it is new. */
+    public void recordWrite(File tile, long previousBytes, long bytes) {
+        String[] key = keyFor(tile);
+        if (key == null) {
+            return;
+        }
+        synchronized (this) {
+            Bucket bucket = bucket(key[0]);
+            int zoom = Integer.parseInt(key[1]);
+            if (previousBytes >= 0) {
+                bucket.bytes[zoom] += bytes - previousBytes;
+            } else {
+                bucket.bytes[zoom] += bytes;
+                bucket.tiles[zoom]++;
+            }
+        }
+        scheduleSave();
+    }
+
+    /** Records that a tile of the given size was deleted. */
+    public void recordDelete(File tile, long bytes) {
+        String[] key = keyFor(tile);
+        if (key == null) {
+            return;
+        }
+        synchronized (this) {
+            Bucket bucket = bucket(key[0]);
+            int zoom = Integer.parseInt(key[1]);
+            bucket.bytes[zoom] = Math.max(0, bucket.bytes[zoom] - bytes);
+            bucket.tiles[zoom] = Math.max(0, bucket.tiles[zoom] - 1);
+        }
+        scheduleSave();
+    }
+
+    /** Forgets everything, after the whole cache has been deleted. */
+    public void reset() {
+        synchronized (this) {
+            providers = new TreeMap<>();
+            reconciled = true;
+        }
+        scheduleSave();
+    }
+
+    /**
+     * False when the totals may not describe the cache, e.g. the first run after an upgrade when
+     * tiles exist but were never counted. Callers should {@link #reconcile()} before trusting them.
+     */
+    public synchronized boolean isReconciled() {
+        return reconciled;
+    }
+
+    /** Total {bytes, tiles} across every provider. */
+    public long[] getTotals() {
+        long bytes = 0;
+        long tiles = 0;
+        synchronized (this) {
+            checkCleared();
+            for (Bucket bucket : providers.values()) {
+                for (int z = 0; z <= MAX_ZOOM; z++) {
+                    bytes += bucket.bytes[z];
+                    tiles += bucket.tiles[z];
+                }
+            }
+        }
+        return new long[]{bytes, tiles};
+    }
+
+    /** Per-provider totals as provider to {bytes, tiles}. */
+    public synchronized Map<String, long[]> getProviderTotals() {
+        checkCleared();
+        Map<String, long[]> result = new TreeMap<>();
+        for (Map.Entry<String, Bucket> entry : providers.entrySet()) {
+            long[] totals = new long[2];
+            for (int z = 0; z <= MAX_ZOOM; z++) {
+                totals[0] += entry.getValue().bytes[z];
+                totals[1] += entry.getValue().tiles[z];
+            }
+            result.put(entry.getKey(), totals);
+        }
+        return result;
+    }
+
+    /** {bytes, tiles} for each zoom level of one provider, or null if it has no tiles. */
+    public synchronized long[][] getZoomTotals(String provider) {
+        checkCleared();
+        Bucket bucket = providers.get(provider);
+        if (bucket == null) {
+            return null;
+        }
+        long[][] result = new long[MAX_ZOOM + 1][];
+        for (int z = 0; z <= MAX_ZOOM; z++) {
+            result[z] = new long[]{bucket.bytes[z], bucket.tiles[z]};
+        }
+        return result;
+    }
+
+    /**
+     * Walks the whole cache once and replaces the totals with what is really on disk.
+     * Slow on a full cache; call from a background thread.
+     */
+    public void reconcile() {
+        Map<String, Bucket> counted = new TreeMap<>();
+        int rootLength = root.getPath().length() + 1;
+        Deque<File> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            File[] children = pending.pop().listFiles();
+            if (children == null) {
+                continue;
+            }
+            for (File child : children) {
+                if (child.getName().startsWith(".")) {
+                    continue;
+                }
+                if (child.isDirectory()) {
+                    pending.push(child);
+                    continue;
+                }
+                String[] key = split(child.getPath().substring(rootLength));
+                if (key != null) {
+                    Bucket bucket = counted.get(key[0]);
+                    if (bucket == null) {
+                        bucket = new Bucket();
+                        counted.put(key[0], bucket);
+                    }
+                    int zoom = Integer.parseInt(key[1]);
+                    bucket.bytes[zoom] += child.length();
+                    bucket.tiles[zoom]++;
+                }
+            }
+        }
+        synchronized (this) {
+            providers = counted;
+            reconciled = true;
+        }
+        save();
+    }
+
+    /** Writes the totals now rather than waiting for the deferred save. */
+    public void flush() {
+        save();
+    }
+
+    private void checkCleared() {
+        // The cache directory disappears when Android or the user clears the app cache
+        if (!root.exists() && !providers.isEmpty()) {
+            providers = new TreeMap<>();
+            reconciled = true;
+        }
+    }
+
+    private Bucket bucket(String provider) {
+        Bucket bucket = providers.get(provider);
+        if (bucket == null) {
+            bucket = new Bucket();
+            providers.put(provider, bucket);
+        }
+        return bucket;
+    }
+
+    private String[] keyFor(File tile) {
+        String path = tile.getPath();
+        String rootPath = root.getPath();
+        if (!path.startsWith(rootPath) || path.length() <= rootPath.length() + 1
+                || path.charAt(rootPath.length()) != File.separatorChar) {
+            return null;
+        }
+        return split(path.substring(rootPath.length() + 1));
+    }
+
+    /** Splits a root-relative tile path into {provider, zoom}, or null if it isn't a tile. */
+    static String[] split(String relative) {
+        String[] parts = relative.replace(File.separatorChar, '/').split("/");
+        if (parts.length < 4) {
+            return null;
+        }
+        String zoom = parts[parts.length - 3];
+        if (zoom.isEmpty() || zoom.length() > 2) {
+            return null;
+        }
+        for (int i = 0; i < zoom.length(); i++) {
+            if (!Character.isDigit(zoom.charAt(i))) {
+                return null;
+            }
+        }
+        if (Integer.parseInt(zoom) > MAX_ZOOM) {
+            return null;
+        }
+        StringBuilder provider = new StringBuilder(parts[0]);
+        for (int i = 1; i < parts.length - 3; i++) {
+            provider.append('/').append(parts[i]);
+        }
+        return new String[]{provider.toString(), zoom};
+    }
+
+    private void scheduleSave() {
+        synchronized (this) {
+            if (saveScheduled) {
+                return;
+            }
+            saveScheduled = true;
+        }
+        saver.schedule(this::save, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void save() {
+        String json;
+        synchronized (this) {
+            saveScheduled = false;
+            if (!root.exists() && providers.isEmpty()) {
+                return;
+            }
+            Saved saved = new Saved();
+            saved.reconciled = reconciled;
+            saved.providers = providers;
+            json = new Gson().toJson(saved);
+        }
+        synchronized (statsFile) {
+            if (!root.exists() && !root.mkdirs()) {
+                return;
+            }
+            File tmp = new File(root, STATS_FILE + ".tmp");
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+                writer.write(json);
+            } catch (IOException e) {
+                return;
+            }
+            //noinspection ResultOfMethodCallIgnored
+            tmp.renameTo(statsFile);
+        }
+    }
+
+    private void load() {
+        if (statsFile.exists()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(statsFile), StandardCharsets.UTF_8)) {
+                Saved saved = new Gson().fromJson(reader, Saved.class);
+                if (saved != null && saved.providers != null) {
+                    for (Bucket bucket : saved.providers.values()) {
+                        if (bucket.bytes == null || bucket.bytes.length != MAX_ZOOM + 1
+                                || bucket.tiles == null || bucket.tiles.length != MAX_ZOOM + 1) {
+                            throw new IOException("Bad bucket");
+                        }
+                    }
+                    providers = new TreeMap<>(saved.providers);
+                    reconciled = saved.reconciled;
+                    return;
+                }
+            } catch (IOException | RuntimeException e) {
+                // Fall through: unreadable totals are recounted by reconcile()
+            }
+        }
+        // No saved totals: right if the cache is empty, otherwise the tiles predate the accounting
+        String[] existing = root.list();
+        reconciled = existing == null || existing.length == 0;
+    }
+
+    private static class Saved {
+        boolean reconciled;
+        Map<String, Bucket> providers;
+    }
+}
@@ -0,0 +1,123 @@
+package uk.trigpointing.android.mapping;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The on-disk map tile store shared by the Leaflet map and the trig details map images.
+ *
+ * Tiles live under cacheDir/map_tiles/{host}{path}, the layout map packs extract to, so a tile
+ * fetched by one screen is there for the other and offline. Network fetches are recorded with
+ * {@link TileCacheLru} so they count towards the cache budget. At most
+ * {@link #MAX_CONNECTIONS_PER_HOST} fetches run against each tile server at once, in line with
+ * the OpenStreetMap tile usage policy, however many threads ask.
+ */
+public class TileStore {
+
+    static final int MAX_CONNECTIONS_PER_HOST = 2;
+    private static final String USER_AGENT = "TrigpointingUK-Android-App/1.0";
+    private static final int TIMEOUT_MS = 10000;
+
+    private static TileStore instance;
+
+    private final File root;
+    private final TileCacheLru lru;
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    public static synchronized TileStore get(Context context) {
+        if (instance == null) {
+            TileCacheLru lru = TileCacheLru.get(context);
+            instance = new TileStore(TileCacheStats.get(context).getRoot(), lru);
+        }
+        return instance;
+    }
+
+    TileStore(File root, TileCacheLru lru) {
+        this.root = root;
+        this.lru = lru;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /** Where the tile for this URL lives in the store; the query string (e.g. an API key) is ignored. */
+    public File tileFile(String urlString) throws IOException {
+        URL url = new URL(urlString);
+        return new File(root, url.getHost() + url.getPath());
+    }
+
+    /** The cached tile, or null if it isn't in the store. Counts as a use for eviction. */
+    public File getCached(String urlString) throws IOException {
+        File tile = tileFile(urlString);
+        if (!tile.isFile()) {
+            return null;
+        }
+        lru.recordAccess(tile);
+        return tile;
+    }
+
+    /** The tile from the store, fetching it first if needed. */
+    public File get(String urlString) throws IOException, InterruptedException {
+        File cached = getCached(urlString);
+        return cached != null ? cached : fetch(urlString);
+    }
+
+    /**
+     * Fetches the tile from the network into the store and returns it. The tile is written to a
+     * hidden temp file and renamed into place, so readers never see half a tile.
+     */
+    public File fetch(String urlString) throws IOException, InterruptedException {
+        URL url = new URL(urlString);
+        File tile = tileFile(urlString);
+        Semaphore permits = hostPermits.computeIfAbsent(url.getHost(), h -> new Semaphore(MAX_CONNECTIONS_PER_HOST));
+        permits.acquire();
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            // Set a custom User-Agent to comply with tile server policies
+            connection.setRequestProperty("User-Agent", USER_AGENT);
+            try {
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("Tile fetch failed - HTTP " + connection.getResponseCode() + " for " + url.getPath());
+                }
+                File parentDir = tile.getParentFile();
+                if (parentDir != null && !parentDir.isDirectory() && !parentDir.mkdirs() && !parentDir.isDirectory()) {
+                    throw new IOException("Unable to create " + parentDir);
+                }
+                File tmp = new File(parentDir, "." + tile.getName() + "." + Thread.currentThread().getId() + ".tmp");
+                long written = 0;
+                try (InputStream in = connection.getInputStream();
+                     FileOutputStream out = new FileOutputStream(tmp)) {
+                    byte[] buffer = new byte[8192];
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, n);
+                        written += n;
+                    }
+                }
+                if (!tmp.renameTo(tile)) {
+                    //noinspection ResultOfMethodCallIgnored
+                    tmp.delete();
+                    throw new IOException("Unable to store tile " + tile);
+                }
+                lru.recordFetch(tile, written);
+                return tile;
+            } finally {
+                connection.disconnect();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package uk.trigpointing.android.nearest;
+
+/**
+ * Smooths compass headings from the rotation sensor and decides when the display is worth
+ * updating. Sensor events arrive far faster than the screen refreshes and jitter by a degree or
+ * so, so each one only feeds the average; the display takes the average once per frame, and only
+ * when it has turned by at least {@link #MIN_CHANGE_DEGREES} since it was last shown.
+ *
+ * Headings are averaged as unit vectors so that 359 and 1 average to north rather than south.
+ */
+final class HeadingFilter {
+
+    /** Weight given to each new sensor reading */
+    static final float SMOOTHING = 0.2f;
+    /** Smallest turn that is redrawn */
+    static final float MIN_CHANGE_DEGREES = 1.0f;
+
+    private float sin;
+    private float cos;
+    private boolean hasReading;
+    private float shown = Float.NaN;
+
+    /** Adds a heading, in degrees, from the sensor. */
+    void add(float headingDegrees) {
+        double radians = Math.toRadians(headingDegrees);
+        float newSin = (float) Math.sin(radians);
+        float newCos = (float) Math.cos(radians);
+        if (hasReading) {
+            sin += SMOOTHING * (newSin - sin);
+            cos += SMOOTHING * (newCos - cos);
+        } else {
+            sin = newSin;
+            cos = newCos;
+            hasReading = true;
+        }
+    }
+
+    /** The smoothed heading in degrees, 0-360; 0 before any readings. */
+    float getHeading() {
+        if (!hasReading) {
+            return 0f;
+        }
+        float degrees = (float) Math.toDegrees(Math.atan2(sin, cos));
+        return degrees < 0 ? degrees + 360f : degrees;
+    }
+
+    /**
+     * @return true, recording the heading as shown, if it has turned far enough since it was last
+     *         shown to be worth redrawing
+     */
+    boolean takeChange() {
+        if (!hasReading) {
+            return false;
+        }
+        float heading = getHeading();
+        if (!Float.isNaN(shown)) {
+            float change = Math.abs(heading - shown);
+            if (Math.min(change, 360f - change) < MIN_CHANGE_DEGREES) {
+                return false;
+            }
+        }
+        shown = heading;
+        return true;
+    }
+
+    /** Forgets all readings, e.g. when the compass is turned off. */
+    void reset() {
+        hasReading = false;
+        shown = Float.NaN;
+    }
+}
@@ -27,6 +27,7 @@ import androidx.preference.PreferenceManager;
 import android.util.Log;
 import android.net.Uri;
 import android.provider.Settings;
+import android.view.Choreographer;
 import android.view.Display;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -70,6 +71,12 @@ public class NearestActivity extends BaseActivity implements SensorEventListener
     private SharedPreferences       mPrefs;
     private SensorManager             mSensorManager;
     private Sensor                     rotationVector;
+    private final float[]             mRotationMatrix = new float[9];
+    // Sensor readings are smoothed and shown at most once per display frame
+    private final HeadingFilter       mHeadingFilter = new HeadingFilter();
+    private final Choreographer.FrameCallback mHeadingFrame = frameTimeNanos -> showHeading();
+    private boolean                 mHeadingFramePending;
+    private ListView                 mListView;
     private int mOrientation;
     private boolean mUsingCompass;
     private boolean mRelativeMode = false;
@@ -147,6 +154,7 @@ public class NearestActivity extends BaseActivity implements SensorEventListener
         
         // Set up ListView since we're no longer using ListActivity
         ListView listView = findViewById(android.R.id.list);
+        mListView = listView;
         if (listView != null) {
             listView.setOnItemClickListener(new android.widget.AdapterView.OnItemClickListener() {
                 @Override
@@ -360,12 +368,18 @@ public class NearestActivity extends BaseActivity implements SensorEventListener
             mNorthText.setTextColor(ContextCompat.getColor(this, R.color.compassEnabled));
         } else {
             mSensorManager.unregisterListener(this);
+            Choreographer.getInstance().removeFrameCallback(mHeadingFrame);
+            mHeadingFramePending = false;
+            mHeadingFilter.reset();
             mHeading = 0;
             mCompassArrow.setImageResource(mListAdapter.getArrow(0));
             mCompassArrow.setRotation(mListAdapter.getArrowRotation(0));
             mNorthText.setTextColor(ContextCompat.getColor(this, R.color.compassDisabled));
-            mListAdapter.setHeading(0);
-            mListAdapter.notifyDataSetChanged();
+            if (mListView != null) {
+                mListAdapter.updateArrows(mListView, 0);
+            } else {
+                mListAdapter.setHeading(0);
+            }
         }
     }
     
@@ -562,33 +576,44 @@ public class NearestActivity extends BaseActivity implements SensorEventListener
         
         CompletableFuture.supplyAsync(() -> {
             Log.i(TAG, "FindTrigsTask.doInBackground");
-            Cursor c = null;
+            Location source = mRelativeMode ? mReferenceLocation : mCurrentLocation;
+            TrigListResult result = new TrigListResult(source);
             try {
-                Location source = mRelativeMode ? mReferenceLocation : mCurrentLocation;
-                c = mDb.fetchTrigList(source);
+                result.cursor = mDb.fetchTrigList(source);
                 // startManagingCursor is deprecated - cursor will be managed manually
+                // Distances and bearings for every row, here rather than as each row is bound
+                result.geometry = mListAdapter.computeGeometry(result.cursor, source);
             } catch (Exception e) {
                 e.printStackTrace();
             }
             mUpdateCount++;
-            return c;
+            return result;
         }, executor)
-        .thenAcceptAsync(cursor -> {
-            Log.i(TAG, "FindTrigsTask.onPostExecute " + cursor);
+        .thenAcceptAsync(result -> {
+            Log.i(TAG, "FindTrigsTask.onPostExecute " + result.cursor);
             try {
-                mCursor = cursor;
-                Location source = mRelativeMode ? mReferenceLocation : mCurrentLocation;
-                mListAdapter.swapCursor(mCursor, source);
+                mCursor = result.cursor;
+                mListAdapter.swapCursor(mCursor, result.source, result.geometry);
             } catch (Exception e) {
                 e.printStackTrace();
-                Location source = mRelativeMode ? mReferenceLocation : mCurrentLocation;
-                mListAdapter.swapCursor(null, source);
+                mListAdapter.swapCursor(null, result.source, null);
             }
             updateLocationHeader("task");
             mTaskRunning = false;
         }, mainHandler::post);
     }
 
+    /** A trig list query, with the location it was measured from. */
+    private static final class TrigListResult {
+        final Location source;
+        Cursor cursor;
+        NearestRowGeometry geometry;
+
+        TrigListResult(Location source) {
+            this.source = source;
+        }
+    }
+
     private void handleIncomingIntent(Intent intent) {
         if (intent == null) { return; }
         if (intent.hasExtra("extra_anchor_waypoint") && intent.hasExtra("extra_anchor_lat") && intent.hasExtra("extra_anchor_lon")) {
@@ -706,7 +731,7 @@ public class NearestActivity extends BaseActivity implements SensorEventListener
         if (!mUsingCompass) {return;}
         
         if (event.sensor.getType() == Sensor.TYPE_ROTATION_VECTOR) {
-            float[] rotationMatrix = new float[9];
+            float[] rotationMatrix = mRotationMatrix;
             SensorManager.getRotationMatrixFromVector(rotationMatrix, event.values);
 
             // Calculate hybrid direction: 45 degrees between screen normal and phone vertical axis
@@ -733,12 +758,29 @@ public class NearestActivity extends BaseActivity implements SensorEventListener
             float headingDeg = (float) Math.toDegrees(headingRad);
             if (headingDeg < 0) headingDeg += 360f;
             
-            mHeading = headingDeg;
+            // Shown on the next frame, however many readings arrive before it
+            mHeadingFilter.add(headingDeg);
+            if (!mHeadingFramePending) {
+                mHeadingFramePending = true;
+                Choreographer.getInstance().postFrameCallback(mHeadingFrame);
+            }
+        }
+    }
+
+    /** Turns the arrows to the smoothed heading, if it has changed enough to see. */
+    private void showHeading() {
+        mHeadingFramePending = false;
+        if (!mUsingCompass || !mHeadingFilter.takeChange()) {
+            return;
+        }
+        mHeading = mHeadingFilter.getHeading();
+        // Only the arrows of the rows on screen turn; distances and icons are left alone
+        if (mListView != null) {
+            mListAdapter.updateArrows(mListView, mHeading);
+        } else {
             mListAdapter.setHeading(mHeading);
-            mListAdapter.notifyDataSetChanged();
-            mCompassArrow.setImageResource(mListAdapter.getArrow(-mHeading));
-            mCompassArrow.setRotation(mListAdapter.getArrowRotation(-mHeading));
         }
+        mCompassArrow.setRotation(mListAdapter.getArrowRotation(-mHeading));
     }
 
 
@@ -11,19 +11,18 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.location.Location;
 import androidx.preference.PreferenceManager;
-import android.util.Log;
 import androidx.cursoradapter.widget.SimpleCursorAdapter;
 import androidx.core.content.ContextCompat;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import java.util.Locale;
-
 import uk.trigpointing.android.DbHelper;
 import uk.trigpointing.android.R;
+import uk.trigpointing.android.common.TrigIconCache;
 import uk.trigpointing.android.types.Condition;
 import uk.trigpointing.android.types.LatLon;
 import uk.trigpointing.android.types.LatLon.UNITS;
@@ -33,25 +32,26 @@ public class NearestCursorAdapter extends SimpleCursorAdapter {
 
     private final LayoutInflater mInflater;
     private int mNameIndex;
-    private int mLatIndex;
-    private int mLonIndex;
     private int mConditionIndex;
     private int mLoggedIndex;
     private int mTypeIndex;
     private int mUnsyncedIndex;
     private int mMarkedIndex;
     private Location mCurrentLocation;
+    private NearestRowGeometry mGeometry;
     private final LatLon.UNITS mUnits;
     //private static final String TAG = "NearestCursorAdapter";
     private double mHeading = 0;
     private double mOrientationOffset = 0;
     private boolean mUsingCompass = false;
     private Context mContext;
+    private final TrigIconCache mIconCache;
     
     
     public NearestCursorAdapter(Context context, int layout, Cursor c,    String[] from, int[] to, Location currentLocation) {
         this(context, layout, c, from, to);
         this.mCurrentLocation = currentLocation;
+        this.mGeometry = computeGeometry(c, currentLocation);
         this.mContext = context;
     }
 
@@ -59,6 +59,7 @@ public class NearestCursorAdapter extends SimpleCursorAdapter {
             String[] from, int[] to) {
         super(context, layout, c, from, to, 0);
         mInflater = LayoutInflater.from(context);
+        mIconCache = TrigIconCache.get(context);
         
         // should we list km or miles?
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -73,21 +74,41 @@ public class NearestCursorAdapter extends SimpleCursorAdapter {
             mConditionIndex = c.getColumnIndexOrThrow(DbHelper.TRIG_CONDITION);
             mTypeIndex = c.getColumnIndexOrThrow(DbHelper.TRIG_TYPE);
             mLoggedIndex = c.getColumnIndexOrThrow(DbHelper.TRIG_LOGGED);
-            mLatIndex = c.getColumnIndexOrThrow(DbHelper.TRIG_LAT);    
-            mLonIndex = c.getColumnIndexOrThrow(DbHelper.TRIG_LON);
             mUnsyncedIndex = c.getColumnIndexOrThrow(DbHelper.JOIN_UNSYNCED);
             mMarkedIndex = c.getColumnIndexOrThrow(DbHelper.JOIN_MARKED);
         }
     }
 
+    // Views of a row, found once when it is inflated
+    private static final class RowViews {
+        final TextView name;
+        final TextView distance;
+        final ImageView arrow;
+        final ImageView condition;
+        final ImageView type;
+        final ImageView logged;
+        // Of the trig bound to the row, so turning the compass only needs the arrow rotating
+        double bearing = Double.NaN;
+
+        RowViews(View row) {
+            name = row.findViewById(R.id.trigName);
+            distance = row.findViewById(R.id.trigDistance);
+            arrow = row.findViewById(R.id.trigArrow);
+            condition = row.findViewById(R.id.trigCondition);
+            type = row.findViewById(R.id.trigType);
+            logged = row.findViewById(R.id.trigLogged);
+        }
+    }
+
     @Override
     public void bindView(View view, Context context, Cursor cursor) {
-        TextView  tn = view.findViewById(R.id.trigName);
-        TextView  td = view.findViewById(R.id.trigDistance);
-        ImageView ta = view.findViewById(R.id.trigArrow);
-        ImageView tc = view.findViewById(R.id.trigCondition);
-        ImageView tt = view.findViewById(R.id.trigType);
-        ImageView tl = view.findViewById(R.id.trigLogged);
+        RowViews row = (RowViews) view.getTag();
+        TextView  tn = row.name;
+        TextView  td = row.distance;
+        ImageView ta = row.arrow;
+        ImageView tc = row.condition;
+        ImageView tt = row.type;
+        ImageView tl = row.logged;
         
         tn.setText(cursor.getString(mNameIndex));
         tc.setImageResource(Condition.fromCode(cursor.getString(mConditionIndex)).icon());
@@ -101,7 +122,14 @@ public class NearestCursorAdapter extends SimpleCursorAdapter {
             tn.setTypeface(null, Typeface.NORMAL);
             tn.setTextColor(ContextCompat.getColor(mContext, R.color.nearestUnmarkedColour));
         }
-        tt.setImageResource(Trig.Physical.fromCode(cursor.getString(mTypeIndex)).icon(marked));
+        // Same marker as the map and trig details header; decoded once and shared
+        String type = cursor.getString(mTypeIndex);
+        Drawable typeIcon = mIconCache.getTypeDrawable(context.getResources(), type, marked);
+        if (typeIcon != null) {
+            tt.setImageDrawable(typeIcon);
+        } else {
+            tt.setImageResource(Trig.Physical.fromCode(type).icon(marked));
+        }
         
         // Use either synced condition from T:UK, or highlighted unsynced condition from logs
         Boolean unsynced = (cursor.getString(mUnsyncedIndex) != null);
@@ -111,37 +139,22 @@ public class NearestCursorAdapter extends SimpleCursorAdapter {
             tl.setImageResource(Condition.fromCode(cursor.getString(mLoggedIndex)).icon(unsynced));            
         }
         
-        if (mCurrentLocation != null) {
-            LatLon l = new LatLon(cursor.getDouble(mLatIndex), cursor.getDouble(mLonIndex));            
-            double distance = l.distanceTo(mCurrentLocation, mUnits);
-            double bearing = l.bearingFrom(mCurrentLocation);
-            double adjustedBearing = bearing - mHeading;
-            int arrowResource = getArrow(adjustedBearing);
-            
-            td.setText(String.format(Locale.getDefault(), "%3.1f", distance));
-            
-            // Debug: Check if ImageView is null
-            if (ta == null) {
-                Log.e("NearestCursorAdapter", "trigArrow ImageView is null!");
-            } else {
-                ta.setImageResource(arrowResource);
-                // Apply rotation to the arrow based on bearing
-                float rotation = getArrowRotation(adjustedBearing);
-                ta.setRotation(rotation);
-                Log.d("NearestCursorAdapter", "Set arrow resource: " + arrowResource + " with rotation: " + rotation + "° for trig: " + cursor.getString(mNameIndex));
-            }
-            
-            // Debug logging for first few items
-            String trigName = cursor.getString(mNameIndex);
-            if (trigName != null && trigName.length() > 0) {
-                Log.d("NearestCursorAdapter", String.format("Trig: %s, Bearing: %.1f°, Adjusted: %.1f°, Arrow: %d", 
-                    trigName, bearing, adjustedBearing, arrowResource));
+        // Worked out for the whole cursor when it was queried
+        int position = cursor.getPosition();
+        if (mGeometry != null && position < mGeometry.size()) {
+            double bearing = mGeometry.getBearing(position);
+            row.bearing = bearing;
+            td.setText(mGeometry.getDistanceLabel(position));
+            if (ta != null) {
+                ta.setImageResource(R.drawable.arrow_00_n);
+                ta.setRotation(getArrowRotation(bearing - mHeading));
             }
         } else {
+            row.bearing = Double.NaN;
             td.setText("");
             if (ta != null) {
                 ta.setImageResource(R.drawable.arrow_x);
-                Log.d("NearestCursorAdapter", "Set arrow_x resource for null location");
+                ta.setRotation(0);
             }
         }
     }
@@ -156,16 +169,7 @@ public class NearestCursorAdapter extends SimpleCursorAdapter {
      * @return A rotated drawable resource ID (for compatibility with existing code)
      */
     public int getArrow(double bearing) {
-        // Only apply orientation offset when compass sensor is active
-        // When compass is disabled, North should always point to top of screen
-        double effectiveOrientationOffset = mUsingCompass ? mOrientationOffset : 0.0;
-        double totalRotation = bearing + effectiveOrientationOffset;
-        
-        Log.d("NearestCursorAdapter", String.format("getArrow: bearing=%.1f°, orientationOffset=%.1f°, effectiveOffset=%.1f°, totalRotation=%.1f°", 
-            bearing, mOrientationOffset, effectiveOrientationOffset, totalRotation));
-        
-        // For now, return the base arrow resource
-        // The actual rotation will be handled in bindView where we can set the ImageView rotation
+        // The arrow is rotated rather than swapped; see getArrowRotation
         return R.drawable.arrow_00_n;
     }
     
@@ -183,21 +187,57 @@ public class NearestCursorAdapter extends SimpleCursorAdapter {
     
     @Override
     public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        return mInflater.inflate(R.layout.trigrow, parent, false);
+        View view = mInflater.inflate(R.layout.trigrow, parent, false);
+        view.setTag(new RowViews(view));
+        return view;
+    }
+
+    /**
+     * Turns the arrows of the rows on screen to a new compass heading, without rebinding them.
+     * Rows scrolled into view later pick up the heading when they are bound.
+     */
+    public void updateArrows(AbsListView list, double heading) {
+        mHeading = heading;
+        for (int i = 0; i < list.getChildCount(); i++) {
+            Object tag = list.getChildAt(i).getTag();
+            if (tag instanceof RowViews) {
+                RowViews row = (RowViews) tag;
+                if (row.arrow != null && !Double.isNaN(row.bearing)) {
+                    row.arrow.setRotation(getArrowRotation(row.bearing - heading));
+                }
+            }
+        }
+    }
+
+    /**
+     * Distances and bearings for every row of a freshly queried cursor, for
+     * {@link #swapCursor(Cursor, Location, NearestRowGeometry)}. Call it off the main thread,
+     * before the cursor is swapped in.
+     * @return null if there is no location to measure from
+     */
+    NearestRowGeometry computeGeometry(Cursor c, Location loc) {
+        if (c == null || loc == null) {
+            return null;
+        }
+        return NearestRowGeometry.compute(c, loc.getLatitude(), loc.getLongitude(), mUnits);
     }
 
     public Cursor swapCursor(Cursor c, Location loc) {
+        return swapCursor(c, loc, computeGeometry(c, loc));
+    }
+
+    /** @param geometry from {@link #computeGeometry(Cursor, Location)} for this cursor and location */
+    Cursor swapCursor(Cursor c, Location loc, NearestRowGeometry geometry) {
         if (c != null) {
             mNameIndex = c.getColumnIndexOrThrow(DbHelper.TRIG_NAME);
             mConditionIndex = c.getColumnIndexOrThrow(DbHelper.TRIG_CONDITION);
             mTypeIndex = c.getColumnIndexOrThrow(DbHelper.TRIG_TYPE);
             mLoggedIndex = c.getColumnIndexOrThrow(DbHelper.TRIG_LOGGED);
-            mLatIndex = c.getColumnIndexOrThrow(DbHelper.TRIG_LAT);    
-            mLonIndex = c.getColumnIndexOrThrow(DbHelper.TRIG_LON);
             mUnsyncedIndex = c.getColumnIndexOrThrow(DbHelper.JOIN_UNSYNCED);
             mMarkedIndex = c.getColumnIndexOrThrow(DbHelper.JOIN_MARKED);
         }
         mCurrentLocation = loc;
+        mGeometry = geometry;
         return super.swapCursor(c);
     }
 
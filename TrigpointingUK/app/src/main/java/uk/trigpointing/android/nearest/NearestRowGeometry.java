@@ -0,0 +1,78 @@
+package uk.trigpointing.android.nearest;
+
+import android.database.Cursor;
+
+import java.util.Locale;
+
+import uk.trigpointing.android.DbHelper;
+import uk.trigpointing.android.types.Geodesy;
+import uk.trigpointing.android.types.LatLon;
+import uk.trigpointing.android.types.LatLon.UNITS;
+
+/**
+ * Distance and bearing from the reference location to the trig in each row of a Nearest list
+ * cursor, indexed by cursor position. Computed once per query, off the main thread, so binding a
+ * row only has to look them up.
+ *
+ * Immutable once computed, so it can be handed from the query thread to the adapter.
+ */
+final class NearestRowGeometry {
+
+    private final double[] distances;
+    private final double[] bearings;
+    private final String[] distanceLabels;
+
+    private NearestRowGeometry(int count) {
+        distances = new double[count];
+        bearings = new double[count];
+        distanceLabels = new String[count];
+    }
+
+    /**
+     * Reads the position of every row of a cursor that isn't yet in use, leaving it before the
+     * first row.
+     */
+    static NearestRowGeometry compute(Cursor cursor, double fromLat, double fromLon, UNITS units) {
+        int latIndex = cursor.getColumnIndexOrThrow(DbHelper.TRIG_LAT);
+        int lonIndex = cursor.getColumnIndexOrThrow(DbHelper.TRIG_LON);
+        int count = cursor.getCount();
+        double[] lats = new double[count];
+        double[] lons = new double[count];
+        for (int position = 0; position < count && cursor.moveToPosition(position); position++) {
+            lats[position] = cursor.getDouble(latIndex);
+            lons[position] = cursor.getDouble(lonIndex);
+        }
+        cursor.moveToPosition(-1);
+        return compute(lats, lons, fromLat, fromLon, units);
+    }
+
+    static NearestRowGeometry compute(double[] lats, double[] lons, double fromLat, double fromLon, UNITS units) {
+        double radius = LatLon.earthRadius(units);
+        NearestRowGeometry geometry = new NearestRowGeometry(lats.length);
+        for (int i = 0; i < lats.length; i++) {
+            // As LatLon.distanceTo and LatLon.bearingFrom
+            geometry.distances[i] = Geodesy.haversineDistance(lats[i], lons[i], fromLat, fromLon, radius);
+            geometry.bearings[i] = Geodesy.normaliseBearing(Geodesy.initialBearing(fromLat, fromLon, lats[i], lons[i]));
+            geometry.distanceLabels[i] = String.format(Locale.getDefault(), "%3.1f", geometry.distances[i]);
+        }
+        return geometry;
+    }
+
+    int size() {
+        return distances.length;
+    }
+
+    double getDistance(int position) {
+        return distances[position];
+    }
+
+    /** Degrees from north, 0-360 */
+    double getBearing(int position) {
+        return bearings[position];
+    }
+
+    /** The distance as the list shows it, e.g. "12.3" */
+    String getDistanceLabel(int position) {
+        return distanceLabels[position];
+    }
+}
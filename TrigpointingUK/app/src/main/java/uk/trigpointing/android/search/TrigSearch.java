@@ -0,0 +1,394 @@
+package uk.trigpointing.android.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import uk.trigpointing.android.DbHelper;
+
+/**
+ * Turns what the user typed into full-text queries over the trig search index and ranks what
+ * they find. The index, DbHelper.TRIG_SEARCH_TABLE, holds each trig's name, its waypoint as
+ * both "tp1234" and "1234", and its grid reference compacted to every precision from
+ * "ny31" to "ny3412315123".
+ *
+ * Words are searched as prefixes, so results come as the user types. A word that starts no
+ * trig name is also searched as the few name words closest to it, within one or two edits, so
+ * "Kinder Lwo" still finds Kinder Low. Those come from a vocabulary of every word in every name,
+ * held here.
+ *
+ * Thread safe: immutable.
+ */
+public final class TrigSearch {
+
+    /** Closest words a misspelt one is also searched as */
+    public static final int MAX_CORRECTIONS = 3;
+    /** Most full-text queries one search may run */
+    public static final int MAX_EXPRESSIONS = 8;
+    // Words shorter than this have too many close neighbours to correct
+    private static final int MIN_CORRECTED_LENGTH = 4;
+    // Words this long may be two edits out
+    private static final int TWO_EDIT_LENGTH = 8;
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    // A grid square and an even number of digits; TP is a waypoint, and a square of only sea
+    private static final Pattern GRIDREF = Pattern.compile("(?!tp)[hnost][a-hj-z](\\d\\d){1,5}");
+
+    // Relevance of a query word matching...
+    private static final int WAYPOINT_MATCH = 4;
+    private static final int GRIDREF_MATCH = 4;
+    private static final int NAME_WORD_MATCH = 3;
+    private static final int NAME_PREFIX_MATCH = 2;
+    private static final int CORRECTED_MATCH = 1;
+    private static final int WAYPOINT_PREFIX_MATCH = 1;
+    // ...and of the whole name
+    private static final int WHOLE_NAME_MATCH = 3;
+    private static final int LEADING_WORD_MATCH = 1;
+
+    private final String[] terms;
+    private final int[] documents;
+    // The letters in each term, for ruling most out as corrections without working out edits
+    private final int[] letters;
+    // Indexes into terms by word length, for corrections
+    private final int[][] byLength;
+
+    private TrigSearch(String[] terms, int[] documents) {
+        this.terms = terms;
+        this.documents = documents;
+        letters = new int[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            letters[i] = letterMask(terms[i]);
+        }
+        int longest = 0;
+        for (String term : terms) {
+            longest = Math.max(longest, term.length());
+        }
+        int[] counts = new int[longest + 1];
+        for (String term : terms) {
+            counts[term.length()]++;
+        }
+        byLength = new int[longest + 1][];
+        for (int length = 0; length <= longest; length++) {
+            byLength[length] = new int[counts[length]];
+        }
+        int[] filled = new int[longest + 1];
+        for (int i = 0; i < terms.length; i++) {
+            int length = terms[i].length();
+            byLength[length][filled[length]++] = i;
+        }
+    }
+
+    /** A search over the words of these trig names */
+    public static TrigSearch fromNames(Iterable<String> names) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String name : names) {
+            for (String word : new HashSet<>(tokens(name))) {
+                counts.merge(word, 1, Integer::sum);
+            }
+        }
+        String[] terms = counts.keySet().toArray(new String[0]);
+        Arrays.sort(terms);
+        int[] documents = new int[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            documents[i] = counts.get(terms[i]);
+        }
+        return new TrigSearch(terms, documents);
+    }
+
+    /** Distinct words in the names */
+    public int size() {
+        return terms.length;
+    }
+
+    /**
+     * Words as the index's unicode61 tokenizer sees them: lower case, without accents, split at
+     * anything that isn't a letter or digit.
+     */
+    public static List<String> tokens(String text) {
+        if (text == null) {
+            return Collections.emptyList();
+        }
+        String plain = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        List<String> tokens = new ArrayList<>();
+        for (String token : SEPARATORS.split(plain)) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * A stored ten figure grid reference, "NY 34123 15123", at every precision the index holds it,
+     * as DbHelper's search triggers write it.
+     */
+    public static List<String> gridRefTokens(String gridref) {
+        if (gridref == null || gridref.length() != 14) {
+            return tokens(gridref);
+        }
+        String letters = gridref.substring(0, 2).toLowerCase(Locale.ROOT);
+        List<String> tokens = new ArrayList<>(5);
+        for (int digits = 1; digits <= 5; digits++) {
+            tokens.add(letters + gridref.substring(3, 3 + digits) + gridref.substring(9, 9 + digits));
+        }
+        return tokens;
+    }
+
+    /** Plans a search for what the user typed */
+    public Query query(String text) {
+        List<String> words = tokens(text);
+        String compact = String.join("", words);
+        if (words.size() > 1 && GRIDREF.matcher(compact).matches()) {
+            // "SK 123 456" rather than separate words
+            words = Collections.singletonList(compact);
+        }
+        List<List<String>> alternatives = new ArrayList<>(words.size());
+        for (String word : words) {
+            alternatives.add(alternatives(word));
+        }
+        return new Query(words, alternatives, words.size() == 1 && GRIDREF.matcher(compact).matches());
+    }
+
+    // The word as a prefix, then its corrections if no name starts with it
+    private List<String> alternatives(String word) {
+        List<String> alternatives = new ArrayList<>(1 + MAX_CORRECTIONS);
+        alternatives.add(word);
+        if (word.length() >= MIN_CORRECTED_LENGTH && isLetters(word) && !startsAnyTerm(word)) {
+            alternatives.addAll(corrections(word));
+        }
+        return alternatives;
+    }
+
+    private boolean startsAnyTerm(String prefix) {
+        int i = Arrays.binarySearch(terms, prefix);
+        if (i >= 0) {
+            return true;
+        }
+        int next = -i - 1;
+        return next < terms.length && terms[next].startsWith(prefix);
+    }
+
+    /**
+     * The name words within one edit of a word, or two for long words, closest and then
+     * commonest first; at most {@link #MAX_CORRECTIONS}.
+     */
+    public List<String> corrections(String word) {
+        int maxEdits = word.length() >= TWO_EDIT_LENGTH ? 2 : 1;
+        int wordLetters = letterMask(word);
+        int[][] rows = new int[3][word.length() + maxEdits + 1];
+        List<int[]> found = new ArrayList<>();
+        int from = Math.max(0, word.length() - maxEdits);
+        int to = Math.min(byLength.length - 1, word.length() + maxEdits);
+        for (int length = from; length <= to; length++) {
+            for (int i : byLength[length]) {
+                // Each edit adds or loses at most one letter
+                if (Integer.bitCount(wordLetters ^ letters[i]) > 2 * maxEdits) {
+                    continue;
+                }
+                int edits = editDistance(word, terms[i], maxEdits, rows);
+                if (edits <= maxEdits) {
+                    found.add(new int[] {edits, i});
+                }
+            }
+        }
+        found.sort((a, b) -> a[0] != b[0] ? Integer.compare(a[0], b[0])
+                : Integer.compare(documents[b[1]], documents[a[1]]));
+        List<String> corrections = new ArrayList<>(Math.min(found.size(), MAX_CORRECTIONS));
+        for (int i = 0; i < found.size() && corrections.size() < MAX_CORRECTIONS; i++) {
+            corrections.add(terms[found.get(i)[1]]);
+        }
+        return corrections;
+    }
+
+    /**
+     * Edits (insertions, deletions, substitutions and swaps of neighbouring letters) between two
+     * words, or max + 1 once it is clearly more than max.
+     */
+    static int editDistance(String a, String b, int max) {
+        return editDistance(a, b, max, new int[3][b.length() + 1]);
+    }
+
+    // rows: three of at least b.length() + 1, reused between calls
+    private static int editDistance(String a, String b, int max, int[][] rows) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+        int[] twoBack = rows[0];
+        int[] previous = rows[1];
+        int[] current = rows[2];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int edits = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    edits = Math.min(edits, twoBack[j - 2] + 1);
+                }
+                current[j] = edits;
+                rowMin = Math.min(rowMin, edits);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] recycled = twoBack;
+            twoBack = previous;
+            previous = current;
+            current = recycled;
+        }
+        return Math.min(previous[b.length()], max + 1);
+    }
+
+    // Bit per letter a-z, with everything else sharing one more
+    private static int letterMask(String word) {
+        int mask = 0;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            mask |= c >= 'a' && c <= 'z' ? 1 << (c - 'a') : 1 << 26;
+        }
+        return mask;
+    }
+
+    private static boolean isLetters(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (!Character.isLetter(word.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A planned search: the words typed, and what each is searched as.
+     */
+    public static final class Query {
+        private final List<String> words;
+        private final List<List<String>> alternatives;
+        private final boolean gridRef;
+
+        Query(List<String> words, List<List<String>> alternatives, boolean gridRef) {
+            this.words = words;
+            this.alternatives = alternatives;
+            this.gridRef = gridRef;
+        }
+
+        public boolean isEmpty() {
+            return words.isEmpty();
+        }
+
+        public List<String> getWords() {
+            return words;
+        }
+
+        /** Whether the query is a grid reference, matched only at the precision given */
+        public boolean isGridRef() {
+            return gridRef;
+        }
+
+        /**
+         * Full-text MATCH expressions to run, each word as typed first and then with corrections,
+         * closest first; at most {@link #MAX_EXPRESSIONS}. Words are prefixes, except single
+         * letters, a grid reference and corrections. Words of only letters are only looked for in
+         * names, so "s" or "tp" don't match every grid reference or waypoint. Only letters and
+         * digits reach an expression, so none can be misread as a query operator.
+         */
+        public List<String> matchExpressions() {
+            List<String> expressions = new ArrayList<>();
+            if (words.isEmpty()) {
+                return expressions;
+            }
+            int[] choice = new int[words.size()];
+            while (expressions.size() < MAX_EXPRESSIONS) {
+                StringBuilder expression = new StringBuilder();
+                for (int w = 0; w < words.size(); w++) {
+                    if (w > 0) {
+                        expression.append(' ');
+                    }
+                    String term = alternatives.get(w).get(choice[w]);
+                    if (gridRef) {
+                        expression.append(DbHelper.TRIG_GRIDREF).append(':');
+                    } else if (isLetters(term)) {
+                        expression.append(DbHelper.TRIG_NAME).append(':');
+                    }
+                    expression.append(term);
+                    if (choice[w] == 0 && !gridRef && term.length() > 1) {
+                        expression.append('*');
+                    }
+                }
+                expressions.add(expression.toString());
+                // Next combination, varying the last word fastest
+                int w = words.size() - 1;
+                while (w >= 0 && ++choice[w] == alternatives.get(w).size()) {
+                    choice[w] = 0;
+                    w--;
+                }
+                if (w < 0) {
+                    break;
+                }
+            }
+            return expressions;
+        }
+
+        /**
+         * How well a trig found by one of the {@link #matchExpressions} matches: higher is better.
+         * Waypoint and grid reference matches count most, then whole name words, prefixes and
+         * corrections, with a bonus for the whole name or its first word.
+         *
+         * @param gridref as stored, "NY 34123 15123"
+         */
+        public int relevance(String name, String waypoint, String gridref) {
+            if (gridRef) {
+                return gridRefTokens(gridref).contains(words.get(0)) ? GRIDREF_MATCH : 0;
+            }
+            List<String> nameWords = tokens(name);
+            List<String> waypointWords = tokens(waypoint);
+            String number = waypointWords.size() == 1 && waypointWords.get(0).startsWith("tp")
+                    ? waypointWords.get(0).substring(2) : null;
+            int relevance = 0;
+            for (int w = 0; w < words.size(); w++) {
+                String word = words.get(w);
+                int best = 0;
+                if (waypointWords.contains(word) || word.equals(number)) {
+                    best = WAYPOINT_MATCH;
+                } else if (!waypointWords.isEmpty() && (waypointWords.get(0).startsWith(word)
+                        || (number != null && number.startsWith(word)))) {
+                    best = WAYPOINT_PREFIX_MATCH;
+                }
+                List<String> corrections = alternatives.get(w).subList(1, alternatives.get(w).size());
+                for (String nameWord : nameWords) {
+                    if (nameWord.equals(word)) {
+                        best = Math.max(best, NAME_WORD_MATCH);
+                    } else if (nameWord.startsWith(word)) {
+                        best = Math.max(best, NAME_PREFIX_MATCH);
+                    } else if (corrections.contains(nameWord)) {
+                        best = Math.max(best, CORRECTED_MATCH);
+                    }
+                }
+                relevance += best;
+            }
+            if (nameWords.equals(words)) {
+                relevance += WHOLE_NAME_MATCH;
+            } else if (!nameWords.isEmpty() && nameWords.get(0).startsWith(words.get(0))) {
+                relevance += LEADING_WORD_MATCH;
+            }
+            return relevance;
+        }
+
+        @Override
+        public String toString() {
+            return "Query" + alternatives;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package uk.trigpointing.android.search;
+
+import java.util.Comparator;
+
+/**
+ * A trig found by DbHelper.searchTrigs, with how well it matched and how far away it is.
+ */
+public final class TrigSearchResult {
+
+    /** Most relevant first, then nearest, or shortest name when there's no location */
+    public static final Comparator<TrigSearchResult> RANKING = Comparator
+            .comparingInt(TrigSearchResult::getRelevance).reversed()
+            .thenComparingDouble(result -> Double.isNaN(result.distanceMetres)
+                    ? result.name.length() : result.distanceMetres)
+            .thenComparingLong(TrigSearchResult::getId);
+
+    private final long id;
+    private final String name;
+    private final String waypoint;
+    private final String gridref;
+    private final double lat;
+    private final double lon;
+    private final String type;
+    private final int relevance;
+    private final double distanceMetres;
+
+    public TrigSearchResult(long id, String name, String waypoint, String gridref, double lat, double lon,
+                            String type, int relevance, double distanceMetres) {
+        this.id = id;
+        this.name = name;
+        this.waypoint = waypoint;
+        this.gridref = gridref;
+        this.lat = lat;
+        this.lon = lon;
+        this.type = type;
+        this.relevance = relevance;
+        this.distanceMetres = distanceMetres;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getWaypoint() {
+        return waypoint;
+    }
+
+    public String getGridref() {
+        return gridref;
+    }
+
+    public double getLat() {
+        return lat;
+    }
+
+    public double getLon() {
+        return lon;
+    }
+
+    /** The trig's Trig.Physical code */
+    public String getType() {
+        return type;
+    }
+
+    /** From {@link TrigSearch.Query#relevance}; higher is better */
+    public int getRelevance() {
+        return relevance;
+    }
+
+    /** From the location searched near, or NaN without one */
+    public double getDistanceMetres() {
+        return distanceMetres;
+    }
+
+    @Override
+    public String toString() {
+        return "TrigSearchResult{" +
+                "id=" + id +
+                ", name=" + name +
+                ", waypoint=" + waypoint +
+                ", relevance=" + relevance +
+                ", distance=" + distanceMetres +
+                '}';
+    }
+}
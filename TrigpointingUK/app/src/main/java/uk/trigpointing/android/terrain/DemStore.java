@@ -0,0 +1,146 @@
+package uk.trigpointing.android.terrain;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Offline ground heights from an OS Terrain 50 style elevation model.
+ *
+ * The model is split into 10 km OSGB grid squares, each a file dem/dem_{e}_{n}.bin under the
+ * cache dir (alongside map_tiles/, so map packs can carry it), where e and n are the eastings and
+ * northings of the south west corner in 10 km. A file holds {@link #POSTS} x {@link #POSTS}
+ * big-endian shorts: heights in decimetres at {@link #POST_SPACING} m posts, row by row from the
+ * south, including the north and east edges so a square never needs its neighbours. Files are
+ * memory-mapped rather than read, so only the pages a sight line crosses are ever loaded.
+ */
+public class DemStore implements HeightSource {
+
+    public static final String DIRECTORY = "dem";
+    /** Metres between height posts */
+    public static final int POST_SPACING = 50;
+    /** Metres along each side of a tile */
+    public static final int TILE_SIZE = 10000;
+    /** Height posts along each side of a tile, edges included */
+    public static final int POSTS = TILE_SIZE / POST_SPACING + 1;
+    /** Height in a tile where the model has none, e.g. out at sea */
+    public static final short NO_DATA = Short.MIN_VALUE;
+
+    // Tiles that have been looked for but aren't there
+    private static final ShortBuffer MISSING = ShortBuffer.allocate(0);
+
+    private static DemStore instance;
+
+    private final File root;
+    private final Map<Integer, ShortBuffer> tiles = new HashMap<>();
+    // A sight line stays on one tile for most of its samples
+    private int lastKey = -1;
+    private ShortBuffer lastTile;
+    private volatile int generation;
+
+    public static synchronized DemStore get(Context context) {
+        if (instance == null) {
+            instance = new DemStore(new File(context.getApplicationContext().getCacheDir(), DIRECTORY));
+        }
+        return instance;
+    }
+
+    DemStore(File root) {
+        this.root = root;
+    }
+
+    /** File of the tile whose south west corner is at these 10 km grid indexes. */
+    public File tileFile(int tileE, int tileN) {
+        return new File(root, "dem_" + tileE + "_" + tileN + ".bin");
+    }
+
+    /**
+     * Ground height in metres at an OSGB grid position, interpolated between the four surrounding
+     * posts; NaN where there is no tile or no data.
+     */
+    @Override
+    public double heightAt(double easting, double northing) {
+        if (easting < 0 || northing < 0) {
+            return Double.NaN;
+        }
+        int tileE = (int) (easting / TILE_SIZE);
+        int tileN = (int) (northing / TILE_SIZE);
+        ShortBuffer tile = tile(tileE, tileN);
+        if (tile == MISSING) {
+            return Double.NaN;
+        }
+
+        double x = (easting - (double) tileE * TILE_SIZE) / POST_SPACING;
+        double y = (northing - (double) tileN * TILE_SIZE) / POST_SPACING;
+        // Points on the last post row or column interpolate within the cell before it
+        int col = Math.min((int) x, POSTS - 2);
+        int row = Math.min((int) y, POSTS - 2);
+        double fx = x - col;
+        double fy = y - row;
+
+        int sw = row * POSTS + col;
+        short h00 = tile.get(sw);
+        short h10 = tile.get(sw + 1);
+        short h01 = tile.get(sw + POSTS);
+        short h11 = tile.get(sw + POSTS + 1);
+        if (h00 == NO_DATA || h10 == NO_DATA || h01 == NO_DATA || h11 == NO_DATA) {
+            return Double.NaN;
+        }
+        double south = h00 + (h10 - h00) * fx;
+        double north = h01 + (h11 - h01) * fx;
+        return (south + (north - south) * fy) / 10.0;
+    }
+
+    /**
+     * Forgets the mapped tiles, and those found missing, so tiles a map pack has added since are
+     * read. {@link uk.trigpointing.android.mapping.MapDownloadWorker} calls this after each pack.
+     */
+    public synchronized void clear() {
+        tiles.clear();
+        lastKey = -1;
+        lastTile = null;
+        generation++;
+    }
+
+    @Override
+    public int generation() {
+        return generation;
+    }
+
+    private synchronized ShortBuffer tile(int tileE, int tileN) {
+        int key = (tileE << 16) | tileN;
+        if (key == lastKey) {
+            return lastTile;
+        }
+        ShortBuffer tile = tiles.get(key);
+        if (tile == null) {
+            tile = map(tileFile(tileE, tileN));
+            tiles.put(key, tile);
+        }
+        lastKey = key;
+        lastTile = tile;
+        return tile;
+    }
+
+    // Absolute gets on the mapped buffer don't move its position, so it is safe to share
+    private static ShortBuffer map(File file) {
+        if (file.length() != (long) POSTS * POSTS * 2) {
+            return MISSING;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return buffer.asShortBuffer();
+        } catch (IOException e) {
+            return MISSING;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package uk.trigpointing.android.terrain;
+
+/**
+ * Ground height at a point on the OSGB national grid.
+ */
+public interface HeightSource {
+
+    /** Metres above sea level, or NaN if unknown. */
+    double heightAt(double easting, double northing);
+
+    /** Changes whenever heights already given may have changed, e.g. as tiles are added. */
+    default int generation() {
+        return 0;
+    }
+}
@@ -0,0 +1,122 @@
+package uk.trigpointing.android.terrain;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import uk.trigpointing.android.types.Geodesy;
+
+/**
+ * Whether the ground hides a trig from the user, found by marching along the sight line over the
+ * elevation model and checking that no sample of the profile rises above the line to the trig.
+ *
+ * Sight lines are cast from the centre of the {@link #CELL_SIZE} m grid cell the user stands in,
+ * so answers are cached per (cell, trig) and only the trigs new to a cell cost anything as the user
+ * walks. Where the model has no heights the trig is assumed to be visible. The answers are
+ * forgotten when the model's {@link HeightSource#generation} changes, as a map pack adds tiles.
+ */
+public class LineOfSight {
+
+    /** Eye height above the ground of a user holding up the phone */
+    public static final double EYE_HEIGHT = 1.7;
+    /** Height of the top of a pillar above the ground, the part that needs to be seen */
+    public static final double TARGET_HEIGHT = 1.2;
+    /** Side of the grid cells the user's position is rounded to */
+    public static final int CELL_SIZE = 50;
+    /** Metres between samples along a sight line, half the model's post spacing */
+    static final double SAMPLE_SPACING = DemStore.POST_SPACING / 2.0;
+    static final int MAX_CACHED = 4096;
+
+    // Standard coefficient of atmospheric refraction, as used for survey sight lines
+    private static final double REFRACTION = 0.13;
+    private static final int MAX_EASTING_CELLS = 1 << 14;
+    private static final int MAX_NORTHING_CELLS = 1 << 15;
+
+    private final HeightSource terrain;
+    private int generation;
+    private final Map<Long, Boolean> occluded = new LinkedHashMap<Long, Boolean>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    public LineOfSight(HeightSource terrain) {
+        this.terrain = terrain;
+        this.generation = terrain.generation();
+    }
+
+    /** Ground height from the underlying model; NaN if unknown. */
+    public double groundHeight(double easting, double northing) {
+        return terrain.heightAt(easting, northing);
+    }
+
+    /**
+     * @return true if the terrain hides the trig from a user standing at the given OSGB position;
+     *         false if it can be seen or there isn't the data to tell
+     */
+    public synchronized boolean isOccluded(long trigId, double userEasting, double userNorthing,
+                                           double trigEasting, double trigNorthing) {
+        int cellE = (int) Math.floor(userEasting / CELL_SIZE);
+        int cellN = (int) Math.floor(userNorthing / CELL_SIZE);
+        if (cellE < 0 || cellE >= MAX_EASTING_CELLS || cellN < 0 || cellN >= MAX_NORTHING_CELLS) {
+            return false; // Off the national grid
+        }
+        int current = terrain.generation();
+        if (current != generation) {
+            occluded.clear();
+            generation = current;
+        }
+        long key = ((long) cellE * MAX_NORTHING_CELLS + cellN) << 32 | (trigId & 0xffffffffL);
+        Boolean cached = occluded.get(key);
+        if (cached == null) {
+            cached = castRay((cellE + 0.5) * CELL_SIZE, (cellN + 0.5) * CELL_SIZE, trigEasting, trigNorthing);
+            occluded.put(key, cached);
+        }
+        return cached;
+    }
+
+    /** Forgets every answer, e.g. when the model has changed. */
+    public synchronized void clear() {
+        occluded.clear();
+    }
+
+    /** Whether the profile between two points rises above the line of sight between them. */
+    boolean castRay(double fromEasting, double fromNorthing, double toEasting, double toNorthing) {
+        double userGround = terrain.heightAt(fromEasting, fromNorthing);
+        double trigGround = terrain.heightAt(toEasting, toNorthing);
+        if (Double.isNaN(userGround) || Double.isNaN(trigGround)) {
+            return false;
+        }
+        double dE = toEasting - fromEasting;
+        double dN = toNorthing - fromNorthing;
+        double distance = Math.sqrt(dE * dE + dN * dN);
+        int steps = (int) (distance / SAMPLE_SPACING);
+        if (steps < 2) {
+            return false;
+        }
+
+        // Compare slopes rather than angles, which orders them the same without any atan
+        double eye = userGround + EYE_HEIGHT;
+        double targetSlope = (trigGround + TARGET_HEIGHT - eye - drop(distance)) / distance;
+        for (int i = 1; i < steps; i++) {
+            double t = (double) i / steps;
+            double ground = terrain.heightAt(fromEasting + dE * t, fromNorthing + dN * t);
+            if (Double.isNaN(ground)) {
+                continue;
+            }
+            double d = distance * t;
+            if ((ground - eye - drop(d)) / d > targetSlope) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * How far the earth's curvature, less refraction, drops a point this many metres away below
+     * the user's level
+     */
+    public static double drop(double distance) {
+        return (1 - REFRACTION) * distance * distance / (2 * Geodesy.EARTH_RADIUS_M);
+    }
+}
@@ -0,0 +1,157 @@
+package uk.trigpointing.android.trigdetails
+
+import android.Manifest
+import android.content.Context
+import android.content.pm.PackageManager
+import android.location.Location
+import android.location.LocationManager
+import android.util.Log
+import androidx.core.content.ContextCompat
+import androidx.preference.PreferenceManager
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingPeriodicWorkPolicy
+import androidx.work.NetworkType
+import androidx.work.PeriodicWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import androidx.work.workDataOf
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.runInterruptible
+import uk.trigpointing.android.DbHelper
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Renders the OS Map tab images for every marked trig and the nearest unlogged trigs while the
+ * phone is charging on Wi-Fi, so they are there on the hill. Coverage is kept in preferences and
+ * shown on the main screen; progress is published while running.
+ */
+class MapImagePrerenderWorker(context: Context, params: WorkerParameters) : CoroutineWorker(context, params) {
+
+    override suspend fun doWork(): Result {
+        val prefs = PreferenceManager.getDefaultSharedPreferences(applicationContext)
+        val nearestCount = prefs.getString(PREF_NEAREST, DEFAULT_NEAREST)?.toIntOrNull() ?: 0
+        val budgetMb = prefs.getString(PREF_BUDGET, DEFAULT_BUDGET)?.toLongOrNull() ?: 0L
+
+        val trigs = runInterruptible(Dispatchers.IO) { loadTrigs(nearestCount) }
+        if (trigs.isEmpty()) {
+            saveCoverage(0, 0)
+            return Result.success()
+        }
+
+        val tileExecutor = Executors.newFixedThreadPool(TILE_THREADS)
+        return try {
+            val renderer = MapImageRenderer(applicationContext, tileExecutor)
+            val prerenderer = MapImagePrerenderer(
+                MapImageRenderer.imageDir(applicationContext),
+                MapImageRenderer.getSelections(),
+                budgetMb * 1024 * 1024,
+                MapImagePrerenderer.DEFAULT_MAX_AGE_MS,
+                renderer::render
+            )
+            val ids = LongArray(trigs.size) { trigs[it].id }
+            val lats = DoubleArray(trigs.size) { trigs[it].lat }
+            val lons = DoubleArray(trigs.size) { trigs[it].lon }
+            val result = runInterruptible(Dispatchers.IO) {
+                prerenderer.run(ids, lats, lons) { done, total, _ ->
+                    runBlocking { setProgress(workDataOf(KEY_DONE to done, KEY_TOTAL to total)) }
+                }
+            }
+            Log.i(TAG, "Pre-rendered ${result.imagesRendered} images; ${result.trigsCovered}/${result.trigsTotal} " +
+                    "trigs covered, ${result.bytesUsed} bytes used" + if (result.budgetReached) " (budget reached)" else "")
+            saveCoverage(result.trigsCovered, result.trigsTotal)
+            Result.success()
+        } finally {
+            tileExecutor.shutdownNow()
+        }
+    }
+
+    private class TrigLocation(val id: Long, val lat: Double, val lon: Double)
+
+    /** Marked trigs first, then the nearest unlogged ones if we know where the user is. */
+    private fun loadTrigs(nearestCount: Int): List<TrigLocation> {
+        val trigs = ArrayList<TrigLocation>()
+        val db = DbHelper(applicationContext)
+        try {
+            db.openReadable()
+            db.fetchMarkedTrigCoordinates().use { c ->
+                while (c.moveToNext()) {
+                    trigs.add(TrigLocation(c.getLong(0), c.getDouble(1), c.getDouble(2)))
+                }
+            }
+            val here = lastKnownLocation()
+            if (nearestCount > 0 && here != null) {
+                db.fetchNearestUnloggedTrigLocations(here.latitude, here.longitude, nearestCount).use { c ->
+                    while (c.moveToNext()) {
+                        trigs.add(TrigLocation(c.getLong(0), c.getDouble(1), c.getDouble(2)))
+                    }
+                }
+            }
+        } finally {
+            db.close()
+        }
+        return trigs
+    }
+
+    private fun lastKnownLocation(): Location? {
+        val granted = ContextCompat.checkSelfPermission(applicationContext, Manifest.permission.ACCESS_FINE_LOCATION) ==
+                PackageManager.PERMISSION_GRANTED ||
+                ContextCompat.checkSelfPermission(applicationContext, Manifest.permission.ACCESS_COARSE_LOCATION) ==
+                PackageManager.PERMISSION_GRANTED
+        if (!granted) {
+            return null
+        }
+        val manager = applicationContext.getSystemService(Context.LOCATION_SERVICE) as LocationManager
+        return try {
+            manager.getProviders(true)
+                .mapNotNull { manager.getLastKnownLocation(it) }
+                .maxByOrNull { it.time }
+        } catch (e: SecurityException) {
+            Log.w(TAG, "No location permission for getLastKnownLocation")
+            null
+        }
+    }
+
+    private fun saveCoverage(covered: Int, total: Int) {
+        PreferenceManager.getDefaultSharedPreferences(applicationContext).edit()
+            .putInt(PREF_COVERED, covered)
+            .putInt(PREF_TOTAL, total)
+            .putLong(PREF_TIME, System.currentTimeMillis())
+            .apply()
+    }
+
+    companion object {
+        private const val TAG = "MapImagePrerender"
+        private const val TILE_THREADS = 4
+
+        const val WORK_NAME = "map_image_prerender"
+        const val KEY_DONE = "done"
+        const val KEY_TOTAL = "total"
+
+        const val PREF_NEAREST = "map_prerender_nearest"
+        const val PREF_BUDGET = "map_prerender_budget"
+        const val PREF_COVERED = "map_prerender_covered"
+        const val PREF_TOTAL = "map_prerender_total"
+        const val PREF_TIME = "map_prerender_time"
+        private const val DEFAULT_NEAREST = "25"
+        private const val DEFAULT_BUDGET = "100"
+
+        /** Schedules the daily pre-render on Wi-Fi while charging; an existing schedule is kept. */
+        @JvmStatic
+        fun schedule(context: Context) {
+            val request = PeriodicWorkRequestBuilder<MapImagePrerenderWorker>(1, TimeUnit.DAYS)
+                .setConstraints(
+                    Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.UNMETERED)
+                        .setRequiresCharging(true)
+                        .setRequiresStorageNotLow(true)
+                        .build()
+                )
+                .build()
+            WorkManager.getInstance(context)
+                .enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request)
+        }
+    }
+}
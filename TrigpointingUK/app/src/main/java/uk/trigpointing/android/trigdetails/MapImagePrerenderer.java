@@ -0,0 +1,173 @@
+package uk.trigpointing.android.trigdetails;
+
+import java.io.File;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the detail map images for a list of trigs ahead of time, so the OS Map tab works
+ * without signal. Trigs are handled in priority order until the image cache reaches its budget.
+ * Images younger than the freshness window are left alone; older ones are rendered again.
+ *
+ * Rendering itself is delegated, so this holds just the bookkeeping and runs on the JVM.
+ */
+public class MapImagePrerenderer {
+
+    public static final long DEFAULT_MAX_AGE_MS = TimeUnit.DAYS.toMillis(30);
+    // Rough size of one rendered image, until real ones have been measured
+    static final long INITIAL_ESTIMATE_BYTES = 300 * 1024;
+    private static final String IMAGE_SUFFIX = ".webp";
+    private static final String THUMBNAIL_SUFFIX = "_thumb.webp";
+
+    public interface Renderer {
+        /** @return the path of the rendered image, or null if it couldn't be rendered */
+        String render(long trigId, double lat, double lon, String mapName, int zoom, boolean replace);
+    }
+
+    public interface Listener {
+        void onProgress(int trigsDone, int trigsTotal, int imagesRendered);
+    }
+
+    public static final class Result {
+        /** Trigs with every image in the cache */
+        public final int trigsCovered;
+        public final int trigsTotal;
+        public final int imagesRendered;
+        public final long bytesUsed;
+        public final boolean budgetReached;
+
+        Result(int trigsCovered, int trigsTotal, int imagesRendered, long bytesUsed, boolean budgetReached) {
+            this.trigsCovered = trigsCovered;
+            this.trigsTotal = trigsTotal;
+            this.imagesRendered = imagesRendered;
+            this.bytesUsed = bytesUsed;
+            this.budgetReached = budgetReached;
+        }
+    }
+
+    private final File imageDir;
+    private final String[][] selections;
+    private final long budgetBytes;
+    private final long maxAgeMs;
+    private final Renderer renderer;
+
+    /**
+     * @param selections {map name, zoom} pairs to render for each trig
+     * @param budgetBytes space the image cache may grow to; 0 or less for no limit
+     */
+    public MapImagePrerenderer(File imageDir, String[][] selections, long budgetBytes, long maxAgeMs, Renderer renderer) {
+        this.imageDir = imageDir;
+        this.selections = selections;
+        this.budgetBytes = budgetBytes;
+        this.maxAgeMs = maxAgeMs;
+        this.renderer = renderer;
+    }
+
+    /** The cache file name of one image. */
+    public static String fileName(long trigId, String mapName, int zoom) {
+        return String.format(Locale.US, "trig_%d_%s_z%d", trigId, mapName, zoom) + IMAGE_SUFFIX;
+    }
+
+    /** The name images were cached under before they were saved as WebP. */
+    static String legacyFileName(long trigId, String mapName, int zoom) {
+        return String.format(Locale.US, "trig_%d_%s_z%d.png", trigId, mapName, zoom);
+    }
+
+    /** The gallery thumbnail saved alongside an image, given the image's name or path. */
+    public static String thumbnailName(String image) {
+        if (image.endsWith(IMAGE_SUFFIX) && !image.endsWith(THUMBNAIL_SUFFIX)) {
+            return image.substring(0, image.length() - IMAGE_SUFFIX.length()) + THUMBNAIL_SUFFIX;
+        }
+        return image;
+    }
+
+    /**
+     * Renders what's missing or stale for the trigs, most important first. Once the budget is
+     * reached nothing more is rendered, but coverage is still counted for the rest.
+     *
+     * @param trigIds duplicates are handled once, at their first position
+     * @throws InterruptedException if the thread is interrupted, e.g. the job was stopped
+     */
+    public Result run(long[] trigIds, double[] lats, double[] lons, Listener listener) throws InterruptedException {
+        long used = directoryBytes(imageDir);
+        long estimate = INITIAL_ESTIMATE_BYTES;
+        long renderedBytes = 0;
+        int rendered = 0;
+        int covered = 0;
+        boolean budgetReached = false;
+
+        Set<Long> seen = new LinkedHashSet<>();
+        int total = 0;
+        for (long id : trigIds) {
+            if (seen.add(id)) {
+                total++;
+            }
+        }
+        seen.clear();
+
+        int done = 0;
+        for (int t = 0; t < trigIds.length; t++) {
+            if (!seen.add(trigIds[t])) {
+                continue;
+            }
+            boolean complete = true;
+            for (String[] sel : selections) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                int zoom = Integer.parseInt(sel[1]);
+                File image = new File(imageDir, fileName(trigIds[t], sel[0], zoom));
+                boolean exists = image.isFile();
+                if (exists && System.currentTimeMillis() - image.lastModified() < maxAgeMs) {
+                    continue;
+                }
+                if (!budgetReached && budgetBytes > 0 && used + estimate > budgetBytes) {
+                    budgetReached = true;
+                }
+                if (budgetReached) {
+                    complete &= exists;
+                    continue;
+                }
+                long before = exists ? withThumbnail(image) : 0;
+                String path = renderer.render(trigIds[t], lats[t], lons[t], sel[0], zoom, exists);
+                if (path == null) {
+                    complete &= exists;
+                    continue;
+                }
+                long after = withThumbnail(new File(path));
+                used += after - before;
+                renderedBytes += after;
+                rendered++;
+                estimate = renderedBytes / rendered;
+            }
+            if (complete) {
+                covered++;
+            }
+            done++;
+            if (listener != null) {
+                listener.onProgress(done, total, rendered);
+            }
+        }
+        return new Result(covered, total, rendered, used, budgetReached);
+    }
+
+    private static long withThumbnail(File image) {
+        return image.length() + new File(image.getParentFile(), thumbnailName(image.getName())).length();
+    }
+
+    /** Bytes used by the images in the directory, ignoring temp files. */
+    static long directoryBytes(File dir) {
+        File[] files = dir.listFiles();
+        long bytes = 0;
+        if (files != null) {
+            for (File f : files) {
+                if (f.isFile() && !f.getName().startsWith(".")) {
+                    bytes += f.length();
+                }
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,544 @@
+package uk.trigpointing.android.trigdetails;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.preference.PreferenceManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import uk.trigpointing.android.mapping.TileStore;
+
+/**
+ * Renders the static map images shown on the trig details OS Map tab: a 3x3 grid of tiles from
+ * the shared {@link TileStore}, cropped around the trig, with scale bar and attribution.
+ *
+ * Images are cached in cacheDir/map_images per (trig, map, zoom), named by
+ * {@link MapImagePrerenderer#fileName}. Used both by the tab and by the background pre-render.
+ */
+public class MapImageRenderer {
+    private static final String TAG = "MapImageRenderer";
+
+    // Tile configuration
+    private static final int TILE_SIZE = MapTileMath.TILE_SIZE;
+    private static final int GRID_SIZE = 3; // 3x3 grid
+    private static final int FINAL_IMAGE_SIZE = TILE_SIZE * 2; // 2x tile size as requested
+    // Gallery cells are at most a third of the screen width
+    private static final int THUMBNAIL_SIZE = FINAL_IMAGE_SIZE / 2;
+    private static final int LOSSY_QUALITY = 80;
+    
+    // Map configurations: {name, baseUrl, needsApiKey, minZoom, maxZoom, is27700, attribution, photographic}
+    private static final MapConfig[] MAP_CONFIGS = {
+        new MapConfig("OSM", "https://tile.openstreetmap.org/{z}/{x}/{y}.png", false, 8, 12, false, "© OpenStreetMap contributors", false),
+        new MapConfig("OS_Outdoor", "https://api.os.uk/maps/raster/v1/zxy/Outdoor_3857/{z}/{x}/{y}.png", true, 8, 12, false, "Contains OS data © Crown copyright and database rights 2024", false),
+        new MapConfig("OS_Leisure", "https://api.os.uk/maps/raster/v1/zxy/Leisure_27700/{z}/{x}/{y}.png", true, 5, 9, true, "Contains OS data © Crown copyright and database rights 2024", false),
+        // Satellite layer matches Leaflet's ESRI World Imagery
+        new MapConfig(
+            "Satellite",
+            "https://server.arcgisonline.com/ArcGIS/rest/services/World_Imagery/MapServer/tile/{z}/{y}/{x}.png",
+            false,
+            0,
+            18,
+            false,
+            "Tiles © Esri — Source: Esri, i-cubed, USDA, USGS, AEX, GeoEye, Getmapping, Aerogrid, IGN, IGP, UPR-EGP, and the GIS User Community",
+            true
+        )
+    };
+
+    // Explicit ordered selection of map/zoom pairs to generate/cache and display
+    // Add/remove/reorder to control exactly what appears in the grid
+    private static final String[][] MAP_SELECTIONS = new String[][]{
+        // name, zoom as string (parsed to int)
+        {"OSM", "7"},
+        {"OS_Outdoor", "8"},
+        {"Satellite", "8"},
+        {"OS_Leisure", "5"},
+        {"OSM", "10"},
+        {"OS_Leisure", "7"},
+        {"OS_Outdoor", "15"},
+        {"Satellite", "15"},
+        {"OSM", "15"},
+        {"OS_Leisure", "9"},
+        {"OS_Outdoor", "18"},
+        {"Satellite", "18"},
+        {"OSM", "19"},
+        {"OS_Outdoor", "20"}
+    };
+    
+    private static class MapConfig {
+        final String name;
+        final String baseUrl;
+        final boolean needsApiKey;
+        final int minZoom;
+        final int maxZoom;
+        final boolean is27700; // Uses British National Grid projection
+        final String attribution;
+        final boolean photographic; // Aerial imagery, saved lossy
+        
+        MapConfig(String name, String baseUrl, boolean needsApiKey, int minZoom, int maxZoom, boolean is27700, String attribution, boolean photographic) {
+            this.name = name;
+            this.baseUrl = baseUrl;
+            this.needsApiKey = needsApiKey;
+            this.minZoom = minZoom;
+            this.maxZoom = maxZoom;
+            this.is27700 = is27700;
+            this.attribution = attribution;
+            this.photographic = photographic;
+        }
+    }
+
+    private final Context mContext;
+    private final ExecutorService mTileExecutor;
+    private final TileStore mTileStore;
+
+    /**
+     * @param tileExecutor runs the tile fetches for each image, so they overlap
+     */
+    public MapImageRenderer(Context context, ExecutorService tileExecutor) {
+        mContext = context.getApplicationContext();
+        mTileExecutor = tileExecutor;
+        mTileStore = TileStore.get(mContext);
+    }
+
+    public static File imageDir(Context context) {
+        return new File(context.getCacheDir(), "map_images");
+    }
+
+    /** The map/zoom pairs shown for each trig, as {name, zoom} in display order. */
+    public static String[][] getSelections() {
+        return MAP_SELECTIONS;
+    }
+
+    public static boolean isKnownMap(String name) {
+        return findMapConfigByName(name) != null;
+    }
+
+    /** Deletes all cached images for a trig, so they are rendered afresh. */
+    public static void deleteImages(Context context, long trigId) {
+        File[] files = imageDir(context).listFiles();
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                if (name.startsWith("trig_" + trigId + "_")) {
+                    // noinspection ResultOfMethodCallIgnored
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders one image, or returns the cached one. Blocks while tiles are fetched.
+     *
+     * @param replace render even if a cached image exists, e.g. to refresh a stale one
+     * @return the image path, or null if it couldn't be rendered
+     */
+    public String render(long trigId, double lat, double lon, String mapName, int zoom, boolean replace) {
+        MapConfig config = findMapConfigByName(mapName);
+        if (config == null) {
+            Log.w(TAG, "Unknown map selection name: " + mapName);
+            return null;
+        }
+        try {
+            // Check if cached file already exists
+            String fileName = MapImagePrerenderer.fileName(trigId, config.name, zoom);
+            File cacheDir = imageDir(mContext);
+            if (!cacheDir.exists()) {
+                cacheDir.mkdirs();
+            }
+            File cachedFile = new File(cacheDir, fileName);
+
+            if (!replace && cachedFile.exists()) {
+                Log.d(TAG, "Using cached image: " + fileName);
+                return cachedFile.getAbsolutePath();
+            }
+            
+            // Convert lat/lon to tile coordinates
+            int centerX, centerY;
+            if (config.is27700) {
+                // For EPSG:27700 (British National Grid), use different conversion
+                centerX = MapTileMath.lonToTileX27700(lat, lon, zoom);
+                centerY = MapTileMath.latToTileY27700(lat, lon, zoom);
+                Log.d(TAG, String.format("EPSG:27700 coords for %s zoom %d: lat=%.6f,lon=%.6f -> tile=%d,%d", 
+                    config.name, zoom, lat, lon, centerX, centerY));
+            } else {
+                // For Web Mercator (EPSG:3857)
+                centerX = MapTileMath.lonToTileX(lon, zoom);
+                centerY = MapTileMath.latToTileY(lat, zoom);
+                Log.d(TAG, String.format("Web Mercator coords for %s zoom %d: lat=%.6f,lon=%.6f -> tile=%d,%d", 
+                    config.name, zoom, lat, lon, centerX, centerY));
+            }
+            
+            // Create 3x3 grid of tiles
+            Bitmap compositeBitmap = Bitmap.createBitmap(
+                TILE_SIZE * GRID_SIZE, TILE_SIZE * GRID_SIZE, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(compositeBitmap);
+            
+            // Fetch all the tiles in parallel, then draw each as it arrives
+            @SuppressWarnings("unchecked")
+            Future<Bitmap>[] tiles = new Future[GRID_SIZE * GRID_SIZE];
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    int tileX = centerX + dx;
+                    int tileY = centerY + dy;
+                    tiles[(dy + 1) * GRID_SIZE + (dx + 1)] =
+                        mTileExecutor.submit(() -> loadTile(config, zoom, tileX, tileY));
+                }
+            }
+            for (int i = 0; i < tiles.length; i++) {
+                Bitmap tileBitmap = tiles[i].get();
+                if (tileBitmap != null) {
+                    int drawX = (i % GRID_SIZE) * TILE_SIZE;
+                    int drawY = (i / GRID_SIZE) * TILE_SIZE;
+                    canvas.drawBitmap(tileBitmap, drawX, drawY, null);
+                    tileBitmap.recycle();
+                }
+            }
+            
+            // Calculate the exact pixel position of the trigpoint within the center tile
+            double pixelX, pixelY;
+            if (config.is27700) {
+                pixelX = MapTileMath.lonToPixelX27700(lat, lon, zoom) - (centerX * TILE_SIZE);
+                pixelY = MapTileMath.latToPixelY27700(lat, lon, zoom) - (centerY * TILE_SIZE);
+            } else {
+                pixelX = MapTileMath.lonToPixelX(lon, zoom) - (centerX * TILE_SIZE);
+                pixelY = MapTileMath.latToPixelY(lat, zoom) - (centerY * TILE_SIZE);
+            }
+            
+            // Adjust for the center tile position in our 3x3 grid
+            int centerPixelX = TILE_SIZE + (int)pixelX;
+            int centerPixelY = TILE_SIZE + (int)pixelY;
+            
+            // Crop to final size (2x tile size) centered on trigpoint
+            int cropLeft = centerPixelX - (FINAL_IMAGE_SIZE / 2);
+            int cropTop = centerPixelY - (FINAL_IMAGE_SIZE / 2);
+            
+            // Ensure crop area is within bounds
+            cropLeft = Math.max(0, Math.min(cropLeft, compositeBitmap.getWidth() - FINAL_IMAGE_SIZE));
+            cropTop = Math.max(0, Math.min(cropTop, compositeBitmap.getHeight() - FINAL_IMAGE_SIZE));
+            
+            Bitmap finalBitmap = Bitmap.createBitmap(compositeBitmap, 
+                cropLeft, cropTop, FINAL_IMAGE_SIZE, FINAL_IMAGE_SIZE);
+            compositeBitmap.recycle();
+            
+            // Draw scale bar just above attribution area
+            finalBitmap = drawScaleBar(finalBitmap, config, lat, zoom);
+            // Draw attribution text at the bottom
+            finalBitmap = drawAttribution(finalBitmap, config.attribution);
+            
+            // Add blue circle marker at center of image only in Dev Mode
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+            boolean devMode = prefs.getBoolean("dev_mode", false);
+            if (devMode) {
+                finalBitmap = addCenterMarker(finalBitmap);
+            }
+            
+            // Save the thumbnail first, so a cached image always has one
+            Bitmap thumbnail = Bitmap.createScaledBitmap(finalBitmap, THUMBNAIL_SIZE, THUMBNAIL_SIZE, true);
+            boolean saved = save(thumbnail, config, new File(cacheDir, MapImagePrerenderer.thumbnailName(fileName)))
+                    && save(finalBitmap, config, cachedFile);
+            if (devMode) {
+                logSavings(config, zoom, finalBitmap, thumbnail, cachedFile);
+            }
+            thumbnail.recycle();
+            finalBitmap.recycle();
+            if (!saved) {
+                return null;
+            }
+            // Drop the PNG this image replaces, from before images were saved as WebP
+            // noinspection ResultOfMethodCallIgnored
+            new File(cacheDir, MapImagePrerenderer.legacyFileName(trigId, config.name, zoom)).delete();
+            Log.d(TAG, "Cached new image: " + fileName);
+            return cachedFile.getAbsolutePath();
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            Log.e(TAG, "Error generating image for " + config.name + " zoom " + zoom, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Saves an image via a temp file so a half-written one is never picked up as cached.
+     * Aerial imagery compresses far better lossy; drawn maps have flat colours and crisp text
+     * that lossy encoding smears, and compress well losslessly anyway.
+     */
+    private boolean save(Bitmap bitmap, MapConfig config, File file) throws IOException {
+        File tmpFile = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+            bitmap.compress(compressFormat(config.photographic), config.photographic ? LOSSY_QUALITY : 100, out);
+        }
+        if (!tmpFile.renameTo(file)) {
+            // noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+            return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Bitmap.CompressFormat compressFormat(boolean lossy) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            return lossy ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP_LOSSLESS;
+        }
+        // Before R the single WEBP format is lossless at quality 100 (from Q) and lossy otherwise
+        return Bitmap.CompressFormat.WEBP;
+    }
+
+    /**
+     * Dev mode: logs what the WebP image and thumbnail save over the old full-size PNG, on disk
+     * and in decode time, for the map being rendered.
+     */
+    private void logSavings(MapConfig config, int zoom, Bitmap image, Bitmap thumbnail, File imageFile) {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        image.compress(Bitmap.CompressFormat.PNG, 100, png);
+        ByteArrayOutputStream thumb = new ByteArrayOutputStream();
+        thumbnail.compress(compressFormat(config.photographic), config.photographic ? LOSSY_QUALITY : 100, thumb);
+        byte[] pngBytes = png.toByteArray();
+        byte[] thumbBytes = thumb.toByteArray();
+
+        long start = System.nanoTime();
+        Bitmap decoded = BitmapFactory.decodeByteArray(pngBytes, 0, pngBytes.length);
+        long pngNanos = System.nanoTime() - start;
+        if (decoded != null) decoded.recycle();
+        start = System.nanoTime();
+        decoded = BitmapFactory.decodeByteArray(thumbBytes, 0, thumbBytes.length);
+        long thumbNanos = System.nanoTime() - start;
+        if (decoded != null) decoded.recycle();
+
+        Log.i(TAG, String.format(Locale.UK,
+            "%s z%d: PNG %d KB, WebP %s %d KB (%d%%), thumbnail %d KB; decode PNG %.1f ms, thumbnail %.1f ms",
+            config.name, zoom, pngBytes.length / 1024, config.photographic ? "lossy" : "lossless",
+            imageFile.length() / 1024, pngBytes.length > 0 ? (int) (100 * imageFile.length() / pngBytes.length) : 0,
+            thumbBytes.length / 1024, pngNanos / 1e6, thumbNanos / 1e6));
+    }
+
+    /** Decodes a tile from the shared tile cache, fetching it first if it isn't there. */
+    private Bitmap loadTile(MapConfig config, int z, int x, int y) {
+        try {
+            String urlString = config.baseUrl
+                .replace("{z}", String.valueOf(z))
+                .replace("{x}", String.valueOf(x))
+                .replace("{y}", String.valueOf(y));
+            
+            File tileFile = mTileStore.getCached(urlString);
+            if (tileFile == null) {
+                if (config.needsApiKey) {
+                    SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+                    String apiKey = prefs.getString("os_api_key", "");
+                    if (apiKey.isEmpty()) {
+                        Log.w(TAG, "No OS API key configured for " + config.name);
+                        return null;
+                    }
+                    urlString += "?key=" + apiKey;
+                }
+                tileFile = mTileStore.fetch(urlString);
+            }
+            return BitmapFactory.decodeFile(tileFile.getPath());
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to load tile " + z + "/" + x + "/" + y + " from " + config.name, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Adds a small blue circle marker at the center of the image to indicate trigpoint location
+     * @param originalBitmap The bitmap to add the marker to
+     * @return A new bitmap with the blue circle marker added
+     */
+    private Bitmap addCenterMarker(Bitmap originalBitmap) {
+        // Create a mutable copy of the bitmap
+        Bitmap markedBitmap = originalBitmap.copy(Bitmap.Config.ARGB_8888, true);
+        
+        // Create canvas to draw on the bitmap
+        Canvas canvas = new Canvas(markedBitmap);
+        
+        // Calculate circle parameters
+        int imageWidth = markedBitmap.getWidth();
+        int imageHeight = markedBitmap.getHeight();
+        float centerX = imageWidth / 2.0f;
+        float centerY = imageHeight / 2.0f;
+        float circleRadius = imageWidth * 0.025f; // 5% of image width diameter = 2.5% radius
+        
+        // Create paint for the blue circle outline only
+        Paint circlePaint = new Paint();
+        circlePaint.setColor(0xFF0066CC); // Blue color
+        circlePaint.setStyle(Paint.Style.STROKE);
+        circlePaint.setStrokeWidth(1.5f); // Half the previous thickness (3.0f -> 1.5f)
+        circlePaint.setAntiAlias(true);
+        
+        // Draw only the outline (no fill for transparent interior)
+        canvas.drawCircle(centerX, centerY, circleRadius, circlePaint);
+        
+        Log.d(TAG, String.format("Added center marker: circle at (%.1f, %.1f) radius %.1f", 
+            centerX, centerY, circleRadius));
+        
+        return markedBitmap;
+    }
+
+    private Bitmap drawAttribution(Bitmap originalBitmap, String attribution) {
+        if (attribution == null || attribution.trim().isEmpty()) return originalBitmap;
+        Bitmap markedBitmap = originalBitmap.copy(Bitmap.Config.ARGB_8888, true);
+        Canvas canvas = new Canvas(markedBitmap);
+        Paint textPaint = new Paint();
+        textPaint.setColor(0xCC000000); // semi-transparent black
+        textPaint.setAntiAlias(true);
+        textPaint.setTextSize(dpToPxF(10f * 4f / 9f));
+        textPaint.setTextAlign(Paint.Align.LEFT);
+        
+        // White background strip for readability
+        Paint bgPaint = new Paint();
+        bgPaint.setColor(0x80FFFFFF);
+        
+        float padding = dpToPx(4);
+        float textHeight = Math.abs(textPaint.ascent() + textPaint.descent());
+        float y = markedBitmap.getHeight() - padding;
+        float bgTop = y - textHeight - padding;
+        canvas.drawRect(0, bgTop, markedBitmap.getWidth(), markedBitmap.getHeight(), bgPaint);
+        canvas.drawText(attribution, padding, y - textPaint.descent(), textPaint);
+        return markedBitmap;
+    }
+
+    private Bitmap drawScaleBar(Bitmap originalBitmap, MapConfig config, double lat, int zoom) {
+        try {
+            Bitmap bmp = originalBitmap.copy(Bitmap.Config.ARGB_8888, true);
+            Canvas canvas = new Canvas(bmp);
+            
+            // Compute meters-per-pixel
+            double metersPerPixel;
+            if (config.is27700) {
+                int z = zoom;
+                if (z < 0) z = 0;
+                if (z >= MapTileMath.OSGB_RESOLUTIONS.length) z = MapTileMath.OSGB_RESOLUTIONS.length - 1;
+                metersPerPixel = MapTileMath.OSGB_RESOLUTIONS[z];
+            } else {
+                metersPerPixel = 156543.03392 * Math.cos(Math.toRadians(lat)) / Math.pow(2.0, zoom);
+            }
+            
+            int width = bmp.getWidth();
+            int height = bmp.getHeight();
+            
+            // Determine available horizontal length (aim ~50% of width)
+            float targetPx = width * 0.5f;
+            double targetMeters = targetPx * metersPerPixel;
+            
+            // Choose a nice rounded length (1,2,5 * 10^n)
+            double niceMeters = chooseNiceScale(targetMeters);
+            float barPx = (float)(niceMeters / metersPerPixel);
+            
+            // Calculate vertical position just above attribution strip height
+            Paint attrPaint = new Paint();
+            attrPaint.setAntiAlias(true);
+            attrPaint.setTextSize(dpToPxF(10f * 4f / 9f));
+            float pad = dpToPx(4);
+            float textHeight = Math.abs(attrPaint.ascent() + attrPaint.descent());
+            float stripHeight = textHeight + pad; // attribution will add another bottom pad
+            float gap = dpToPx(4);
+            float barY = height - stripHeight - gap;
+            
+            // Geometry and paints
+            float barX = dpToPx(8);
+            float stroke = Math.max(1f, dpToPxF(1.5f));
+            Paint barPaint = new Paint();
+            barPaint.setAntiAlias(true);
+            barPaint.setColor(0xFFB3B3B3); // ~70% gray
+            barPaint.setStrokeWidth(stroke);
+            barPaint.setStyle(Paint.Style.STROKE);
+            
+            // Background rectangle behind label and bar for legibility
+            String label = formatDistance(niceMeters);
+            Paint labelPaint = new Paint();
+            labelPaint.setAntiAlias(true);
+            labelPaint.setColor(0xFF8C8C8C); // ~55% gray (darker than bar) for more punch
+            labelPaint.setTextSize(dpToPxF(7f));
+            labelPaint.setTextAlign(Paint.Align.CENTER);
+            float tick = dpToPxF(6f);
+            // Nudge the bar up by a fraction of the tick height to avoid attribution overlap
+            barY -= (tick / 3f);
+            float labelY = barY - dpToPxF(2f);
+            float labelHeight = Math.abs(labelPaint.ascent() + labelPaint.descent());
+            Paint bgPaint = new Paint();
+            bgPaint.setColor(0x80FFFFFF);
+            float bgPad = dpToPxF(4f);
+            float bgTop = labelY - labelHeight - bgPad;
+            float bgBottom = barY + (dpToPxF(6f) / 2f) + bgPad;
+            float bgLeft = barX - bgPad;
+            float bgRight = barX + barPx + bgPad;
+            canvas.drawRect(bgLeft, bgTop, bgRight, bgBottom, bgPaint);
+            
+            // Draw scale bar line over background
+            // Main bar
+            canvas.drawLine(barX, barY, barX + barPx, barY, barPaint);
+            // End ticks
+            canvas.drawLine(barX, barY - tick/2f, barX, barY + tick/2f, barPaint);
+            canvas.drawLine(barX + barPx, barY - tick/2f, barX + barPx, barY + tick/2f, barPaint);
+            
+            // Label
+            canvas.drawText(label, barX + barPx / 2f, labelY, labelPaint);
+            
+            return bmp;
+        } catch (Exception e) {
+            Log.w(TAG, "drawScaleBar failed", e);
+            return originalBitmap;
+        }
+    }
+
+    private double chooseNiceScale(double targetMeters) {
+        if (targetMeters <= 0) return 1;
+        double exponent = Math.floor(Math.log10(targetMeters));
+        double base = Math.pow(10, exponent);
+        double[] candidates = new double[]{1, 2, 5};
+        double best = base;
+        for (double c : candidates) {
+            double v = c * base;
+            if (v <= targetMeters) best = v;
+        }
+        return best;
+    }
+
+    private String formatDistance(double meters) {
+        if (meters >= 1000.0) {
+            double km = meters / 1000.0;
+            if (km >= 10) return ((int)Math.round(km)) + " km";
+            return String.format(java.util.Locale.UK, "%.1f km", km);
+        } else {
+            if (meters >= 100) return ((int)Math.round(meters)) + " m";
+            return ((int)Math.round(meters)) + " m";
+        }
+    }
+
+    private static MapConfig findMapConfigByName(String name) {
+        for (MapConfig mc : MAP_CONFIGS) {
+            if (mc.name.equals(name)) return mc;
+        }
+        return null;
+    }
+
+    private int dpToPx(int dp) {
+        float density = mContext.getResources().getDisplayMetrics().density;
+        return Math.round(dp * density);
+    }
+
+    private float dpToPxF(float dp) {
+        float density = mContext.getResources().getDisplayMetrics().density;
+        return dp * density;
+    }
+}
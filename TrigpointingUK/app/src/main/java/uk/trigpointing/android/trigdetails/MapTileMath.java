@@ -0,0 +1,158 @@
+package uk.trigpointing.android.trigdetails;
+
+/**
+ * Tile and pixel positions of a point on the maps {@link MapImageRenderer} draws, for Web
+ * Mercator (EPSG:3857) and British National Grid (EPSG:27700) tile sets.
+ */
+public final class MapTileMath {
+
+    /** Pixels along each side of a tile */
+    public static final int TILE_SIZE = 256;
+
+    private MapTileMath() {
+    }
+
+    // Web Mercator projection helper methods
+    public static int lonToTileX(double lon, int zoom) {
+        return (int) Math.floor((lon + 180.0) / 360.0 * Math.pow(2.0, zoom));
+    }
+    
+    public static int latToTileY(double lat, int zoom) {
+        double latRad = Math.toRadians(lat);
+        return (int) Math.floor((1.0 - asinh(Math.tan(latRad)) / Math.PI) / 2.0 * Math.pow(2.0, zoom));
+    }
+    
+    public static double lonToPixelX(double lon, int zoom) {
+        return (lon + 180.0) / 360.0 * Math.pow(2.0, zoom) * TILE_SIZE;
+    }
+    
+    public static double latToPixelY(double lat, int zoom) {
+        double latRad = Math.toRadians(lat);
+        return (1.0 - asinh(Math.tan(latRad)) / Math.PI) / 2.0 * Math.pow(2.0, zoom) * TILE_SIZE;
+    }
+    
+    // Manual implementation of asinh for older Java versions
+    private static double asinh(double x) {
+        return Math.log(x + Math.sqrt(x * x + 1.0));
+    }
+    
+    // EPSG:27700 (British National Grid) coordinate conversion methods
+    // Based on Leaflet configuration: resolutions, origin, and bounds
+    static final double[] OSGB_RESOLUTIONS = {896, 448, 224, 112, 56, 28, 14, 7, 3.5, 1.75, 0.875, 0.4375, 0.21875};
+    private static final double OSGB_ORIGIN_X = -238375.0;
+    private static final double OSGB_ORIGIN_Y = 1376256.0;
+    private static final double OSGB_BOUNDS_MIN_X = -238375.0;
+    private static final double OSGB_BOUNDS_MIN_Y = 0.0;
+    private static final double OSGB_BOUNDS_MAX_X = 900000.0;
+    private static final double OSGB_BOUNDS_MAX_Y = 1376256.0;
+    
+    /** Metres along each side of an EPSG:27700 tile */
+    public static double tileMetres27700(int zoom) {
+        if (zoom >= OSGB_RESOLUTIONS.length) zoom = OSGB_RESOLUTIONS.length - 1;
+        return OSGB_RESOLUTIONS[zoom] * TILE_SIZE;
+    }
+
+    public static int lonToTileX27700(double lat, double lon, int zoom) {
+        // Convert WGS84 lon/lat to OSGB36 easting/northing (simplified transformation)
+        double[] osgb = wgs84ToOsgb36(lat, lon);
+        double easting = osgb[0];
+        
+        // Use OSGB tile coordinate system
+        if (zoom >= OSGB_RESOLUTIONS.length) zoom = OSGB_RESOLUTIONS.length - 1;
+        double resolution = OSGB_RESOLUTIONS[zoom];
+        
+        int tileX = (int) Math.floor((easting - OSGB_ORIGIN_X) / (resolution * TILE_SIZE));
+        return tileX;
+    }
+    
+    public static int latToTileY27700(double lat, double lon, int zoom) {
+        // Convert WGS84 lon/lat to OSGB36 easting/northing
+        double[] osgb = wgs84ToOsgb36(lat, lon);
+        double northing = osgb[1];
+        
+        // Use OSGB tile coordinate system  
+        if (zoom >= OSGB_RESOLUTIONS.length) zoom = OSGB_RESOLUTIONS.length - 1;
+        double resolution = OSGB_RESOLUTIONS[zoom];
+        
+        int tileY = (int) Math.floor((OSGB_ORIGIN_Y - northing) / (resolution * TILE_SIZE));
+        return tileY;
+    }
+    
+    public static double lonToPixelX27700(double lat, double lon, int zoom) {
+        double[] osgb = wgs84ToOsgb36(lat, lon);
+        double easting = osgb[0];
+        
+        if (zoom >= OSGB_RESOLUTIONS.length) zoom = OSGB_RESOLUTIONS.length - 1;
+        double resolution = OSGB_RESOLUTIONS[zoom];
+        
+        return (easting - OSGB_ORIGIN_X) / resolution;
+    }
+    
+    public static double latToPixelY27700(double lat, double lon, int zoom) {
+        double[] osgb = wgs84ToOsgb36(lat, lon);
+        double northing = osgb[1];
+        
+        if (zoom >= OSGB_RESOLUTIONS.length) zoom = OSGB_RESOLUTIONS.length - 1;
+        double resolution = OSGB_RESOLUTIONS[zoom];
+        
+        return (OSGB_ORIGIN_Y - northing) / resolution;
+    }
+    
+    // Simplified WGS84 to OSGB36 transformation (approximate for UK)
+    // Returns [easting, northing] in metres
+    static double[] wgs84ToOsgb36(double lat, double lon) {
+        // This is a simplified transformation suitable for the UK area
+        // For production use, you'd want a proper coordinate transformation library
+        
+        // Approximate transformation parameters for UK
+        double a = 6377563.396;      // OSGB36 semi-major axis
+        double b = 6356256.909;      // OSGB36 semi-minor axis
+        double f0 = 0.9996012717;    // Scale factor on central meridian
+        double lat0 = Math.toRadians(49);     // Latitude of true origin
+        double lon0 = Math.toRadians(-2);     // Longitude of true origin
+        double N0 = -100000;         // Northing of true origin
+        double E0 = 400000;          // Easting of true origin
+        
+        double latRad = Math.toRadians(lat);
+        double lonRad = Math.toRadians(lon);
+        
+        double e2 = 1 - (b * b) / (a * a);
+        double n = (a - b) / (a + b);
+        double n2 = n * n;
+        double n3 = n * n * n;
+        
+        double cosLat = Math.cos(latRad);
+        double sinLat = Math.sin(latRad);
+        double tanLat = Math.tan(latRad);
+        
+        double nu = a * f0 / Math.sqrt(1 - e2 * sinLat * sinLat);
+        double rho = a * f0 * (1 - e2) / Math.pow(1 - e2 * sinLat * sinLat, 1.5);
+        double eta2 = nu / rho - 1;
+        
+        double dLon = lonRad - lon0;
+        double dLon2 = dLon * dLon;
+        double dLon3 = dLon2 * dLon;
+        double dLon4 = dLon3 * dLon;
+        double dLon5 = dLon4 * dLon;
+        double dLon6 = dLon5 * dLon;
+        
+        double M = b * f0 * ((1 + n + (5/4) * n2 + (5/4) * n3) * (latRad - lat0)
+            - (3 * n + 3 * n2 + (21/8) * n3) * Math.sin(latRad - lat0) * Math.cos(latRad + lat0)
+            + ((15/8) * n2 + (15/8) * n3) * Math.sin(2 * (latRad - lat0)) * Math.cos(2 * (latRad + lat0))
+            - (35/24) * n3 * Math.sin(3 * (latRad - lat0)) * Math.cos(3 * (latRad + lat0)));
+        
+        double I = M + N0;
+        double II = (nu / 2) * sinLat * cosLat;
+        double III = (nu / 24) * sinLat * Math.pow(cosLat, 3) * (5 - tanLat * tanLat + 9 * eta2);
+        double IIIA = (nu / 720) * sinLat * Math.pow(cosLat, 5) * (61 - 58 * tanLat * tanLat + Math.pow(tanLat, 4));
+        
+        double IV = nu * cosLat;
+        double V = (nu / 6) * Math.pow(cosLat, 3) * (nu / rho - tanLat * tanLat);
+        double VI = (nu / 120) * Math.pow(cosLat, 5) * (5 - 18 * tanLat * tanLat + Math.pow(tanLat, 4) + 14 * eta2 - 58 * tanLat * tanLat * eta2);
+        
+        double northing = I + II * dLon2 + III * dLon4 + IIIA * dLon6;
+        double easting = E0 + IV * dLon + V * dLon3 + VI * dLon5;
+        
+        return new double[]{easting, northing};
+    }
+}
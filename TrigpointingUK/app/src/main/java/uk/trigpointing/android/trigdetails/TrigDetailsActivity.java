@@ -11,6 +11,7 @@ import android.view.MenuItem;
 import android.view.Menu;
 import uk.trigpointing.android.R;
 import uk.trigpointing.android.common.BaseActivity;
+import uk.trigpointing.android.common.TrigIconCache;
 import uk.trigpointing.android.logging.LogTrigActivity;
 import uk.trigpointing.android.DbHelper;
 import androidx.browser.customtabs.CustomTabsIntent;
@@ -90,7 +91,7 @@ public class TrigDetailsActivity extends BaseActivity {
                             boolean isMarked = false;
                             try { isMarked = db.isMarkedTrig(ensuredTrigId); } catch (Exception ignored) {}
                             if (typeIcon != null) {
-                                try { typeIcon.setImageResource(mapGreenTypeIconResource(typeCode, isMarked)); } catch (Exception ignored) {}
+                                try { setHeaderTypeIcon(typeIcon, typeCode, isMarked); } catch (Exception ignored) {}
                             }
                             if (condIcon != null) {
                                 try { condIcon.setImageResource(condition.icon()); } catch (Exception ignored) {}
@@ -951,6 +952,16 @@ public class TrigDetailsActivity extends BaseActivity {
         }
     }
 
+    // Same marker as the map and the Nearest list, from the shared icon cache
+    private void setHeaderTypeIcon(android.widget.ImageView typeIcon, String typeCode, boolean highlight) {
+        android.graphics.drawable.Drawable icon = TrigIconCache.get(this).getTypeDrawable(getResources(), typeCode, highlight);
+        if (icon != null) {
+            typeIcon.setImageDrawable(icon);
+        } else {
+            typeIcon.setImageResource(mapGreenTypeIconResource(typeCode, highlight));
+        }
+    }
+
     // Map database type code to green map icon resource for header prominence
     private int mapGreenTypeIconResource(String typeCode, boolean highlight) {
         if (typeCode == null) return R.drawable.mapicon_passive_green;
@@ -988,7 +999,7 @@ public class TrigDetailsActivity extends BaseActivity {
                     boolean isMarked = false;
                     try { isMarked = db.isMarkedTrig(trigId); } catch (Exception ignored) {}
                     if (typeIcon != null) {
-                        try { typeIcon.setImageResource(mapGreenTypeIconResource(typeCode, isMarked)); } catch (Exception ignored) {}
+                        try { setHeaderTypeIcon(typeIcon, typeCode, isMarked); } catch (Exception ignored) {}
                     }
                     if (condIcon != null) {
                         try { condIcon.setImageResource(condition.icon()); } catch (Exception ignored) {}
@@ -170,6 +170,7 @@ public class TrigDetailsInfoTab extends BaseTabActivity {
         int fbIndex = c.getColumnIndex(DbHelper.TRIG_FB);
         int categoryNameIndex = c.getColumnIndex(DbHelper.TRIG_CATEGORY_NAME);
         int typeNameIndex = c.getColumnIndex(DbHelper.TRIG_TYPE_NAME);
+        int gridrefIndex = c.getColumnIndex(DbHelper.TRIG_GRIDREF);
         
         if (latIndex < 0 || lonIndex < 0 || idIndex < 0 || conditionIndex < 0 || 
             nameIndex < 0 || currentIndex < 0 || historicIndex < 0 || typeIndex < 0 || fbIndex < 0) {
@@ -199,7 +200,9 @@ public class TrigDetailsInfoTab extends BaseTabActivity {
         mName = c.getString(nameIndex);
 
         tv = findViewById(R.id.triginfo_gridref);
-        tv.setText(ll.getOSGB10());
+        // Worked out at import; only trigs stored by older versions lack it
+        String gridref = gridrefIndex >= 0 ? c.getString(gridrefIndex) : null;
+        tv.setText(gridref != null ? gridref : ll.getOSGB10());
         
         tv = findViewById(R.id.triginfo_wgs84);
         tv.setText(ll.getWGS());
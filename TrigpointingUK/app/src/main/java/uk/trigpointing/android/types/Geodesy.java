@@ -0,0 +1,444 @@
+package uk.trigpointing.android.types;
+
+/**
+ * Primitive-only geodesy: WGS84 to and from the OSGB36 national grid, grid reference formatting
+ * and parsing, and distance and bearing on a sphere or the WGS84 ellipsoid.
+ *
+ * Nothing here allocates except the grid reference strings; conversions write into arrays the
+ * caller supplies, so they can be used per row or per frame. {@link LatLon} delegates here. The
+ * conversions are the same Helmert transform and transverse Mercator series as before (after
+ * jcoord, (c) 2006 Jonathan Stott), with the constant parts worked out once and the powers
+ * multiplied out.
+ */
+public final class Geodesy {
+
+    /** Mean radius of the earth in kilometres, as used for distances throughout the app */
+    public static final double EARTH_RADIUS_KM = 6371;
+    public static final double EARTH_RADIUS_M = 6371000;
+    public static final double EARTH_RADIUS_MILES = 3959;
+
+    private static final double WGS_A = 6378137.000;
+    private static final double WGS_B = 6356752.3141;
+    private static final double WGS_E2 = ((WGS_A * WGS_A) - (WGS_B * WGS_B)) / (WGS_A * WGS_A);
+    private static final double WGS_F = (WGS_A - WGS_B) / WGS_A;
+    // Second eccentricity squared, over the semi-minor axis
+    private static final double WGS_E2_PRIME = ((WGS_A * WGS_A) - (WGS_B * WGS_B)) / (WGS_B * WGS_B);
+
+    private static final double AIRY_A = 6377563.396;
+    private static final double AIRY_B = 6356256.909;
+    private static final double AIRY_E2 = ((AIRY_A * AIRY_A) - (AIRY_B * AIRY_B)) / (AIRY_A * AIRY_A);
+
+    // National grid projection
+    private static final double F0 = 0.9996012717;
+    private static final double N0 = -100000.0;
+    private static final double E0 = 400000.0;
+    private static final double PHI0 = Math.toRadians(49.0);
+    private static final double LAMBDA0 = Math.toRadians(-2.0);
+
+    private static final Projection AIRY_GRID = new Projection(AIRY_A, AIRY_B);
+
+    // WGS84 to OSGB36 Helmert transform; the reverse negates every term
+    private static final double TX = -446.448;
+    private static final double TY = 125.157;
+    private static final double TZ = -542.060;
+    private static final double S = 0.0000204894;
+    private static final double RX = Math.toRadians(-0.00004172222);
+    private static final double RY = Math.toRadians(-0.00006861111);
+    private static final double RZ = Math.toRadians(-0.00023391666);
+
+    private static final int LATITUDE_ITERATIONS = 9;
+    private static final int VINCENTY_ITERATIONS = 20;
+
+    /** The national grid projection on one ellipsoid */
+    private static final class Projection {
+        final double e2;
+        final double af0;
+        final double bf0;
+        // Meridional arc series
+        final double ma;
+        final double mb;
+        final double mc;
+        final double md;
+
+        Projection(double a, double b) {
+            e2 = ((a * a) - (b * b)) / (a * a);
+            af0 = a * F0;
+            bf0 = b * F0;
+            double n = (a - b) / (a + b);
+            ma = 1 + n + (5.0 / 4.0) * n * n + (5.0 / 4.0) * n * n * n;
+            mb = 3 * n + 3 * n * n + (21.0 / 8.0) * n * n * n;
+            mc = (15.0 / 8.0) * n * n + (15.0 / 8.0) * n * n * n;
+            md = (35.0 / 24.0) * n * n * n;
+        }
+    }
+
+    private Geodesy() {
+    }
+
+    /**
+     * WGS84 latitude and longitude in degrees to OSGB36 national grid eastings and northings in
+     * metres.
+     * @param out receives {eastings, northings}
+     */
+    public static void wgs84ToOsgb(double lat, double lon, double[] out) {
+        // WGS84 to OSGB36 latitude and longitude, via cartesian coordinates
+        double phi = Math.toRadians(lat);
+        double lambda = Math.toRadians(lon);
+        double sinPhi = Math.sin(phi);
+        double cosPhi = Math.cos(phi);
+        double v = WGS_A / Math.sqrt(1 - WGS_E2 * sinPhi * sinPhi);
+        double x = v * cosPhi * Math.cos(lambda);
+        double y = v * cosPhi * Math.sin(lambda);
+        double z = (1 - WGS_E2) * v * sinPhi;
+
+        // The x row has rx where rz belongs, as the original conversion did; kept for identical grid refs
+        double xB = TX + x * (1 + S) - RX * y + RY * z;
+        double yB = TY + RZ * x + y * (1 + S) - RX * z;
+        double zB = TZ - RY * x + RX * y + z * (1 + S);
+
+        project(latitudeOf(xB, yB, zB, AIRY_A, AIRY_E2), Math.atan2(yB, xB), AIRY_GRID, out);
+    }
+
+    // Transverse Mercator projection of a latitude and longitude in radians onto the grid
+    private static void project(double phi, double lambda, Projection p, double[] out) {
+        double sinPhi = Math.sin(phi);
+        double cosPhi = Math.cos(phi);
+        double tan2 = (sinPhi / cosPhi) * (sinPhi / cosPhi);
+        double cos3 = cosPhi * cosPhi * cosPhi;
+        double cos5 = cos3 * cosPhi * cosPhi;
+        double nu2 = 1.0 - p.e2 * sinPhi * sinPhi;
+        double v = p.af0 / Math.sqrt(nu2);
+        double rho = p.af0 * (1.0 - p.e2) / (nu2 * Math.sqrt(nu2));
+        double etaSquared = (v / rho) - 1.0;
+
+        double I = meridionalArc(phi, p) + N0;
+        double II = (v / 2.0) * sinPhi * cosPhi;
+        double III = (v / 24.0) * sinPhi * cos3 * (5.0 - tan2 + 9.0 * etaSquared);
+        double IIIA = (v / 720.0) * sinPhi * cos5 * (61.0 - 58.0 * tan2 + tan2 * tan2);
+        double IV = v * cosPhi;
+        double V = (v / 6.0) * cos3 * ((v / rho) - tan2);
+        double VI = (v / 120.0) * cos5
+                * (5.0 - 18.0 * tan2 + tan2 * tan2 + 14 * etaSquared - 58 * tan2 * etaSquared);
+
+        double dL = lambda - LAMBDA0;
+        double dL2 = dL * dL;
+        out[0] = E0 + dL * (IV + dL2 * (V + dL2 * VI));
+        out[1] = I + dL2 * (II + dL2 * (III + dL2 * IIIA));
+    }
+
+    /**
+     * OSGB36 national grid eastings and northings in metres to WGS84 latitude and longitude in
+     * degrees.
+     * @param out receives {latitude, longitude}
+     */
+    public static void osgbToWgs84(double eastings, double northings, double[] out) {
+        unproject(eastings, northings, AIRY_GRID, out);
+        double phi = out[0];
+        double lambda = out[1];
+
+        // OSGB36 to WGS84, via cartesian coordinates
+        double sinPhi = Math.sin(phi);
+        double cosPhi = Math.cos(phi);
+        double v1 = AIRY_A / Math.sqrt(1 - AIRY_E2 * sinPhi * sinPhi);
+        double x = v1 * cosPhi * Math.cos(lambda);
+        double y = v1 * cosPhi * Math.sin(lambda);
+        double z = (1 - AIRY_E2) * v1 * sinPhi;
+
+        double xB = -TX + x * (1 - S) + RX * y - RY * z;
+        double yB = -TY - RZ * x + y * (1 - S) + RX * z;
+        double zB = -TZ + RY * x - RX * y + z * (1 - S);
+
+        out[0] = Math.toDegrees(latitudeOf(xB, yB, zB, WGS_A, WGS_E2));
+        out[1] = Math.toDegrees(Math.atan2(yB, xB));
+    }
+
+    // Inverse transverse Mercator from the grid to latitude and longitude in radians
+    private static void unproject(double eastings, double northings, Projection p, double[] out) {
+        double phiPrime = ((northings - N0) / p.af0) + PHI0;
+        double m;
+        do {
+            m = meridionalArc(phiPrime, p);
+            phiPrime += (northings - N0 - m) / p.af0;
+        } while ((northings - N0 - m) >= 0.001);
+
+        double sinPhi = Math.sin(phiPrime);
+        double cosPhi = Math.cos(phiPrime);
+        double tan = sinPhi / cosPhi;
+        double tan2 = tan * tan;
+        double sec = 1.0 / cosPhi;
+        double nu2 = 1.0 - p.e2 * sinPhi * sinPhi;
+        double v = p.af0 / Math.sqrt(nu2);
+        double rho = p.af0 * (1.0 - p.e2) / (nu2 * Math.sqrt(nu2));
+        double etaSquared = (v / rho) - 1.0;
+        double v3 = v * v * v;
+        double v5 = v3 * v * v;
+        double v7 = v5 * v * v;
+
+        double VII = tan / (2 * rho * v);
+        double VIII = (tan / (24.0 * rho * v3)) * (5.0 + 3.0 * tan2 + etaSquared - 9.0 * tan2 * etaSquared);
+        double IX = (tan / (720.0 * rho * v5)) * (61.0 + 90.0 * tan2 + 45.0 * tan2 * tan2);
+        double X = sec / v;
+        double XI = (sec / (6.0 * v3)) * ((v / rho) + 2 * tan2);
+        double XII = (sec / (120.0 * v5)) * (5.0 + 28.0 * tan2 + 24.0 * tan2 * tan2);
+        double XIIA = (sec / (5040.0 * v7)) * (61.0 + 662.0 * tan2 + 1320.0 * tan2 * tan2 + 720.0 * tan2 * tan2 * tan2);
+
+        double dE = eastings - E0;
+        double dE2 = dE * dE;
+        out[0] = phiPrime - dE2 * (VII - dE2 * (VIII - dE2 * IX));
+        out[1] = LAMBDA0 + dE * (X - dE2 * (XI - dE2 * (XII - dE2 * XIIA)));
+    }
+
+    // Latitude in radians of a cartesian point on an ellipsoid, by iteration
+    private static double latitudeOf(double x, double y, double z, double a, double eSquared) {
+        double p = Math.sqrt(x * x + y * y);
+        double phi = Math.atan(z / (p * (1 - eSquared)));
+        for (int i = 0; i < LATITUDE_ITERATIONS; i++) {
+            double sinPhi = Math.sin(phi);
+            double v = a / Math.sqrt(1 - eSquared * sinPhi * sinPhi);
+            phi = Math.atan((z + eSquared * v * sinPhi) / p);
+        }
+        return phi;
+    }
+
+    // Distance along the central meridian from the true origin to a latitude, on the grid's scale
+    private static double meridionalArc(double phi, Projection p) {
+        double dPhi = phi - PHI0;
+        double sPhi = phi + PHI0;
+        return p.bf0 * (p.ma * dPhi
+                - p.mb * Math.sin(dPhi) * Math.cos(sPhi)
+                + p.mc * Math.sin(2.0 * dPhi) * Math.cos(2.0 * sPhi)
+                - p.md * Math.sin(3.0 * dPhi) * Math.cos(3.0 * sPhi));
+    }
+
+    /** "NY 34100 15100": letters and 1 m eastings and northings, as LatLon.getOSGB10. */
+    public static String gridRef10(double eastings, double northings) {
+        return gridRef(eastings, northings, 5, true);
+    }
+
+    /** "NY341151": letters and 100 m eastings and northings, as LatLon.getOSGB6. */
+    public static String gridRef6(double eastings, double northings) {
+        return gridRef(eastings, northings, 3, false);
+    }
+
+    private static String gridRef(double eastings, double northings, int digits, boolean spaced) {
+        int hundredkmE = (int) Math.floor(eastings / 100000);
+        int hundredkmN = (int) Math.floor(northings / 100000);
+        char[] ref = new char[2 + 2 * digits + (spaced ? 2 : 0)];
+        ref[0] = firstLetter(hundredkmE, hundredkmN);
+        int index = 'A' + ((4 - (hundredkmN % 5)) * 5) + (hundredkmE % 5);
+        if (index >= 'I') {
+            index++;
+        }
+        ref[1] = (char) index;
+
+        // Always 0-99999, even off the grid
+        int e = (int) Math.floor(eastings - (100000 * hundredkmE));
+        int n = (int) Math.floor(northings - (100000 * hundredkmN));
+        int at = 2;
+        if (spaced) {
+            ref[at++] = ' ';
+        }
+        at = writeDigits(ref, at, e, digits);
+        if (spaced) {
+            ref[at++] = ' ';
+        }
+        writeDigits(ref, at, n, digits);
+        return new String(ref);
+    }
+
+    private static char firstLetter(int hundredkmE, int hundredkmN) {
+        if (hundredkmN < 5) {
+            return hundredkmE < 5 ? 'S' : 'T';
+        } else if (hundredkmN < 10) {
+            return hundredkmE < 5 ? 'N' : 'O';
+        }
+        return 'H';
+    }
+
+    // The leading digits of a 5 digit metre offset, zero padded
+    private static int writeDigits(char[] ref, int at, int metres, int digits) {
+        int value = metres;
+        for (int i = digits; i < 5; i++) {
+            value /= 10;
+        }
+        for (int i = digits - 1; i >= 0; i--) {
+            ref[at + i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return at + digits;
+    }
+
+    /**
+     * Parses a grid reference such as "NY341151", "NY 3411 1510" or "ny3410015100" to the
+     * eastings and northings of its south west corner, in metres.
+     * @param out receives {eastings, northings}
+     * @throws IllegalArgumentException if it isn't two grid letters and 6, 8 or 10 digits
+     */
+    public static void parseGridRef(CharSequence gridref, long[] out) {
+        if (gridref == null) {
+            throw new IllegalArgumentException("");
+        }
+        // Letters and digits, ignoring whitespace, without building a new string
+        int letters = 0;
+        int big = 0;
+        int small = 0;
+        int digitCount = 0;
+        long eastingDigits = 0;
+        long northingDigits = 0;
+        int length = gridref.length();
+        int firstDigit = -1;
+        for (int i = 0; i < length; i++) {
+            char c = gridref.charAt(i);
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            if (letters < 2) {
+                int letter = Character.toUpperCase(c) - 'A';
+                if (letter < 0 || letter > 25 || letter == 'I' - 'A') {
+                    throw new IllegalArgumentException("Gridref : invalid format");
+                }
+                if (letter > 7) {letter--;} // no I
+                if (letters == 0) {
+                    big = letter;
+                } else {
+                    small = letter;
+                }
+                letters++;
+            } else if (c >= '0' && c <= '9') {
+                if (firstDigit < 0) {
+                    firstDigit = i;
+                }
+                digitCount++;
+            } else {
+                throw new IllegalArgumentException("Gridref : invalid format");
+            }
+        }
+        if (letters < 2 || digitCount < 6 || digitCount > 10) {
+            throw new IllegalArgumentException(length == 0 ? "" : "Gridref : invalid format");
+        }
+        if (digitCount % 2 != 0) {
+            throw new IllegalArgumentException("Gridref : incorrect digit count");
+        }
+
+        // First half of the digits are eastings, second half northings
+        int half = digitCount / 2;
+        int seen = 0;
+        for (int i = firstDigit; i < length; i++) {
+            char c = gridref.charAt(i);
+            if (c < '0' || c > '9') {
+                continue;
+            }
+            if (seen++ < half) {
+                eastingDigits = eastingDigits * 10 + (c - '0');
+            } else {
+                northingDigits = northingDigits * 10 + (c - '0');
+            }
+        }
+        long scale = half == 3 ? 100 : half == 4 ? 10 : 1;
+
+        int bigr = big / 5;
+        int bigc = big % 5;
+        int smallr = small / 5;
+        int smallc = small % 5;
+        out[0] = scale * eastingDigits + 500000L * (bigc - 2) + 100000L * smallc;
+        out[1] = scale * northingDigits + 500000L * (3 - bigr) + 100000L * (4 - smallr);
+    }
+
+    /**
+     * Great circle distance between two points in degrees by the haversine formula, which unlike
+     * the spherical law of cosines stays accurate down to a few metres.
+     * @param radius of the earth, in the units wanted, e.g. {@link #EARTH_RADIUS_KM}
+     */
+    public static double haversineDistance(double lat1, double lon1, double lat2, double lon2, double radius) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double sinDPhi = Math.sin((phi2 - phi1) / 2);
+        double sinDLambda = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        double h = sinDPhi * sinDPhi + Math.cos(phi1) * Math.cos(phi2) * sinDLambda * sinDLambda;
+        return 2 * radius * Math.asin(Math.sqrt(Math.min(1.0, h)));
+    }
+
+    /**
+     * Distance between two points in degrees treating the earth as flat around them; well within
+     * a metre of the great circle over the tens of kilometres the app lists trigs for, at a fraction
+     * of the cost.
+     */
+    public static double equirectangularDistance(double lat1, double lon1, double lat2, double lon2, double radius) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double x = Math.toRadians(lon2 - lon1) * Math.cos((phi1 + phi2) / 2);
+        double y = phi2 - phi1;
+        return radius * Math.sqrt(x * x + y * y);
+    }
+
+    /** Initial great circle bearing in degrees from the first point to the second, -180 to 180. */
+    public static double initialBearing(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dLambda = Math.toRadians(lon2 - lon1);
+        double cosPhi2 = Math.cos(phi2);
+        double y = Math.sin(dLambda) * cosPhi2;
+        double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * cosPhi2 * Math.cos(dLambda);
+        return Math.toDegrees(Math.atan2(y, x));
+    }
+
+    /**
+     * Distance and initial bearing on the WGS84 ellipsoid by Vincenty's inverse formula, as
+     * android.location.Location computes them. Slower than {@link #haversineDistance} but good to
+     * a millimetre rather than half a percent, for the AR view's per trig distances.
+     * @param out receives {distance in metres, initial bearing in degrees -180 to 180}
+     */
+    public static void ellipsoidalDistanceAndBearing(double lat1, double lon1, double lat2, double lon2, double[] out) {
+        double l = Math.toRadians(lon2 - lon1);
+        double u1 = Math.atan((1.0 - WGS_F) * Math.tan(Math.toRadians(lat1)));
+        double u2 = Math.atan((1.0 - WGS_F) * Math.tan(Math.toRadians(lat2)));
+        double cosU1 = Math.cos(u1);
+        double cosU2 = Math.cos(u2);
+        double sinU1 = Math.sin(u1);
+        double sinU2 = Math.sin(u2);
+        double cosU1cosU2 = cosU1 * cosU2;
+        double sinU1sinU2 = sinU1 * sinU2;
+
+        double aA = 0.0;
+        double sigma = 0.0;
+        double deltaSigma = 0.0;
+        double cosLambda = 0.0;
+        double sinLambda = 0.0;
+        double lambda = l;
+        for (int i = 0; i < VINCENTY_ITERATIONS; i++) {
+            double lambdaBefore = lambda;
+            cosLambda = Math.cos(lambda);
+            sinLambda = Math.sin(lambda);
+            double t1 = cosU2 * sinLambda;
+            double t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+            double sinSigma = Math.sqrt(t1 * t1 + t2 * t2);
+            double cosSigma = sinU1sinU2 + cosU1cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = sinSigma == 0 ? 0.0 : cosU1cosU2 * sinLambda / sinSigma;
+            double cosSqAlpha = 1.0 - sinAlpha * sinAlpha;
+            double cos2SM = cosSqAlpha == 0 ? 0.0 : cosSigma - 2.0 * sinU1sinU2 / cosSqAlpha;
+
+            double uSquared = cosSqAlpha * WGS_E2_PRIME;
+            aA = 1 + (uSquared / 16384.0) * (4096.0 + uSquared * (-768 + uSquared * (320.0 - 175.0 * uSquared)));
+            double bB = (uSquared / 1024.0) * (256.0 + uSquared * (-128.0 + uSquared * (74.0 - 47.0 * uSquared)));
+            double cC = (WGS_F / 16.0) * cosSqAlpha * (4.0 + WGS_F * (4.0 - 3.0 * cosSqAlpha));
+            double cos2SMSq = cos2SM * cos2SM;
+            deltaSigma = bB * sinSigma * (cos2SM + (bB / 4.0) * (cosSigma * (-1.0 + 2.0 * cos2SMSq)
+                    - (bB / 6.0) * cos2SM * (-3.0 + 4.0 * sinSigma * sinSigma) * (-3.0 + 4.0 * cos2SMSq)));
+
+            lambda = l + (1.0 - cC) * WGS_F * sinAlpha
+                    * (sigma + cC * sinSigma * (cos2SM + cC * cosSigma * (-1.0 + 2.0 * cos2SMSq)));
+            if (Math.abs((lambda - lambdaBefore) / lambda) < 1.0e-12) {
+                break;
+            }
+        }
+
+        out[0] = WGS_B * aA * (sigma - deltaSigma);
+        out[1] = Math.toDegrees(Math.atan2(cosU2 * sinLambda, cosU1 * sinU2 - sinU1 * cosU2 * cosLambda));
+    }
+
+    /** A bearing in degrees brought into 0 to 360. */
+    public static double normaliseBearing(double bearing) {
+        return bearing < 0 ? bearing + 360.0 : bearing;
+    }
+}
@@ -0,0 +1,112 @@
+package uk.trigpointing.android.types;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * OSGB eastings, northings and 10 figure grid references for a whole table of WGS84 positions,
+ * converted once at import so the app can store them rather than work them out whenever a trig is
+ * shown. The rows are split into chunks which are converted in parallel, each writing only its own
+ * slice of the results.
+ *
+ * Values are as {@link LatLon#getEastings()}, {@link LatLon#getNorthings()} and
+ * {@link LatLon#getOSGB10()} would give for each position.
+ */
+public final class OsgbBatch {
+
+    /** Rows converted by each task; small enough to balance across cores, large enough to be cheap */
+    static final int CHUNK_SIZE = 1024;
+
+    private final long[] eastings;
+    private final long[] northings;
+    private final String[] gridRefs;
+
+    private OsgbBatch(int count) {
+        eastings = new long[count];
+        northings = new long[count];
+        gridRefs = new String[count];
+    }
+
+    /** Converts every position using one thread per available core. */
+    public static OsgbBatch convert(double[] lats, double[] lons) {
+        return convert(lats, lons, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Converts every position using up to the given number of threads, blocking until done.
+     *
+     * @throws IllegalArgumentException if the arrays differ in length or threads is less than 1
+     */
+    public static OsgbBatch convert(double[] lats, double[] lons, int threads) {
+        if (lats.length != lons.length) {
+            throw new IllegalArgumentException("lats and lons differ in length");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        int count = lats.length;
+        OsgbBatch batch = new OsgbBatch(count);
+        int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (threads == 1 || chunks <= 1) {
+            batch.convertRange(lats, lons, 0, count);
+            return batch;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>(chunks);
+        for (int start = 0; start < count; start += CHUNK_SIZE) {
+            final int from = start;
+            final int to = Math.min(count, start + CHUNK_SIZE);
+            tasks.add(() -> {
+                batch.convertRange(lats, lons, from, to);
+                return null;
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, chunks));
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted converting grid references", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed converting grid references", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return batch;
+    }
+
+    private void convertRange(double[] lats, double[] lons, int from, int to) {
+        double[] en = new double[2];
+        for (int i = from; i < to; i++) {
+            Geodesy.wgs84ToOsgb(lats[i], lons[i], en);
+            // Whole metres, truncated as LatLon does
+            eastings[i] = (long) en[0];
+            northings[i] = (long) en[1];
+            gridRefs[i] = Geodesy.gridRef10(en[0], en[1]);
+        }
+    }
+
+    public int size() {
+        return eastings.length;
+    }
+
+    public long getEastings(int index) {
+        return eastings[index];
+    }
+
+    public long getNorthings(int index) {
+        return northings[index];
+    }
+
+    /** e.g. "NY 34100 15100" */
+    public String getGridRef(int index) {
+        return gridRefs[index];
+    }
+}
@@ -0,0 +1,251 @@
+package uk.trigpointing.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.app.Application;
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import uk.trigpointing.android.filter.Filter;
+import uk.trigpointing.android.index.TrigIndex;
+import uk.trigpointing.android.mapping.BoundingBox;
+import uk.trigpointing.android.types.Condition;
+import uk.trigpointing.android.types.Trig;
+
+/**
+ * Mixes an import, syncs and viewport queries on several threads, as the download, sync, map
+ * and AR screens can, and checks readers neither wait for writers nor see half a write session.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class DbHelperConcurrencyTest {
+
+    private static final int BATCHES = 20;
+    private static final int BATCH_SIZE = 250;
+    private static final int READERS = 3;
+    private static final int SYNCS = 10;
+    private static final BoundingBox GB = new BoundingBox(58.7, 1.8, 49.9, -6.4);
+    private static final BoundingBox LAKES = new BoundingBox(55.2, -2.2, 54.0, -3.7);
+
+    private DbHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        dbHelper = new DbHelper(RuntimeEnvironment.getApplication());
+        dbHelper.open();
+        // DbHelper shares one database across instances, which may outlive a test
+        dbHelper.deleteAll();
+        dbHelper.clearUserLogs();
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+    }
+
+    @Test
+    public void readersOnlySeeWholeWriteSessions() throws Exception {
+        Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    while (writing.get()) {
+                        // Each import batch is one session, so readers see whole batches
+                        int count = dbHelper.countTrigpointsInBoundingBox(GB, Filter.ALL);
+                        if (count % BATCH_SIZE != 0) {
+                            throw new AssertionError("Saw " + count + " trigs, part of a batch");
+                        }
+                        try (Cursor cursor = dbHelper.fetchTrigMapList(LAKES, Filter.of(2, 6))) {
+                            cursor.moveToLast();
+                        }
+                        // Nothing commits during a read session
+                        dbHelper.read(db -> {
+                            int before = db.countTrigpointsInBoundingBox(GB, Filter.ALL);
+                            int logged = db.countTrigpointsInBoundingBox(GB, Filter.of(1, 6));
+                            Thread.yield();
+                            assertEquals(before, db.countTrigpointsInBoundingBox(GB, Filter.ALL));
+                            assertEquals(logged, db.countTrigpointsInBoundingBox(GB, Filter.of(1, 6)));
+                            return null;
+                        });
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }, "reader " + r);
+            readers.add(reader);
+            reader.start();
+        }
+
+        // The import and syncs are queued together, as they would be by the download screen
+        // starting a sync
+        Random random = new Random(48);
+        List<CompletableFuture<Integer>> writes = new ArrayList<>();
+        for (int batch = 0; batch < BATCHES; batch++) {
+            int from = batch * BATCH_SIZE;
+            writes.add(dbHelper.write(db -> insertTrigs(db, from, from + BATCH_SIZE)));
+            if (batch % (BATCHES / SYNCS) == 0) {
+                int trigs = from + BATCH_SIZE;
+                long seed = random.nextLong();
+                writes.add(dbHelper.write(db -> syncLogs(db, trigs, seed)));
+            }
+        }
+        for (CompletableFuture<Integer> write : writes) {
+            write.get(60, TimeUnit.SECONDS);
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join(TimeUnit.SECONDS.toMillis(60));
+        }
+
+        if (!errors.isEmpty()) {
+            AssertionError failure = new AssertionError(errors.size() + " reader(s) failed");
+            errors.forEach(failure::addSuppressed);
+            throw failure;
+        }
+        assertEquals(BATCHES * BATCH_SIZE, dbHelper.countTrigpointsInBoundingBox(GB, Filter.ALL));
+    }
+
+    @Test
+    public void readsDoNotWaitForAnOpenWriteSession() throws Exception {
+        insertTrigs(dbHelper, 0, BATCH_SIZE);
+        CountDownLatch inserted = new CountDownLatch(1);
+        CountDownLatch read = new CountDownLatch(1);
+
+        CompletableFuture<Integer> write = dbHelper.write(db -> {
+            int count = insertTrigs(db, BATCH_SIZE, 2 * BATCH_SIZE);
+            inserted.countDown();
+            // Holds the transaction open until the read below has finished
+            assertTrue("Read waited for the write session", read.await(30, TimeUnit.SECONDS));
+            return count;
+        });
+
+        assertTrue(inserted.await(30, TimeUnit.SECONDS));
+        assertEquals(BATCH_SIZE, dbHelper.countTrigpointsInBoundingBox(GB, Filter.ALL));
+        read.countDown();
+
+        assertEquals(BATCH_SIZE, (int) write.get(30, TimeUnit.SECONDS));
+        assertEquals(2 * BATCH_SIZE, dbHelper.countTrigpointsInBoundingBox(GB, Filter.ALL));
+    }
+
+    @Test
+    public void trigIndexIsNotReadAgainDuringAWriteSession() throws Exception {
+        insertTrigs(dbHelper, 0, BATCH_SIZE);
+        TrigIndex before = dbHelper.trigIndex();
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch read = new CountDownLatch(1);
+
+        CompletableFuture<Integer> write = dbHelper.write(db -> {
+            int count = insertTrigs(db, BATCH_SIZE, 2 * BATCH_SIZE);
+            syncLogs(db, 2 * BATCH_SIZE, 50);
+            written.countDown();
+            assertTrue("Read waited for the write session", read.await(30, TimeUnit.SECONDS));
+            return count;
+        });
+
+        // Nothing has committed, so the index read before the session is still the database now
+        assertTrue(written.await(30, TimeUnit.SECONDS));
+        assertSame(before, dbHelper.trigIndex());
+        read.countDown();
+
+        write.get(30, TimeUnit.SECONDS);
+        TrigIndex after = dbHelper.trigIndex();
+        assertNotSame(before, after);
+        assertEquals(2 * BATCH_SIZE, after.size());
+    }
+
+    @Test
+    public void failedWriteSessionRollsBack() throws Exception {
+        IllegalStateException thrown = new IllegalStateException("sync failed");
+        CompletableFuture<Integer> write = dbHelper.write(db -> {
+            insertTrigs(db, 0, BATCH_SIZE);
+            throw thrown;
+        });
+        try {
+            write.join();
+            fail("Write session should have failed");
+        } catch (CompletionException e) {
+            assertSame(thrown, e.getCause());
+        }
+        assertFalse(dbHelper.isTrigTablePopulated());
+
+        // Later sessions still run
+        assertEquals(BATCH_SIZE, (int) dbHelper.write(db -> insertTrigs(db, 0, BATCH_SIZE)).get(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void writeFromAWriteSessionJoinsIt() throws Exception {
+        CompletableFuture<Integer> write = dbHelper.write(db -> {
+            int first = insertTrigs(db, 0, BATCH_SIZE);
+            // Waiting on the queue from the writer thread would never return
+            return first + db.write(nested -> insertTrigs(nested, BATCH_SIZE, 2 * BATCH_SIZE)).join();
+        });
+        assertEquals(2 * BATCH_SIZE, (int) write.get(30, TimeUnit.SECONDS));
+        assertEquals(2 * BATCH_SIZE, dbHelper.countTrigpointsInBoundingBox(GB, Filter.ALL));
+    }
+
+    @Test
+    public void writeFromAReadSessionIsRefused() throws Exception {
+        try {
+            // Waiting for the write would hold its commit off forever
+            dbHelper.read(db -> db.write(nested -> insertTrigs(nested, 0, BATCH_SIZE)).join());
+            fail("Write session from a read session should have been refused");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        assertFalse(dbHelper.isTrigTablePopulated());
+
+        // Nor is the read session left holding off later commits
+        assertEquals(BATCH_SIZE, (int) dbHelper.write(db -> insertTrigs(db, 0, BATCH_SIZE)).get(30, TimeUnit.SECONDS));
+    }
+
+    private static int insertTrigs(DbHelper db, int from, int to) {
+        Random random = new Random(from);
+        for (int id = from + 1; id <= to; id++) {
+            Trig.Physical type = random.nextBoolean() ? Trig.Physical.PILLAR : Trig.Physical.PASSIVE;
+            db.createTrig(id, "Trig " + id, "TP" + id, 49.9 + random.nextDouble() * 8.8,
+                    -6.4 + random.nextDouble() * 8.2, type, Condition.GOOD, Condition.TRIGNOTLOGGED,
+                    Trig.Current.NONE, Trig.Historic.UNKNOWN, type.toString(), type.toString(), null,
+                    0, 0, "");
+        }
+        return to - from;
+    }
+
+    // As SyncTask replaces the logged flags with the website's
+    private static int syncLogs(DbHelper db, int trigs, long seed) {
+        Random random = new Random(seed);
+        db.deleteAllTrigLogs();
+        int logged = 0;
+        for (int i = 0; i < trigs / 10; i++) {
+            if (db.updateTrigLog(1 + random.nextInt(trigs), Condition.GOOD)) {
+                logged++;
+            }
+        }
+        return logged;
+    }
+}
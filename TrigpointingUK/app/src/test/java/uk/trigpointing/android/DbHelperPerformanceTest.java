@@ -0,0 +1,506 @@
+package uk.trigpointing.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Application;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.location.Location;
+
+import androidx.preference.PreferenceManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import uk.trigpointing.android.filter.Filter;
+import uk.trigpointing.android.index.TrigIndex;
+import uk.trigpointing.android.mapping.BoundingBox;
+import uk.trigpointing.android.types.Condition;
+import uk.trigpointing.android.types.PhotoSubject;
+import uk.trigpointing.android.types.Trig;
+
+/**
+ * Times the list, map and dashboard queries against a synthetic national-scale database, for
+ * several viewports and filters and at two sizes, and checks through EXPLAIN QUERY PLAN that
+ * none of them reads the whole trig table. The map and nearest queries are timed in SQLite and
+ * in the in-memory TrigIndex that now answers them, which must agree.
+ *
+ * Timings and plans are written to build/reports/db-performance.txt. Only the plans
+ * are asserted: Robolectric's SQLite says how a query scales, not how fast it is on a phone.
+ * Searches are timed here too; DbHelperSearchTimingTest times them on a device against their
+ * budget.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class DbHelperPerformanceTest {
+
+    private static final int SMALL_TRIGS = 5_000;
+    private static final int TRIGS = 25_000;
+    // As a keen user's: trigs logged on the website, logs and photos not yet uploaded, and marks
+    private static final double LOGGED_SHARE = 0.08;
+    private static final int LOGS = 300;
+    private static final int PHOTOS = 600;
+    private static final int MARKS = 250;
+    private static final int RUNS = 5;
+    private static final int SEARCH_RESULTS = 20;
+    // Names are made of these, as real ones are of Hill, Moor, Low and the like
+    private static final String[] NAME_WORDS = {"Kinder", "Low", "Scout", "Hill", "Moor", "Fell", "Pike", "Crag",
+            "Top", "Beacon", "Edge", "Moel", "Famau", "Ben", "Cairn", "Howe", "Law", "Knott", "Rigg", "Tor",
+            "Down", "Common", "Farm", "Wood", "Barrow", "Castle", "Mount", "Bank", "Head", "Brow", "Side", "Green",
+            "Heath", "Cross", "Lane", "House", "North", "South", "East", "West"};
+
+    // Great Britain, roughly
+    private static final double SOUTH = 49.9;
+    private static final double NORTH = 58.7;
+    private static final double WEST = -6.4;
+    private static final double EAST = 1.8;
+
+    // Filter.FILTERRADIO values: all, logged, not logged, marked, unsynced
+    private static final int[] RADIOS = {0, 1, 2, 3, 4};
+    // Filter.FILTERTYPE values: all, pillars, pillars and FBMs, passives
+    private static final int[] TYPES = {6, 0, 1, 3};
+
+    private static final String[] VIEWPORT_NAMES = {"town", "county", "national"};
+    private static final BoundingBox[] VIEWPORTS = {
+            new BoundingBox(54.63, -3.08, 54.57, -3.18),
+            new BoundingBox(55.2, -2.2, 54.0, -3.7),
+            new BoundingBox(NORTH, EAST, SOUTH, WEST),
+    };
+
+    private static final String[] LOCATION_NAMES = {"Keswick", "London", "Lerwick"};
+    private static final double[][] LOCATIONS = {
+            {54.6013, -3.1347},
+            {51.5074, -0.1278},
+            // Beyond the fixture, so the nearest trigs are a long way off
+            {60.1550, -1.1450},
+    };
+
+    // "SCAN TABLE trig" from older SQLite and "SCAN trig" from newer; scanning an index names it
+    private static final Pattern FULL_SCAN =
+            Pattern.compile("^SCAN (TABLE )?" + DbHelper.TRIG_TABLE + "(\\s|$)(?!.*\\bUSING\\b)");
+
+    private DbHelper dbHelper;
+    private SharedPreferences prefs;
+    private final StringWriter report = new StringWriter();
+    private final PrintWriter out = new PrintWriter(report);
+    private final List<String> fullScans = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Application app = RuntimeEnvironment.getApplication();
+        prefs = PreferenceManager.getDefaultSharedPreferences(app);
+        dbHelper = new DbHelper(app);
+        dbHelper.open();
+        // DbHelper shares one database across instances, which may outlive a test
+        dbHelper.deleteAll();
+        dbHelper.clearUserLogs();
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+    }
+
+    @Test
+    public void queriesUseIndexesAtNationalScale() throws IOException {
+        Random random = new Random(20_250_101L);
+
+        insertTrigs(random, 0, SMALL_TRIGS);
+        out.printf(Locale.ROOT, "%,d trigs%n", SMALL_TRIGS);
+        timeQueries(false);
+
+        insertTrigs(random, SMALL_TRIGS, TRIGS);
+        insertUserData(random);
+        out.printf(Locale.ROOT, "%n%,d trigs, %d logs, %d photos, %d marks%n", TRIGS, LOGS, PHOTOS, MARKS);
+        timeQueries(true);
+        timeSearches();
+
+        out.flush();
+        File file = new File("build/reports/db-performance.txt");
+        if (file.getParentFile().isDirectory() || file.getParentFile().mkdirs()) {
+            try (FileWriter writer = new FileWriter(file)) {
+                writer.write(report.toString());
+            }
+        }
+        assertTrue("Queries reading the whole trig table:\n" + String.join("\n", fullScans), fullScans.isEmpty());
+    }
+
+    private void timeSearches() {
+        String gridref;
+        try (Cursor cursor = dbHelper.mDb.rawQuery("SELECT " + DbHelper.TRIG_GRIDREF + " FROM " + DbHelper.TRIG_TABLE
+                + " WHERE " + DbHelper.TRIG_ID + " = 1234", null)) {
+            assertTrue(cursor.moveToFirst());
+            gridref = cursor.getString(0);
+        }
+        String[] searches = {"k", "kinder", "Kinder Low", "Knider Lwo", "Beacno", "TP01234", "1234",
+                gridref.substring(0, 6) + " " + gridref.substring(9, 12), gridref};
+        out.printf(Locale.ROOT, "%nsearches%n");
+        for (Location loc : new Location[] {location(LOCATIONS[0]), null}) {
+            for (String search : searches) {
+                String name = "searchTrigs \"" + search + "\"" + (loc == null ? " without location" : "");
+                time(name, () -> dbHelper.searchTrigs(search, loc, SEARCH_RESULTS));
+            }
+        }
+        explain("searchTrigs", dbHelper.trigSearchQuery("kinder* low*", location(LOCATIONS[0]), DbHelper.SEARCH_CANDIDATES));
+    }
+
+    private void timeQueries(boolean explain) {
+        out.printf(Locale.ROOT, "%ntrig index%n");
+        // Changing a trig or log that isn't there is enough for the index to be read again
+        time("trigIndex read", () -> {
+            dbHelper.updateTrigLog(0, Condition.TRIGNOTLOGGED);
+            return dbHelper.trigIndex().size();
+        });
+        time("trigIndex read logs and marks", () -> {
+            dbHelper.deleteLog(0);
+            return dbHelper.trigIndex().size();
+        });
+        TrigIndex index = dbHelper.trigIndex();
+
+        for (int type : TYPES) {
+            for (int radio : RADIOS) {
+                prefs.edit().putInt(Filter.FILTERTYPE, type).putInt(Filter.FILTERRADIO, radio).commit();
+                Filter filter = Filter.of(radio, type);
+                out.printf(Locale.ROOT, "%nfilter type %d radio %d%n", type, radio);
+
+                for (int i = 0; i < VIEWPORTS.length; i++) {
+                    BoundingBox box = VIEWPORTS[i];
+                    time("fetchTrigMapList " + VIEWPORT_NAMES[i], () -> dbHelper.fetchTrigMapList(box));
+                    time("countTrigpointsInBoundingBox " + VIEWPORT_NAMES[i],
+                            () -> dbHelper.countTrigpointsInBoundingBox(box));
+                    time("TrigIndex.inBoxNearestCentre " + VIEWPORT_NAMES[i],
+                            () -> index.inBoxNearestCentre(box, filter, Integer.parseInt(DbHelper.DEFAULT_MAP_COUNT)));
+                    time("TrigIndex.count " + VIEWPORT_NAMES[i], () -> index.count(box, filter));
+                    if (explain) {
+                        explain("fetchTrigMapList " + VIEWPORT_NAMES[i], dbHelper.trigMapListQuery(box, filter));
+                        explain("countTrigpointsInBoundingBox " + VIEWPORT_NAMES[i],
+                                dbHelper.countTrigpointsInBoundingBoxQuery(box, filter));
+                    }
+                }
+
+                for (int i = 0; i < LOCATIONS.length; i++) {
+                    Location loc = location(LOCATIONS[i]);
+                    time("fetchTrigListFromDatabase " + LOCATION_NAMES[i], () -> dbHelper.fetchTrigListFromDatabase(loc));
+                    time("fetchTrigList " + LOCATION_NAMES[i], () -> dbHelper.fetchTrigList(loc));
+                    time("TrigIndex.nearest " + LOCATION_NAMES[i],
+                            () -> index.nearest(loc.getLatitude(), loc.getLongitude(), 100, filter));
+                    time("TrigIndex.withinRadius " + LOCATION_NAMES[i],
+                            () -> index.withinRadius(loc.getLatitude(), loc.getLongitude(), 5_250, filter));
+                    if (explain) {
+                        explain("fetchTrigList " + LOCATION_NAMES[i],
+                                dbHelper.trigListQuery(loc, DbHelper.NEAREST_FIRST_BOX_DEGREES, filter));
+                    }
+                }
+                time("fetchTrigList without location", () -> dbHelper.fetchTrigList(null));
+                if (explain) {
+                    explain("fetchTrigList without location", dbHelper.trigListQuery(null, 0, filter));
+                }
+            }
+        }
+
+        out.printf(Locale.ROOT, "%ncounts%n");
+        time("countLoggedPillars", dbHelper::countLoggedPillars);
+        time("countLoggedFbms", dbHelper::countLoggedFbms);
+        time("countLoggedIntersecteds", dbHelper::countLoggedIntersecteds);
+        time("countLoggedPassives", dbHelper::countLoggedPassives);
+        time("countUnsynced", dbHelper::countUnsynced);
+        time("countPhotos", dbHelper::countPhotos);
+        time("fetchDashboardCounts", () -> {
+            DashboardCounts counts = dbHelper.fetchDashboardCounts();
+            return counts.getLoggedPillars() + counts.getLoggedFbms() + counts.getLoggedIntersecteds()
+                    + counts.getLoggedPassives();
+        });
+        if (explain) {
+            explain("countLoggedPillars", DbHelper.COUNT_LOGGED_PILLARS_QUERY);
+            explain("countLoggedFbms", DbHelper.COUNT_LOGGED_FBMS_QUERY);
+            explain("countLoggedIntersecteds", DbHelper.COUNT_LOGGED_INTERSECTEDS_QUERY);
+            explain("countLoggedPassives", DbHelper.COUNT_LOGGED_PASSIVES_QUERY);
+            explain("fetchDashboardCounts", DbHelper.DASHBOARD_QUERY);
+        }
+    }
+
+    @Test
+    public void dashboardCountsMatchTheSeparateCounts() {
+        insertTrigs(new Random(1), 0, SMALL_TRIGS);
+        insertUserData(new Random(2));
+
+        DashboardCounts counts = dbHelper.fetchDashboardCounts();
+        assertEquals(dbHelper.countLoggedPillars(), counts.getLoggedPillars());
+        assertEquals(dbHelper.countLoggedFbms(), counts.getLoggedFbms());
+        assertEquals(dbHelper.countLoggedIntersecteds(), counts.getLoggedIntersecteds());
+        assertEquals(dbHelper.countLoggedPassives(), counts.getLoggedPassives());
+        assertEquals(LOGS, counts.getUnsynced());
+        assertEquals(PHOTOS, counts.getPhotos());
+        assertTrue(counts.isTrigsPopulated());
+        assertSame(counts, DbHelper.getCachedDashboardCounts());
+
+        dbHelper.deleteAll();
+        assertFalse(dbHelper.fetchDashboardCounts().isTrigsPopulated());
+    }
+
+    /** Runs a query RUNS times, reading every row, and reports and returns the median in ms */
+    private double time(String name, Supplier<Object> query) {
+        long[] nanos = new long[RUNS];
+        int rows = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            Object result = query.get();
+            if (result instanceof Cursor) {
+                try (Cursor cursor = (Cursor) result) {
+                    rows = 0;
+                    while (cursor.moveToNext()) {
+                        rows++;
+                    }
+                }
+            } else if (result instanceof List) {
+                rows = ((List<?>) result).size();
+            } else if (result instanceof int[]) {
+                rows = ((int[]) result).length;
+            } else {
+                rows = (Integer) result;
+            }
+            nanos[run] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        double ms = nanos[RUNS / 2] / 1e6;
+        out.printf(Locale.ROOT, "  %-45s %8.2f ms %6d%n", name, ms, rows);
+        return ms;
+    }
+
+    private void explain(String name, String sql) {
+        explain(name, new DbHelper.BoundQuery(sql, Collections.emptyList()));
+    }
+
+    private void explain(String name, DbHelper.BoundQuery query) {
+        try (Cursor cursor = dbHelper.mDb.rawQuery("EXPLAIN QUERY PLAN " + query.sql, query.args)) {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                String step = cursor.getString(detail);
+                out.printf(Locale.ROOT, "    %s: %s%n", name, step);
+                if (FULL_SCAN.matcher(step).find()) {
+                    fullScans.add(name + " with " + Filter.FILTERTYPE + " " + prefs.getInt(Filter.FILTERTYPE, -1)
+                            + " and " + Filter.FILTERRADIO + " " + prefs.getInt(Filter.FILTERRADIO, -1) + ": " + step);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sqlOnlyChangesWithTheFilter() {
+        // So SQLite can reuse prepared statements as the map pans and the user moves
+        Location keswick = location(LOCATIONS[0]);
+        Location london = location(LOCATIONS[1]);
+        for (int type : TYPES) {
+            for (int radio : RADIOS) {
+                Filter filter = Filter.of(radio, type);
+                assertEquals(dbHelper.trigMapListQuery(VIEWPORTS[0], filter).sql,
+                        dbHelper.trigMapListQuery(VIEWPORTS[1], filter).sql);
+                assertEquals(dbHelper.countTrigpointsInBoundingBoxQuery(VIEWPORTS[0], filter).sql,
+                        dbHelper.countTrigpointsInBoundingBoxQuery(VIEWPORTS[2], filter).sql);
+                assertEquals(dbHelper.trigListQuery(keswick, 0.1, filter).sql,
+                        dbHelper.trigListQuery(london, 0.4, filter).sql);
+                assertEquals(dbHelper.trigListQuery(keswick, 0, filter).sql,
+                        dbHelper.trigListQuery(london, 0, filter).sql);
+            }
+        }
+    }
+
+    @Test
+    public void filterPredicatesAgreeWithSql() {
+        insertTrigs(new Random(3), 0, SMALL_TRIGS);
+        insertUserData(new Random(4));
+
+        List<Integer> packed = new ArrayList<>();
+        try (Cursor cursor = dbHelper.mDb.rawQuery("SELECT trig.type, trig.logged, log._id IS NOT NULL, mark._id IS NOT NULL "
+                + "FROM trig LEFT OUTER JOIN log ON trig._id = log._id LEFT OUTER JOIN mark ON trig._id = mark._id", null)) {
+            while (cursor.moveToNext()) {
+                packed.add(Filter.pack(cursor.getString(0), cursor.getString(1), cursor.getInt(2) != 0, cursor.getInt(3) != 0));
+            }
+        }
+        for (int type = 0; type <= 6; type++) {
+            for (int radio : RADIOS) {
+                Filter filter = Filter.of(radio, type);
+                long inMemory = packed.stream().mapToInt(Integer::intValue).filter(filter.asPredicate()).count();
+                assertEquals(filter.toString(), dbHelper.countTrigpointsInBoundingBox(VIEWPORTS[2], filter), inMemory);
+            }
+        }
+    }
+
+    @Test
+    public void trigIndexAgreesWithSql() {
+        insertTrigs(new Random(5), 0, SMALL_TRIGS);
+        insertUserData(new Random(6));
+        TrigIndex index = dbHelper.trigIndex();
+        assertEquals(SMALL_TRIGS, index.size());
+
+        for (int type : TYPES) {
+            for (int radio : RADIOS) {
+                prefs.edit().putInt(Filter.FILTERTYPE, type).putInt(Filter.FILTERRADIO, radio).commit();
+                Filter filter = Filter.of(radio, type);
+                for (BoundingBox box : VIEWPORTS) {
+                    assertEquals(filter + " " + box, dbHelper.countTrigpointsInBoundingBox(box, filter),
+                            index.count(box, filter));
+                    List<Long> mapped = new ArrayList<>();
+                    try (Cursor cursor = dbHelper.fetchTrigMapList(box, filter)) {
+                        while (cursor.moveToNext()) {
+                            mapped.add(cursor.getLong(0));
+                        }
+                    }
+                    int[] rows = index.inBoxNearestCentre(box, filter, Integer.parseInt(DbHelper.DEFAULT_MAP_COUNT));
+                    assertEquals(filter + " " + box, mapped, ids(index, rows));
+                }
+                for (double[] latLon : LOCATIONS) {
+                    Location loc = location(latLon);
+                    assertEquals(filter + " " + loc, listed(dbHelper.fetchTrigListFromDatabase(loc)),
+                            listed(dbHelper.fetchTrigList(loc)));
+
+                    List<Long> nearby = new ArrayList<>();
+                    try (Cursor cursor = dbHelper.fetchTrigsWithinRadius(latLon[0], latLon[1], 20_000, filter)) {
+                        while (cursor.moveToNext()) {
+                            nearby.add(cursor.getLong(0));
+                        }
+                    }
+                    List<Long> within = ids(index, index.withinRadius(latLon[0], latLon[1], 20_000, filter));
+                    assertTrue(filter + " " + loc, nearby.containsAll(within));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void trigIndexFollowsChanges() {
+        insertTrigs(new Random(7), 0, SMALL_TRIGS);
+        TrigIndex index = dbHelper.trigIndex();
+        assertSame(index, dbHelper.trigIndex());
+
+        // Logs and marks only replace the overlays
+        dbHelper.setMarkedTrig(17, true);
+        dbHelper.createLog(18, 2025, 6, 1, 0, 12, 0, "", "", Condition.DAMAGED, 7, "", 0, 0);
+        TrigIndex marked = dbHelper.trigIndex();
+        assertNotSame(index, marked);
+        assertFalse(index.isMarked(index.rowOf(17)));
+        assertTrue(marked.isMarked(marked.rowOf(17)));
+        assertEquals(Condition.DAMAGED.code(), marked.getUnsyncedCondition(marked.rowOf(18)));
+        assertEquals(index.rowOf(17), marked.rowOf(17));
+
+        dbHelper.updateTrigLog(19, Condition.GOOD);
+        TrigIndex logged = dbHelper.trigIndex();
+        assertEquals(Condition.GOOD.code(), logged.getLogged(logged.rowOf(19)));
+        assertTrue(logged.isMarked(logged.rowOf(17)));
+
+        // As do write sessions, once they've committed
+        dbHelper.write(session -> session.createTrig(SMALL_TRIGS + 1, "Kinder Low", "TP99999", 53.4117, -1.8770,
+                Trig.Physical.PILLAR, Condition.GOOD, Condition.TRIGNOTLOGGED, Trig.Current.NONE,
+                Trig.Historic.UNKNOWN, "Pillar", "Pillar", null)).join();
+        TrigIndex added = dbHelper.trigIndex();
+        assertEquals(SMALL_TRIGS + 1, added.size());
+        assertEquals("Kinder Low", added.getName(added.rowOf(SMALL_TRIGS + 1)));
+
+        dbHelper.deleteAll();
+        assertEquals(0, dbHelper.trigIndex().size());
+    }
+
+    private static List<Long> ids(TrigIndex index, int[] rows) {
+        List<Long> ids = new ArrayList<>();
+        for (int row : rows) {
+            ids.add(index.getId(row));
+        }
+        return ids;
+    }
+
+    /** Every column of every row, as the nearest list reads them */
+    private static List<String> listed(Cursor cursor) {
+        List<String> rows = new ArrayList<>();
+        try (Cursor c = cursor) {
+            while (c.moveToNext()) {
+                rows.add(c.getLong(c.getColumnIndexOrThrow(DbHelper.TRIG_ID)) + " "
+                        + c.getString(c.getColumnIndexOrThrow(DbHelper.TRIG_NAME)) + " "
+                        + c.getDouble(c.getColumnIndexOrThrow(DbHelper.TRIG_LAT)) + " "
+                        + c.getDouble(c.getColumnIndexOrThrow(DbHelper.TRIG_LON)) + " "
+                        + c.getString(c.getColumnIndexOrThrow(DbHelper.TRIG_TYPE)) + " "
+                        + c.getString(c.getColumnIndexOrThrow(DbHelper.TRIG_CONDITION)) + " "
+                        + c.getString(c.getColumnIndexOrThrow(DbHelper.TRIG_LOGGED)) + " "
+                        + c.getString(c.getColumnIndexOrThrow(DbHelper.JOIN_UNSYNCED)) + " "
+                        + (c.getString(c.getColumnIndexOrThrow(DbHelper.JOIN_MARKED)) != null));
+            }
+        }
+        return rows;
+    }
+
+    private void insertTrigs(Random random, int from, int to) {
+        Trig.Physical[] passives = {Trig.Physical.PASSIVE, Trig.Physical.BOLT, Trig.Physical.BURIEDBLOCK,
+                Trig.Physical.CUT, Trig.Physical.RIVET, Trig.Physical.SURFACEBLOCK};
+        dbHelper.mDb.beginTransaction();
+        try {
+            for (int id = from + 1; id <= to; id++) {
+                // Roughly the national mix: a quarter pillars, a few FBMs and intersected stations
+                double kind = random.nextDouble();
+                Trig.Physical type = kind < 0.25 ? Trig.Physical.PILLAR
+                        : kind < 0.30 ? Trig.Physical.FBM
+                        : kind < 0.40 ? Trig.Physical.INTERSECTED
+                        : passives[random.nextInt(passives.length)];
+                Condition logged = random.nextDouble() < LOGGED_SHARE ? Condition.GOOD : Condition.TRIGNOTLOGGED;
+                String name = NAME_WORDS[id % NAME_WORDS.length] + " "
+                        + NAME_WORDS[(id / NAME_WORDS.length) % NAME_WORDS.length];
+                dbHelper.createTrig(id, name, String.format(Locale.ROOT, "TP%05d", id),
+                        SOUTH + random.nextDouble() * (NORTH - SOUTH), WEST + random.nextDouble() * (EAST - WEST),
+                        type, Condition.GOOD, logged, Trig.Current.NONE, Trig.Historic.UNKNOWN,
+                        type.toString(), type.toString(), null);
+            }
+            dbHelper.mDb.setTransactionSuccessful();
+        } finally {
+            dbHelper.mDb.endTransaction();
+        }
+    }
+
+    private void insertUserData(Random random) {
+        dbHelper.mDb.beginTransaction();
+        try {
+            // One of each to a stretch of trigs, as ids must be distinct
+            for (int i = 0; i < LOGS; i++) {
+                dbHelper.createLog(i * (TRIGS / LOGS) + 1 + random.nextInt(TRIGS / LOGS), 2025, 6, 1, 0, 12, 0, "", "",
+                        Condition.GOOD, 7, "Found it", 0, 0);
+            }
+            for (int i = 0; i < PHOTOS; i++) {
+                dbHelper.createPhoto(1 + random.nextInt(TRIGS), "Photo " + i, "", "icon.jpg", "photo.jpg",
+                        PhotoSubject.TRIGPOINT, 1);
+            }
+            for (int i = 0; i < MARKS; i++) {
+                dbHelper.setMarkedTrig(i * (TRIGS / MARKS) + 1 + random.nextInt(TRIGS / MARKS), true);
+            }
+            dbHelper.mDb.setTransactionSuccessful();
+        } finally {
+            dbHelper.mDb.endTransaction();
+        }
+    }
+
+    private static Location location(double[] latLon) {
+        Location loc = new Location("test");
+        loc.setLatitude(latLon[0]);
+        loc.setLongitude(latLon[1]);
+        return loc;
+    }
+}
@@ -0,0 +1,130 @@
+package uk.trigpointing.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Application;
+import android.location.Location;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import uk.trigpointing.android.search.TrigSearchResult;
+import uk.trigpointing.android.types.Condition;
+import uk.trigpointing.android.types.Trig;
+
+/**
+ * Searches the trig table through its full-text index, as kept up to date by the triggers.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class DbHelperSearchTest {
+
+    private DbHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        dbHelper = new DbHelper(RuntimeEnvironment.getApplication());
+        dbHelper.open();
+        // DbHelper shares one database across instances, which may outlive a test
+        dbHelper.deleteAll();
+        dbHelper.clearUserLogs();
+
+        insert(1, "Kinder Low", "TP1001", 53.4117, -1.8770);
+        insert(2, "Kinder Scout", "TP1002", 53.3838, -1.8766);
+        insert(3, "Kinderlow End", "TP1003", 53.3770, -1.9320);
+        insert(4, "Moel Fâmau", "TP2004", 53.1542, -3.2555);
+        insert(5, "Low Fell", "TP3005", 54.9300, -1.5900);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+    }
+
+    @Test
+    public void wholeNameComesFirst() {
+        assertEquals(1, search("Kinder Low", null).get(0).getId());
+    }
+
+    @Test
+    public void equallyRelevantTrigsAreNearestFirst() {
+        // Both have "Kinder" as their first word; Kinderlow only starts with it
+        List<Long> ids = ids(dbHelper.searchTrigs("kinder", location(53.3838, -1.8766), 10));
+        assertEquals(List.of(2L, 1L, 3L), ids);
+    }
+
+    @Test
+    public void wordsMatchAsPrefixesWithoutAccents() {
+        assertEquals(List.of(4L), ids(search("famau", null)));
+        assertEquals(List.of(4L), ids(search("Moel Fam", null)));
+    }
+
+    @Test
+    public void misspeltWordsMatch() {
+        assertEquals(1, search("Knider Low", null).get(0).getId());
+        assertEquals(4, search("Moel Famua", null).get(0).getId());
+    }
+
+    @Test
+    public void waypointsMatchWithOrWithoutTp() {
+        assertEquals(3, search("TP1003", null).get(0).getId());
+        assertEquals(3, search("1003", null).get(0).getId());
+    }
+
+    @Test
+    public void gridReferencesMatchAtAnyPrecision() {
+        String gridref = search("Moel Famau", null).get(0).getGridref();
+        // "SJ 16121 62655" as a six and a four figure reference
+        assertEquals(4, search(gridref.substring(0, 6) + " " + gridref.substring(9, 12), null).get(0).getId());
+        assertEquals(4, search(gridref.substring(0, 2) + gridref.substring(3, 5) + gridref.substring(9, 11), null)
+                .get(0).getId());
+    }
+
+    @Test
+    public void indexFollowsTheTrigTable() {
+        insert(6, "Kinder Downfall", "TP1006", 53.4000, -1.8900);
+        assertEquals(6, search("downfall", null).get(0).getId());
+
+        dbHelper.deleteAll();
+        assertTrue(search("kinder", null).isEmpty());
+    }
+
+    @Test
+    public void resultsAreLimited() {
+        assertEquals(2, dbHelper.searchTrigs("kinder", null, 2).size());
+        assertTrue(search("", null).isEmpty());
+    }
+
+    private List<TrigSearchResult> search(String text, Location loc) {
+        return dbHelper.searchTrigs(text, loc, 10);
+    }
+
+    private void insert(long id, String name, String waypoint, double lat, double lon) {
+        dbHelper.createTrig(id, name, waypoint, lat, lon, Trig.Physical.PILLAR, Condition.GOOD,
+                Condition.TRIGNOTLOGGED, Trig.Current.NONE, Trig.Historic.UNKNOWN, "Pillar", "Pillar", null);
+    }
+
+    private static List<Long> ids(List<TrigSearchResult> results) {
+        List<Long> ids = new ArrayList<>();
+        for (TrigSearchResult result : results) {
+            ids.add(result.getId());
+        }
+        return ids;
+    }
+
+    private static Location location(double lat, double lon) {
+        Location loc = new Location("test");
+        loc.setLatitude(lat);
+        loc.setLongitude(lon);
+        return loc;
+    }
+}
@@ -0,0 +1,142 @@
+package uk.trigpointing.android.ar;
+
+import static org.junit.Assert.*;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Unit tests for AROverlayFrame
+ */
+public class AROverlayFrameTest {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 2340;
+
+    private final AROverlayFrame frame = new AROverlayFrame();
+    private ARTrigGeometry geometry;
+
+    @Before
+    public void setUp() {
+        geometry = ARTrigGeometry.compute(ARTrigGeometryTest.USER_LAT, ARTrigGeometryTest.USER_LON,
+                ARTrigGeometryTest.trigs());
+        frame.setGeometry(geometry);
+    }
+
+    private void layout(float azimuth) {
+        frame.layout(azimuth, 0f, 60f, 45f, 75f, WIDTH, HEIGHT);
+    }
+
+    /** Draw position of a trig. */
+    private int position(long id) {
+        for (int n = 0; n < geometry.size(); n++) {
+            if (geometry.getId(n) == id) {
+                return n;
+            }
+        }
+        throw new AssertionError("No trig " + id);
+    }
+
+    @Test
+    public void testVisibilityAndScreenPosition() {
+        layout(0f);
+        // North trigs are straight ahead, east and south are out of view
+        assertTrue(frame.isVisible(position(1)));
+        assertTrue(frame.isVisible(position(2)));
+        assertFalse(frame.isVisible(position(3)));
+        assertFalse(frame.isVisible(position(4)));
+        assertEquals(WIDTH / 2f, frame.getScreenX(position(1)), 1f);
+        assertEquals(HEIGHT / 2f, frame.getScreenY(position(1)), 0.01f);
+
+        // Facing east, the east trig is central and the north ones are off to the left
+        layout(90f);
+        assertTrue(frame.isVisible(position(3)));
+        assertFalse(frame.isVisible(position(1)));
+        assertEquals(WIDTH / 2f, frame.getScreenX(position(3)), 10f);
+        assertTrue(frame.getScreenX(position(1)) < 0);
+    }
+
+    @Test
+    public void testPitchAndElevationMoveTrigsVertically() {
+        // Tilting the camera up moves the horizon down the screen, clamped short of the edge
+        frame.layout(0f, 10f, 60f, 45f, 75f, WIDTH, HEIGHT);
+        assertTrue(frame.getScreenY(0) > HEIGHT / 2f);
+        frame.layout(0f, 40f, 60f, 45f, 75f, WIDTH, HEIGHT);
+        assertEquals(HEIGHT * 0.85f, frame.getScreenY(0), 0.01f);
+
+        // A trig above the user sits above the horizon
+        double[] heights = {300, 600, 300, 300};
+        frame.setGeometry(ARTrigGeometry.compute(ARTrigGeometryTest.USER_LAT, ARTrigGeometryTest.USER_LON, 300,
+                ARTrigGeometryTest.trigs(), heights));
+        layout(0f);
+        assertEquals(2, frame.getGeometry().getId(0));
+        assertTrue(frame.getScreenY(0) < HEIGHT / 2f);
+    }
+
+    @Test
+    public void testHitTestFindsTopmostTarget() {
+        frame.addHitTarget(0, 0, 100, 100, 1);
+        frame.addHitTarget(50, 50, 150, 150, 2);
+
+        assertEquals(1, frame.hitTest(10, 10));
+        assertEquals(2, frame.hitTest(60, 60));
+        assertEquals(2, frame.hitTest(149, 149));
+        assertEquals(-1, frame.hitTest(150, 150));
+
+        frame.clearHitTargets();
+        assertEquals(-1, frame.hitTest(60, 60));
+    }
+
+    @Test
+    public void testHitTargetsBeyondTrigCountAreIgnored() {
+        for (int i = 0; i < 10; i++) {
+            frame.addHitTarget(0, 0, 10, 10, i);
+        }
+        assertEquals(3, frame.hitTest(5, 5));
+    }
+
+    @Test
+    public void testSteadyStateFrameAllocatesNothing() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        // Warm up, so the JIT has settled
+        for (int i = 0; i < 20_000; i++) {
+            drawFrame(i);
+        }
+
+        // What reading the counter itself costs
+        long before = threads.getThreadAllocatedBytes(thread);
+        long overhead = threads.getThreadAllocatedBytes(thread) - before;
+
+        before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 1000; i++) {
+            drawFrame(i);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+        assertEquals(0, allocated);
+    }
+
+    /** What AROverlayView.onDraw does with the frame as the phone turns. */
+    private void drawFrame(int i) {
+        frame.clearHitTargets();
+        frame.layout(i % 360, (i % 40) - 20, 60f, 45f, 75f, WIDTH, HEIGHT);
+        ARTrigGeometry current = frame.getGeometry();
+        for (int n = 0; n < frame.size(); n++) {
+            if (frame.isVisible(n)) {
+                String label = current.getDistanceLabel(n);
+                int x = (int) frame.getScreenX(n);
+                int y = (int) frame.getScreenY(n);
+                frame.addHitTarget(x - label.length(), y - 50, x + label.length(), y + 50, current.getId(n));
+            }
+        }
+        frame.hitTest(WIDTH / 2, HEIGHT / 2);
+    }
+}
@@ -0,0 +1,119 @@
+package uk.trigpointing.android.ar;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for ARTrigGeometry
+ */
+public class ARTrigGeometryTest {
+
+    // Standing on Kinder Scout
+    static final double USER_LAT = 53.3853;
+    static final double USER_LON = -1.8735;
+
+    static List<AROverlayView.TrigpointData> trigs() {
+        List<AROverlayView.TrigpointData> trigs = new ArrayList<>();
+        trigs.add(new AROverlayView.TrigpointData(1, "Near", 53.3900, -1.8735, "PI", "G"));
+        trigs.add(new AROverlayView.TrigpointData(2, "Far", 53.4500, -1.8735, "PI", "G"));
+        trigs.add(new AROverlayView.TrigpointData(3, "East", 53.3853, -1.8000, "FB", "D"));
+        trigs.add(new AROverlayView.TrigpointData(4, "South", 53.3500, -1.8735, "PA", "U"));
+        return trigs;
+    }
+
+    @Test
+    public void testSortedFarthestFirst() {
+        ARTrigGeometry geometry = ARTrigGeometry.compute(USER_LAT, USER_LON, trigs());
+        assertEquals(4, geometry.size());
+        float previous = Float.MAX_VALUE;
+        for (int n = 0; n < geometry.size(); n++) {
+            assertTrue(geometry.getDistance(n) <= previous);
+            previous = geometry.getDistance(n);
+        }
+        assertEquals(2, geometry.getId(0));
+        assertEquals(1, geometry.getTrigIndex(0));
+        assertEquals(1, geometry.getId(3));
+        assertEquals(0, geometry.getTrigIndex(3));
+    }
+
+    @Test
+    public void testOrderDoesNotDependOnInput() {
+        List<AROverlayView.TrigpointData> reversed = trigs();
+        Collections.reverse(reversed);
+        ARTrigGeometry a = ARTrigGeometry.compute(USER_LAT, USER_LON, trigs());
+        ARTrigGeometry b = ARTrigGeometry.compute(USER_LAT, USER_LON, reversed);
+        for (int n = 0; n < a.size(); n++) {
+            assertEquals(a.getId(n), b.getId(n));
+            assertEquals(a.getDistance(n), b.getDistance(n), 0f);
+            assertEquals(a.getBearing(n), b.getBearing(n), 0f);
+            assertEquals(reversed.get(b.getTrigIndex(n)).getId(), b.getId(n));
+        }
+    }
+
+    @Test
+    public void testBearingsAndLabels() {
+        ARTrigGeometry geometry = ARTrigGeometry.compute(USER_LAT, USER_LON, trigs());
+        float[] bearings = new float[5];
+        for (int n = 0; n < geometry.size(); n++) {
+            bearings[(int) geometry.getId(n)] = geometry.getBearing(n);
+            assertEquals(Math.round(geometry.getDistance(n)) + "m", geometry.getDistanceLabel(n));
+        }
+        assertEquals(0f, bearings[1], 0.01f);
+        assertEquals(0f, bearings[2], 0.01f);
+        assertEquals(90f, bearings[3], 0.5f);
+        // Normalised to 0-360
+        assertEquals(180f, bearings[4], 0.01f);
+    }
+
+    @Test
+    public void testElevationAngle() {
+        // Unknown heights keep trigs on the horizon
+        assertEquals(0f, ARTrigGeometry.elevationAngle(1000, Double.NaN, 500), 0f);
+        assertEquals(0f, ARTrigGeometry.elevationAngle(1000, 500, Double.NaN), 0f);
+
+        // 100 m higher, 1 km away: about 5.7 degrees up
+        assertEquals(5.71f, ARTrigGeometry.elevationAngle(1000, 500, 600), 0.01f);
+        assertEquals(-5.71f, ARTrigGeometry.elevationAngle(1000, 600, 500), 0.01f);
+
+        // At the same height, the earth's curvature drops a distant trig just below level
+        float dip = ARTrigGeometry.elevationAngle(20_000, 500, 500);
+        assertTrue(dip < 0);
+        assertEquals(-0.078f, dip, 0.005f);
+    }
+
+    @Test
+    public void testHeightsFollowTheirTrigs() {
+        double[] heights = new double[4];
+        Arrays.fill(heights, 300);
+        heights[1] = 600; // "Far", about 7 km away
+        ARTrigGeometry geometry = ARTrigGeometry.compute(USER_LAT, USER_LON, 300, trigs(), heights);
+        assertEquals(2, geometry.getId(0));
+        assertTrue(geometry.getElevation(0) > 2f);
+        for (int n = 1; n < geometry.size(); n++) {
+            assertTrue(geometry.getElevation(n) <= 0f);
+        }
+    }
+
+    @Test
+    public void testOcclusionFollowsTrigs() {
+        boolean[] occluded = {false, true, false, false}; // "Far" is behind a hill
+        ARTrigGeometry geometry = ARTrigGeometry.compute(USER_LAT, USER_LON, Double.NaN, trigs(), null, occluded);
+        for (int n = 0; n < geometry.size(); n++) {
+            assertEquals(geometry.getId(n) == 2, geometry.isOccluded(n));
+        }
+        assertFalse(ARTrigGeometry.compute(USER_LAT, USER_LON, trigs()).isOccluded(0));
+    }
+
+    @Test
+    public void testEmpty() {
+        ARTrigGeometry geometry = ARTrigGeometry.compute(USER_LAT, USER_LON, new ArrayList<>());
+        assertEquals(0, geometry.size());
+        assertEquals(0, ARTrigGeometry.EMPTY.size());
+    }
+}
@@ -0,0 +1,66 @@
+package uk.trigpointing.android.ar;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import uk.trigpointing.android.filter.Filter;
+
+/**
+ * Unit tests for NearbyTrigCache
+ */
+public class NearbyTrigCacheTest {
+
+    private static final double LAT = 53.3853;
+    private static final double LON = -1.8735;
+    // About 111 m of latitude
+    private static final double ONE_THOUSANDTH = 0.001;
+    private static final Filter FILTER = Filter.of(0, 0);
+
+    private final NearbyTrigCache cache = new NearbyTrigCache(5000);
+
+    @Test
+    public void testQueryRadiusCoversTheRequeryDistance() {
+        assertEquals(5000 + NearbyTrigCache.REQUERY_DISTANCE_METERS, cache.getQueryRadius(), 0);
+    }
+
+    @Test
+    public void testNothingCachedNeedsQuery() {
+        assertNull(cache.getCandidates(LAT, LON, FILTER));
+    }
+
+    @Test
+    public void testCandidatesReusedUntilUserMovesFarEnough() {
+        List<AROverlayView.TrigpointData> trigs = ARTrigGeometryTest.trigs();
+        cache.setCandidates(LAT, LON, FILTER, trigs);
+
+        assertSame(trigs, cache.getCandidates(LAT, LON, FILTER));
+        // About 220 m north
+        assertSame(trigs, cache.getCandidates(LAT + 2 * ONE_THOUSANDTH, LON, FILTER));
+        // About 330 m north
+        assertNull(cache.getCandidates(LAT + 3 * ONE_THOUSANDTH, LON, FILTER));
+
+        // Queried again from there
+        cache.setCandidates(LAT + 3 * ONE_THOUSANDTH, LON, FILTER, trigs);
+        assertSame(trigs, cache.getCandidates(LAT + 3 * ONE_THOUSANDTH, LON, FILTER));
+        assertNull(cache.getCandidates(LAT, LON, FILTER));
+    }
+
+    @Test
+    public void testChangedFilterForcesQuery() {
+        List<AROverlayView.TrigpointData> trigs = ARTrigGeometryTest.trigs();
+        cache.setCandidates(LAT, LON, FILTER, trigs);
+
+        assertNull(cache.getCandidates(LAT, LON, Filter.ALL));
+        assertSame(trigs, cache.getCandidates(LAT, LON, Filter.of(0, 0)));
+    }
+
+    @Test
+    public void testClearForcesQuery() {
+        cache.setCandidates(LAT, LON, FILTER, ARTrigGeometryTest.trigs());
+        cache.clear();
+        assertNull(cache.getCandidates(LAT, LON, FILTER));
+    }
+}
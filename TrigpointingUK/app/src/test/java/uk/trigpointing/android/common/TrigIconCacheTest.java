@@ -0,0 +1,116 @@
+package uk.trigpointing.android.common;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for TrigIconCache
+ */
+public class TrigIconCacheTest {
+
+    private SharedPreferences prefs;
+    private SharedPreferences.OnSharedPreferenceChangeListener listener;
+    private final List<String> decoded = new ArrayList<>();
+    private TrigIconCache cache;
+    private boolean failDecodes;
+
+    @Before
+    public void setUp() {
+        prefs = mock(SharedPreferences.class);
+        when(prefs.getString(eq(TrigIconCache.PREF_ICON_STYLE), anyString())).thenReturn("medium");
+        cache = new TrigIconCache(prefs, name -> {
+            decoded.add(name);
+            if (failDecodes) {
+                throw new IOException(name);
+            }
+            return mock(Bitmap.class);
+        });
+        ArgumentCaptor<SharedPreferences.OnSharedPreferenceChangeListener> captor =
+                ArgumentCaptor.forClass(SharedPreferences.OnSharedPreferenceChangeListener.class);
+        verify(prefs).registerOnSharedPreferenceChangeListener(captor.capture());
+        listener = captor.getValue();
+    }
+
+    @Test
+    public void testAssetNamesMatchLeaflet() {
+        assertEquals("mapicon_pillar_green.png", TrigIconCache.assetName("medium", 0, 0, false));
+        assertEquals("mapicon_fbm_red_h.png", TrigIconCache.assetName("large", 1, 2, true));
+        assertEquals("symbolicon_intersected_yellow.png", TrigIconCache.assetName("symbols", 2, 1, false));
+        assertEquals("typeicon_passive_grey_h.png", TrigIconCache.assetName("types", 3, 3, true));
+    }
+
+    @Test
+    public void testTypeAndConditionMapping() {
+        assertEquals(0, TrigIconCache.typeIndex("PI"));
+        assertEquals(1, TrigIconCache.typeIndex("FB"));
+        assertEquals(2, TrigIconCache.typeIndex("IN"));
+        assertEquals(3, TrigIconCache.typeIndex("BO"));
+        assertEquals(3, TrigIconCache.typeIndex(null));
+
+        assertEquals("green", TrigIconCache.COLOURS[TrigIconCache.colourIndex("G")]);
+        assertEquals("yellow", TrigIconCache.COLOURS[TrigIconCache.colourIndex("S")]);
+        assertEquals("red", TrigIconCache.COLOURS[TrigIconCache.colourIndex("X")]);
+        assertEquals("grey", TrigIconCache.COLOURS[TrigIconCache.colourIndex("U")]);
+        assertEquals("green", TrigIconCache.COLOURS[TrigIconCache.colourIndex(null)]);
+    }
+
+    @Test
+    public void testEachIconIsDecodedOnce() {
+        Bitmap first = cache.getIcon("PI", "G", false);
+        assertNotNull(first);
+        assertSame(first, cache.getIcon("PI", "G", false));
+        // Conditions with the same colour share an icon
+        assertSame(cache.getIcon("PI", "D", false), cache.getIcon("PI", "X", false));
+        assertSame(first, cache.getTypeIcon("PI", false));
+        assertNotSame(first, cache.getIcon("PI", "G", true));
+
+        assertEquals(3, decoded.size());
+        assertEquals("mapicon_pillar_green.png", decoded.get(0));
+        assertEquals("mapicon_pillar_red.png", decoded.get(1));
+        assertEquals("mapicon_pillar_green_h.png", decoded.get(2));
+    }
+
+    @Test
+    public void testStyleChangeInvalidates() {
+        Bitmap medium = cache.getIcon("FB", "G", false);
+        int generation = cache.getGeneration();
+
+        // Other preferences leave the icons alone
+        listener.onSharedPreferenceChanged(prefs, "units");
+        assertSame(medium, cache.getIcon("FB", "G", false));
+        assertEquals(generation, cache.getGeneration());
+
+        when(prefs.getString(eq(TrigIconCache.PREF_ICON_STYLE), anyString())).thenReturn("symbols");
+        listener.onSharedPreferenceChanged(prefs, TrigIconCache.PREF_ICON_STYLE);
+        assertNotEquals(generation, cache.getGeneration());
+        Bitmap symbol = cache.getIcon("FB", "G", false);
+        assertNotSame(medium, symbol);
+        assertEquals("symbolicon_fbm_green.png", decoded.get(decoded.size() - 1));
+    }
+
+    @Test
+    public void testFailedDecodeIsNotRetriedUntilStyleChanges() {
+        failDecodes = true;
+
+        assertNull(cache.getIcon("PI", "G", false));
+        assertNull(cache.getIcon("PI", "G", false));
+        assertEquals(1, decoded.size());
+
+        listener.onSharedPreferenceChanged(prefs, TrigIconCache.PREF_ICON_STYLE);
+        assertNull(cache.getIcon("PI", "G", false));
+        assertEquals(2, decoded.size());
+    }
+}
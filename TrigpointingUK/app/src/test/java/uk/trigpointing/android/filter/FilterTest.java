@@ -11,6 +11,10 @@ import org.mockito.MockitoAnnotations;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Unit tests for Filter class
  * Testing trigpoint filtering logic and preferences
@@ -188,4 +192,68 @@ public class FilterTest {
         assertTrue("No intersected should include passive", shouldIncludePassive);
         assertFalse("No intersected should not include intersected", shouldIncludeIntersected);
     }
+
+    @Test
+    public void testTypeOnlyWhereSql() {
+        List<String> args = new ArrayList<>();
+        // filterAll, TYPESALL: nothing filtered or bound
+        assertEquals("", Filter.of(0, 6).where("WHERE"));
+        Filter.of(0, 6).addArgs(args);
+        assertTrue(args.isEmpty());
+
+        assertEquals(" WHERE trig.type = ?", Filter.of(0, 0).where("WHERE"));
+        Filter.of(0, 0).addArgs(args);
+        assertEquals(Arrays.asList("PI"), args);
+
+        args.clear();
+        assertEquals(" AND trig.type <> ?", Filter.of(0, 5).where("AND"));
+        Filter.of(0, 5).addArgs(args);
+        assertEquals(Arrays.asList("IN"), args);
+    }
+
+    @Test
+    public void testFiltersAreShared() {
+        assertSame(Filter.of(1, 2), Filter.of(1, 2));
+        assertSame(Filter.ALL, Filter.of(0, 6));
+        assertEquals(Filter.of(3, 4).hashCode(), Filter.of(3, 4).hashCode());
+        assertNotEquals(Filter.of(3, 4), Filter.of(4, 3));
+        assertTrue(Filter.ALL.isAll());
+        assertEquals("", Filter.ALL.where("WHERE"));
+    }
+
+    @Test
+    public void testBoundWhereSql() {
+        List<String> args = new ArrayList<>();
+        Filter filter = Filter.of(3, 1);
+        assertEquals(" WHERE mark._id IS NOT NULL AND trig.type IN (?, ?)", filter.where("WHERE"));
+        filter.addArgs(args);
+        assertEquals(Arrays.asList("PI", "FB"), args);
+
+        args.clear();
+        filter = Filter.of(2, 2);
+        assertEquals(" AND (trig.logged = ? AND log._id IS NULL) AND trig.type = ?", filter.where("AND"));
+        filter.addArgs(args);
+        assertEquals(Arrays.asList("-", "FB"), args);
+    }
+
+    @Test
+    public void testPredicate() {
+        int loggedPillar = Filter.pack("PI", "G", false, false);
+        int unsyncedFbm = Filter.pack("FB", "-", true, false);
+        int markedIntersected = Filter.pack("IN", "-", false, true);
+        int legacyPassive = Filter.pack("XX", "-", false, false);
+
+        assertTrue(Filter.of(0, 0).asPredicate().test(loggedPillar));
+        assertFalse(Filter.of(0, 0).asPredicate().test(unsyncedFbm));
+        assertTrue(Filter.of(0, 3).asPredicate().test(legacyPassive));
+        assertFalse(Filter.of(0, 5).asPredicate().test(markedIntersected));
+
+        // An unsynced log counts as logged
+        assertTrue(Filter.of(1, 6).asPredicate().test(unsyncedFbm));
+        assertFalse(Filter.of(2, 6).asPredicate().test(unsyncedFbm));
+        assertTrue(Filter.of(2, 6).asPredicate().test(markedIntersected));
+        assertTrue(Filter.of(3, 6).asPredicate().test(markedIntersected));
+        assertFalse(Filter.of(4, 6).asPredicate().test(loggedPillar));
+        assertTrue(Filter.of(4, 1).asPredicate().test(unsyncedFbm));
+    }
 }
@@ -0,0 +1,199 @@
+package uk.trigpointing.android.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import uk.trigpointing.android.filter.Filter;
+import uk.trigpointing.android.mapping.BoundingBox;
+import uk.trigpointing.android.types.Condition;
+import uk.trigpointing.android.types.Geodesy;
+import uk.trigpointing.android.types.Trig;
+
+public class TrigIndexTest {
+
+    private static final int TRIGS = 3_000;
+    private static final String[] TYPES = {Trig.Physical.PILLAR.code(), Trig.Physical.FBM.code(),
+            Trig.Physical.INTERSECTED.code(), Trig.Physical.PASSIVE.code(), Trig.Physical.BOLT.code()};
+    private static final int[] RADIOS = {0, 1, 2, 3, 4};
+    private static final int[] FILTER_TYPES = {6, 0, 1, 3, 4, 5};
+
+    private final TrigIndex index = randomIndex(new Random(1));
+
+    /** Trigs across Britain, a tenth of them logged on the website, with logs and marks over some */
+    private static TrigIndex randomIndex(Random random) {
+        TrigIndex.Builder builder = new TrigIndex.Builder(10);
+        Map<Long, String> logs = new HashMap<>();
+        List<Long> marks = new ArrayList<>();
+        for (int id = 1; id <= TRIGS; id++) {
+            builder.add(id, "Trig " + id, 49.9 + random.nextDouble() * 8.8, -6.4 + random.nextDouble() * 8.2,
+                    TYPES[random.nextInt(TYPES.length)], Condition.GOOD.code(),
+                    random.nextInt(10) == 0 ? Condition.GOOD.code() : Condition.TRIGNOTLOGGED.code());
+            if (random.nextInt(20) == 0) {
+                logs.put((long) id, Condition.DAMAGED.code());
+            }
+            if (random.nextInt(20) == 0) {
+                marks.add((long) id);
+            }
+        }
+        return builder.build().withOverlays(logs, marks);
+    }
+
+    @Test
+    public void testColumns() {
+        TrigIndex small = new TrigIndex.Builder(0)
+                .add(42, "Kinder Low", 53.4117, -1.8770, "PI", "G", "-")
+                .add(7, "Moel Fâmau", 53.1542, -3.2555, "FB", "D", "G")
+                .build();
+        assertEquals(2, small.size());
+        int kinder = small.rowOf(42);
+        int moel = small.rowOf(7);
+        assertEquals(-1, small.rowOf(8));
+        assertEquals(42, small.getId(kinder));
+        assertEquals("Kinder Low", small.getName(kinder));
+        assertEquals("Moel Fâmau", small.getName(moel));
+        assertEquals(53.1542, small.getLat(moel), 0);
+        assertEquals(-3.2555, small.getLon(moel), 0);
+        assertEquals("FB", small.getType(moel));
+        assertEquals("D", small.getCondition(moel));
+        assertEquals("G", small.getLogged(moel));
+        assertEquals(Filter.pack("FB", "G", false, false), small.pack(moel));
+        assertFalse(small.isMarked(kinder));
+        assertNull(small.getUnsyncedCondition(kinder));
+    }
+
+    @Test
+    public void testOverlays() {
+        TrigIndex trigs = new TrigIndex.Builder(0)
+                .add(1, "One", 53.0, -1.0, "PI", "G", "-")
+                .add(2, "Two", 53.1, -1.1, "PI", "G", "-")
+                .build();
+        // Trigs no longer in the index are left out
+        TrigIndex overlaid = trigs.withOverlays(Collections.singletonMap(2L, "D"), Arrays.asList(1L, 3L));
+        assertTrue(overlaid.isMarked(overlaid.rowOf(1)));
+        assertFalse(overlaid.isUnsynced(overlaid.rowOf(1)));
+        assertTrue(overlaid.isUnsynced(overlaid.rowOf(2)));
+        assertEquals("D", overlaid.getUnsyncedCondition(overlaid.rowOf(2)));
+        assertEquals(Filter.pack("PI", "-", true, false), overlaid.pack(overlaid.rowOf(2)));
+
+        // The index overlaid is unchanged
+        assertFalse(trigs.isMarked(trigs.rowOf(1)));
+        assertEquals(1, overlaid.count(new BoundingBox(54, 0, 52, -2), Filter.of(3, 6)));
+        assertEquals(0, trigs.count(new BoundingBox(54, 0, 52, -2), Filter.of(3, 6)));
+    }
+
+    @Test
+    public void testBoxQueries() {
+        Random random = new Random(2);
+        for (int query = 0; query < 200; query++) {
+            double south = 49 + random.nextDouble() * 10;
+            double west = -7 + random.nextDouble() * 9;
+            BoundingBox box = new BoundingBox(south + random.nextDouble() * 3, west + random.nextDouble() * 3, south, west);
+            Filter filter = randomFilter(random);
+            int[] expected = IntStream.range(0, index.size())
+                    .filter(row -> inBox(box, row) && filter.asPredicate().test(index.pack(row)))
+                    .toArray();
+            int[] found = index.inBox(box, filter);
+            Arrays.sort(found);
+            assertArrayEquals(box + " " + filter, expected, found);
+            assertEquals(expected.length, index.count(box, filter));
+        }
+        assertEquals(TRIGS, index.count(new BoundingBox(60, 2, 49, -7), Filter.ALL));
+        // Boxes off the grid, or back to front as across the antimeridian
+        assertEquals(0, index.count(new BoundingBox(10, 10, 0, 0), Filter.ALL));
+        assertEquals(0, index.count(new BoundingBox(60, -7, 49, 2), Filter.ALL));
+    }
+
+    @Test
+    public void testNearestCentreOfBox() {
+        BoundingBox box = new BoundingBox(55.2, -2.2, 54.0, -3.7);
+        double lat = (box.getLatNorth() + box.getLatSouth()) / 2;
+        double lon = (box.getLonEast() + box.getLonWest()) / 2;
+        for (int limit : new int[] {1, 10, 500}) {
+            int[] expected = IntStream.range(0, index.size())
+                    .filter(row -> inBox(box, row))
+                    .boxed()
+                    .sorted(Comparator.comparingDouble(row -> Math.pow(index.getLat(row) - lat, 2)
+                            + Math.pow(index.getLon(row) - lon, 2)))
+                    .limit(limit)
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            assertArrayEquals(expected, index.inBoxNearestCentre(box, Filter.ALL, limit));
+        }
+    }
+
+    @Test
+    public void testNearest() {
+        Random random = new Random(3);
+        for (int query = 0; query < 200; query++) {
+            // Some well outside the trigs
+            double lat = 48 + random.nextDouble() * 13;
+            double lon = -9 + random.nextDouble() * 13;
+            int limit = 1 + random.nextInt(150);
+            Filter filter = randomFilter(random);
+            double cos2 = Math.pow(Math.cos(Math.toRadians(lat)), 2);
+            int[] expected = IntStream.range(0, index.size())
+                    .filter(row -> filter.asPredicate().test(index.pack(row)))
+                    .boxed()
+                    .sorted(Comparator.comparingDouble(row -> Math.pow(index.getLat(row) - lat, 2)
+                            + cos2 * Math.pow(index.getLon(row) - lon, 2)))
+                    .limit(limit)
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            assertArrayEquals(lat + "," + lon + " " + filter, expected, index.nearest(lat, lon, limit, filter));
+        }
+        assertEquals(TRIGS, index.nearest(53, -2, TRIGS + 10, Filter.ALL).length);
+        assertEquals(0, index.nearest(53, -2, 0, Filter.ALL).length);
+    }
+
+    @Test
+    public void testWithinRadius() {
+        Random random = new Random(4);
+        for (int query = 0; query < 100; query++) {
+            double lat = 50 + random.nextDouble() * 8;
+            double lon = -6 + random.nextDouble() * 7;
+            double radius = 1_000 + random.nextDouble() * 50_000;
+            Filter filter = randomFilter(random);
+            int[] expected = IntStream.range(0, index.size())
+                    .filter(row -> Geodesy.haversineDistance(lat, lon, index.getLat(row), index.getLon(row),
+                            Geodesy.EARTH_RADIUS_M) <= radius && filter.asPredicate().test(index.pack(row)))
+                    .toArray();
+            int[] found = index.withinRadius(lat, lon, radius, filter);
+            Arrays.sort(found);
+            assertArrayEquals(expected, found);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        TrigIndex empty = new TrigIndex.Builder(0).build().withOverlays(Collections.emptyMap(), Collections.singleton(1L));
+        assertEquals(0, empty.size());
+        assertEquals(-1, empty.rowOf(1));
+        assertEquals(0, empty.count(new BoundingBox(90, 180, -90, -180), Filter.ALL));
+        assertEquals(0, empty.nearest(53, -2, 10, Filter.ALL).length);
+        assertEquals(0, empty.withinRadius(53, -2, 10_000, Filter.ALL).length);
+    }
+
+    private boolean inBox(BoundingBox box, int row) {
+        return index.getLat(row) >= box.getLatSouth() && index.getLat(row) <= box.getLatNorth()
+                && index.getLon(row) >= box.getLonWest() && index.getLon(row) <= box.getLonEast();
+    }
+
+    private static Filter randomFilter(Random random) {
+        return Filter.of(RADIOS[random.nextInt(RADIOS.length)], FILTER_TYPES[random.nextInt(FILTER_TYPES.length)]);
+    }
+}
@@ -127,4 +127,26 @@ public class BoundingBoxTest {
         assertEquals(179.999, box.getLonEast(), DELTA);
         assertEquals(-179.999, box.getLonWest(), DELTA);
     }
+
+    @Test
+    public void testAroundHoldsTheWholeRadius() {
+        BoundingBox box = BoundingBox.around(53.0, -2.0, 5000);
+        // A degree of latitude is about 111.25 km at 53N, and of longitude about 67.1 km
+        double northMetres = (box.getLatNorth() - 53.0) * 111_250;
+        double southMetres = (53.0 - box.getLatSouth()) * 111_250;
+        double eastMetres = (box.getLonEast() + 2.0) * 67_137;
+        double westMetres = (-2.0 - box.getLonWest()) * 67_137;
+        for (double metres : new double[]{northMetres, southMetres, eastMetres, westMetres}) {
+            assertTrue(metres >= 5000);
+            assertTrue(metres < 5050);
+        }
+    }
+
+    @Test
+    public void testAroundNearThePoleSpansAllLongitudes() {
+        BoundingBox box = BoundingBox.around(89.99, 10.0, 5000);
+        assertEquals(90.0, box.getLatNorth(), DELTA);
+        assertEquals(180.0, box.getLonEast(), DELTA);
+        assertEquals(-180.0, box.getLonWest(), DELTA);
+    }
 }
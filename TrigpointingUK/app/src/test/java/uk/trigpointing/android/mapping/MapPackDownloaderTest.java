@@ -0,0 +1,235 @@
+package uk.trigpointing.android.mapping;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Unit tests for MapPackDownloader
+ * Runs against a local range-capable HTTP stand-in for the map pack bucket
+ */
+public class MapPackDownloaderTest {
+
+    private static final int CHUNK = 16 * 1024;
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private HttpServer server;
+    private byte[] payload;
+    private volatile boolean supportRanges = true;
+    private volatile String etag = "\"v1\"";
+    private final Map<Long, Integer> failOffsets = new ConcurrentHashMap<>();
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private final OkHttpClient client = new OkHttpClient();
+
+    @Before
+    public void setUp() throws IOException {
+        payload = new byte[CHUNK * 10 + 1234];
+        new Random(42).nextBytes(payload);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/pack.tar", this::handle);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        exchange.getResponseHeaders().add("ETag", etag);
+        Matcher m = range == null ? null : RANGE.matcher(range);
+        boolean honourRange = supportRanges && m != null && m.matches() && (ifRange == null || ifRange.equals(etag));
+
+        if (!honourRange) {
+            exchange.sendResponseHeaders(200, payload.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(payload);
+            }
+            return;
+        }
+
+        long start = Long.parseLong(m.group(1));
+        long end = Math.min(Long.parseLong(m.group(2)), payload.length - 1);
+        if (end > start) {
+            rangeRequests.incrementAndGet();
+        }
+        Integer failuresLeft = end > start ? failOffsets.get(start) : null;
+        if (failuresLeft != null) {
+            if (failuresLeft > 1) {
+                failOffsets.put(start, failuresLeft - 1);
+            } else {
+                failOffsets.remove(start);
+            }
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + payload.length);
+        int length = (int) (end - start + 1);
+        exchange.sendResponseHeaders(206, length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(payload, (int) start, length);
+        }
+    }
+
+    private MapDownload pack() {
+        MapDownload map = new MapDownload();
+        map.name = "Test-13";
+        map.fileUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/pack.tar";
+        map.fileSize = payload.length;
+        map.fileTimestamp = "2025-08-16T19:00:00Z";
+        map.type = "tar";
+        return map;
+    }
+
+    private MapPackDownloader downloader() {
+        return new MapPackDownloader(client, new File(tmp.getRoot(), "downloads"), CHUNK, 3);
+    }
+
+    @Test
+    public void testParallelDownloadMatchesSource() throws Exception {
+        MapPackDownloader downloader = downloader();
+        MapDownload map = pack();
+        AtomicInteger lastProgress = new AtomicInteger();
+
+        File result = downloader.download(map, (done, total) -> lastProgress.set((int) done));
+
+        assertArrayEquals("Downloaded bytes should match source", payload, Files.readAllBytes(result.toPath()));
+        assertEquals("Progress should reach full size", payload.length, lastProgress.get());
+        assertEquals("One range request per chunk", 11, rangeRequests.get());
+        assertFalse("State file should be removed once complete", downloader.getStateFile(map).exists());
+        assertFalse("Part file should be renamed once complete", downloader.getPartFile(map).exists());
+    }
+
+    @Test
+    public void testResumeFetchesOnlyMissingChunks() throws Exception {
+        MapPackDownloader downloader = downloader();
+        MapDownload map = pack();
+        // Fail every attempt at one chunk so the first run gives up with it outstanding
+        failOffsets.put(3L * CHUNK, 3);
+
+        try {
+            downloader.download(map, null);
+            fail("Download should fail while a chunk keeps failing");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertTrue("Chunk state should be persisted", downloader.getStateFile(map).exists());
+        assertEquals("Completed chunks should be recorded", payload.length - CHUNK, downloader.getDownloadedBytes(map));
+
+        rangeRequests.set(0);
+        File result = downloader.download(map, null);
+
+        assertArrayEquals(payload, Files.readAllBytes(result.toPath()));
+        assertEquals("Only the missing chunk should be fetched again", 1, rangeRequests.get());
+    }
+
+    @Test
+    public void testChangedTimestampDiscardsPartialDownload() throws Exception {
+        MapPackDownloader downloader = downloader();
+        MapDownload map = pack();
+        failOffsets.put(0L, 3);
+        try {
+            downloader.download(map, null);
+            fail("Download should fail");
+        } catch (IOException expected) {
+            // expected
+        }
+
+        map.fileTimestamp = "2025-11-16T19:00:00Z";
+        assertEquals("State for an older pack should not count", 0, downloader.getDownloadedBytes(map));
+
+        rangeRequests.set(0);
+        File result = downloader.download(map, null);
+        assertArrayEquals(payload, Files.readAllBytes(result.toPath()));
+        assertEquals("Every chunk should be fetched again", 11, rangeRequests.get());
+    }
+
+    @Test
+    public void testChangedEtagDiscardsPartialDownload() throws Exception {
+        MapPackDownloader downloader = downloader();
+        MapDownload map = pack();
+        failOffsets.put(0L, 3);
+        try {
+            downloader.download(map, null);
+            fail("Download should fail");
+        } catch (IOException expected) {
+            // expected
+        }
+
+        etag = "\"v2\"";
+        rangeRequests.set(0);
+        File result = downloader.download(map, null);
+        assertArrayEquals(payload, Files.readAllBytes(result.toPath()));
+        assertEquals("Every chunk should be fetched again", 11, rangeRequests.get());
+    }
+
+    @Test
+    public void testSizeMismatchIsRejected() {
+        MapDownload map = pack();
+        map.fileSize = payload.length + 1;
+        try {
+            downloader().download(map, null);
+            fail("Size mismatch should be rejected");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("does not match"));
+        } catch (InterruptedException e) {
+            fail("Unexpected interrupt");
+        }
+    }
+
+    @Test
+    public void testServerWithoutRangesFallsBackToSingleStream() throws Exception {
+        supportRanges = false;
+        MapPackDownloader downloader = downloader();
+        MapDownload map = pack();
+
+        File result = downloader.download(map, null);
+
+        assertArrayEquals(payload, Files.readAllBytes(result.toPath()));
+        assertEquals("No range requests should be honoured", 0, rangeRequests.get());
+    }
+
+    @Test
+    public void testCompletedDownloadIsReusedAndDiscarded() throws Exception {
+        MapPackDownloader downloader = downloader();
+        MapDownload map = pack();
+        File first = downloader.download(map, null);
+
+        rangeRequests.set(0);
+        File second = downloader.download(map, null);
+        assertEquals(first, second);
+        assertEquals("Completed archive should not be fetched again", 0, rangeRequests.get());
+
+        downloader.discard(map);
+        assertFalse(first.exists());
+        assertEquals(0, downloader.getDownloadedBytes(map));
+    }
+}
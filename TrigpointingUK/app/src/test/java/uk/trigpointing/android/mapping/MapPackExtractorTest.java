@@ -0,0 +1,165 @@
+package uk.trigpointing.android.mapping;
+
+import static org.junit.Assert.*;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Unit tests for MapPackExtractor
+ * Builds synthetic map packs in the z/x/y layout produced by tile_downloader.py
+ */
+public class MapPackExtractorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** Writes a pack with tilesPerColumn tiles in each of columns x directories at zoom 13. */
+    private File buildPack(String type, int columns, int tilesPerColumn, int tileSize) throws IOException {
+        File archive = tmp.newFile("pack." + type);
+        Random random = new Random(7);
+        try (OutputStream fos = new FileOutputStream(archive);
+             OutputStream out = "tgz".equals(type) ? new GZIPOutputStream(fos) : fos;
+             TarArchiveOutputStream tar = new TarArchiveOutputStream(out)) {
+            for (int x = 0; x < columns; x++) {
+                for (int y = 0; y < tilesPerColumn; y++) {
+                    byte[] data = new byte[tileSize + (x * 31 + y) % 97];
+                    random.nextBytes(data);
+                    data[0] = (byte) x;
+                    data[1] = (byte) y;
+                    TarArchiveEntry entry = new TarArchiveEntry("map_tiles/tile.openstreetmap.org/13/" + x + "/" + y + ".png");
+                    entry.setSize(data.length);
+                    tar.putArchiveEntry(entry);
+                    tar.write(data);
+                    tar.closeArchiveEntry();
+                }
+            }
+        }
+        return archive;
+    }
+
+    private void assertTile(File dest, int x, int y) throws IOException {
+        File tile = new File(dest, "map_tiles/tile.openstreetmap.org/13/" + x + "/" + y + ".png");
+        assertTrue("Tile should exist: " + tile, tile.exists());
+        byte[] data = Files.readAllBytes(tile.toPath());
+        assertEquals((byte) x, data[0]);
+        assertEquals((byte) y, data[1]);
+    }
+
+    @Test
+    public void testExtractTar() throws Exception {
+        File archive = buildPack("tar", 20, 25, 2000);
+        File dest = tmp.newFolder("cache");
+
+        int count = MapPackExtractor.extract(archive, "tar", dest, 3, null);
+
+        assertEquals(500, count);
+        assertTile(dest, 0, 0);
+        assertTile(dest, 19, 24);
+        assertTile(dest, 7, 13);
+    }
+
+    @Test
+    public void testExtractTgzWithLargeEntries() throws Exception {
+        // Entries bigger than the pooled tile buffers take the unpooled path
+        File archive = buildPack("tgz", 3, 4, 100 * 1024);
+        File dest = tmp.newFolder("cache");
+
+        int count = MapPackExtractor.extract(archive, "tgz", dest, 2, null);
+
+        assertEquals(12, count);
+        assertTile(dest, 2, 3);
+    }
+
+    @Test
+    public void testFinalProgressReportsEverything() throws Exception {
+        File archive = buildPack("tar", 10, 10, 500);
+        File dest = tmp.newFolder("cache");
+        AtomicLong lastBytes = new AtomicLong();
+        AtomicInteger lastFiles = new AtomicInteger();
+        AtomicInteger calls = new AtomicInteger();
+
+        MapPackExtractor.extract(archive, "tar", dest, 2, (read, size, files) -> {
+            lastBytes.set(read);
+            lastFiles.set(files);
+            calls.incrementAndGet();
+        });
+
+        assertEquals(archive.length(), lastBytes.get());
+        assertEquals(100, lastFiles.get());
+        assertTrue("Progress should be throttled, not reported per tile", calls.get() < 100);
+    }
+
+    @Test
+    public void testRejectsPathTraversal() throws Exception {
+        File archive = tmp.newFile("evil.tar");
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new FileOutputStream(archive))) {
+            TarArchiveEntry entry = new TarArchiveEntry("map_tiles/../../escape.png");
+            entry.setSize(1);
+            tar.putArchiveEntry(entry);
+            tar.write(1);
+            tar.closeArchiveEntry();
+        }
+        File dest = tmp.newFolder("cache");
+        try {
+            MapPackExtractor.extract(archive, "tar", dest, 2, null);
+            fail("Entries escaping the destination should be rejected");
+        } catch (IOException expected) {
+            assertFalse(new File(dest.getParentFile(), "escape.png").exists());
+        }
+    }
+
+    @Test
+    public void testRejectsEntryThroughLinkOutOfDestination() throws Exception {
+        // No ".." in the name, but the filesystem resolves it outside
+        File outside = tmp.newFolder("outside");
+        File dest = tmp.newFolder("cache");
+        Files.createSymbolicLink(new File(dest, "map_tiles").toPath(), outside.toPath());
+        File archive = tmp.newFile("linked.tar");
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new FileOutputStream(archive))) {
+            TarArchiveEntry entry = new TarArchiveEntry("map_tiles/escape.png");
+            entry.setSize(1);
+            tar.putArchiveEntry(entry);
+            tar.write(1);
+            tar.closeArchiveEntry();
+        }
+        try {
+            MapPackExtractor.extract(archive, "tar", dest, 2, null);
+            fail("Entries resolving outside the destination should be rejected");
+        } catch (IOException expected) {
+            assertFalse(new File(outside, "escape.png").exists());
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testWriterErrorStopsExtraction() throws Exception {
+        // Not an IOException, so it would once have killed the writer and left the reader waiting
+        File archive = buildPack("tar", 10, 10, 500);
+        File dest = tmp.newFolder("cache");
+        TileCacheStats stats = new TileCacheStats(dest) {
+            @Override
+            public void recordWrite(File tile, long previousBytes, long bytes) {
+                throw new IllegalStateException("stats");
+            }
+        };
+        try {
+            MapPackExtractor.extract(archive, "tar", dest, 2, stats, null);
+            fail("A writer's failure should stop the extraction");
+        } catch (IllegalStateException expected) {
+            assertEquals("stats", expected.getMessage());
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package uk.trigpointing.android.mapping;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Unit tests for MapPackDelta and MapPackUpdater
+ * Archives are synthetic: tile bytes laid out with tar-like padding, described by a hand-built manifest
+ */
+public class MapPackUpdaterTest {
+
+    private static final String PROVIDER = "tile.openstreetmap.org";
+    private static final String BASE = "map_tiles/" + PROVIDER;
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private HttpServer server;
+    private volatile byte[] archive = new byte[0];
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private final Random random = new Random(7);
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/pack.tar", this::handle);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Matcher m = RANGE.matcher(String.valueOf(exchange.getRequestHeaders().getFirst("Range")));
+        if (!m.matches()) {
+            exchange.sendResponseHeaders(200, archive.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(archive);
+            }
+            return;
+        }
+        rangeRequests.incrementAndGet();
+        int start = Integer.parseInt(m.group(1));
+        int end = Math.min(Integer.parseInt(m.group(2)), archive.length - 1);
+        exchange.sendResponseHeaders(206, end - start + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(archive, start, end - start + 1);
+        }
+    }
+
+    private String manifestUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/pack.manifest.json.gz";
+    }
+
+    private byte[] tile(int size) {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        return data;
+    }
+
+    /** Lays the tiles out like a tar (512-byte header before each, data padded to 512) and describes them. */
+    private MapPackManifest pack(Map<String, byte[]> tiles, int minZoom, int maxZoom) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Map<String, MapPackManifest.Chunk> chunks = new LinkedHashMap<>();
+        Map<String, List<Object[]>> entries = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> tile : tiles.entrySet()) {
+            String path = tile.getKey();
+            String dir = path.substring(0, path.lastIndexOf('/'));
+            out.write(new byte[512], 0, 512);
+            long offset = out.size();
+            byte[] data = tile.getValue();
+            out.write(data, 0, data.length);
+            out.write(new byte[(512 - data.length % 512) % 512], 0, (512 - data.length % 512) % 512);
+            entries.computeIfAbsent(dir, d -> new ArrayList<>()).add(new Object[]{
+                    path.substring(dir.length() + 1), MapPackUpdater.hash(data, 0, data.length), offset, data.length});
+        }
+        for (Map.Entry<String, List<Object[]>> e : entries.entrySet()) {
+            List<Object[]> list = e.getValue();
+            MapPackManifest.Chunk chunk = new MapPackManifest.Chunk();
+            chunk.dir = e.getKey();
+            chunk.zoom = Integer.parseInt(chunk.dir.split("/")[2]);
+            chunk.names = new String[list.size()];
+            chunk.hashes = new String[list.size()];
+            chunk.offsets = new long[list.size()];
+            chunk.lengths = new int[list.size()];
+            StringBuilder all = new StringBuilder();
+            for (int i = 0; i < list.size(); i++) {
+                chunk.names[i] = (String) list.get(i)[0];
+                chunk.hashes[i] = (String) list.get(i)[1];
+                chunk.offsets[i] = (Long) list.get(i)[2];
+                chunk.lengths[i] = (Integer) list.get(i)[3];
+                all.append(chunk.names[i]).append(':').append(chunk.hashes[i]).append('\n');
+            }
+            byte[] bytes = all.toString().getBytes();
+            chunk.hash = MapPackUpdater.hash(bytes, 0, bytes.length);
+            chunks.put(chunk.dir, chunk);
+        }
+        archive = out.toByteArray();
+
+        MapPackManifest manifest = new MapPackManifest();
+        manifest.version = MapPackManifest.FORMAT_VERSION;
+        manifest.provider = PROVIDER;
+        manifest.minZoom = minZoom;
+        manifest.maxZoom = maxZoom;
+        manifest.archive = "pack.tar";
+        manifest.chunks = new ArrayList<>(chunks.values());
+        return manifest;
+    }
+
+    @Test
+    public void testManifestUrlSitsBesideArchive() {
+        MapDownload map = new MapDownload();
+        map.fileUrl = "https://example.com/packs/mapnik-0-13.tar.gz";
+        assertEquals("https://example.com/packs/mapnik-0-13.manifest.json.gz", MapPackManifest.manifestUrlFor(map));
+        map.fileUrl = "https://example.com/packs/mapnik-0-13.tar";
+        assertEquals("https://example.com/packs/mapnik-0-13.manifest.json.gz", MapPackManifest.manifestUrlFor(map));
+    }
+
+    @Test
+    public void testManifestRoundTrip() throws Exception {
+        Map<String, byte[]> tiles = new LinkedHashMap<>();
+        tiles.put(BASE + "/1/0/0.png", tile(300));
+        tiles.put(BASE + "/1/0/1.png", tile(700));
+        MapPackManifest manifest = pack(tiles, 0, 1);
+        File file = tmp.newFile("m.json.gz");
+        manifest.write(file);
+
+        MapPackManifest read = MapPackManifest.read(file);
+        assertEquals(PROVIDER, read.provider);
+        assertEquals(1, read.maxZoom);
+        assertEquals(1, read.chunks.size());
+        assertArrayEquals(manifest.chunks.get(0).offsets, read.chunks.get(0).offsets);
+        assertArrayEquals(manifest.chunks.get(0).hashes, read.chunks.get(0).hashes);
+    }
+
+    @Test
+    public void testDeltaFetchesOnlyChangedAndDeletesRemoved() {
+        Map<String, byte[]> v1 = new LinkedHashMap<>();
+        v1.put(BASE + "/2/0/0.png", tile(400));
+        v1.put(BASE + "/2/0/1.png", tile(400));
+        v1.put(BASE + "/2/1/0.png", tile(400));
+        v1.put(BASE + "/2/3/3.png", tile(400));
+        MapPackManifest installed = pack(v1, 0, 2);
+
+        Map<String, byte[]> v2 = new LinkedHashMap<>(v1);
+        v2.put(BASE + "/2/0/1.png", tile(450));
+        v2.remove(BASE + "/2/1/0.png");
+        v2.remove(BASE + "/2/3/3.png");
+        v2.put(BASE + "/2/3/2.png", tile(200));
+        MapPackManifest remote = pack(v2, 0, 2);
+
+        MapPackDelta delta = MapPackDelta.compute(installed, remote);
+        List<String> fetched = new ArrayList<>();
+        for (MapPackDelta.TileFetch fetch : delta.fetches) {
+            fetched.add(fetch.path);
+        }
+        assertEquals(2, fetched.size());
+        assertTrue(fetched.contains(BASE + "/2/0/1.png"));
+        assertTrue(fetched.contains(BASE + "/2/3/2.png"));
+        assertTrue(delta.deletions.contains(BASE + "/2/1/0.png"));
+        assertTrue(delta.deletions.contains(BASE + "/2/3/3.png"));
+        assertEquals(2, delta.deletions.size());
+        assertEquals(1, delta.unchangedTiles);
+        assertEquals(650, delta.bytesToFetch());
+    }
+
+    @Test
+    public void testDeltaKeepsZoomLevelsOutsideRemotePack() {
+        Map<String, byte[]> big = new LinkedHashMap<>();
+        big.put(BASE + "/1/0/0.png", tile(100));
+        big.put(BASE + "/13/4021/2700.png", tile(100));
+        MapPackManifest installed = pack(big, 0, 13);
+
+        Map<String, byte[]> small = new LinkedHashMap<>();
+        small.put(BASE + "/1/0/0.png", big.get(BASE + "/1/0/0.png"));
+        MapPackManifest remote = pack(small, 0, 11);
+
+        MapPackDelta delta = MapPackDelta.compute(installed, remote);
+        assertTrue(delta.isEmpty());
+
+        MapPackManifest merged = MapPackManifest.merge(installed, remote);
+        assertEquals(2, merged.chunks.size());
+        assertEquals(0, merged.minZoom);
+        assertEquals(13, merged.maxZoom);
+    }
+
+    @Test
+    public void testFirstInstallFetchesEverything() {
+        Map<String, byte[]> tiles = new LinkedHashMap<>();
+        tiles.put(BASE + "/1/0/0.png", tile(100));
+        tiles.put(BASE + "/1/1/0.png", tile(100));
+        MapPackDelta delta = MapPackDelta.compute(null, pack(tiles, 0, 1));
+        assertEquals(2, delta.fetches.size());
+        assertTrue(delta.deletions.isEmpty());
+    }
+
+    @Test
+    public void testCoalesceMergesNeighboursWithinGap() {
+        MapPackDelta delta = new MapPackDelta();
+        delta.fetches.add(new MapPackDelta.TileFetch("c", "h", 5000, 100));
+        delta.fetches.add(new MapPackDelta.TileFetch("a", "h", 0, 100));
+        delta.fetches.add(new MapPackDelta.TileFetch("b", "h", 612, 100));
+        delta.fetches.add(new MapPackDelta.TileFetch("d", "h", 5612, 100));
+
+        List<MapPackDelta.Range> ranges = delta.coalesce(1024, 1 << 20);
+        assertEquals(2, ranges.size());
+        assertEquals(0, ranges.get(0).start);
+        assertEquals(712, ranges.get(0).getEnd());
+        assertEquals(2, ranges.get(0).tiles.size());
+        assertEquals(5000, ranges.get(1).start);
+        assertEquals(5712, ranges.get(1).getEnd());
+
+        assertEquals(4, delta.coalesce(1024, 200).size());
+    }
+
+    @Test
+    public void testUpdateAppliesDeltaOverInstalledTiles() throws Exception {
+        File cacheDir = tmp.newFolder("cache");
+        MapPackUpdater updater = new MapPackUpdater(new OkHttpClient(), tmp.newFolder("manifests"));
+
+        Map<String, byte[]> v1 = new LinkedHashMap<>();
+        for (int x = 0; x < 4; x++) {
+            for (int y = 0; y < 4; y++) {
+                v1.put(BASE + "/2/" + x + "/" + y + ".png", tile(300 + random.nextInt(900)));
+            }
+        }
+        MapPackManifest installed = pack(v1, 0, 2);
+        MapPackDelta first = updater.update(manifestUrl(), installed, cacheDir, null);
+        assertEquals(16, first.fetches.size());
+
+        Map<String, byte[]> v2 = new LinkedHashMap<>(v1);
+        v2.put(BASE + "/2/1/1.png", tile(800));
+        v2.put(BASE + "/2/1/2.png", tile(800));
+        v2.remove(BASE + "/2/3/0.png");
+        MapPackManifest remote = pack(v2, 0, 2);
+
+        rangeRequests.set(0);
+        long[] progress = new long[2];
+        MapPackDelta delta = updater.update(manifestUrl(), remote, cacheDir, (done, total) -> {
+            progress[0] = done;
+            progress[1] = total;
+        });
+        assertEquals(2, delta.fetches.size());
+        assertEquals(1, rangeRequests.get());
+        assertEquals(1600, progress[0]);
+        assertEquals(1600, progress[1]);
+
+        for (Map.Entry<String, byte[]> tile : v2.entrySet()) {
+            assertArrayEquals(tile.getKey(), tile.getValue(), Files.readAllBytes(new File(cacheDir, tile.getKey()).toPath()));
+        }
+        assertFalse(new File(cacheDir, BASE + "/2/3/0.png").exists());
+
+        // Re-applying the same manifest is a no-op
+        rangeRequests.set(0);
+        assertTrue(updater.update(manifestUrl(), remote, cacheDir, null).isEmpty());
+        assertEquals(0, rangeRequests.get());
+    }
+
+    @Test
+    public void testUpdateRefetchesTilesClearedBetweenRefreshes() throws Exception {
+        File cacheDir = tmp.newFolder("cache");
+        MapPackUpdater updater = new MapPackUpdater(new OkHttpClient(), tmp.newFolder("manifests"));
+
+        Map<String, byte[]> v1 = new LinkedHashMap<>();
+        for (int x = 0; x < 4; x++) {
+            for (int y = 0; y < 4; y++) {
+                v1.put(BASE + "/2/" + x + "/" + y + ".png", tile(300 + random.nextInt(900)));
+            }
+        }
+        MapPackManifest installed = pack(v1, 0, 2);
+        updater.update(manifestUrl(), installed, cacheDir, null);
+
+        // Evicted, and a whole column cleared, while the installed manifest stays
+        assertTrue(new File(cacheDir, BASE + "/2/0/3.png").delete());
+        for (int y = 0; y < 4; y++) {
+            assertTrue(new File(cacheDir, BASE + "/2/2/" + y + ".png").delete());
+        }
+        assertTrue(new File(cacheDir, BASE + "/2/2").delete());
+
+        Map<String, byte[]> v2 = new LinkedHashMap<>(v1);
+        v2.put(BASE + "/2/1/1.png", tile(800));
+        MapPackManifest remote = pack(v2, 0, 2);
+        MapPackDelta delta = updater.update(manifestUrl(), remote, cacheDir, null);
+        assertEquals(6, delta.fetches.size());
+        assertEquals(10, delta.unchangedTiles);
+        for (Map.Entry<String, byte[]> tile : v2.entrySet()) {
+            assertArrayEquals(tile.getKey(), tile.getValue(), Files.readAllBytes(new File(cacheDir, tile.getKey()).toPath()));
+        }
+
+        // Once most of the pack has gone, the caller downloads it whole instead
+        for (String path : v2.keySet()) {
+            assertTrue(new File(cacheDir, path).delete());
+        }
+        rangeRequests.set(0);
+        assertNull(updater.update(manifestUrl(), remote, cacheDir, null));
+        assertEquals(0, rangeRequests.get());
+    }
+
+    @Test
+    public void testUpdateRejectsArchiveThatDoesNotMatchManifest() throws Exception {
+        File cacheDir = tmp.newFolder("cache");
+        File manifests = tmp.newFolder("manifests");
+        MapPackUpdater updater = new MapPackUpdater(new OkHttpClient(), manifests);
+
+        Map<String, byte[]> tiles = new LinkedHashMap<>();
+        tiles.put(BASE + "/1/0/0.png", tile(500));
+        MapPackManifest remote = pack(tiles, 0, 1);
+        archive[600] ^= 0x55;
+
+        try {
+            updater.update(manifestUrl(), remote, cacheDir, null);
+            fail("Expected corrupt tile to be rejected");
+        } catch (IOException expected) {
+            // The installed manifest must not record tiles that weren't written
+        }
+        assertNull(updater.loadInstalled(PROVIDER));
+        assertFalse(new File(cacheDir, BASE + "/1/0/0.png").exists());
+    }
+
+    @Test
+    public void testUpdateRejectsTilesOutsideCache() throws Exception {
+        File cacheDir = tmp.newFolder("cache");
+        MapPackUpdater updater = new MapPackUpdater(new OkHttpClient(), tmp.newFolder("manifests"));
+
+        Map<String, byte[]> tiles = new LinkedHashMap<>();
+        tiles.put(BASE + "/1/0/0.png", tile(500));
+        tiles.put(BASE + "/1/0/../../../../../escape.png", tile(500));
+        MapPackManifest remote = pack(tiles, 0, 1);
+
+        try {
+            updater.update(manifestUrl(), remote, cacheDir, null);
+            fail("Expected a tile outside the cache to be rejected");
+        } catch (IOException expected) {
+            // Nothing is fetched at all
+        }
+        assertFalse(new File(tmp.getRoot(), "escape.png").exists());
+        assertEquals(0, rangeRequests.get());
+        assertNull(updater.loadInstalled(PROVIDER));
+
+        MapPackDelta deletion = new MapPackDelta();
+        deletion.deletions.add("../victim.txt");
+        try {
+            MapPackUpdater.checkInside(cacheDir, deletion);
+            fail("Expected a deletion outside the cache to be rejected");
+        } catch (IOException expected) {
+            // As for fetches
+        }
+    }
+
+    @Test
+    public void testFetchManifestMissingReturnsNull() throws Exception {
+        MapPackUpdater updater = new MapPackUpdater(new OkHttpClient(), tmp.newFolder("manifests"));
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/missing.manifest.json.gz";
+        assertNull(updater.fetchManifest(url));
+    }
+}
@@ -0,0 +1,212 @@
+package uk.trigpointing.android.mapping;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import uk.trigpointing.android.trigdetails.MapTileMath;
+
+/**
+ * Unit tests for TileCacheLru
+ */
+public class TileCacheLruTest {
+
+    private static final String OSM = "tile.openstreetmap.org";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File root;
+    private TileCacheStats stats;
+
+    @Before
+    public void setUp() throws IOException {
+        root = tmp.newFolder("map_tiles");
+        stats = new TileCacheStats(root);
+    }
+
+    private TileCacheLru lru() {
+        TileCacheLru lru = new TileCacheLru(root, stats);
+        lru.recentWindowMs = 0;
+        return lru;
+    }
+
+    private File fetch(TileCacheLru lru, String path, int size) throws IOException {
+        File file = new File(root, path);
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        Files.write(file.toPath(), new byte[size]);
+        lru.recordFetch(file, size);
+        return file;
+    }
+
+    @Test
+    public void testTileOfReadsProviderOrder() {
+        assertArrayEquals(new int[]{13, 4021, 2700}, TileCacheLru.tileOf(OSM + "/13/4021/2700.png"));
+        assertArrayEquals(new int[]{7, 63, 40},
+                TileCacheLru.tileOf("server.arcgisonline.com/ArcGIS/rest/services/World_Imagery/MapServer/tile/7/40/63"));
+        assertNull(TileCacheLru.tileOf(OSM + "/13/4021/abc.png"));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedDownToTarget() throws Exception {
+        TileCacheLru lru = lru();
+        lru.setBudget(0);
+        File a = fetch(lru, OSM + "/15/1/1.png", 1000);
+        File b = fetch(lru, OSM + "/15/1/2.png", 1000);
+        File c = fetch(lru, OSM + "/15/1/3.png", 1000);
+        File d = fetch(lru, OSM + "/15/1/4.png", 1000);
+        lru.recordAccess(a);
+
+        lru.setBudget(2500);
+        lru.trimToBudget();
+        lru.awaitBackgroundTrim();
+
+        // b and c were least recently used; trimming goes to 90% of the budget
+        assertTrue(a.exists());
+        assertFalse(b.exists());
+        assertFalse(c.exists());
+        assertTrue(d.exists());
+        assertEquals(2000, lru.getIndexedBytes());
+        assertEquals(2, lru.getIndexedTiles());
+        assertArrayEquals(new long[]{2000, 2}, stats.getTotals());
+        assertEquals(0, lru.trimToBudget());
+    }
+
+    @Test
+    public void testPackTilesAreNeverEvicted() throws Exception {
+        TileCacheLru lru = lru();
+        lru.setBudget(0);
+        File online = fetch(lru, OSM + "/15/1/1.png", 1000);
+        // Written by a map pack, not through the LRU
+        File packed = new File(root, OSM + "/15/1/2.png");
+        Files.write(packed.toPath(), new byte[5000]);
+        stats.recordWrite(packed, -1, 5000);
+
+        lru.setBudget(100);
+        lru.trimToBudget();
+        lru.awaitBackgroundTrim();
+        assertFalse(online.exists());
+        assertTrue(packed.exists());
+    }
+
+    @Test
+    public void testOverwrittenTileIsDroppedNotDeleted() throws Exception {
+        TileCacheLru lru = lru();
+        lru.setBudget(0);
+        File tile = fetch(lru, OSM + "/15/1/1.png", 1000);
+        // A map pack extracted over the online tile
+        Files.write(tile.toPath(), new byte[1200]);
+
+        lru.setBudget(100);
+        lru.trimToBudget();
+        lru.awaitBackgroundTrim();
+        assertTrue(tile.exists());
+        assertFalse(lru.isIndexed(tile));
+        assertEquals(0, lru.getIndexedBytes());
+    }
+
+    @Test
+    public void testTilesNearMarkedTrigsAreKept() throws Exception {
+        TileCacheLru lru = lru();
+        lru.setBudget(0);
+        // Zoom 15 tile containing 53.0N 1.5W, and one far away
+        int n = 1 << 15;
+        int x = (int) ((-1.5 + 180.0) / 360.0 * n);
+        double latRad = Math.toRadians(53.0);
+        int y = (int) ((1.0 - Math.log(Math.tan(latRad) + 1.0 / Math.cos(latRad)) / Math.PI) / 2.0 * n);
+        File near = fetch(lru, OSM + "/15/" + x + "/" + y + ".png", 1000);
+        File nextDoor = fetch(lru, OSM + "/15/" + (x + 1) + "/" + y + ".png", 1000);
+        File far = fetch(lru, OSM + "/15/" + (x + 200) + "/" + y + ".png", 1000);
+
+        lru.setProtectedLocations(new double[]{53.0, -1.5});
+        lru.setBudget(100);
+        lru.trimToBudget();
+        lru.awaitBackgroundTrim();
+        assertTrue(near.exists());
+        assertTrue(nextDoor.exists());
+        assertFalse(far.exists());
+    }
+
+    @Test
+    public void testNationalGridTilesNearMarkedTrigsAreKept() throws Exception {
+        TileCacheLru lru = lru();
+        lru.setBudget(0);
+        // OS Leisure is tiled on the national grid, where web mercator numbers point elsewhere
+        String leisure = "api.os.uk/maps/raster/v1/zxy/Leisure_27700";
+        int x = MapTileMath.lonToTileX27700(53.0, -1.5, 7);
+        int y = MapTileMath.latToTileY27700(53.0, -1.5, 7);
+        File near = fetch(lru, leisure + "/7/" + x + "/" + y + ".png", 1000);
+        File far = fetch(lru, leisure + "/7/" + (x + 20) + "/" + y + ".png", 1000);
+
+        lru.setProtectedLocations(new double[]{53.0, -1.5});
+        lru.setBudget(100);
+        lru.trimToBudget();
+        assertTrue(near.exists());
+        assertFalse(far.exists());
+    }
+
+    @Test
+    public void testProtectedRangesFollowTheLocations() {
+        int[] ranges = TileCacheLru.tileRanges(OSM, 15, new double[]{53.0, -1.5, 54.5, -3.0});
+        assertEquals(8, ranges.length);
+        int x = (int) ((-1.5 + 180.0) / 360.0 * (1 << 15));
+        assertTrue(ranges[0] <= x && x <= ranges[1]);
+        assertTrue(ranges[4] < ranges[0]);
+        assertEquals(0, TileCacheLru.tileRanges(OSM, 15, new double[0]).length);
+    }
+
+    @Test
+    public void testRecentlyUsedTilesAreKept() throws Exception {
+        TileCacheLru lru = lru();
+        lru.recentWindowMs = TileCacheLru.RECENT_MS;
+        lru.setBudget(0);
+        File tile = fetch(lru, OSM + "/15/1/1.png", 1000);
+        lru.setBudget(100);
+        assertEquals(0, lru.trimToBudget());
+        assertTrue(tile.exists());
+    }
+
+    @Test
+    public void testJournalSurvivesRestart() throws Exception {
+        TileCacheLru lru = lru();
+        lru.setBudget(0);
+        File a = fetch(lru, OSM + "/15/1/1.png", 1000);
+        File b = fetch(lru, OSM + "/15/1/2.png", 1000);
+        File c = fetch(lru, OSM + "/15/1/3.png", 1000);
+        lru.recordAccess(a);
+        lru.setBudget(2500);
+        lru.trimToBudget();
+        lru.awaitBackgroundTrim();
+        assertFalse(b.exists());
+        lru.flush();
+
+        TileCacheLru reloaded = lru();
+        reloaded.setBudget(0);
+        assertEquals(2, reloaded.getIndexedTiles());
+        assertEquals(2000, reloaded.getIndexedBytes());
+        // c is now the least recently used
+        reloaded.setBudget(1500);
+        reloaded.trimToBudget();
+        reloaded.awaitBackgroundTrim();
+        assertTrue(a.exists());
+        assertFalse(c.exists());
+    }
+
+    @Test
+    public void testResetForgetsEverything() throws Exception {
+        TileCacheLru lru = lru();
+        fetch(lru, OSM + "/15/1/1.png", 1000);
+        lru.flush();
+        lru.reset();
+        assertEquals(0, lru.getIndexedTiles());
+        assertFalse(new File(root, TileCacheLru.JOURNAL_FILE).exists());
+        assertEquals(0, lru().getIndexedTiles());
+    }
+}
@@ -0,0 +1,158 @@
+package uk.trigpointing.android.mapping;
+
+import static org.junit.Assert.*;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Unit tests for TileCacheStats
+ */
+public class TileCacheStatsTest {
+
+    private static final String OSM = "tile.openstreetmap.org";
+    private static final String ESRI = "server.arcgisonline.com/ArcGIS/rest/services/World_Imagery/MapServer/tile";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File writeTile(File root, String path, int size) throws IOException {
+        File file = new File(root, path);
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        Files.write(file.toPath(), new byte[size]);
+        return file;
+    }
+
+    @Test
+    public void testSplitFindsProviderAndZoom() {
+        assertArrayEquals(new String[]{OSM, "13"}, TileCacheStats.split(OSM + "/13/4021/2700.png"));
+        assertArrayEquals(new String[]{ESRI, "7"}, TileCacheStats.split(ESRI + "/7/40/63"));
+        assertNull(TileCacheStats.split("13/4021/2700.png"));
+        assertNull(TileCacheStats.split(OSM + "/xx/4021/2700.png"));
+        assertNull(TileCacheStats.split(OSM + "/99/4021/2700.png"));
+    }
+
+    @Test
+    public void testRunningTotalsPerProviderAndZoom() throws Exception {
+        File root = tmp.newFolder("map_tiles");
+        TileCacheStats stats = new TileCacheStats(root);
+        assertTrue(stats.isReconciled());
+
+        stats.recordWrite(new File(root, OSM + "/13/1/1.png"), -1, 1000);
+        stats.recordWrite(new File(root, OSM + "/13/1/2.png"), -1, 500);
+        stats.recordWrite(new File(root, OSM + "/5/1/1.png"), -1, 200);
+        stats.recordWrite(new File(root, ESRI + "/5/1/1"), -1, 300);
+        // Overwrite changes the size but not the count
+        stats.recordWrite(new File(root, OSM + "/13/1/1.png"), 1000, 1200);
+        stats.recordDelete(new File(root, OSM + "/13/1/2.png"), 500);
+        // Files outside the cache are ignored
+        stats.recordWrite(new File(tmp.getRoot(), "elsewhere/1/2/3.png"), -1, 999);
+
+        assertArrayEquals(new long[]{1700, 3}, stats.getTotals());
+        Map<String, long[]> providers = stats.getProviderTotals();
+        assertArrayEquals(new long[]{1400, 2}, providers.get(OSM));
+        assertArrayEquals(new long[]{300, 1}, providers.get(ESRI));
+        long[][] zooms = stats.getZoomTotals(OSM);
+        assertArrayEquals(new long[]{1200, 1}, zooms[13]);
+        assertArrayEquals(new long[]{200, 1}, zooms[5]);
+        assertNull(stats.getZoomTotals("unknown"));
+    }
+
+    @Test
+    public void testTotalsPersistAcrossInstances() throws Exception {
+        File root = tmp.newFolder("map_tiles");
+        TileCacheStats stats = new TileCacheStats(root);
+        stats.recordWrite(writeTile(root, OSM + "/10/1/1.png", 700), -1, 700);
+        stats.flush();
+
+        TileCacheStats reloaded = new TileCacheStats(root);
+        assertTrue(reloaded.isReconciled());
+        assertArrayEquals(new long[]{700, 1}, reloaded.getTotals());
+    }
+
+    @Test
+    public void testUncountedTilesNeedReconcile() throws Exception {
+        File root = tmp.newFolder("map_tiles");
+        writeTile(root, OSM + "/10/1/1.png", 700);
+        writeTile(root, OSM + "/10/1/2.png", 300);
+        writeTile(root, ESRI + "/3/2/1", 50);
+
+        TileCacheStats stats = new TileCacheStats(root);
+        assertFalse(stats.isReconciled());
+        stats.reconcile();
+        assertTrue(stats.isReconciled());
+        assertArrayEquals(new long[]{1050, 3}, stats.getTotals());
+        assertArrayEquals(new long[]{1000, 2}, stats.getProviderTotals().get(OSM));
+
+        // The stats file itself is never counted
+        stats.flush();
+        assertTrue(new File(root, TileCacheStats.STATS_FILE).exists());
+        stats.reconcile();
+        assertArrayEquals(new long[]{1050, 3}, stats.getTotals());
+    }
+
+    @Test
+    public void testReconcileCorrectsDrift() throws Exception {
+        File root = tmp.newFolder("map_tiles");
+        TileCacheStats stats = new TileCacheStats(root);
+        stats.recordWrite(writeTile(root, OSM + "/10/1/1.png", 700), -1, 700);
+        // Written behind the accounting's back
+        writeTile(root, OSM + "/10/1/2.png", 300);
+        stats.recordWrite(new File(root, OSM + "/10/1/3.png"), -1, 400);
+
+        stats.reconcile();
+        assertArrayEquals(new long[]{1000, 2}, stats.getTotals());
+    }
+
+    @Test
+    public void testClearedCacheReadsAsEmpty() throws Exception {
+        File root = tmp.newFolder("map_tiles");
+        TileCacheStats stats = new TileCacheStats(root);
+        File tile = writeTile(root, OSM + "/10/1/1.png", 700);
+        stats.recordWrite(tile, -1, 700);
+
+        // As Android does when the user clears the app cache
+        try (Stream<Path> paths = Files.walk(root.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+        assertFalse(root.exists());
+
+        assertArrayEquals(new long[]{0, 0}, stats.getTotals());
+        assertTrue(stats.isReconciled());
+    }
+
+    @Test
+    public void testExtractorReportsTiles() throws Exception {
+        File cacheDir = tmp.newFolder("cache");
+        File root = new File(cacheDir, "map_tiles");
+        TileCacheStats stats = new TileCacheStats(root);
+
+        File archive = tmp.newFile("pack.tar");
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(Files.newOutputStream(archive.toPath()))) {
+            for (int y = 0; y < 5; y++) {
+                TarArchiveEntry entry = new TarArchiveEntry("map_tiles/" + OSM + "/12/7/" + y + ".png");
+                entry.setSize(100 + y);
+                tar.putArchiveEntry(entry);
+                tar.write(new byte[100 + y]);
+                tar.closeArchiveEntry();
+            }
+        }
+
+        MapPackExtractor.extract(archive, "tar", cacheDir, 2, stats, null);
+        assertArrayEquals(new long[]{510, 5}, stats.getTotals());
+        // Re-extracting over the same tiles doesn't double count
+        MapPackExtractor.extract(archive, "tar", cacheDir, 2, stats, null);
+        assertArrayEquals(new long[]{510, 5}, stats.getTotals());
+    }
+}
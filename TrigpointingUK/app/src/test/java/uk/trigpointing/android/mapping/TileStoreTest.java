@@ -0,0 +1,148 @@
+package uk.trigpointing.android.mapping;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for TileStore
+ */
+public class TileStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private HttpServer server;
+    private String base;
+    private File root;
+    private TileCacheLru lru;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile long delayMs = 0;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        root = tmp.newFolder("map_tiles");
+        TileCacheStats stats = new TileCacheStats(root);
+        lru = new TileCacheLru(root, stats);
+        lru.setBudget(0);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        int now = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(now, Math::max);
+        try {
+            if (delayMs > 0) {
+                Thread.sleep(delayMs);
+            }
+            String path = exchange.getRequestURI().getPath();
+            if (path.contains("missing")) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            byte[] body = ("tile " + path).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    @Test
+    public void testFetchStoresTileByHostAndPath() throws Exception {
+        TileStore store = new TileStore(root, lru);
+        File tile = store.get(base + "/osm/13/4021/2700.png?key=secret");
+
+        assertEquals(new File(root, "127.0.0.1/osm/13/4021/2700.png"), tile);
+        assertEquals("tile /osm/13/4021/2700.png", new String(Files.readAllBytes(tile.toPath()), StandardCharsets.UTF_8));
+        assertTrue(lru.isIndexed(tile));
+        // No temp files are left behind
+        String[] names = tile.getParentFile().list();
+        assertNotNull(names);
+        assertEquals(1, names.length);
+    }
+
+    @Test
+    public void testCachedTileIsNotFetchedAgain() throws Exception {
+        TileStore store = new TileStore(root, lru);
+        assertNull(store.getCached(base + "/osm/13/1/1.png"));
+        File first = store.get(base + "/osm/13/1/1.png?key=a");
+        // A different key is the same tile
+        File second = store.get(base + "/osm/13/1/1.png?key=b");
+        assertEquals(first, second);
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testFailedFetchLeavesNothingBehind() throws Exception {
+        TileStore store = new TileStore(root, lru);
+        try {
+            store.get(base + "/osm/13/1/missing.png");
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertFalse(store.tileFile(base + "/osm/13/1/missing.png").exists());
+        assertEquals(0, lru.getIndexedTiles());
+    }
+
+    @Test
+    public void testConnectionsPerHostAreLimited() throws Exception {
+        TileStore store = new TileStore(root, lru);
+        delayMs = 50;
+        ExecutorService pool = Executors.newFixedThreadPool(9);
+        try {
+            List<Future<File>> tiles = new ArrayList<>();
+            for (int i = 0; i < 9; i++) {
+                String url = base + "/osm/15/" + i + "/1.png";
+                tiles.add(pool.submit(() -> store.get(url)));
+            }
+            for (Future<File> tile : tiles) {
+                assertTrue(tile.get().isFile());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(9, requests.get());
+        assertTrue(maxInFlight.get() <= TileStore.MAX_CONNECTIONS_PER_HOST);
+        assertEquals(9, lru.getIndexedTiles());
+    }
+}
@@ -0,0 +1,81 @@
+package uk.trigpointing.android.nearest;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for HeadingFilter
+ */
+public class HeadingFilterTest {
+
+    private final HeadingFilter filter = new HeadingFilter();
+
+    @Test
+    public void testNothingToShowBeforeReadings() {
+        assertFalse(filter.takeChange());
+        assertEquals(0f, filter.getHeading(), 0f);
+    }
+
+    @Test
+    public void testFirstReadingShownAtOnce() {
+        filter.add(123f);
+        assertEquals(123f, filter.getHeading(), 0.01f);
+        assertTrue(filter.takeChange());
+        // Nothing new since
+        assertFalse(filter.takeChange());
+    }
+
+    @Test
+    public void testJitterIsSmoothedAndNotRedrawn() {
+        filter.add(90f);
+        assertTrue(filter.takeChange());
+        for (int i = 0; i < 100; i++) {
+            filter.add(i % 2 == 0 ? 91.5f : 88.5f);
+            assertFalse(filter.takeChange());
+        }
+        assertEquals(90f, filter.getHeading(), 0.5f);
+    }
+
+    @Test
+    public void testReadingsBetweenFramesAreCoalesced() {
+        filter.add(0f);
+        assertTrue(filter.takeChange());
+        // A burst of readings turning east, then one frame
+        for (int i = 0; i < 50; i++) {
+            filter.add(90f);
+        }
+        assertTrue(filter.takeChange());
+        assertEquals(90f, filter.getHeading(), 0.1f);
+        assertFalse(filter.takeChange());
+    }
+
+    @Test
+    public void testAveragesAcrossNorth() {
+        filter.add(350f);
+        for (int i = 0; i < 50; i++) {
+            filter.add(i % 2 == 0 ? 355f : 5f);
+        }
+        float heading = filter.getHeading();
+        assertTrue("Heading " + heading, heading > 359f || heading < 1f);
+        assertTrue(heading >= 0f && heading < 360f);
+
+        // A small turn across north is still small
+        HeadingFilter across = new HeadingFilter();
+        across.add(359.8f);
+        assertTrue(across.takeChange());
+        across.add(0.2f);
+        assertFalse(across.takeChange());
+    }
+
+    @Test
+    public void testResetForgetsReadings() {
+        filter.add(200f);
+        assertTrue(filter.takeChange());
+        filter.reset();
+        assertFalse(filter.takeChange());
+        filter.add(200f);
+        assertTrue(filter.takeChange());
+        assertEquals(200f, filter.getHeading(), 0.01f);
+    }
+}
@@ -0,0 +1,81 @@
+package uk.trigpointing.android.nearest;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+import android.database.Cursor;
+
+import org.junit.Test;
+
+import uk.trigpointing.android.DbHelper;
+import uk.trigpointing.android.types.LatLon;
+import uk.trigpointing.android.types.LatLon.UNITS;
+
+/**
+ * Unit tests for NearestRowGeometry
+ */
+public class NearestRowGeometryTest {
+
+    // Edale
+    private static final double FROM_LAT = 53.3663;
+    private static final double FROM_LON = -1.8162;
+
+    private static final double[] LATS = {53.3853, 53.4500, 53.3663, 53.3000, FROM_LAT};
+    private static final double[] LONS = {-1.8735, -1.8162, -1.7000, -1.9000, FROM_LON};
+
+    @Test
+    public void testMatchesLatLon() {
+        for (UNITS units : UNITS.values()) {
+            NearestRowGeometry geometry = NearestRowGeometry.compute(LATS, LONS, FROM_LAT, FROM_LON, units);
+            assertEquals(LATS.length, geometry.size());
+            for (int i = 0; i < LATS.length - 1; i++) {
+                LatLon trig = new LatLon(LATS[i], LONS[i]);
+                assertEquals(trig.distanceTo(FROM_LAT, FROM_LON, units), geometry.getDistance(i), 1e-9);
+                assertEquals(trig.bearingFrom(FROM_LAT, FROM_LON), geometry.getBearing(i), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testBearingsAndLabels() {
+        NearestRowGeometry geometry = NearestRowGeometry.compute(LATS, LONS, FROM_LAT, FROM_LON, UNITS.KM);
+        // Due north, then roughly east and south west
+        assertEquals(0, geometry.getBearing(1), 1e-6);
+        assertEquals(90, geometry.getBearing(2), 0.1);
+        assertTrue(geometry.getBearing(3) > 180 && geometry.getBearing(3) < 270);
+        assertEquals(String.format(java.util.Locale.getDefault(), "%3.1f", geometry.getDistance(1)),
+                geometry.getDistanceLabel(1));
+    }
+
+    @Test
+    public void testTrigAtTheReferenceLocationIsNoDistanceAway() {
+        NearestRowGeometry geometry = NearestRowGeometry.compute(LATS, LONS, FROM_LAT, FROM_LON, UNITS.METRES);
+        assertEquals(0, geometry.getDistance(4), 1e-3);
+        assertFalse(Double.isNaN(geometry.getBearing(4)));
+    }
+
+    @Test
+    public void testReadsEveryCursorRowAndRewinds() {
+        Cursor cursor = mock(Cursor.class);
+        int[] position = {-1};
+        when(cursor.getColumnIndexOrThrow(DbHelper.TRIG_LAT)).thenReturn(2);
+        when(cursor.getColumnIndexOrThrow(DbHelper.TRIG_LON)).thenReturn(3);
+        when(cursor.getCount()).thenReturn(LATS.length);
+        when(cursor.moveToPosition(anyInt())).thenAnswer(call -> {
+            position[0] = call.getArgument(0);
+            return position[0] >= 0 && position[0] < LATS.length;
+        });
+        when(cursor.getDouble(2)).thenAnswer(call -> LATS[position[0]]);
+        when(cursor.getDouble(3)).thenAnswer(call -> LONS[position[0]]);
+
+        NearestRowGeometry geometry = NearestRowGeometry.compute(cursor, FROM_LAT, FROM_LON, UNITS.MILES);
+        NearestRowGeometry expected = NearestRowGeometry.compute(LATS, LONS, FROM_LAT, FROM_LON, UNITS.MILES);
+        assertEquals(LATS.length, geometry.size());
+        for (int i = 0; i < LATS.length; i++) {
+            assertEquals(expected.getDistance(i), geometry.getDistance(i), 0);
+            assertEquals(expected.getBearing(i), geometry.getBearing(i), 0);
+        }
+        assertEquals(-1, position[0]);
+    }
+}
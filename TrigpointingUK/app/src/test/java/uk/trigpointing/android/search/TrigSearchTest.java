@@ -0,0 +1,142 @@
+package uk.trigpointing.android.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TrigSearchTest {
+
+    private final TrigSearch search = TrigSearch.fromNames(Arrays.asList(
+            "Kinder Low", "Kinder Scout", "Kinderlow End", "Moel Fâmau", "Low Fell", "Black Hill", "Black Fell"));
+
+    @Test
+    public void testTokens() {
+        assertEquals(Arrays.asList("moel", "famau"), TrigSearch.tokens("Moel Fâmau"));
+        assertEquals(Arrays.asList("st", "agnes", "beacon"), TrigSearch.tokens("St. Agnes' Beacon"));
+        assertEquals(Arrays.asList("tp1234"), TrigSearch.tokens("TP1234"));
+        assertTrue(TrigSearch.tokens(null).isEmpty());
+        assertEquals(10, search.size());
+    }
+
+    @Test
+    public void testGridRefTokens() {
+        assertEquals(Arrays.asList("sk08", "sk0787", "sk079870", "sk07918704", "sk0791287047"),
+                TrigSearch.gridRefTokens("SK 07912 87047"));
+    }
+
+    @Test
+    public void testGridRefQueries() {
+        TrigSearch.Query query = search.query("SK 079 870");
+        assertTrue(query.isGridRef());
+        assertEquals(Arrays.asList("gridref:sk079870"), query.matchExpressions());
+        assertEquals(4, query.relevance("Kinder Low", "TP1001", "SK 07912 87047"));
+        assertEquals(0, query.relevance("Kinder Low", "TP1001", "SK 07999 87999"));
+
+        // Waypoints, odd digits and words aren't grid references
+        assertFalse(search.query("TP1234").isGridRef());
+        assertFalse(search.query("SK 079 87").isGridRef());
+        assertFalse(search.query("Black Hill").isGridRef());
+    }
+
+    @Test
+    public void testPrefixExpressions() {
+        assertEquals(Arrays.asList("name:kinder* name:low*"), search.query("Kinder Low").matchExpressions());
+        // Waypoints, or numbers in names
+        assertEquals(Arrays.asList("tp1234*"), search.query("TP1234").matchExpressions());
+        assertEquals(Arrays.asList("name:hill* 60*"), search.query("Hill 60").matchExpressions());
+        // Single letters as whole words
+        assertEquals(Arrays.asList("name:hill* name:a"), search.query("Hill A").matchExpressions());
+        assertTrue(search.query(" - ").matchExpressions().isEmpty());
+    }
+
+    @Test
+    public void testCorrectedExpressions() {
+        // As typed first, in case the vocabulary is out of date
+        assertEquals(Arrays.asList("name:knider* name:low*", "name:kinder name:low*"),
+                search.query("Knider Low").matchExpressions());
+        assertEquals(Arrays.asList("name:famua*", "name:famau"), search.query("famua").matchExpressions());
+        // Too short to correct
+        assertEquals(Arrays.asList("name:lwo*"), search.query("lwo").matchExpressions());
+    }
+
+    @Test
+    public void testExpressionsAreCapped() {
+        TrigSearch words = TrigSearch.fromNames(Arrays.asList("Bell Belt Bill Bull", "Ball Boll Dell Fell"));
+        List<String> expressions = words.query("Bxll Bxll Bxll").matchExpressions();
+        assertEquals(TrigSearch.MAX_EXPRESSIONS, expressions.size());
+        assertEquals("name:bxll* name:bxll* name:bxll*", expressions.get(0));
+    }
+
+    @Test
+    public void testCorrections() {
+        assertEquals(Arrays.asList("kinder"), search.corrections("knider"));
+        assertEquals(Arrays.asList("black"), search.corrections("blak"));
+        // Two edits for long words
+        assertEquals(Arrays.asList("kinderlow"), search.corrections("kindrelaw"));
+        assertTrue(search.corrections("zzzz").isEmpty());
+
+        // Commonest first among equally close words
+        TrigSearch common = TrigSearch.fromNames(Arrays.asList("Hall", "Hill", "Hill Top", "Hill End", "Hull",
+                "Hell", "Holl"));
+        assertEquals("hill", common.corrections("hxll").get(0));
+        assertEquals(TrigSearch.MAX_CORRECTIONS, common.corrections("hxll").size());
+    }
+
+    @Test
+    public void testEditDistance() {
+        assertEquals(0, TrigSearch.editDistance("kinder", "kinder", 2));
+        assertEquals(1, TrigSearch.editDistance("kinder", "kindr", 2));
+        assertEquals(1, TrigSearch.editDistance("kinder", "knider", 2));
+        assertEquals(1, TrigSearch.editDistance("kinder", "kidner", 2));
+        assertEquals(2, TrigSearch.editDistance("kinder", "kndr", 2));
+        assertEquals(3, TrigSearch.editDistance("kinder", "scout", 2));
+    }
+
+    @Test
+    public void testRelevance() {
+        TrigSearch.Query query = search.query("Kinder Low");
+        int wholeName = query.relevance("Kinder Low", "TP1001", null);
+        int prefix = query.relevance("Kinder Lowther", "TP1002", null);
+        assertTrue(wholeName > prefix);
+
+        TrigSearch.Query corrected = search.query("Knider Low");
+        assertTrue(corrected.relevance("Kinder Low", "TP1001", null) < wholeName);
+
+        TrigSearch.Query waypoint = search.query("1001");
+        assertTrue(waypoint.relevance("Kinder Low", "TP1001", null) > waypoint.relevance("Kinder Low", "TP10011", null));
+    }
+
+    @Test
+    public void testRanking() {
+        List<TrigSearchResult> results = new ArrayList<>(Arrays.asList(
+                result(1, "Kinder Scout", 4, 3000),
+                result(2, "Kinder Low", 4, 1000),
+                result(3, "Kinderlow End", 3, 10)));
+        assertEquals(Arrays.asList(2L, 1L, 3L), rank(results));
+
+        // Shorter names first without a location
+        results = new ArrayList<>(Arrays.asList(
+                result(1, "Kinder Scout", 4, Double.NaN),
+                result(2, "Kinder Low", 4, Double.NaN)));
+        assertEquals(Arrays.asList(2L, 1L), rank(results));
+    }
+
+    private static List<Long> rank(List<TrigSearchResult> results) {
+        results.sort(TrigSearchResult.RANKING);
+        List<Long> ids = new ArrayList<>();
+        for (TrigSearchResult result : results) {
+            ids.add(result.getId());
+        }
+        return ids;
+    }
+
+    private static TrigSearchResult result(long id, String name, int relevance, double distance) {
+        return new TrigSearchResult(id, name, "TP" + id, "", 0, 0, "PI", relevance, distance);
+    }
+}
@@ -0,0 +1,102 @@
+package uk.trigpointing.android.terrain;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Unit tests for DemStore
+ */
+public class DemStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private DemStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        store = new DemStore(tmp.newFolder(DemStore.DIRECTORY));
+    }
+
+    /** Writes a synthetic tile whose heights come from the given terrain. */
+    static void writeTile(DemStore store, int tileE, int tileN, HeightSource terrain) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(store.tileFile(tileE, tileN))))) {
+            for (int row = 0; row < DemStore.POSTS; row++) {
+                for (int col = 0; col < DemStore.POSTS; col++) {
+                    double height = terrain.heightAt(tileE * DemStore.TILE_SIZE + col * DemStore.POST_SPACING,
+                            tileN * DemStore.TILE_SIZE + row * DemStore.POST_SPACING);
+                    out.writeShort(Double.isNaN(height) ? DemStore.NO_DATA : (short) Math.round(height * 10));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHeightsInterpolateBetweenPosts() throws IOException {
+        // Rising 1 m per 10 m east and 1 m per 20 m north
+        writeTile(store, 41, 38, (e, n) -> (e - 410000) / 10 + (n - 380000) / 20);
+
+        assertEquals(0, store.heightAt(410000, 380000), 1e-9);
+        assertEquals(5, store.heightAt(410050, 380000), 1e-9);
+        assertEquals(2.5, store.heightAt(410025, 380000), 1e-9);
+        assertEquals(2.5 + 1.25, store.heightAt(410025, 380025), 1e-9);
+        assertEquals(1234.5 / 10 + 6789.5 / 20, store.heightAt(411234.5, 386789.5), 0.1);
+        // The north east corner is the last post, inside the tile
+        assertEquals(1000 + 500, store.heightAt(419999.99, 389999.99), 0.01);
+    }
+
+    @Test
+    public void testTilesJoinAtTheirEdges() throws IOException {
+        HeightSource slope = (e, n) -> (e - 400000) / 100;
+        writeTile(store, 40, 38, slope);
+        writeTile(store, 41, 38, slope);
+
+        assertEquals(99.9, store.heightAt(409990, 385000), 1e-9);
+        assertEquals(100, store.heightAt(410000, 385000), 1e-9);
+        assertEquals(100.1, store.heightAt(410010, 385000), 1e-9);
+    }
+
+    @Test
+    public void testMissingTilesAndNoDataAreUnknown() throws IOException {
+        writeTile(store, 41, 38, (e, n) -> e < 415000 ? 300 : Double.NaN);
+
+        assertEquals(300, store.heightAt(412000, 385000), 1e-9);
+        assertTrue(Double.isNaN(store.heightAt(417000, 385000)));
+        assertTrue(Double.isNaN(store.heightAt(425000, 385000)));
+        assertTrue(Double.isNaN(store.heightAt(-10, 385000)));
+
+        // Truncated files aren't used
+        Files.write(store.tileFile(42, 38).toPath(), new byte[100]);
+        assertTrue(Double.isNaN(store.heightAt(425000, 385000)));
+    }
+
+    @Test
+    public void testClearPicksUpNewTiles() throws IOException {
+        assertTrue(Double.isNaN(store.heightAt(412000, 385000)));
+        writeTile(store, 41, 38, (e, n) -> 250);
+        // Still remembered as missing until cleared
+        assertTrue(Double.isNaN(store.heightAt(412000, 385000)));
+
+        store.clear();
+        assertEquals(250, store.heightAt(412000, 385000), 1e-9);
+    }
+
+    @Test
+    public void testTileFileNames() {
+        File file = store.tileFile(41, 38);
+        assertEquals("dem_41_38.bin", file.getName());
+        assertEquals(DemStore.DIRECTORY, file.getParentFile().getName());
+    }
+}
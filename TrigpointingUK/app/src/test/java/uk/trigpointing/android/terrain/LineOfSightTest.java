@@ -0,0 +1,161 @@
+package uk.trigpointing.android.terrain;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+/**
+ * Unit tests for LineOfSight, over synthetic elevation model tiles
+ */
+public class LineOfSightTest {
+
+    // Centre of a 50 m cell, in the middle of tile 41/38
+    private static final double USER_E = 415025;
+    private static final double USER_N = 385025;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private DemStore store;
+    private int samples;
+    private LineOfSight lineOfSight;
+
+    @Before
+    public void setUp() throws IOException {
+        store = new DemStore(tmp.newFolder(DemStore.DIRECTORY));
+        lineOfSight = new LineOfSight((e, n) -> {
+            samples++;
+            return store.heightAt(e, n);
+        });
+    }
+
+    /** Flat moorland at 400 m, with a 30 m high ridge running north-south 1 km east of the user. */
+    private void writeRidge() throws IOException {
+        for (int tileE = 40; tileE <= 42; tileE++) {
+            for (int tileN = 37; tileN <= 39; tileN++) {
+                DemStoreTest.writeTile(store, tileE, tileN,
+                        (e, n) -> Math.abs(e - (USER_E + 1000)) <= 100 ? 430 : 400);
+            }
+        }
+    }
+
+    @Test
+    public void testFlatGroundHidesNothing() throws IOException {
+        DemStoreTest.writeTile(store, 41, 38, (e, n) -> 400);
+        assertFalse(lineOfSight.isOccluded(1, USER_E, USER_N, USER_E + 3000, USER_N + 2000));
+        assertFalse(lineOfSight.isOccluded(2, USER_E, USER_N, USER_E - 4000, USER_N - 3000));
+    }
+
+    @Test
+    public void testRidgeHidesTrigsBehindIt() throws IOException {
+        writeRidge();
+        // Behind the ridge
+        assertTrue(lineOfSight.isOccluded(1, USER_E, USER_N, USER_E + 3000, USER_N));
+        assertTrue(lineOfSight.isOccluded(2, USER_E, USER_N, USER_E + 4000, USER_N - 1500));
+        // On this side of it, or the other way
+        assertFalse(lineOfSight.isOccluded(3, USER_E, USER_N, USER_E + 800, USER_N));
+        assertFalse(lineOfSight.isOccluded(4, USER_E, USER_N, USER_E - 3000, USER_N));
+        // Along it
+        assertFalse(lineOfSight.isOccluded(5, USER_E + 1000, USER_N - 2000, USER_E + 1000, USER_N + 2000));
+        // On the near edge of it, though its flat top hides the far side
+        assertFalse(lineOfSight.isOccluded(6, USER_E, USER_N, USER_E + 900, USER_N));
+        assertTrue(lineOfSight.isOccluded(7, USER_E, USER_N, USER_E + 1100, USER_N));
+    }
+
+    @Test
+    public void testHillBehindRidgeCanBeSeen() throws IOException {
+        for (int tileN = 37; tileN <= 39; tileN++) {
+            DemStoreTest.writeTile(store, 41, tileN, (e, n) -> {
+                if (Math.abs(e - (USER_E + 1000)) <= 100) {
+                    return 430;
+                }
+                // A 300 m hill 4 km away, well above the ridge, with its summit on a height post
+                double fromHill = Math.hypot(e - 419000, n - 385000);
+                return 400 + Math.max(0, 300 - fromHill / 2);
+            });
+        }
+        assertFalse(lineOfSight.isOccluded(1, USER_E, USER_N, 419000, 385000));
+        // Its lower slopes are still hidden
+        assertTrue(lineOfSight.isOccluded(2, USER_E, USER_N, 419000, 385550));
+    }
+
+    @Test
+    public void testUnknownHeightsHideNothing() throws IOException {
+        // No model at all
+        assertFalse(lineOfSight.isOccluded(1, USER_E, USER_N, USER_E + 3000, USER_N));
+        // Trig off the edge of the model
+        DemStoreTest.writeTile(store, 41, 38, (e, n) -> Math.abs(e - (USER_E + 1000)) <= 100 ? 430 : 400);
+        store.clear();
+        assertFalse(lineOfSight.isOccluded(2, USER_E, USER_N, USER_E + 6000, USER_N));
+        // Off the national grid
+        assertFalse(lineOfSight.isOccluded(3, -100, USER_N, USER_E, USER_N));
+        assertEquals(400, lineOfSight.groundHeight(USER_E, USER_N), 1e-9);
+        assertTrue(Double.isNaN(lineOfSight.groundHeight(USER_E + 6000, USER_N)));
+    }
+
+    @Test
+    public void testResultsCachedPerUserCellAndTrig() throws IOException {
+        writeRidge();
+        assertTrue(lineOfSight.isOccluded(1, USER_E, USER_N, USER_E + 3000, USER_N));
+        int cast = samples;
+        assertTrue(cast > 0);
+
+        // Anywhere in the same 50 m cell reuses the answer
+        assertTrue(lineOfSight.isOccluded(1, USER_E - 20, USER_N + 20, USER_E + 3000, USER_N));
+        assertEquals(cast, samples);
+
+        // A different trig, or the next cell, is worked out afresh
+        assertFalse(lineOfSight.isOccluded(2, USER_E - 20, USER_N + 20, USER_E - 3000, USER_N));
+        assertTrue(samples > cast);
+        cast = samples;
+        assertTrue(lineOfSight.isOccluded(1, USER_E + 50, USER_N, USER_E + 3000, USER_N));
+        assertTrue(samples > cast);
+
+        cast = samples;
+        lineOfSight.clear();
+        lineOfSight.isOccluded(1, USER_E, USER_N, USER_E + 3000, USER_N);
+        assertTrue(samples > cast);
+    }
+
+    @Test
+    public void testAnswersForgottenWhenTilesAreAdded() throws IOException {
+        LineOfSight overStore = new LineOfSight(store);
+        // No tiles yet, so nothing is hidden
+        assertFalse(overStore.isOccluded(1, USER_E, USER_N, USER_E + 3000, USER_N));
+
+        writeRidge();
+        assertFalse("Cached until the store is cleared", overStore.isOccluded(1, USER_E, USER_N, USER_E + 3000, USER_N));
+        store.clear();
+        assertTrue(overStore.isOccluded(1, USER_E, USER_N, USER_E + 3000, USER_N));
+    }
+
+    @Test
+    public void testHundredCandidatesWithinAFewMilliseconds() throws IOException {
+        writeRidge();
+        LineOfSight uncounted = new LineOfSight(store);
+        // Warm up, then time a fresh cell's worth of trigs up to 5 km away in every direction
+        for (int cell = 0; cell < 20; cell++) {
+            castHundred(uncounted, cell);
+        }
+        long start = System.nanoTime();
+        castHundred(uncounted, 20);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        // Generous, for slow build machines; a desktop takes well under 5 ms
+        assertTrue("Took " + elapsedMs + " ms", elapsedMs < 50);
+    }
+
+    private static void castHundred(LineOfSight lineOfSight, int cell) {
+        double userE = USER_E + cell * LineOfSight.CELL_SIZE;
+        for (int i = 0; i < 100; i++) {
+            double angle = i * 2 * Math.PI / 100;
+            double distance = 500 + i * 45;
+            lineOfSight.isOccluded(i, userE, USER_N, userE + distance * Math.sin(angle),
+                    USER_N + distance * Math.cos(angle));
+        }
+    }
+}
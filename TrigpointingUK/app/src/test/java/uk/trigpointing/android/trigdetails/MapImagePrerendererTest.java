@@ -0,0 +1,162 @@
+package uk.trigpointing.android.trigdetails;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for MapImagePrerenderer
+ */
+public class MapImagePrerendererTest {
+
+    private static final String[][] SELECTIONS = {{"OSM", "10"}, {"Satellite", "15"}};
+    private static final int IMAGE_BYTES = 1000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dir;
+    private final List<String> renders = new ArrayList<>();
+    private long failTrig = -1;
+    private int imageBytes = IMAGE_BYTES;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = tmp.newFolder("map_images");
+    }
+
+    private String render(long trigId, double lat, double lon, String mapName, int zoom, boolean replace) {
+        renders.add(trigId + "/" + mapName + "/" + zoom + (replace ? "!" : ""));
+        if (trigId == failTrig) {
+            return null;
+        }
+        File image = new File(dir, MapImagePrerenderer.fileName(trigId, mapName, zoom));
+        try {
+            Files.write(image.toPath(), new byte[imageBytes]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return image.getPath();
+    }
+
+    private MapImagePrerenderer prerenderer(long budget) {
+        return new MapImagePrerenderer(dir, SELECTIONS, budget, MapImagePrerenderer.DEFAULT_MAX_AGE_MS, this::render);
+    }
+
+    private static long[] ids(long... ids) {
+        return ids;
+    }
+
+    private static double[] coords(int n) {
+        return new double[n];
+    }
+
+    @Test
+    public void testRendersEveryImageForEachTrigOnce() throws Exception {
+        List<int[]> progress = new ArrayList<>();
+        MapImagePrerenderer.Result result = prerenderer(0)
+                .run(ids(1, 2, 1), coords(3), coords(3), (done, total, images) -> progress.add(new int[]{done, total, images}));
+
+        assertEquals(4, renders.size());
+        assertEquals("1/OSM/10", renders.get(0));
+        assertEquals("2/Satellite/15", renders.get(3));
+        assertEquals(2, result.trigsTotal);
+        assertEquals(2, result.trigsCovered);
+        assertEquals(4, result.imagesRendered);
+        assertEquals(4 * IMAGE_BYTES, result.bytesUsed);
+        assertFalse(result.budgetReached);
+        assertEquals(2, progress.size());
+        assertArrayEquals(new int[]{2, 2, 4}, progress.get(1));
+    }
+
+    @Test
+    public void testFreshImagesAreSkippedAndStaleOnesReplaced() throws Exception {
+        File fresh = new File(dir, MapImagePrerenderer.fileName(1, "OSM", 10));
+        File stale = new File(dir, MapImagePrerenderer.fileName(1, "Satellite", 15));
+        Files.write(fresh.toPath(), new byte[IMAGE_BYTES]);
+        Files.write(stale.toPath(), new byte[IMAGE_BYTES]);
+        assertTrue(stale.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(60)));
+
+        MapImagePrerenderer.Result result = prerenderer(0).run(ids(1), coords(1), coords(1), null);
+
+        assertEquals(1, renders.size());
+        assertEquals("1/Satellite/15!", renders.get(0));
+        assertEquals(1, result.trigsCovered);
+        // The replaced image doesn't count twice
+        assertEquals(2 * IMAGE_BYTES, result.bytesUsed);
+    }
+
+    @Test
+    public void testStopsRenderingAtBudgetButCountsCoverage() throws Exception {
+        imageBytes = 200_000;
+        // Trig 3 was covered on an earlier run
+        for (String[] sel : SELECTIONS) {
+            Files.write(new File(dir, MapImagePrerenderer.fileName(3, sel[0], Integer.parseInt(sel[1]))).toPath(),
+                    new byte[imageBytes]);
+        }
+        // Room for the existing two plus three more
+        long budget = 5 * imageBytes;
+
+        MapImagePrerenderer.Result result = prerenderer(budget).run(ids(1, 2, 3), coords(3), coords(3), null);
+
+        // The first render is judged on the initial estimate; after that on measured sizes
+        assertEquals(3, renders.size());
+        assertTrue(result.budgetReached);
+        assertEquals(3, result.trigsTotal);
+        assertEquals(2, result.trigsCovered);
+        assertTrue(result.bytesUsed <= budget);
+    }
+
+    @Test
+    public void testFailedRenderLeavesTrigUncovered() throws Exception {
+        failTrig = 2;
+        MapImagePrerenderer.Result result = prerenderer(0).run(ids(1, 2), coords(2), coords(2), null);
+        assertEquals(1, result.trigsCovered);
+        assertEquals(2, result.imagesRendered);
+    }
+
+    @Test
+    public void testThumbnailNames() {
+        assertEquals("trig_12_Satellite_z15.webp", MapImagePrerenderer.fileName(12, "Satellite", 15));
+        assertEquals("/cache/map_images/trig_12_Satellite_z15_thumb.webp",
+                MapImagePrerenderer.thumbnailName("/cache/map_images/trig_12_Satellite_z15.webp"));
+        // Thumbnails and old PNGs are their own thumbnails
+        assertEquals("trig_12_OSM_z7_thumb.webp", MapImagePrerenderer.thumbnailName("trig_12_OSM_z7_thumb.webp"));
+        assertEquals("trig_12_OSM_z7.png", MapImagePrerenderer.thumbnailName("trig_12_OSM_z7.png"));
+    }
+
+    @Test
+    public void testThumbnailsCountTowardsBudget() throws Exception {
+        MapImagePrerenderer.Renderer withThumbnails = (trigId, lat, lon, mapName, zoom, replace) -> {
+            String path = render(trigId, lat, lon, mapName, zoom, replace);
+            try {
+                Files.write(new File(MapImagePrerenderer.thumbnailName(path)).toPath(), new byte[IMAGE_BYTES / 4]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return path;
+        };
+        MapImagePrerenderer.Result result = new MapImagePrerenderer(dir, SELECTIONS, 0,
+                MapImagePrerenderer.DEFAULT_MAX_AGE_MS, withThumbnails).run(ids(1), coords(1), coords(1), null);
+        assertEquals(2 * (IMAGE_BYTES + IMAGE_BYTES / 4), result.bytesUsed);
+        assertEquals(result.bytesUsed, MapImagePrerenderer.directoryBytes(dir));
+    }
+
+    @Test
+    public void testTempFilesAreNotCounted() throws Exception {
+        Files.write(new File(dir, ".trig_1_OSM_z10.png.tmp").toPath(), new byte[500]);
+        Files.write(new File(dir, "trig_9_OSM_z10.png").toPath(), new byte[700]);
+        assertEquals(700, MapImagePrerenderer.directoryBytes(dir));
+    }
+}
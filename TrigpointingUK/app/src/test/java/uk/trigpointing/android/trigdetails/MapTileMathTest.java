@@ -0,0 +1,49 @@
+package uk.trigpointing.android.trigdetails;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for MapTileMath
+ */
+public class MapTileMathTest {
+
+    @Test
+    public void testWebMercatorTiles() {
+        // The equator and prime meridian are the corner of the four zoom 1 tiles
+        assertEquals(1, MapTileMath.lonToTileX(0, 1));
+        assertEquals(1, MapTileMath.latToTileY(0, 1));
+        assertEquals(0, MapTileMath.lonToTileX(-179.9, 1));
+        assertEquals(0, MapTileMath.latToTileY(60, 1));
+
+        // Helvellyn at zoom 15
+        assertEquals(16109, MapTileMath.lonToTileX(-3.0165, 15));
+        assertEquals(10439, MapTileMath.latToTileY(54.5270, 15));
+    }
+
+    @Test
+    public void testPixelsFallInTheirTiles() {
+        for (int zoom = 5; zoom <= 17; zoom += 3) {
+            double lat = 54.5270;
+            double lon = -3.0165;
+            assertEquals(MapTileMath.lonToTileX(lon, zoom),
+                    (int) Math.floor(MapTileMath.lonToPixelX(lon, zoom) / MapTileMath.TILE_SIZE));
+            assertEquals(MapTileMath.latToTileY(lat, zoom),
+                    (int) Math.floor(MapTileMath.latToPixelY(lat, zoom) / MapTileMath.TILE_SIZE));
+            assertEquals(MapTileMath.lonToTileX27700(lat, lon, zoom),
+                    (int) Math.floor(MapTileMath.lonToPixelX27700(lat, lon, zoom) / MapTileMath.TILE_SIZE));
+            assertEquals(MapTileMath.latToTileY27700(lat, lon, zoom),
+                    (int) Math.floor(MapTileMath.latToPixelY27700(lat, lon, zoom) / MapTileMath.TILE_SIZE));
+        }
+    }
+
+    @Test
+    public void testBritishNationalGridZoomIsClamped() {
+        int last = MapTileMath.OSGB_RESOLUTIONS.length - 1;
+        assertEquals(MapTileMath.lonToTileX27700(54.5, -3.0, last),
+                MapTileMath.lonToTileX27700(54.5, -3.0, last + 5));
+        assertEquals(MapTileMath.latToPixelY27700(54.5, -3.0, last),
+                MapTileMath.latToPixelY27700(54.5, -3.0, last + 5), 0);
+    }
+}
@@ -0,0 +1,129 @@
+package uk.trigpointing.android.types;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for Geodesy
+ */
+public class GeodesyTest {
+
+    @Test
+    public void testWgs84ToOsgbKnownPoint() {
+        double[] en = new double[2];
+        // Near Helvellyn summit
+        Geodesy.wgs84ToOsgb(54.5270, -3.0165, en);
+        assertEquals(334_310, en[0], 1);
+        assertEquals(515_110, en[1], 1);
+        assertEquals("NY343151", Geodesy.gridRef6(en[0], en[1]));
+    }
+
+    @Test
+    public void testRoundTripWithinAMetre() {
+        double[] en = new double[2];
+        double[] latLon = new double[2];
+        for (double lat = 50; lat <= 60; lat += 0.5) {
+            for (double lon = -7; lon <= 1.5; lon += 0.5) {
+                Geodesy.wgs84ToOsgb(lat, lon, en);
+                Geodesy.osgbToWgs84(en[0], en[1], latLon);
+                // Within about a metre, allowing for the Helmert transformation not being exactly reversible
+                assertEquals(lat, latLon[0], 1e-5);
+                assertEquals(lon, latLon[1], 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesLatLon() {
+        LatLon latLon = new LatLon(51.5007, -0.1246);
+        double[] en = new double[2];
+        Geodesy.wgs84ToOsgb(51.5007, -0.1246, en);
+        assertEquals((long) latLon.getEastings(), (long) en[0]);
+        assertEquals((long) latLon.getNorthings(), (long) en[1]);
+        assertEquals(latLon.getOSGB10(), Geodesy.gridRef10(en[0], en[1]));
+        assertEquals(latLon.getOSGB6(), Geodesy.gridRef6(en[0], en[1]));
+    }
+
+    @Test
+    public void testGridRefFormatting() {
+        assertEquals("NY 34100 15100", Geodesy.gridRef10(334100, 515100));
+        assertEquals("NY341151", Geodesy.gridRef6(334100, 515100));
+        assertEquals("SV 00000 00000", Geodesy.gridRef10(0, 0));
+        assertEquals("TQ 30042 79947", Geodesy.gridRef10(530042.4, 179947.6));
+        assertEquals("HP 61234 17890", Geodesy.gridRef10(461234, 1217890));
+    }
+
+    @Test
+    public void testParseGridRef() {
+        long[] en = new long[2];
+        Geodesy.parseGridRef("NY341151", en);
+        assertEquals(334100, en[0]);
+        assertEquals(515100, en[1]);
+        Geodesy.parseGridRef("ny 3410 1510", en);
+        assertEquals(334100, en[0]);
+        assertEquals(515100, en[1]);
+        Geodesy.parseGridRef("TQ 30042 79947", en);
+        assertEquals(530042, en[0]);
+        assertEquals(179947, en[1]);
+    }
+
+    @Test
+    public void testParseRejectsInvalidGridRefs() {
+        long[] en = new long[2];
+        for (String invalid : new String[] {"", "NY", "NY3415", "NY34115", "IA341151", "N1341151", "NY34x151"}) {
+            try {
+                Geodesy.parseGridRef(invalid, en);
+                fail("Parsed " + invalid);
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testDistances() {
+        // London to Edinburgh
+        double haversine = Geodesy.haversineDistance(51.5074, -0.1278, 55.9533, -3.1883, Geodesy.EARTH_RADIUS_KM);
+        assertEquals(534, haversine, 2);
+        assertEquals(0, Geodesy.haversineDistance(54.5, -3, 54.5, -3, Geodesy.EARTH_RADIUS_KM), 1e-12);
+        // The flat approximation agrees closely over a few kilometres
+        double near = Geodesy.haversineDistance(54.5, -3, 54.52, -3.03, Geodesy.EARTH_RADIUS_M);
+        assertEquals(near, Geodesy.equirectangularDistance(54.5, -3, 54.52, -3.03, Geodesy.EARTH_RADIUS_M), 0.01);
+    }
+
+    @Test
+    public void testEllipsoidalDistanceAndBearing() {
+        double[] results = new double[2];
+        // One degree of latitude at 53N is about 111.3 km
+        Geodesy.ellipsoidalDistanceAndBearing(53.0, -1.0, 54.0, -1.0, results);
+        assertEquals(111_315, results[0], 100);
+        assertEquals(0, results[1], 0.01);
+
+        Geodesy.ellipsoidalDistanceAndBearing(53.0, -1.0, 53.0, 0.0, results);
+        assertEquals(67_137, results[0], 100);
+        assertEquals(90, results[1], 0.5);
+
+        Geodesy.ellipsoidalDistanceAndBearing(53.0, -1.0, 52.0, -1.0, results);
+        assertEquals(180, Math.abs(results[1]), 0.01);
+
+        Geodesy.ellipsoidalDistanceAndBearing(53.0, -1.0, 53.0, -1.0, results);
+        assertEquals(0, results[0], 0);
+
+        // Within half a percent of the sphere
+        Geodesy.ellipsoidalDistanceAndBearing(51.5074, -0.1278, 55.9533, -3.1883, results);
+        double sphere = Geodesy.haversineDistance(51.5074, -0.1278, 55.9533, -3.1883, Geodesy.EARTH_RADIUS_M);
+        assertEquals(sphere, results[0], sphere * 0.005);
+        assertEquals(Geodesy.initialBearing(51.5074, -0.1278, 55.9533, -3.1883), results[1], 0.5);
+    }
+
+    @Test
+    public void testBearings() {
+        assertEquals(0, Geodesy.initialBearing(54, -3, 55, -3), 1e-9);
+        assertEquals(180, Math.abs(Geodesy.initialBearing(55, -3, 54, -3)), 1e-9);
+        assertEquals(90, Geodesy.initialBearing(0, 0, 0, 1), 1e-9);
+        assertEquals(-90, Geodesy.initialBearing(0, 1, 0, 0), 1e-9);
+        assertEquals(270, Geodesy.normaliseBearing(-90), 1e-9);
+        assertEquals(90, Geodesy.normaliseBearing(90), 1e-9);
+    }
+}
@@ -0,0 +1,72 @@
+package uk.trigpointing.android.types;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Unit tests for OsgbBatch
+ */
+public class OsgbBatchTest {
+
+    private static double[][] randomPositions(int count) {
+        Random random = new Random(42);
+        double[] lats = new double[count];
+        double[] lons = new double[count];
+        for (int i = 0; i < count; i++) {
+            lats[i] = 50 + random.nextDouble() * 8.5;
+            lons[i] = -5.5 + random.nextDouble() * 7;
+        }
+        return new double[][] {lats, lons};
+    }
+
+    @Test
+    public void testMatchesLatLon() {
+        double[][] positions = randomPositions(200);
+        OsgbBatch batch = OsgbBatch.convert(positions[0], positions[1], 1);
+        assertEquals(200, batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            LatLon latLon = new LatLon(positions[0][i], positions[1][i]);
+            assertEquals((long) latLon.getEastings(), batch.getEastings(i));
+            assertEquals((long) latLon.getNorthings(), batch.getNorthings(i));
+            assertEquals(latLon.getOSGB10(), batch.getGridRef(i));
+        }
+    }
+
+    @Test
+    public void testThreadCountsAgree() {
+        // Not a whole number of chunks, so the last one is short
+        int count = OsgbBatch.CHUNK_SIZE * 5 + 37;
+        double[][] positions = randomPositions(count);
+        OsgbBatch single = OsgbBatch.convert(positions[0], positions[1], 1);
+        for (int threads : new int[] {2, 3, 8}) {
+            OsgbBatch parallel = OsgbBatch.convert(positions[0], positions[1], threads);
+            assertEquals(count, parallel.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(single.getEastings(i), parallel.getEastings(i));
+                assertEquals(single.getNorthings(i), parallel.getNorthings(i));
+                assertEquals(single.getGridRef(i), parallel.getGridRef(i));
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyAndSingle() {
+        assertEquals(0, OsgbBatch.convert(new double[0], new double[0], 4).size());
+        OsgbBatch batch = OsgbBatch.convert(new double[] {54.5270}, new double[] {-3.0165});
+        assertEquals(1, batch.size());
+        assertEquals("NY 34310 15110", batch.getGridRef(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatchedArrays() {
+        OsgbBatch.convert(new double[2], new double[3], 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoThreads() {
+        OsgbBatch.convert(new double[2], new double[2], 0);
+    }
+}
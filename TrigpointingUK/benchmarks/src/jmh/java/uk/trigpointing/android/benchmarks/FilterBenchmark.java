@@ -0,0 +1,46 @@
+package uk.trigpointing.android.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import uk.trigpointing.android.filter.Filter;
+
+/**
+ * The list and map filters, fetched for every trig query: their compiled SQL and bind arguments,
+ * and their predicate over trigs in memory.
+ */
+@State(Scope.Thread)
+public class FilterBenchmark {
+
+    /** filterAll, filterLogged, filterNotLogged, filterMarked, filterUnsynced */
+    @Param({"0", "1", "2", "3", "4"})
+    public int radio;
+
+    /** Pillars, all types, passives */
+    @Param({"0", "3", "6"})
+    public int type;
+
+    private final int packed = Filter.pack("FB", "-", true, false);
+
+    /** What queries do: fetch the compiled filter, its bound condition and its arguments */
+    @Benchmark
+    public void compiledWhere(Blackhole blackhole) {
+        Filter filter = Filter.of(radio, type);
+        List<String> args = new ArrayList<>(5);
+        blackhole.consume(filter.where("AND"));
+        filter.addArgs(args);
+        blackhole.consume(args);
+    }
+
+    /** Checking a trig already in memory */
+    @Benchmark
+    public boolean predicate() {
+        return Filter.of(radio, type).asPredicate().test(packed);
+    }
+}
@@ -0,0 +1,139 @@
+package uk.trigpointing.android.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+import uk.trigpointing.android.types.Geodesy;
+import uk.trigpointing.android.types.LatLon;
+
+/**
+ * Compares the boxed LatLon API with the primitive Geodesy calls it delegates to, over a fixed
+ * set of points spread across Great Britain.
+ */
+@State(Scope.Thread)
+public class GeodesyBenchmark {
+
+    private static final int POINTS = 1024;
+
+    private final double[] lats = new double[POINTS];
+    private final double[] lons = new double[POINTS];
+    private final double[] eastings = new double[POINTS];
+    private final double[] northings = new double[POINTS];
+    private final String[] gridRefs = new String[POINTS];
+    private final double[] en = new double[2];
+    private final long[] parsed = new long[2];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < POINTS; i++) {
+            lats[i] = 50 + random.nextDouble() * 8.5;
+            lons[i] = -5.5 + random.nextDouble() * 7;
+            Geodesy.wgs84ToOsgb(lats[i], lons[i], en);
+            eastings[i] = en[0];
+            northings[i] = en[1];
+            gridRefs[i] = Geodesy.gridRef10(en[0], en[1]);
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (POINTS - 1);
+        return next;
+    }
+
+    @Benchmark
+    public void latLonToOsgb(Blackhole bh) {
+        int i = nextIndex();
+        LatLon latLon = new LatLon(lats[i], lons[i]);
+        bh.consume(latLon.getEastings());
+        bh.consume(latLon.getNorthings());
+    }
+
+    @Benchmark
+    public void geodesyToOsgb(Blackhole bh) {
+        int i = nextIndex();
+        Geodesy.wgs84ToOsgb(lats[i], lons[i], en);
+        bh.consume(en[0]);
+        bh.consume(en[1]);
+    }
+
+    @Benchmark
+    public void latLonFromOsgb(Blackhole bh) {
+        int i = nextIndex();
+        LatLon latLon = new LatLon((long) eastings[i], (long) northings[i]);
+        bh.consume(latLon.getLat());
+    }
+
+    @Benchmark
+    public void geodesyFromOsgb(Blackhole bh) {
+        int i = nextIndex();
+        Geodesy.osgbToWgs84(eastings[i], northings[i], en);
+        bh.consume(en[0]);
+        bh.consume(en[1]);
+    }
+
+    @Benchmark
+    public String latLonGridRef10() {
+        int i = nextIndex();
+        return new LatLon(lats[i], lons[i]).getOSGB10();
+    }
+
+    @Benchmark
+    public String geodesyGridRef10() {
+        int i = nextIndex();
+        return Geodesy.gridRef10(eastings[i], northings[i]);
+    }
+
+    @Benchmark
+    public LatLon latLonParseGridRef() {
+        return new LatLon(gridRefs[nextIndex()]);
+    }
+
+    @Benchmark
+    public long geodesyParseGridRef() {
+        Geodesy.parseGridRef(gridRefs[nextIndex()], parsed);
+        return parsed[0] + parsed[1];
+    }
+
+    @Benchmark
+    public Double latLonDistance() {
+        int i = nextIndex();
+        int j = (i + 1) & (POINTS - 1);
+        return new LatLon(lats[i], lons[i]).distanceTo(lats[j], lons[j], LatLon.UNITS.KM);
+    }
+
+    @Benchmark
+    public double geodesyHaversine() {
+        int i = nextIndex();
+        int j = (i + 1) & (POINTS - 1);
+        return Geodesy.haversineDistance(lats[i], lons[i], lats[j], lons[j], Geodesy.EARTH_RADIUS_KM);
+    }
+
+    @Benchmark
+    public double geodesyEquirectangular() {
+        int i = nextIndex();
+        int j = (i + 1) & (POINTS - 1);
+        return Geodesy.equirectangularDistance(lats[i], lons[i], lats[j], lons[j], Geodesy.EARTH_RADIUS_KM);
+    }
+
+    @Benchmark
+    public double geodesyEllipsoidal() {
+        int i = nextIndex();
+        int j = (i + 1) & (POINTS - 1);
+        Geodesy.ellipsoidalDistanceAndBearing(lats[i], lons[i], lats[j], lons[j], en);
+        return en[0] + en[1];
+    }
+
+    @Benchmark
+    public double geodesyBearing() {
+        int i = nextIndex();
+        int j = (i + 1) & (POINTS - 1);
+        return Geodesy.initialBearing(lats[i], lons[i], lats[j], lons[j]);
+    }
+}
@@ -0,0 +1,88 @@
+package uk.trigpointing.android.benchmarks;
+
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import uk.trigpointing.android.api.TrigApiClient;
+import uk.trigpointing.android.api.TrigApiClient.TrigExportResponse;
+import uk.trigpointing.android.api.TrigApiClient.UserLogPage;
+
+/**
+ * Parsing the trig export downloaded at first run, and a page of the user's logs fetched when
+ * syncing, from synthetic responses shaped like the API's.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GsonParsingBenchmark {
+
+    @Param({"25000"})
+    public int trigs;
+
+    @Param({"100"})
+    public int logs;
+
+    private final Gson gson = TrigApiClient.createGson();
+    private String exportJson;
+    private String logPageJson;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        StringBuilder json = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < trigs; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.ROOT,
+                    "{\"id\":%d,\"waypoint\":\"TP%04d\",\"name\":\"Trig %d\",\"condition\":\"G\","
+                            + "\"type_code\":\"PI\",\"type_name\":\"Pillar\",\"category_code\":\"PI\","
+                            + "\"category_name\":\"Pillar\",\"current_use\":\"Passive station\","
+                            + "\"historic_use\":\"Primary\",\"fb_number\":\"S%04d\","
+                            + "\"wgs_lat\":%.6f,\"wgs_long\":%.6f,\"osgb_gridref\":\"NY 34100 15100\"}",
+                    i, i, i, i, 50 + random.nextDouble() * 8.5, -5.5 + random.nextDouble() * 7));
+        }
+        json.append("],\"total\":").append(trigs)
+                .append(",\"generated_at\":\"2025-01-01T00:00:00Z\",\"cache_info\":\"hit\"}");
+        exportJson = json.toString();
+
+        json = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < logs; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.ROOT,
+                    "{\"id\":%d,\"trig_id\":%d,\"user_id\":42,\"date\":\"2024-05-%02d\",\"time\":\"12:34:00\","
+                            + "\"osgb_eastings\":334100,\"osgb_northings\":515100,"
+                            + "\"osgb_gridref\":\"NY 34100 15100\",\"fb_number\":\"\",\"condition\":\"G\","
+                            + "\"comment\":\"A fine day on the fell, pillar in good order.\",\"score\":7}",
+                    1000 + i, random.nextInt(25000), 1 + i % 28));
+        }
+        json.append("],\"pagination\":{\"total\":1000,\"limit\":").append(logs)
+                .append(",\"offset\":0,\"has_more\":true},\"links\":{\"self\":\"/v1/users/42/logs\","
+                        + "\"next\":\"/v1/users/42/logs?skip=100\"}}");
+        logPageJson = json.toString();
+    }
+
+    @Benchmark
+    public TrigExportResponse trigExport() {
+        return gson.fromJson(exportJson, TrigExportResponse.class);
+    }
+
+    @Benchmark
+    public UserLogPage userLogPage() {
+        return TrigApiClient.parseUserLogPage(gson, logPageJson);
+    }
+}
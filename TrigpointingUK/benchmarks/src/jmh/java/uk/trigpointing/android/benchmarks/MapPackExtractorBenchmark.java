@@ -0,0 +1,97 @@
+package uk.trigpointing.android.benchmarks;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import uk.trigpointing.android.mapping.MapPackExtractor;
+
+/**
+ * Extracting a slice of a z13 map pack, many small tiles over many columns, with one writer and
+ * with the number the app uses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MapPackExtractorBenchmark {
+
+    @Param({"100"})
+    public int columns;
+
+    @Param({"1", "0"})
+    public int writers;
+
+    private File work;
+    private File archive;
+    private File dest;
+
+    @Setup
+    public void setUp() throws IOException {
+        work = Files.createTempDirectory("mappack").toFile();
+        archive = new File(work, "pack.tgz");
+        Random random = new Random(7);
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(archive));
+             TarArchiveOutputStream tar = new TarArchiveOutputStream(out)) {
+            for (int x = 0; x < columns; x++) {
+                for (int y = 0; y < 100; y++) {
+                    byte[] data = new byte[8 * 1024 + (x * 31 + y) % 97];
+                    random.nextBytes(data);
+                    TarArchiveEntry entry = new TarArchiveEntry("map_tiles/tile.openstreetmap.org/13/" + x + "/" + y + ".png");
+                    entry.setSize(data.length);
+                    tar.putArchiveEntry(entry);
+                    tar.write(data);
+                    tar.closeArchiveEntry();
+                }
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void newDest() throws IOException {
+        dest = Files.createTempDirectory(work.toPath(), "cache").toFile();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteDest() throws IOException {
+        delete(dest.toPath());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        delete(work.toPath());
+    }
+
+    private static void delete(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /** 0 writers means the app's default */
+    @Benchmark
+    public int extract() throws IOException {
+        int threads = writers > 0 ? writers : MapPackExtractor.defaultWriterThreads();
+        return MapPackExtractor.extract(archive, "tgz", dest, threads, null);
+    }
+}
@@ -0,0 +1,59 @@
+package uk.trigpointing.android.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+import uk.trigpointing.android.trigdetails.MapTileMath;
+
+/**
+ * Tile and pixel positions for the trig details map images, on Web Mercator and British National
+ * Grid tile sets.
+ */
+@State(Scope.Thread)
+public class MapTileMathBenchmark {
+
+    private static final int POINTS = 1024;
+    private static final int ZOOM = 15;
+    private static final int OSGB_ZOOM = 9;
+
+    private final double[] lats = new double[POINTS];
+    private final double[] lons = new double[POINTS];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < POINTS; i++) {
+            lats[i] = 50 + random.nextDouble() * 8.5;
+            lons[i] = -5.5 + random.nextDouble() * 7;
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (POINTS - 1);
+        return next;
+    }
+
+    @Benchmark
+    public void webMercator(Blackhole bh) {
+        int i = nextIndex();
+        bh.consume(MapTileMath.lonToTileX(lons[i], ZOOM));
+        bh.consume(MapTileMath.latToTileY(lats[i], ZOOM));
+        bh.consume(MapTileMath.lonToPixelX(lons[i], ZOOM));
+        bh.consume(MapTileMath.latToPixelY(lats[i], ZOOM));
+    }
+
+    @Benchmark
+    public void britishNationalGrid(Blackhole bh) {
+        int i = nextIndex();
+        bh.consume(MapTileMath.lonToTileX27700(lats[i], lons[i], OSGB_ZOOM));
+        bh.consume(MapTileMath.latToTileY27700(lats[i], lons[i], OSGB_ZOOM));
+        bh.consume(MapTileMath.lonToPixelX27700(lats[i], lons[i], OSGB_ZOOM));
+        bh.consume(MapTileMath.latToPixelY27700(lats[i], lons[i], OSGB_ZOOM));
+    }
+}
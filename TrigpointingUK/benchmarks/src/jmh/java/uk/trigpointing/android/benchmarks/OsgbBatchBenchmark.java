@@ -0,0 +1,50 @@
+package uk.trigpointing.android.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import uk.trigpointing.android.types.OsgbBatch;
+
+/**
+ * Import time conversion of a whole trig table, about the size of the live one, to OSGB across
+ * different numbers of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OsgbBatchBenchmark {
+
+    @Param({"25000"})
+    public int trigs;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private double[] lats;
+    private double[] lons;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        lats = new double[trigs];
+        lons = new double[trigs];
+        for (int i = 0; i < trigs; i++) {
+            lats[i] = 50 + random.nextDouble() * 8.5;
+            lons[i] = -5.5 + random.nextDouble() * 7;
+        }
+    }
+
+    @Benchmark
+    public OsgbBatch convert() {
+        return OsgbBatch.convert(lats, lons, threads);
+    }
+}
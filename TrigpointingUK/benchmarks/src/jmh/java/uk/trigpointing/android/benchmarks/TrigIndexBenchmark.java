@@ -0,0 +1,108 @@
+package uk.trigpointing.android.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import uk.trigpointing.android.filter.Filter;
+import uk.trigpointing.android.index.TrigIndex;
+import uk.trigpointing.android.mapping.BoundingBox;
+
+/**
+ * The map, nearest list and AR queries against the trigs in memory, and building the index they
+ * query. DbHelperPerformanceTest times the same queries in SQLite, the way they went before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrigIndexBenchmark {
+
+    private static final String[] TYPES = {"PI", "PI", "FB", "IN", "PA", "BO", "CT"};
+    // The county-sized map view, and a point in it
+    private static final BoundingBox COUNTY = new BoundingBox(55.2, -2.2, 54.0, -3.7);
+    private static final double LAT = 54.6013;
+    private static final double LON = -3.1347;
+
+    @Param({"25000"})
+    public int trigs;
+
+    /** All trigs, and pillars not yet logged */
+    @Param({"0,6", "2,0"})
+    public String filter;
+
+    private TrigIndex index;
+    private Filter compiled;
+    private double[] lats;
+    private double[] lons;
+
+    @Setup
+    public void setUp() {
+        // Spread over Britain, with a tenth logged on the website, a few logs and marks over them
+        Random random = new Random(1);
+        lats = new double[trigs];
+        lons = new double[trigs];
+        for (int i = 0; i < trigs; i++) {
+            lats[i] = 49.9 + random.nextDouble() * 8.8;
+            lons[i] = -6.4 + random.nextDouble() * 8.2;
+        }
+        Map<Long, String> logs = new HashMap<>();
+        List<Long> marks = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            logs.put((long) 1 + random.nextInt(trigs), "G");
+            marks.add((long) 1 + random.nextInt(trigs));
+        }
+        index = build().withOverlays(logs, marks);
+        String[] settings = filter.split(",");
+        compiled = Filter.of(Integer.parseInt(settings[0]), Integer.parseInt(settings[1]));
+    }
+
+    private TrigIndex build() {
+        TrigIndex.Builder builder = new TrigIndex.Builder(trigs);
+        for (int i = 0; i < trigs; i++) {
+            builder.add(i + 1, "Trig " + i, lats[i], lons[i], TYPES[i % TYPES.length], "G", i % 10 == 0 ? "G" : "-");
+        }
+        return builder.build();
+    }
+
+    /** Once after every import or sync, as DbHelper reads it */
+    @Benchmark
+    public TrigIndex buildIndex() {
+        return build();
+    }
+
+    /** The map's marker count */
+    @Benchmark
+    public int count() {
+        return index.count(COUNTY, compiled);
+    }
+
+    /** The map's markers */
+    @Benchmark
+    public int[] inBoxNearestCentre() {
+        return index.inBoxNearestCentre(COUNTY, compiled, 500);
+    }
+
+    /** A page of the nearest list */
+    @Benchmark
+    public int[] nearest() {
+        return index.nearest(LAT, LON, 100, compiled);
+    }
+
+    /** The AR view's candidates */
+    @Benchmark
+    public int[] withinRadius() {
+        return index.withinRadius(LAT, LON, 5_250, compiled);
+    }
+}
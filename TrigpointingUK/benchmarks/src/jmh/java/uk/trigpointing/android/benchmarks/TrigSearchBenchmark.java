@@ -0,0 +1,77 @@
+package uk.trigpointing.android.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import uk.trigpointing.android.search.TrigSearch;
+
+/**
+ * The Java side of a trig search, which runs on every keystroke: planning the full-text queries,
+ * including correcting misspelt words against the name vocabulary, and ranking what they find.
+ * The queries themselves are timed against SQLite by DbHelperPerformanceTest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrigSearchBenchmark {
+
+    private static final String[] ONSETS = {"b", "c", "d", "f", "g", "h", "k", "l", "m", "n", "p", "r", "s", "t",
+            "w", "br", "cr", "gl", "st", "th"};
+    private static final String[] VOWELS = {"a", "e", "i", "o", "u", "ae", "ow", "ee"};
+
+    @Param({"25000"})
+    public int trigs;
+
+    /** Words that start names, a misspelling to correct, a waypoint and a grid reference */
+    @Param({"Kinder Low", "Knider Lwo", "TP1234", "SK 079 870"})
+    public String text;
+
+    private TrigSearch search;
+    private TrigSearch.Query query;
+
+    @Setup
+    public void setUp() {
+        // A vocabulary of made-up words about the size of the real one, and the words searched
+        Random random = new Random(1);
+        List<String> names = new ArrayList<>(trigs);
+        names.add("Kinder Low");
+        while (names.size() < trigs) {
+            names.add(word(random) + " " + word(random));
+        }
+        search = TrigSearch.fromNames(names);
+        query = search.query(text);
+    }
+
+    private static String word(Random random) {
+        StringBuilder word = new StringBuilder();
+        int syllables = 1 + random.nextInt(3);
+        for (int i = 0; i < syllables; i++) {
+            word.append(ONSETS[random.nextInt(ONSETS.length)]).append(VOWELS[random.nextInt(VOWELS.length)]);
+        }
+        if (random.nextBoolean()) {
+            word.append(ONSETS[random.nextInt(14)]);
+        }
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    @Benchmark
+    public List<String> plan() {
+        return search.query(text).matchExpressions();
+    }
+
+    @Benchmark
+    public int relevance() {
+        return query.relevance("Kinder Low", "TP1234", "SK 07912 87047");
+    }
+}